@@ -1,59 +1,414 @@
 package blockchain;
 
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serial;
 import java.io.Serializable;
-import java.security.MessageDigest;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Objects;
 
 /**
  * Initializes a new block in the blockchain.
- *
+ * <p>
+ * Hashes are kept as raw 32-byte digests in a single array and only rendered as hexadecimal when read as text, and
+ * transactions are packed in a {@link TransactionList}. A hash that is not 64 lower case hexadecimal characters, such
+ * as the previous hash of a genesis block, is kept as given instead. The serialized form is unchanged: hashes are
+ * written as hexadecimal text and transactions as a list of strings.
  */
 public class Block implements Serializable {
     /** Serializable version UID for compatibility during serialization. */
     @Serial
     private static final long serialVersionUID = 1L;
-    /** The The hash of the block. */
-    private String hash;
-    /** The hash of the previous block in the blockchain. */
-    private final String previousHash;
+    /** Header version hashing the previous hash, the transaction list and the decimal nonce as text. */
+    public static final int LEGACY_VERSION = 1;
+    /** Header version hashing a fixed-size header: previous hash, Merkle root, timestamp and nonce. */
+    public static final int MERKLE_VERSION = 2;
+    /** Offset of the hash of the block in {@link #digests}. */
+    private static final int HASH = 0;
+    /** Offset of the hash of the previous block in {@link #digests}. */
+    private static final int PREVIOUS_HASH = MiningKernel.DIGEST_LENGTH;
+    /** Offset of the Merkle root in {@link #digests}. */
+    private static final int MERKLE_ROOT = 2 * MiningKernel.DIGEST_LENGTH;
+    /** Flag of a stored block whose hash is kept as text. */
+    private static final int STORED_IRREGULAR_HASH = 1;
+    /** Flag of a stored block whose previous hash is kept as text. */
+    private static final int STORED_IRREGULAR_PREVIOUS_HASH = 2;
+    /** Flag of a stored block whose body is pruned. */
+    private static final int STORED_PRUNED = 4;
+    /** The fields of the serialized form, those of the blocks that kept their hashes as text. */
+    @Serial
+    private static final ObjectStreamField[] serialPersistentFields = {
+            new ObjectStreamField("hash", String.class),
+            new ObjectStreamField("previousHash", String.class),
+            new ObjectStreamField("timestamp", long.class),
+            new ObjectStreamField("transactions", List.class),
+            new ObjectStreamField("nonce", int.class),
+            new ObjectStreamField("version", int.class),
+            new ObjectStreamField("merkleRoot", String.class)
+    };
+
+    /** The hash of the block, the hash of the previous block and, for Merkle blocks, the Merkle root, raw. */
+    private byte[] digests;
+    /** The hash of the block as given, when it is not a lower case hexadecimal SHA-256 hash, or null. */
+    private String irregularHash;
+    /** The hash of the previous block as given, when it is not a lower case hexadecimal SHA-256 hash, or null. */
+    private String irregularPreviousHash;
     /** The timestamp of when the block was created. */
-    private final long timestamp;
-    /** The list of transactions included in the block. */
-    private final List<String> transactions;
+    private long timestamp;
+    /** The transactions included in the block, or null once its body is pruned. */
+    private TransactionList transactions;
     /** The nonce value used in mining the block. */
     private int nonce;
+    /** The header version, zero for blocks serialized before versions were introduced. */
+    private int version;
 
     /**
-     * Constructor to create a new block.
+     * Constructor to create a new block with a {@link #LEGACY_VERSION legacy} header.
      *
      * @param previousHash The hash of the previous block in the blockchain.
      * @param timestamp    The timestamp of when the block was created.
      * @param transactions The list of transactions included in the block.
      */
     public Block(String previousHash, long timestamp, List<String> transactions) {
-        //this.index = index;
-        this.previousHash = previousHash;
+        this(LEGACY_VERSION, previousHash, timestamp, transactions);
+    }
+
+    /**
+     * Constructor to create a new block with the given header version.
+     * <p>
+     * For {@link #MERKLE_VERSION} blocks the Merkle root of the transactions is computed once here, so the cost of
+     * every later hash is independent of the number of transactions.
+     *
+     * @param version      The header version, {@link #LEGACY_VERSION} or {@link #MERKLE_VERSION}.
+     * @param previousHash The hash of the previous block in the blockchain, 64 hexadecimal characters for
+     *                     {@link #MERKLE_VERSION} blocks.
+     * @param timestamp    The timestamp of when the block was created.
+     * @param transactions The list of transactions included in the block.
+     * @throws IllegalArgumentException If the version is unknown, the previous hash cannot be encoded in the header, or
+     *                                  a transaction of a {@link #MERKLE_VERSION} block is null.
+     * @throws NullPointerException     If the previous hash is null.
+     */
+    public Block(int version, String previousHash, long timestamp, List<String> transactions) {
+        Objects.requireNonNull(previousHash, "previousHash");
+        if (version != LEGACY_VERSION && version != MERKLE_VERSION) {
+            throw new IllegalArgumentException("Unknown block version: " + version);
+        }
+        if (version == MERKLE_VERSION && MiningKernel.fromHex(previousHash).length != MiningKernel.DIGEST_LENGTH) {
+            throw new IllegalArgumentException("Previous hash is not a SHA-256 hash: " + previousHash);
+        }
+        this.version = version;
+        this.digests = new byte[version == MERKLE_VERSION ? 3 * MiningKernel.DIGEST_LENGTH : MERKLE_ROOT];
+        this.irregularPreviousHash = setDigest(PREVIOUS_HASH, previousHash);
         this.timestamp = timestamp;
-        this.transactions = transactions;
+        this.transactions = TransactionList.of(transactions);
+        if (version == MERKLE_VERSION) {
+            System.arraycopy(MerkleTree.root(transactions), 0, digests, MERKLE_ROOT, MiningKernel.DIGEST_LENGTH);
+        }
         this.nonce = 0;
-        this.hash = calculateHash();
+        setHash(newKernel().hash(nonce));
+    }
+
+    /**
+     * Creates an empty block, filled by {@link #load(ByteBuffer, boolean)}.
+     */
+    private Block() {
+    }
+
+    /**
+     * Copies the header of a block without its transactions.
+     *
+     * @param block The block whose header is copied.
+     */
+    private Block(Block block) {
+        this.version = block.version;
+        this.digests = block.digests.clone();
+        this.irregularHash = block.irregularHash;
+        this.irregularPreviousHash = block.irregularPreviousHash;
+        this.timestamp = block.timestamp;
+        this.transactions = null;
+        this.nonce = block.nonce;
+    }
+
+    /**
+     * Reassembles a block from the fields read by {@link BlockCodec}.
+     *
+     * @param version               The header version.
+     * @param digests               The raw hash, previous hash and, for Merkle blocks, Merkle root.
+     * @param irregularHash         The hash kept as text, or null if it is in the digests.
+     * @param irregularPreviousHash The previous hash kept as text, or null if it is in the digests.
+     * @param timestamp             The timestamp.
+     * @param transactions          The transactions, or null for a pruned block.
+     * @param nonce                 The nonce.
+     */
+    Block(int version, byte[] digests, String irregularHash, String irregularPreviousHash, long timestamp,
+          TransactionList transactions, int nonce) {
+        this.version = version;
+        this.digests = digests;
+        this.irregularHash = irregularHash;
+        this.irregularPreviousHash = irregularPreviousHash;
+        this.timestamp = timestamp;
+        this.transactions = transactions;
+        this.nonce = nonce;
+    }
+
+    /**
+     * Stores a hash in {@link #digests} if it is a lower case hexadecimal SHA-256 hash.
+     *
+     * @param offset The offset of the hash in the digests.
+     * @param hash   The hash.
+     * @return Null if the hash was stored, or the hash itself if it must be kept as text.
+     */
+    private String setDigest(int offset, String hash) {
+        if (hash == null || hash.length() != 2 * MiningKernel.DIGEST_LENGTH) {
+            return hash;
+        }
+        for (int i = 0; i < hash.length(); i++) {
+            char c = hash.charAt(i);
+            if ((c < '0' || c > '9') && (c < 'a' || c > 'f')) {
+                return hash;
+            }
+        }
+        System.arraycopy(MiningKernel.fromHex(hash), 0, digests, offset, MiningKernel.DIGEST_LENGTH);
+        return null;
+    }
+
+    /**
+     * Records the hash of the block.
+     *
+     * @param hash The hash.
+     */
+    private void setHash(String hash) {
+        irregularHash = setDigest(HASH, hash);
+    }
+
+    /**
+     * Records the hash of the block from its raw digest.
+     *
+     * @param digest The SHA-256 digest of the block.
+     */
+    private void setHash(byte[] digest) {
+        System.arraycopy(digest, 0, digests, HASH, MiningKernel.DIGEST_LENGTH);
+        irregularHash = null;
+    }
+
+    /**
+     * Renders a digest stored in {@link #digests} as hexadecimal.
+     *
+     * @param offset The offset of the digest.
+     * @return The 64 lower case hexadecimal characters of the digest.
+     */
+    private String hex(int offset) {
+        return MiningKernel.toHex(digests, offset, MiningKernel.DIGEST_LENGTH);
+    }
+
+    /**
+     * Creates a copy of this block that keeps only its header: hash, previous hash, timestamp, nonce, version and
+     * Merkle root. The transactions are committed to by the Merkle root, or by the hash itself for legacy blocks,
+     * but can no longer be read, so a pruned block never passes validation again.
+     *
+     * @return The header-only block, or this block if it is already pruned.
+     */
+    Block withoutBody() {
+        return isPruned() ? this : new Block(this);
+    }
+
+    /**
+     * Checks whether the transactions of this block were dropped to save memory.
+     *
+     * @return True for a header-only block.
+     */
+    public boolean isPruned() {
+        return transactions == null;
+    }
+
+    /**
+     * Gives {@link BlockCodec} the raw hash, previous hash and Merkle root of the block, which it must not modify.
+     *
+     * @return The digests, 64 bytes long, or 96 for Merkle blocks.
+     */
+    byte[] rawDigests() {
+        return digests;
+    }
+
+    /**
+     * Retrieves the hash of the block when it is kept as text.
+     *
+     * @return The hash, or null if it is a raw digest.
+     */
+    String irregularHash() {
+        return irregularHash;
+    }
+
+    /**
+     * Retrieves the hash of the previous block when it is kept as text.
+     *
+     * @return The previous hash, or null if it is a raw digest.
+     */
+    String irregularPreviousHash() {
+        return irregularPreviousHash;
+    }
+
+    /**
+     * Retrieves the packed transactions of the block.
+     *
+     * @return The transactions, or null if the block is pruned.
+     */
+    TransactionList packedTransactions() {
+        return transactions;
+    }
+
+    /**
+     * Computes the number of bytes {@link #store(ByteBuffer)} writes for this block.
+     *
+     * @return The length of the stored block.
+     */
+    int storedLength() {
+        return 2 * Integer.BYTES + Long.BYTES + 1 + digests.length + textLength(irregularHash)
+                + textLength(irregularPreviousHash) + (isPruned() ? 0 : transactions.storedLength());
+    }
+
+    /**
+     * Writes the block in the compact layout of a {@link BlockArena}: version, nonce, timestamp, a flag byte telling
+     * which hashes are kept as text and whether the body is pruned, the raw digests, the hashes kept as text, if any,
+     * and the packed transactions, unless pruned.
+     *
+     * @param out The buffer to write to, with at least {@link #storedLength()} bytes remaining.
+     */
+    void store(ByteBuffer out) {
+        out.putInt(version).putInt(nonce).putLong(timestamp);
+        out.put((byte) ((irregularHash == null ? 0 : STORED_IRREGULAR_HASH)
+                | (irregularPreviousHash == null ? 0 : STORED_IRREGULAR_PREVIOUS_HASH)
+                | (isPruned() ? STORED_PRUNED : 0)));
+        out.put(digests);
+        putText(out, irregularHash);
+        putText(out, irregularPreviousHash);
+        if (!isPruned()) {
+            transactions.store(out);
+        }
+    }
+
+    /**
+     * Reads a block written by {@link #store(ByteBuffer)}.
+     *
+     * @param in       The buffer to read from, positioned at the start of the block.
+     * @param withBody False to leave the transactions unread and return a header-only block.
+     * @return The block.
+     */
+    static Block load(ByteBuffer in, boolean withBody) {
+        Block block = new Block();
+        block.version = in.getInt();
+        block.nonce = in.getInt();
+        block.timestamp = in.getLong();
+        byte flags = in.get();
+        block.digests = new byte[block.isMerkleVersion() ? 3 * MiningKernel.DIGEST_LENGTH : MERKLE_ROOT];
+        in.get(block.digests);
+        block.irregularHash = (flags & STORED_IRREGULAR_HASH) == 0 ? null : getText(in);
+        block.irregularPreviousHash = (flags & STORED_IRREGULAR_PREVIOUS_HASH) == 0 ? null : getText(in);
+        block.transactions = withBody && (flags & STORED_PRUNED) == 0 ? TransactionList.load(in) : null;
+        return block;
+    }
+
+    /**
+     * Computes the number of bytes {@link #putText(ByteBuffer, String)} writes for a hash kept as text.
+     *
+     * @param text The hash, or null.
+     * @return The length of the stored hash, zero if it is null.
+     */
+    private static int textLength(String text) {
+        return text == null ? 0 : Integer.BYTES + text.getBytes(StandardCharsets.UTF_8).length;
+    }
+
+    /**
+     * Writes a hash kept as text as its length followed by its UTF-8 bytes, unless it is null.
+     *
+     * @param out  The buffer to write to.
+     * @param text The hash, or null.
+     */
+    private static void putText(ByteBuffer out, String text) {
+        if (text != null) {
+            byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+            out.putInt(bytes.length).put(bytes);
+        }
+    }
+
+    /**
+     * Reads a hash written by {@link #putText(ByteBuffer, String)}.
+     *
+     * @param in The buffer to read from.
+     * @return The hash.
+     */
+    private static String getText(ByteBuffer in) {
+        byte[] bytes = new byte[in.getInt()];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
     }
 
     /**
      * Mines the block by finding a hash with a specified prefix difficulty.
+     * <p>
+     * The search runs on a {@link MiningKernel} over the pre-encoded header, so the hexadecimal hash is only rendered
+     * once for the winning nonce.
      *
      * @param prefixDifficulty The number of leading zeros required in the hash.
      */
     public void mineBlock(int prefixDifficulty) {
+        if (!mineBlock(prefixDifficulty, new MiningAttempt())) {
+            throw new IllegalStateException("Nonce space exhausted for block with transactions " + transactions);
+        }
+    }
+
+    /**
+     * Mines the block like {@link #mineBlock(int)}, giving up as soon as the attempt is cancelled.
+     *
+     * @param prefixDifficulty The number of leading zeros required in the hash.
+     * @param attempt          The attempt to check for cancellation and to record the hashes computed in.
+     * @return True if the block was mined, false if the attempt was cancelled or the nonce space exhausted.
+     */
+    public boolean mineBlock(int prefixDifficulty, MiningAttempt attempt) {
+        return mineBlock(prefixDifficulty, attempt, MiningBackend.MESSAGE_DIGEST);
+    }
+
+    /**
+     * Mines the block like {@link #mineBlock(int, MiningAttempt)} on the given hashing backend. A backend that cannot
+     * run in this JVM falls back to {@link MiningBackend#MESSAGE_DIGEST}.
+     *
+     * @param prefixDifficulty The number of leading zeros required in the hash.
+     * @param attempt          The attempt to check for cancellation and to record the hashes computed in.
+     * @param backend          The SHA-256 implementation to search with.
+     * @return True if the block was mined, false if the attempt was cancelled or the nonce space exhausted.
+     */
+    public boolean mineBlock(int prefixDifficulty, MiningAttempt attempt, MiningBackend backend) {
+        return mineBlockBits(prefixDifficulty * 4, attempt, backend);
+    }
+
+    /**
+     * Mines the block until its hash starts with the given number of zero bits, which allows difficulties between
+     * two whole hex digits.
+     *
+     * @param zeroBits The number of leading zero bits required in the hash.
+     * @param attempt  The attempt to check for cancellation and to record the hashes computed in.
+     * @param backend  The SHA-256 implementation to search with.
+     * @return True if the block was mined, false if the attempt was cancelled or the nonce space exhausted.
+     */
+    public boolean mineBlockBits(int zeroBits, MiningAttempt attempt, MiningBackend backend) {
         long startTime = System.currentTimeMillis();
         System.out.println("Mining block with transactions:" +  transactions);
-        String prefixString = new String(new char[prefixDifficulty]).replace('\0', '0');
-        while (!hash.substring(0, prefixDifficulty).equals(prefixString)) {
-            nonce++;
-            hash = calculateHash();
+        long solution = newSearch(backend).search(nonce, (long) Integer.MAX_VALUE + 1, zeroBits, attempt);
+        if (solution == MiningKernel.NOT_FOUND) {
+            System.out.println("Mining abandoned for block with transactions : " + transactions + " after " + attempt.getHashes() + " hashes");
+            return false;
         }
+        nonce = (int) solution;
+        setHash(newKernel().hash(nonce));
         System.out.println("Block mined with transactions : " + transactions + " in time: " + (System.currentTimeMillis() - startTime) + "ms");
+        return true;
     }
 
     /**
@@ -62,7 +417,7 @@ public class Block implements Serializable {
      * @return The hash of the block.
      */
     public String getHash() {
-        return hash;
+        return irregularHash != null ? irregularHash : hex(HASH);
     }
 
     /**
@@ -71,7 +426,7 @@ public class Block implements Serializable {
      * @return The hash of the previous block.
      */
     public String getPreviousHash() {
-        return previousHash;
+        return irregularPreviousHash != null ? irregularPreviousHash : hex(PREVIOUS_HASH);
     }
 
     /**
@@ -89,24 +444,139 @@ public class Block implements Serializable {
      * @return The hash of the block.
      */
     public String calculateHash() {
-        String dataToHash = previousHash + transactions.toString() + nonce;
-        MessageDigest digest;
-        byte[] bytes;
+        return newKernel().hashHex(nonce);
+    }
+
+    /**
+     * Checks that the hash of the block is the hash of its content, comparing raw digests rather than text.
+     *
+     * @return True if the hash equals {@link #calculateHash()}.
+     */
+    boolean hasValidHash() {
+        return irregularHash == null && Arrays.equals(newKernel().hash(nonce), 0, MiningKernel.DIGEST_LENGTH,
+                digests, HASH, HASH + MiningKernel.DIGEST_LENGTH);
+    }
+
+    /**
+     * Checks whether the hash of the block starts with the given number of zero bits.
+     *
+     * @param zeroBits The number of leading zero bits required.
+     * @return True if the hash meets the requirement, false otherwise or if it is not hexadecimal.
+     */
+    boolean hasLeadingZeroBits(int zeroBits) {
+        if (irregularHash == null) {
+            return MiningKernel.hasLeadingZeroBits(Arrays.copyOf(digests, MiningKernel.DIGEST_LENGTH), zeroBits);
+        }
         try {
-            digest = MessageDigest.getInstance("SHA-256");
-            bytes = digest.digest(dataToHash.getBytes("UTF-8"));
-        } catch (Exception ex) {
-            throw new RuntimeException(ex);
-        }
-        StringBuilder hexString = new StringBuilder();
-        for (byte b : bytes) {
-            String hex = Integer.toHexString(0xff & b);
-            if (hex.length() == 1) {
-                hexString.append('0');
-            }
-            hexString.append(hex);
+            return MiningKernel.hasLeadingZeroBits(MiningKernel.fromHex(irregularHash), zeroBits);
+        } catch (IllegalArgumentException e) {
+            return false;
         }
-        return hexString.toString();
+    }
+
+    /**
+     * Creates a mining kernel over the header of this block, for use by the calling thread.
+     *
+     * @return The kernel.
+     */
+    MiningKernel newKernel() {
+        return new MiningKernel(encodeHeader(), nonceEncoding());
+    }
+
+    /**
+     * Creates a proof-of-work search over the header of this block, for use by the calling thread.
+     *
+     * @param backend The SHA-256 implementation to search with.
+     * @return The search.
+     */
+    NonceSearch newSearch(MiningBackend backend) {
+        return backend.newSearch(encodeHeader(), nonceEncoding());
+    }
+
+    /**
+     * Determines how the nonce is appended to the header of this block.
+     *
+     * @return The nonce encoding of the header version.
+     */
+    private MiningKernel.NonceEncoding nonceEncoding() {
+        return isMerkleVersion() ? MiningKernel.NonceEncoding.INT32 : MiningKernel.NonceEncoding.DECIMAL;
+    }
+
+    /**
+     * Encodes the part of the hashed data that precedes the nonce.
+     * <p>
+     * Legacy headers are the previous hash followed by the transaction list as UTF-8 text. Merkle headers are the raw
+     * previous hash, the raw Merkle root and the big-endian timestamp, 72 bytes whatever the transactions.
+     *
+     * @return The encoded header.
+     */
+    private byte[] encodeHeader() {
+        if (!isMerkleVersion()) {
+            return (getPreviousHash() + getTransactions()).getBytes(StandardCharsets.UTF_8);
+        }
+        ByteBuffer header = ByteBuffer.allocate(2 * MiningKernel.DIGEST_LENGTH + Long.BYTES);
+        if (irregularPreviousHash != null) {
+            header.put(MiningKernel.fromHex(irregularPreviousHash));
+        } else {
+            header.put(digests, PREVIOUS_HASH, MiningKernel.DIGEST_LENGTH);
+        }
+        return header.put(digests, MERKLE_ROOT, MiningKernel.DIGEST_LENGTH)
+                .putLong(timestamp)
+                .array();
+    }
+
+    /**
+     * Checks whether this block uses the fixed-size Merkle header.
+     *
+     * @return True for {@link #MERKLE_VERSION} blocks, false for legacy blocks.
+     */
+    private boolean isMerkleVersion() {
+        return version == MERKLE_VERSION;
+    }
+
+    /**
+     * Checks that the Merkle root in the header commits to the transactions of the block, and to no other list of
+     * transactions. Legacy blocks hash their transactions directly and always pass.
+     *
+     * @return True if the Merkle root matches the transactions, false otherwise, including for a null transaction or
+     *         a tree pairing two equal nodes (see {@link MerkleTree}).
+     */
+    public boolean hasValidMerkleRoot() {
+        if (!isMerkleVersion()) {
+            return true;
+        }
+        byte[] root = transactions == null ? null : MerkleTree.unambiguousRoot(transactions);
+        return root != null && Arrays.equals(root, 0, MiningKernel.DIGEST_LENGTH,
+                digests, MERKLE_ROOT, MERKLE_ROOT + MiningKernel.DIGEST_LENGTH);
+    }
+
+    /**
+     * Retrieves the header version of the block.
+     *
+     * @return {@link #LEGACY_VERSION} or {@link #MERKLE_VERSION}.
+     */
+    public int getVersion() {
+        return isMerkleVersion() ? MERKLE_VERSION : LEGACY_VERSION;
+    }
+
+    /**
+     * Retrieves the Merkle root of the transactions.
+     *
+     * @return The Merkle root as hexadecimal, or null for legacy blocks.
+     */
+    public String getMerkleRoot() {
+        return isMerkleVersion() ? hex(MERKLE_ROOT) : null;
+    }
+
+    /**
+     * Records a nonce found by an external search together with the hash it produces.
+     *
+     * @param nonce The winning nonce.
+     * @param hash  The hash of the block with that nonce.
+     */
+    void applySolution(int nonce, String hash) {
+        this.nonce = nonce;
+        setHash(hash);
     }
 
     /**
@@ -121,10 +591,10 @@ public class Block implements Serializable {
     /**
      * Retrieves the list of transactions included in the block.
      *
-     * @return The list of transactions.
+     * @return The list of transactions, empty if the block is {@link #isPruned() pruned}.
      */
     public List<String> getTransactions() {
-        return transactions;
+        return transactions == null ? List.of() : transactions;
     }
 
     // Getters and setters omitted for brevity
@@ -136,16 +606,18 @@ public class Block implements Serializable {
      */
     @Override
     public String toString() {
-        return "Block{hash='" + hash + '\'' +
-                ", previousHash='" + previousHash + '\'' +
+        return "Block{hash='" + getHash() + '\'' +
+                ", previousHash='" + getPreviousHash() + '\'' +
                 ", timestamp=" + timestamp +
-                ", transactions=" + transactions +
+                ", transactions=" + (isPruned() ? "pruned" : transactions) +
                 ", nonce=" + nonce +
+                (isMerkleVersion() ? ", version=" + version + ", merkleRoot='" + getMerkleRoot() + '\'' : "") +
                 '}';
     }
 
     /**
-     * Indicates whether some other object is "equal to" this one.
+     * Indicates whether some other object is "equal to" this one. A pruned block equals the full block it was copied
+     * from, whose transactions its header commits to.
      *
      * @param obj The reference object with which to compare.
      * @return {@code true} if this object is the same as the obj argument; {@code false} otherwise.
@@ -159,6 +631,59 @@ public class Block implements Serializable {
             return false;
         }
         Block block = (Block) obj;
-        return nonce == block.nonce && hash.equals(block.hash) && previousHash.equals(block.previousHash) && transactions.equals(block.transactions);
+        return nonce == block.nonce
+                && Arrays.equals(digests, HASH, MERKLE_ROOT, block.digests, HASH, MERKLE_ROOT)
+                && Objects.equals(irregularHash, block.irregularHash)
+                && Objects.equals(irregularPreviousHash, block.irregularPreviousHash)
+                && (isPruned() || block.isPruned() || transactions.equals(block.transactions));
+    }
+
+    /**
+     * Writes the block in its serialized form, with hashes as hexadecimal text and transactions as a list of strings.
+     *
+     * @param out The stream to write to.
+     * @throws IOException If the stream cannot be written.
+     */
+    @Serial
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        ObjectOutputStream.PutField fields = out.putFields();
+        fields.put("hash", getHash());
+        fields.put("previousHash", getPreviousHash());
+        fields.put("timestamp", timestamp);
+        fields.put("transactions", transactions == null ? null : new ArrayList<>(transactions));
+        fields.put("nonce", nonce);
+        fields.put("version", version);
+        fields.put("merkleRoot", getMerkleRoot());
+        out.writeFields();
+    }
+
+    /**
+     * Reads a block from its serialized form.
+     *
+     * @param in The stream to read from.
+     * @throws IOException            If the stream cannot be read, a hash is missing, or the Merkle root of a Merkle
+     *                                block is not a SHA-256 hash.
+     * @throws ClassNotFoundException If a class of the block cannot be found.
+     */
+    @Serial
+    @SuppressWarnings("unchecked")
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        version = fields.get("version", 0);
+        digests = new byte[isMerkleVersion() ? 3 * MiningKernel.DIGEST_LENGTH : MERKLE_ROOT];
+        String hash = (String) fields.get("hash", null);
+        String previousHash = (String) fields.get("previousHash", null);
+        if (hash == null || previousHash == null) {
+            throw new InvalidObjectException("Block without a hash or a previous hash");
+        }
+        setHash(hash);
+        irregularPreviousHash = setDigest(PREVIOUS_HASH, previousHash);
+        timestamp = fields.get("timestamp", 0L);
+        List<String> list = (List<String>) fields.get("transactions", null);
+        transactions = list == null ? null : TransactionList.of(list);
+        nonce = fields.get("nonce", 0);
+        if (isMerkleVersion() && setDigest(MERKLE_ROOT, (String) fields.get("merkleRoot", null)) != null) {
+            throw new InvalidObjectException("Merkle root is not a SHA-256 hash");
+        }
     }
 }
@@ -0,0 +1,244 @@
+package blockchain;
+
+import java.io.Serializable;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.RandomAccess;
+
+/**
+ * Keeps the blocks of a chain outside of the Java heap, in direct byte buffers, so that the garbage collector neither
+ * traces nor copies them however long the chain grows.
+ * <p>
+ * Blocks are appended as records to chunks of {@link #CHUNK_BYTES} allocated as needed. A record holds the number of
+ * leading zero bits required of its block and the cumulative work of the chain up to it, followed by the block in the
+ * layout of {@link Block#store(java.nio.ByteBuffer)}, and is addressed by a position: the index of its chunk in the
+ * upper half, its offset in the chunk in the lower half. Records are never written again, so that every position
+ * handed out stays valid; the space of the blocks cut by a reorganization is not reclaimed.
+ * <p>
+ * Blocks are decoded into new {@link Block} objects on every read, which only live as long as their reader keeps them.
+ * Records are appended by the single thread changing the chain and may be read by any thread through a
+ * {@link Snapshot} published after they were written.
+ */
+final class BlockArena {
+    /**
+     * Size of a chunk, in bytes. A block larger than a chunk gets a chunk of its own.
+     */
+    static final int CHUNK_BYTES = 16 << 20;
+
+    /**
+     * The chunks, in order of allocation. Replaced as a whole when a chunk is added, so that readers never see it
+     * change.
+     */
+    private volatile ByteBuffer[] chunks = new ByteBuffer[0];
+    /**
+     * The offset in the last chunk at which the next record is written.
+     */
+    private int end;
+
+    /**
+     * Appends the record of a block.
+     *
+     * @param block          The block.
+     * @param zeroBits       The number of leading zero bits required of the block.
+     * @param cumulativeWork The total work of the chain up to and including the block.
+     * @return The position of the record.
+     */
+    long append(Block block, int zeroBits, BigInteger cumulativeWork) {
+        byte[] work = cumulativeWork.toByteArray();
+        int length = Integer.BYTES + 1 + work.length + block.storedLength();
+        ByteBuffer[] current = chunks;
+        if (current.length == 0 || end + length > current[current.length - 1].capacity()) {
+            current = Arrays.copyOf(current, current.length + 1);
+            current[current.length - 1] = ByteBuffer.allocateDirect(Math.max(CHUNK_BYTES, length));
+            chunks = current;
+            end = 0;
+        }
+        ByteBuffer record = current[current.length - 1].slice(end, length);
+        record.putInt(zeroBits).put((byte) work.length).put(work);
+        block.store(record);
+        long position = (long) (current.length - 1) << 32 | end;
+        end += length;
+        return position;
+    }
+
+    /**
+     * Reads the block of a record.
+     *
+     * @param position The position of the record.
+     * @param withBody False to leave the transactions unread and return a header-only block.
+     * @return A new block decoded from the record.
+     */
+    Block block(long position, boolean withBody) {
+        ByteBuffer record = record(position);
+        record.position(Integer.BYTES + 1 + record.get(Integer.BYTES));
+        return Block.load(record, withBody);
+    }
+
+    /**
+     * Reads the number of leading zero bits required of the block of a record.
+     *
+     * @param position The position of the record.
+     * @return The number of leading zero bits.
+     */
+    int zeroBits(long position) {
+        return record(position).getInt(0);
+    }
+
+    /**
+     * Reads the cumulative work of the chain up to the block of a record.
+     *
+     * @param position The position of the record.
+     * @return The total work up to and including the block.
+     */
+    BigInteger cumulativeWork(long position) {
+        ByteBuffer record = record(position);
+        byte[] work = new byte[record.get(Integer.BYTES)];
+        record.get(Integer.BYTES + 1, work);
+        return new BigInteger(work);
+    }
+
+    /**
+     * Retrieves the memory reserved outside of the heap.
+     *
+     * @return The total size of the chunks, in bytes.
+     */
+    long bytes() {
+        long bytes = 0;
+        for (ByteBuffer chunk : chunks) {
+            bytes += chunk.capacity();
+        }
+        return bytes;
+    }
+
+    /**
+     * Creates a snapshot of the blocks at the first positions of an array.
+     *
+     * @param positions    The positions of the records, indexed by height, whose first {@code size} slots must never be
+     *                     written again.
+     * @param size         The number of blocks of the snapshot.
+     * @param prunedHeight The number of lowest blocks read without their body.
+     * @return The snapshot.
+     */
+    Snapshot snapshot(long[] positions, int size, int prunedHeight) {
+        return new Snapshot(this, positions, size, prunedHeight);
+    }
+
+    /**
+     * Gives access to a record from its position.
+     *
+     * @param position The position of the record.
+     * @return A buffer starting at the record, with a position and limit of its own.
+     */
+    private ByteBuffer record(long position) {
+        ByteBuffer chunk = chunks[(int) (position >>> 32)];
+        int offset = (int) position;
+        return chunk.slice(offset, chunk.capacity() - offset);
+    }
+
+    /**
+     * An immutable view of the blocks of a chain kept in an arena, indexed by height, like a {@link ChainSnapshot}.
+     * Every read decodes the block from its record. A snapshot is serialized as a plain {@link ArrayList}.
+     */
+    static final class Snapshot extends AbstractList<Block> implements RandomAccess, Serializable {
+        /**
+         * The arena holding the records.
+         */
+        private final transient BlockArena arena;
+        /**
+         * The positions of the records, indexed by height, whose first {@link #size} slots never change.
+         */
+        private final transient long[] positions;
+        /**
+         * The number of blocks of the snapshot.
+         */
+        private final int size;
+        /**
+         * The number of lowest blocks read without their body.
+         */
+        private final int prunedHeight;
+
+        /**
+         * Creates a snapshot.
+         *
+         * @param arena        The arena holding the records.
+         * @param positions    The positions of the records, indexed by height.
+         * @param size         The number of blocks of the snapshot.
+         * @param prunedHeight The number of lowest blocks read without their body.
+         */
+        private Snapshot(BlockArena arena, long[] positions, int size, int prunedHeight) {
+            this.arena = arena;
+            this.positions = positions;
+            this.size = size;
+            this.prunedHeight = prunedHeight;
+        }
+
+        @Override
+        public Block get(int index) {
+            return arena.block(position(index), index >= prunedHeight);
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        /**
+         * Reads the header of a block, leaving its transactions unread.
+         *
+         * @param height The height of the block.
+         * @return A header-only block.
+         * @throws IndexOutOfBoundsException If there is no block at that height.
+         */
+        Block header(int height) {
+            return arena.block(position(height), false);
+        }
+
+        /**
+         * Reads the number of leading zero bits required of a block.
+         *
+         * @param height The height of the block.
+         * @return The number of leading zero bits.
+         * @throws IndexOutOfBoundsException If there is no block at that height.
+         */
+        int zeroBits(int height) {
+            return arena.zeroBits(position(height));
+        }
+
+        /**
+         * Reads the cumulative work of the chain up to a block.
+         *
+         * @param height The height of the block.
+         * @return The total work up to and including the block.
+         * @throws IndexOutOfBoundsException If there is no block at that height.
+         */
+        BigInteger cumulativeWork(int height) {
+            return arena.cumulativeWork(position(height));
+        }
+
+        /**
+         * Finds the position of the record of a block.
+         *
+         * @param height The height of the block.
+         * @return The position of its record.
+         * @throws IndexOutOfBoundsException If there is no block at that height.
+         */
+        private long position(int height) {
+            if (height < 0 || height >= size) {
+                throw new IndexOutOfBoundsException("Height " + height + " out of chain of " + size + " blocks");
+            }
+            return positions[height];
+        }
+
+        /**
+         * Replaces the snapshot by a list of its blocks when serialized, as the arena stays in this process.
+         *
+         * @return A list of the blocks of the snapshot.
+         */
+        private Object writeReplace() {
+            return new ArrayList<>(this);
+        }
+    }
+}
@@ -0,0 +1,305 @@
+package blockchain;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Predicate;
+
+/**
+ * Announces the blocks a node mines to its peers through one bounded outbound queue per peer, each drained by a sender
+ * of its own, so that a slow or unreachable peer only delays the blocks sent to it.
+ * <p>
+ * Announcing a block only queues it, which never blocks. Each sender sends the blocks of its queue in order, and keeps
+ * retrying the oldest one while its peer cannot be reached, so a peer that comes back receives the blocks it missed.
+ * When a block is queued, the queued blocks that have left the best chain of the node meanwhile, as after a
+ * reorganization, are dropped as stale: the new tip supersedes them. When a queue is full its oldest block is dropped;
+ * the peer fetches it as the missing ancestor of the next one. A send that takes longer than the send timeout, such as
+ * a connection attempt to a peer that does not answer or a write to a peer that stopped reading, is aborted and
+ * retried.
+ */
+final class BlockBroadcaster {
+    /**
+     * Delay before sending a block again after a failed attempt, in milliseconds.
+     */
+    private static final long RETRY_MILLIS = 100;
+
+    /**
+     * Sends blocks to peers.
+     */
+    interface Sender {
+        /**
+         * Sends an encoded block to a peer, blocking until it is written.
+         *
+         * @param address The peer address of the peer.
+         * @param block   The block, encoded by {@link BlockCodec#encode(Block)}.
+         * @throws IOException If the peer cannot be reached or the block cannot be written.
+         */
+        void send(String address, byte[] block) throws IOException;
+
+        /**
+         * Aborts a send to a peer that takes too long, by closing its connection, so that it fails.
+         *
+         * @param address The peer address of the peer.
+         */
+        void abort(String address);
+    }
+
+    /**
+     * A block waiting to be sent to a peer.
+     *
+     * @param hash        The hash of the block.
+     * @param block       The encoded block.
+     * @param queuedNanos The time the block was queued, from {@link System#nanoTime()}.
+     */
+    private record Announcement(String hash, byte[] block, long queuedNanos) {
+    }
+
+    /**
+     * The outbound queue to one peer and its sender.
+     */
+    private final class Outbox implements Runnable {
+        /**
+         * The peer address of the peer.
+         */
+        private final String address;
+        /**
+         * The counters of the queue.
+         */
+        private final PeerSendMetrics metrics;
+        /**
+         * The blocks waiting to be sent, oldest first, guarded by {@link #lock}.
+         */
+        private final ArrayDeque<Announcement> queue = new ArrayDeque<>();
+        /**
+         * Guards the queue.
+         */
+        private final ReentrantLock lock = new ReentrantLock();
+        /**
+         * Signalled when a block is queued or the broadcaster closes.
+         */
+        private final Condition ready = lock.newCondition();
+        /**
+         * The time the send in progress started, from {@link System#nanoTime()}, or zero if none is.
+         */
+        private volatile long sendingSince;
+        /**
+         * The start of the last send aborted, so that a send is only aborted once.
+         */
+        private long abortedSend;
+
+        /**
+         * Creates the empty queue to a peer.
+         *
+         * @param address The peer address of the peer.
+         * @param metrics The counters of the queue.
+         */
+        private Outbox(String address, PeerSendMetrics metrics) {
+            this.address = address;
+            this.metrics = metrics;
+        }
+
+        /**
+         * Queues a block, after dropping the stale blocks and, if the queue is full, the oldest one.
+         *
+         * @param announcement The block.
+         * @param stale        Tells, by hash, whether a queued block has left the best chain.
+         */
+        private void offer(Announcement announcement, Predicate<String> stale) {
+            lock.lock();
+            try {
+                queue.removeIf(queued -> {
+                    if (!stale.test(queued.hash())) {
+                        return false;
+                    }
+                    metrics.recordCoalesced();
+                    return true;
+                });
+                if (queue.size() >= capacity) {
+                    queue.poll();
+                    metrics.recordDropped();
+                }
+                queue.add(announcement);
+                metrics.recordQueueDepth(queue.size());
+                ready.signal();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Sends the queued blocks in order until the broadcaster closes or the thread is interrupted.
+         */
+        @Override
+        public void run() {
+            boolean failing = false;
+            try {
+                while (!closed) {
+                    Announcement next;
+                    lock.lock();
+                    try {
+                        while (queue.isEmpty() && !closed) {
+                            ready.await();
+                        }
+                        if (closed) {
+                            return;
+                        }
+                        next = queue.peek();
+                    } finally {
+                        lock.unlock();
+                    }
+                    boolean sent = false;
+                    sendingSince = System.nanoTime();
+                    try {
+                        sender.send(address, next.block());
+                        sent = true;
+                    } catch (IOException e) {
+                        metrics.recordFailure();
+                        if (!failing) {
+                            System.err.println("Failed to send block to " + address + ", retrying: " + e.getMessage());
+                        }
+                    } finally {
+                        sendingSince = 0;
+                    }
+                    failing = !sent;
+                    lock.lock();
+                    try {
+                        if (sent) {
+                            // The block may have been dropped from the queue while it was being sent
+                            queue.removeFirstOccurrence(next);
+                            metrics.recordSent(System.nanoTime() - next.queuedNanos());
+                            metrics.recordQueueDepth(queue.size());
+                        }
+                    } finally {
+                        lock.unlock();
+                    }
+                    if (!sent) {
+                        Thread.sleep(RETRY_MILLIS);
+                    }
+                }
+            } catch (InterruptedException e) {
+                // The node is stopping
+            }
+        }
+
+        /**
+         * Aborts the send in progress if it has exceeded the send timeout. Only called by the watchdog.
+         *
+         * @param now The current time, from {@link System#nanoTime()}.
+         */
+        private void checkTimeout(long now) {
+            long since = sendingSince;
+            if (since != 0 && since != abortedSend && now - since > sendTimeoutNanos) {
+                abortedSend = since;
+                metrics.recordTimeout();
+                System.out.println("Sending block to " + address + " timed out, aborting");
+                sender.abort(address);
+            }
+        }
+
+        /**
+         * Wakes the sender up so that it sees the broadcaster closed.
+         */
+        private void wake() {
+            lock.lock();
+            try {
+                ready.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * The queue to each peer.
+     */
+    private final List<Outbox> outboxes = new ArrayList<>();
+    /**
+     * Sends the blocks.
+     */
+    private final Sender sender;
+    /**
+     * Largest number of blocks queued to a peer.
+     */
+    private final int capacity;
+    /**
+     * Longest time a single send may take, in nanoseconds.
+     */
+    private final long sendTimeoutNanos;
+    /**
+     * Aborts the sends that exceed the send timeout.
+     */
+    private final ScheduledExecutorService watchdog = Executors.newSingleThreadScheduledExecutor();
+    /**
+     * True once the broadcaster is closed.
+     */
+    private volatile boolean closed;
+
+    /**
+     * Creates the queues to the peers of a node, without starting their senders.
+     *
+     * @param peerMetrics       The counters of the queue to each peer, by peer address.
+     * @param sender            Sends the blocks.
+     * @param capacity          Largest number of blocks queued to a peer, at least one.
+     * @param sendTimeoutMillis Longest time a single send may take, in milliseconds.
+     */
+    BlockBroadcaster(Map<String, PeerSendMetrics> peerMetrics, Sender sender, int capacity, long sendTimeoutMillis) {
+        this.sender = sender;
+        this.capacity = capacity;
+        this.sendTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(sendTimeoutMillis);
+        for (Map.Entry<String, PeerSendMetrics> peer : peerMetrics.entrySet()) {
+            outboxes.add(new Outbox(peer.getKey(), peer.getValue()));
+        }
+    }
+
+    /**
+     * Starts a sender for each peer, and the watchdog of the send timeout.
+     *
+     * @param executor Runs the senders, each for as long as the broadcaster is open.
+     */
+    void start(Executor executor) {
+        for (Outbox outbox : outboxes) {
+            executor.execute(outbox);
+        }
+        long period = Math.max(10, TimeUnit.NANOSECONDS.toMillis(sendTimeoutNanos) / 4);
+        watchdog.scheduleAtFixedRate(() -> {
+            long now = System.nanoTime();
+            for (Outbox outbox : outboxes) {
+                outbox.checkTimeout(now);
+            }
+        }, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Queues a block to every peer. Never blocks.
+     *
+     * @param hash  The hash of the block.
+     * @param block The block, encoded by {@link BlockCodec#encode(Block)}.
+     * @param stale Tells, by hash, whether a block queued earlier has left the best chain of the node, in which case
+     *              it is dropped rather than sent; called with the queue of the peer locked.
+     */
+    void announce(String hash, byte[] block, Predicate<String> stale) {
+        Announcement announcement = new Announcement(hash, block, System.nanoTime());
+        for (Outbox outbox : outboxes) {
+            outbox.offer(announcement, stale);
+        }
+    }
+
+    /**
+     * Stops the senders, dropping the blocks not sent yet.
+     */
+    void close() {
+        closed = true;
+        watchdog.shutdownNow();
+        for (Outbox outbox : outboxes) {
+            outbox.wake();
+        }
+    }
+}
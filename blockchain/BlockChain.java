@@ -1,9 +1,24 @@
 package blockchain;
 
+import java.io.IOException;
 import java.io.Serializable;
-import java.util.LinkedList;
+import java.math.BigInteger;
+import java.nio.file.Path;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import java.util.function.ToIntFunction;
 
 import static java.util.Collections.emptyList;
 
@@ -13,25 +28,88 @@ import static java.util.Collections.emptyList;
  */
 public class BlockChain implements Serializable {
     /**
-     * List representing the chain of blocks.
+     * Largest number of blocks whose bodies are pruned at once, so that the block array is not copied for every block.
      */
-    private LinkedList<Block> chain = new LinkedList<>();
+    private static final int PRUNE_BATCH = 64;
 
     /**
-     * The mining difficulty level of the blockchain.
+     * The chain of blocks, indexed by height and by hash.
      */
-    private int difficulty;
+    private final BlockStore chain;
+
+    /**
+     * The valid blocks known off the active chain, kept for later reorganizations.
+     */
+    private final BlockTree tree = new BlockTree();
+
+    /**
+     * The rule deciding the proof of work required of each block.
+     */
+    private final DifficultyRule difficultyRule;
+
+    /**
+     * Listeners notified whenever the tip of the chain changes.
+     */
+    private final transient List<ChainListener> listeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * Counters of the confirmed-transaction filter, or null while transactions are indexed exactly.
+     */
+    private TransactionFilterMetrics transactionFilterMetrics;
+
+    /**
+     * The log the chain is persisted to, or null while the chain only lives in memory.
+     */
+    private transient volatile BlockLog log;
+
+    /**
+     * The directory of the block log, where checkpoints are written, or null while the chain only lives in memory.
+     */
+    private transient volatile Path logDirectory;
+
+    /**
+     * Number of blocks between two checkpoints written next to the block log.
+     */
+    private transient int checkpointInterval;
+
+    /**
+     * Filter of the transactions of every block connected since the genesis block, kept up to date while the chain is
+     * persisted so that checkpoints do not have to rebuild it, or null while the chain only lives in memory. It may
+     * also hold transactions of blocks disconnected since, which the checkpoints built from it tolerate.
+     */
+    private transient ScalableBloomFilter checkpointTransactions;
+
+    /**
+     * The thread digesting and writing checkpoints away from the lock of the node, or null while the chain only
+     * lives in memory.
+     */
+    private transient ExecutorService checkpointWriter;
+
+    /**
+     * Number of blocks below the tip that keep their body, or zero to keep every body.
+     */
+    private int pruneDepth;
 
     /**
      * Constructs a new blockchain with a specified difficulty level.
      *
-     * @param difficulty The difficulty level for mining new blocks.
+     * @param difficulty The difficulty level for mining new blocks, as a number of leading zero hex digits.
      */
     public BlockChain(int difficulty) {
-        this.difficulty = difficulty;
+        this(new DifficultyRule(difficulty * 4));
+    }
+
+    /**
+     * Constructs a new blockchain whose proof of work is decided by the given rule.
+     *
+     * @param difficultyRule The rule deciding the number of leading zero bits required of each block.
+     */
+    public BlockChain(DifficultyRule difficultyRule) {
+        this.difficultyRule = difficultyRule;
+        this.chain = new BlockStore(difficultyRule);
         // Create and mine genesis block
         Block genesis = new Block("0", System.currentTimeMillis(), List.of("0"));
-        chain.add(genesis);
+        chain.append(genesis);
     }
 
     /**
@@ -41,7 +119,567 @@ public class BlockChain implements Serializable {
      */
     public void addBlock(Block newBlock) {
         if (newBlock != null) {
-            chain.add(newBlock);
+            connect(newBlock);
+            fireTipChanged();
+        }
+    }
+
+    /**
+     * Adds a block received from the network to the block tree, after validating it against its parent. A block
+     * extending the tip is appended; a block extending another known block starts or extends a side branch, and the
+     * chain is reorganized onto that branch once it carries more work than the active chain.
+     *
+     * @param block The block to add.
+     * @return True if the block was added, false if it is invalid, already known or its parent is unknown.
+     */
+    public boolean acceptBlock(Block block) {
+        if (block == null || isKnown(block.getHash())) {
+            return false;
+        }
+        Block tip = chain.tip();
+        if (Objects.equals(block.getPreviousHash(), tip.getHash())) {
+            if (!isValidNewBlock(block, tip)) {
+                return false;
+            }
+            addBlock(block);
+            return true;
+        }
+        BlockTree.SideBlock sideBlock = attach(block, true);
+        if (sideBlock == null) {
+            return false;
+        }
+        tree.put(sideBlock);
+        System.out.println("Block stored on a side branch at height " + sideBlock.height);
+        if (sideBlock.cumulativeWork.compareTo(getTotalWork()) > 0) {
+            reorganize(sideBlock);
+        }
+        return true;
+    }
+
+    /**
+     * Checks whether a block is known, on the active chain or on a side branch.
+     *
+     * @param hash The hash of the block.
+     * @return True if the block is known, false otherwise.
+     */
+    public boolean isKnown(String hash) {
+        return chain.heightOf(hash) != -1 || tree.get(hash) != null;
+    }
+
+    /**
+     * Retrieves the number of blocks kept off the active chain.
+     *
+     * @return The number of side blocks.
+     */
+    public int getSideBlockCount() {
+        return tree.size();
+    }
+
+    /**
+     * Places a block off the active chain, on top of its parent, which must be known.
+     *
+     * @param block    The block.
+     * @param validate True to check the block against its parent and branch, false if it was validated already.
+     * @return The side block, or null if its parent is unknown or detached from the active chain, or if it is invalid.
+     */
+    private BlockTree.SideBlock attach(Block block, boolean validate) {
+        List<BlockTree.SideBlock> branch;
+        int forkHeight = chain.heightOf(block.getPreviousHash());
+        if (forkHeight != -1) {
+            branch = emptyList();
+        } else {
+            BlockTree.SideBlock parent = tree.get(block.getPreviousHash());
+            if (parent == null) {
+                return null;
+            }
+            branch = tree.branch(parent);
+            forkHeight = branch.get(0).height - 1;
+            if (forkHeight < 0 || forkHeight >= chain.size()
+                    || !Objects.equals(chain.get(forkHeight).getHash(), branch.get(0).block.getPreviousHash())) {
+                return null;
+            }
+        }
+        if (forkHeight + 1 < chain.prunedHeight()) {
+            // Switching to the branch would disconnect blocks whose transactions are no longer known
+            System.out.println("Block forks below the pruned blocks, at height " + forkHeight);
+            return null;
+        }
+
+        // The requirement of the block follows from its own ancestors, not from the active chain
+        List<Block> branchBlocks = new ArrayList<>(branch.size());
+        Set<String> branchTransactions = new HashSet<>();
+        for (BlockTree.SideBlock sideBlock : branch) {
+            branchBlocks.add(sideBlock.block);
+            if (validate) {
+                // Only needed to validate, and quadratic when a long chain is attached block by block
+                branchTransactions.addAll(sideBlock.block.getTransactions());
+            }
+        }
+        int parentHeight = forkHeight + branch.size();
+        BlockTree.SideBlock parent = branch.isEmpty() ? null : branch.get(branch.size() - 1);
+        int parentZeroBits = parent == null ? chain.zeroBits(forkHeight) : parent.zeroBits;
+        BigInteger parentWork = parent == null ? chain.cumulativeWork(forkHeight) : parent.cumulativeWork;
+        Block parentBlock = parent == null ? chain.get(forkHeight) : parent.block;
+        List<Block> ancestors = extend(chain.view().subList(0, forkHeight + 1), branchBlocks);
+        int zeroBits = difficultyRule.zeroBitsAfter(ancestors, parentHeight, parentZeroBits);
+
+        if (validate) {
+            int lastSharedHeight = forkHeight;
+            Predicate<String> confirmedOnBranch = transaction -> {
+                if (branchTransactions.contains(transaction)) {
+                    return true;
+                }
+                Block confirming = chain.getByTransaction(transaction);
+                int height = confirming == null ? -1 : chain.heightOf(confirming);
+                return height != -1 && height <= lastSharedHeight;
+            };
+            if (!isValidNewBlock(block, parentBlock, parentHeight, zeroBits, confirmedOnBranch)) {
+                return null;
+            }
+        }
+        return new BlockTree.SideBlock(block, parentHeight + 1, zeroBits,
+                parentWork.add(DifficultyRule.workOf(zeroBits)));
+    }
+
+    /**
+     * Switches the active chain to the branch ending with the given side block, disconnecting the active blocks above
+     * the fork point and connecting the blocks of the branch.
+     *
+     * @param newTip The last block of the branch, attached to the active chain.
+     */
+    private void reorganize(BlockTree.SideBlock newTip) {
+        List<BlockTree.SideBlock> branch = tree.branch(newTip);
+        int forkHeight = branch.get(0).height - 1;
+        System.out.println("Reorganizing chain at height " + forkHeight + ": disconnecting "
+                + (chain.size() - 1 - forkHeight) + " blocks, connecting " + branch.size());
+        while (chain.size() - 1 > forkHeight) {
+            disconnectTip();
+        }
+        for (BlockTree.SideBlock sideBlock : branch) {
+            connect(sideBlock.block);
+        }
+        tree.prune(chain.size() - 1);
+        fireTipChanged();
+    }
+
+    /**
+     * Appends a block to the active chain and notifies the listeners.
+     *
+     * @param block The block to append.
+     */
+    private void connect(Block block) {
+        tree.remove(block.getHash());
+        chain.append(block);
+        int height = chain.size() - 1;
+        if (log != null) {
+            try {
+                log.append(block);
+            } catch (IOException e) {
+                abandonLog(e);
+            }
+            if (log != null) {
+                addTransactions(checkpointTransactions, block);
+            }
+            if (log != null && height > 0 && height % checkpointInterval == 0) {
+                writeCheckpoint(height);
+            }
+        }
+        if (pruneDepth > 0 && height - pruneDepth - chain.prunedHeight() >= Math.min(pruneDepth, PRUNE_BATCH)) {
+            chain.prune(height - pruneDepth);
+        }
+        for (ChainListener listener : listeners) {
+            listener.blockConnected(block, height);
+        }
+    }
+
+    /**
+     * Removes the tip of the active chain, keeps it as a side block unless it is the genesis block, and notifies the
+     * listeners.
+     */
+    private void disconnectTip() {
+        int height = chain.size() - 1;
+        Block block = chain.get(height);
+        if (height > 0 && !block.isPruned()) {
+            tree.put(new BlockTree.SideBlock(block, height, chain.zeroBits(height), chain.cumulativeWork(height)));
+        }
+        chain.truncate(height);
+        if (log != null) {
+            log.truncate(height);
+        }
+        for (ChainListener listener : listeners) {
+            listener.blockDisconnected(block, height);
+        }
+    }
+
+    /**
+     * Persists the chain to an append-only block log in the given directory. If the log already holds blocks, the
+     * chain is first restored from them, replacing the current blocks without notifying the listeners; otherwise the
+     * current blocks are written to the log. Restored blocks up to the latest checkpoint found next to the log are
+     * trusted to the index once it agrees with the checkpoint, and only decoded; those above it are checked against
+     * the checksums and hashes of the index and against each other's links, then validated in full, and dropped from
+     * the chain and the log if they are not valid. With pruning enabled, the
+     * restored blocks are then pruned like the blocks of a chain that grew in memory.
+     *
+     * @param directory          The directory of the log, which no other chain may use.
+     * @param syncInterval       The number of blocks appended between two writes of the log to disk, at least one.
+     * @param checkpointInterval The number of blocks between two checkpoints, at least one.
+     * @return The number of blocks restored from the log.
+     * @throws IOException If the log cannot be opened or read, or is empty while the chain already has pruned blocks.
+     */
+    public int openLog(Path directory, int syncInterval, int checkpointInterval) throws IOException {
+        closeLog();
+        BlockLog opened = new BlockLog(directory, syncInterval);
+        try {
+            ChainCheckpoint checkpoint = ChainCheckpoint.read(directory);
+            List<Block> stored = checkpoint == null ? opened.load(-1, null)
+                    : opened.load(checkpoint.getHeight(), checkpoint.getTipHash());
+            ScalableBloomFilter transactions = ChainCheckpoint.newTransactionFilter();
+            if (stored.isEmpty()) {
+                if (chain.prunedHeight() > 0) {
+                    throw new IOException("Cannot persist a chain pruned before its block log was opened");
+                }
+                for (Block block : chain.view()) {
+                    opened.append(block);
+                    addTransactions(transactions, block);
+                }
+            } else {
+                chain.truncate(0);
+                tree.clear();
+                for (Block block : stored) {
+                    chain.append(block);
+                }
+                int trusted = validateRestored(checkpoint);
+                opened.truncate(chain.size());
+                if (trusted > 0) {
+                    transactions = checkpoint.copyTransactions();
+                }
+                for (Block block : chain.view().subList(trusted == 0 ? 0 : trusted + 1, chain.size())) {
+                    addTransactions(transactions, block);
+                }
+                if (pruneDepth > 0) {
+                    chain.prune(chain.size() - 1 - pruneDepth);
+                }
+                System.out.println("Restored " + chain.size() + " blocks from " + directory
+                        + ", trusted without validation up to height " + trusted);
+            }
+            log = opened;
+            logDirectory = directory;
+            this.checkpointInterval = checkpointInterval;
+            checkpointTransactions = transactions;
+            checkpointWriter = Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "checkpoint-writer");
+                thread.setDaemon(true);
+                return thread;
+            });
+            return stored.isEmpty() ? 0 : chain.size();
+        } catch (IOException e) {
+            opened.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Validates the blocks restored from the block log above a checkpoint, or above the genesis block without one,
+     * and drops them all if any is invalid.
+     *
+     * @param checkpoint The latest checkpoint written next to the log, or null if there is none.
+     * @return The height up to which the blocks were trusted without validation.
+     */
+    private int validateRestored(ChainCheckpoint checkpoint) {
+        int trusted = 0;
+        Predicate<String> confirmed = chain.get(0).getTransactions()::contains;
+        if (checkpoint != null && checkpoint.getHeight() < chain.size()) {
+            int height = checkpoint.getHeight();
+            if (checkpoint.anchors(chain.view(), chain.cumulativeWork(height), chain.zeroBits(height))) {
+                trusted = height;
+                confirmed = transaction -> checkpoint.confirms(transaction, this::heightOfTransaction);
+            }
+        }
+        int[] zeroBits = new int[chain.size() - 1 - trusted];
+        for (int i = 0; i < zeroBits.length; i++) {
+            zeroBits[i] = chain.zeroBits(trusted + 1 + i);
+        }
+        if (!ChainValidator.isValid(chain.view().subList(trusted + 1, chain.size()), zeroBits,
+                chain.get(trusted).getHash(), confirmed)) {
+            System.out.println("Blocks of the block log above height " + trusted + " are not valid, dropping them");
+            chain.truncate(trusted + 1);
+        }
+        return trusted;
+    }
+
+    /**
+     * Finds the height of the lowest block of the active chain confirming a transaction, through the transaction
+     * index.
+     *
+     * @param transaction The transaction.
+     * @return The height of the block, or -1 if the transaction is not confirmed.
+     */
+    private int heightOfTransaction(String transaction) {
+        Block confirming = chain.getByTransaction(transaction);
+        return confirming == null ? -1 : chain.heightOf(confirming);
+    }
+
+    /**
+     * Adds the transactions of a block to a filter.
+     *
+     * @param transactions The filter.
+     * @param block        The block, with its body.
+     */
+    private static void addTransactions(ScalableBloomFilter transactions, Block block) {
+        for (String transaction : block.getTransactions()) {
+            transactions.add(transaction);
+        }
+    }
+
+    /**
+     * Writes a checkpoint of the chain up to the given height next to the block log, once the log is on disk. Only
+     * the filter of its transactions is copied here; the checkpoint is digested and written by the checkpoint writer.
+     *
+     * @param height The height of the checkpoint, that of the tip.
+     */
+    private void writeCheckpoint(int height) {
+        try {
+            log.sync();
+        } catch (IOException e) {
+            System.err.println("Error writing checkpoint: " + e.getMessage());
+            return;
+        }
+        Path directory = logDirectory;
+        String tipHash = chain.get(height).getHash();
+        BigInteger work = chain.cumulativeWork(height);
+        int zeroBits = chain.zeroBits(height);
+        ScalableBloomFilter transactions = checkpointTransactions.copy();
+        checkpointWriter.execute(() -> {
+            try {
+                new ChainCheckpoint(height, tipHash, work, zeroBits, transactions).write(directory);
+            } catch (IOException e) {
+                System.err.println("Error writing checkpoint: " + e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Reads the latest checkpoint written next to the block log, for peers bootstrapping from it.
+     *
+     * @return The checkpoint, or null if the chain is not persisted or has none.
+     */
+    ChainCheckpoint getCheckpoint() {
+        Path directory = logDirectory;
+        return directory == null ? null : ChainCheckpoint.read(directory);
+    }
+
+    /**
+     * Validates a chain received from a peer along with a checkpoint of it: the blocks up to the checkpoint are
+     * checked to link to each other and to agree with its work and requirement, and to carry their proof of work
+     * unless they are at or below the trusted block; those above it are validated in full, their transactions checked
+     * against those of the checkpoint.
+     *
+     * @param blocks           The chain, starting with the genesis block.
+     * @param checkpoint       The checkpoint, already checked to be intact.
+     * @param trustedBlockHash The hash of a block whose chain is trusted without checking its proof of work, or null.
+     * @return The total work of the chain, or null if the checkpoint does not anchor it or a block is invalid.
+     */
+    BigInteger validWorkAbove(List<Block> blocks, ChainCheckpoint checkpoint, String trustedBlockHash) {
+        int trusted = checkpoint.getHeight();
+        if (trusted >= blocks.size()) {
+            return null;
+        }
+        for (Block block : blocks) {
+            if (block == null || block.isPruned()) {
+                // The transactions of the checkpoint could not be found in such a block
+                return null;
+            }
+        }
+        int[] zeroBits = new int[blocks.size()];
+        int required = difficultyRule.getInitialZeroBits();
+        BigInteger work = BigInteger.ZERO;
+        BigInteger trustedWork = BigInteger.ZERO;
+        for (int height = 0; height < zeroBits.length; height++) {
+            zeroBits[height] = required;
+            if (height > 0) {
+                work = work.add(DifficultyRule.workOf(required));
+            }
+            if (height == trusted) {
+                trustedWork = work;
+            }
+            required = difficultyRule.zeroBitsAfter(blocks, height, required);
+        }
+        if (!checkpoint.anchors(blocks, trustedWork, zeroBits[trusted])) {
+            return null;
+        }
+        // The checkpoint was built by the peer itself, so only a block trusted from the configuration vouches for
+        // the work below it
+        int assumed = 0;
+        for (int height = trusted; height > 0; height--) {
+            if (blocks.get(height).getHash().equals(trustedBlockHash)) {
+                assumed = height;
+                break;
+            }
+        }
+        if (!difficultyRule.haveValidTimestamps(blocks, assumed + 1, System.currentTimeMillis())
+                || !ChainValidator.areWellFormed(blocks.subList(assumed + 1, trusted + 1),
+                Arrays.copyOfRange(zeroBits, assumed + 1, trusted + 1))) {
+            System.out.println("Blocks below the checkpoint at height " + trusted + " lack their proof of work");
+            return null;
+        }
+        // Indexed on the first probable hit of the filter; the genesis transaction keeps the index from looking empty
+        Map<String, Integer> lowestHeights = new HashMap<>();
+        ToIntFunction<String> heightOf = transaction -> {
+            if (lowestHeights.isEmpty()) {
+                for (int height = 0; height <= trusted; height++) {
+                    for (String confirmed : blocks.get(height).getTransactions()) {
+                        lowestHeights.putIfAbsent(confirmed, height);
+                    }
+                }
+            }
+            return lowestHeights.getOrDefault(transaction, -1);
+        };
+        return ChainValidator.isValid(blocks.subList(trusted + 1, blocks.size()),
+                Arrays.copyOfRange(zeroBits, trusted + 1, zeroBits.length), blocks.get(trusted).getHash(),
+                transaction -> checkpoint.confirms(transaction, heightOf)) ? work : null;
+    }
+
+    /**
+     * Gives access to the bodies of the pruned blocks of a snapshot of the chain by reading them back from the block
+     * log as they are needed. Blocks whose body cannot be read stay headers.
+     *
+     * @param blocks A snapshot of the chain, indexed by height.
+     * @return A view of the snapshot with the bodies of its blocks, or the snapshot itself if none is pruned.
+     */
+    private List<Block> withBodies(List<Block> blocks) {
+        BlockLog current = log;
+        // Pruned blocks always start at the genesis block
+        if (current == null || blocks.isEmpty() || !blocks.get(0).isPruned()) {
+            return blocks;
+        }
+        return new AbstractList<>() {
+            @Override
+            public Block get(int index) {
+                Block block = blocks.get(index);
+                if (!block.isPruned()) {
+                    return block;
+                }
+                try {
+                    Block stored = current.get(index);
+                    return stored != null && stored.getHash().equals(block.getHash()) ? stored : block;
+                } catch (IOException e) {
+                    return block;
+                }
+            }
+
+            @Override
+            public int size() {
+                return blocks.size();
+            }
+        };
+    }
+
+    /**
+     * Drops the transactions of the blocks more than the given depth below the tip, keeping only their headers. The
+     * blocks are pruned in batches as the chain grows, and their bodies stay in the block log if one is open. The
+     * transactions stay indexed by fingerprint for validation, but the chain no longer reorganizes below the pruned
+     * blocks, and a pruned chain without a block log cannot serve its history to new peers.
+     *
+     * @param depth The number of blocks below the tip that keep their body, at least one.
+     * @throws IllegalArgumentException If the depth is not positive.
+     */
+    public void enablePruning(int depth) {
+        if (depth < 1) {
+            throw new IllegalArgumentException("Pruning depth must be at least one block: " + depth);
+        }
+        if (pruneDepth == 0) {
+            // The fingerprint index must learn every transaction before the first body is dropped
+            chain.useTransactionIndex(new PrunedTransactionIndex());
+            transactionFilterMetrics = null;
+        }
+        pruneDepth = depth;
+        chain.prune(chain.size() - 1 - depth);
+    }
+
+    /**
+     * Moves the blocks of the chain, and every block appended later, out of the Java heap into an arena of direct
+     * buffers, so that the garbage collector no longer traces them. Blocks are then decoded on every read, and an
+     * exact transaction index is replaced by one keyed by fingerprint, as used by pruned chains, which keeps no
+     * reference to blocks. Must be called before the chain is shared with other threads.
+     */
+    public void enableOffHeapBlocks() {
+        chain.moveToArena();
+        if (pruneDepth == 0 && transactionFilterMetrics == null) {
+            chain.useTransactionIndex(new PrunedTransactionIndex());
+        }
+    }
+
+    /**
+     * Retrieves the memory reserved outside of the heap for the blocks of the chain.
+     *
+     * @return The size of the block arena, in bytes, zero if blocks are kept on the heap.
+     */
+    public long getOffHeapBytes() {
+        return chain.offHeapBytes();
+    }
+
+    /**
+     * Retrieves the number of lowest blocks of the chain whose body is pruned.
+     *
+     * @return The height of the lowest block keeping its body, zero if no block is pruned.
+     */
+    public int getPrunedHeight() {
+        return chain.prunedHeight();
+    }
+
+    /**
+     * Writes the block log to disk and closes it; later changes to the chain are no longer persisted.
+     */
+    public void closeLog() {
+        if (log != null) {
+            try {
+                log.close();
+            } catch (IOException e) {
+                System.err.println("Error closing block log: " + e.getMessage());
+            }
+            log = null;
+            logDirectory = null;
+            checkpointTransactions = null;
+            // Let the checkpoint being written reach the disk, so that the next open finds it
+            checkpointWriter.shutdown();
+            try {
+                if (!checkpointWriter.awaitTermination(1, TimeUnit.MINUTES)) {
+                    System.err.println("Gave up waiting for the checkpoint being written");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            checkpointWriter = null;
+        }
+    }
+
+    /**
+     * Stops persisting the chain after the block log could not be written. The log keeps the chain as it was before
+     * the failed write.
+     *
+     * @param e The write error.
+     */
+    private void abandonLog(IOException e) {
+        System.err.println("Error writing block log, no longer persisting the chain: " + e.getMessage());
+        closeLog();
+    }
+
+    /**
+     * Registers a listener to be notified of changes to the chain.
+     *
+     * @param listener The listener to register.
+     */
+    public void addListener(ChainListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Notifies every listener that the tip of the chain may have changed.
+     */
+    private void fireTipChanged() {
+        Block tip = chain.tip();
+        for (ChainListener listener : listeners) {
+            listener.tipChanged(tip);
         }
     }
 
@@ -53,6 +691,23 @@ public class BlockChain implements Serializable {
      * @return True if the new block is valid, false otherwise.
      */
     public boolean isValidNewBlock(Block newBlock, Block previousBlock) {
+        int previousHeight = previousBlock == null ? -1 : chain.heightOf(previousBlock);
+        return isValidNewBlock(newBlock, previousBlock, previousHeight, getDifficultyBitsAfter(previousBlock),
+                this::containsTransaction);
+    }
+
+    /**
+     * Validates a new block against an explicit proof-of-work requirement.
+     *
+     * @param newBlock       The new block to validate.
+     * @param previousBlock  The previous block in the blockchain.
+     * @param previousHeight The height of the previous block, or -1 if it is not on the active chain.
+     * @param zeroBits       The number of leading zero bits required of the hash of the new block.
+     * @param confirmed      Tells whether a transaction is already confirmed on the branch the new block extends.
+     * @return True if the new block is valid, false otherwise.
+     */
+    private boolean isValidNewBlock(Block newBlock, Block previousBlock, int previousHeight, int zeroBits,
+                                    Predicate<String> confirmed) {
         System.out.println("Validating new block");
         if (newBlock == null || previousBlock == null) {
             return false;
@@ -60,21 +715,41 @@ public class BlockChain implements Serializable {
 
         System.out.println("Checking if new block hash is correct");
         // Check the hash of the new block
-        if (!newBlock.getHash().equals(newBlock.calculateHash())) {
+        if (!newBlock.hasValidHash()) {
+            return false;
+        }
+        if (!newBlock.hasValidMerkleRoot()) {
+            System.out.println("Merkle root does not match the block transactions");
             return false;
         }
 
         // Check the proof of work
         System.out.println("Checking proof of work");
-        String target = new String(new char[difficulty]).replace('\0', '0');
-        if (!newBlock.getHash().substring(0, difficulty).equals(target)) {
+        if (!meetsDifficulty(newBlock, zeroBits)) {
+            return false;
+        }
+        if (!difficultyRule.hasValidTimestamp(newBlock, previousBlock, previousHeight, System.currentTimeMillis())) {
+            System.out.println("Block timestamp " + newBlock.getTimestamp() + " is not after its parent's "
+                    + previousBlock.getTimestamp() + " or too far ahead of local time");
             return false;
         }
         System.out.println("checking if block contains duplicate transaction " + newBlock.getTransactions().toString() );
-        if (containsTransaction(newBlock.getTransactions().get(0))) {
-            System.out.println("Duplicate transaction in block");
+        List<String> transactions = newBlock.getTransactions();
+        if (transactions == null || transactions.isEmpty()) {
+            System.out.println("Block has no transactions");
             return false;
         }
+        Set<String> seen = new HashSet<>();
+        for (String transaction : transactions) {
+            if (transaction == null || transaction.isEmpty() || !seen.add(transaction)) {
+                System.out.println("Invalid or repeated transaction in block: " + transaction);
+                return false;
+            }
+            if (confirmed.test(transaction)) {
+                System.out.println("Duplicate transaction in block");
+                return false;
+            }
+        }
 
         return true;
     }
@@ -85,16 +760,97 @@ public class BlockChain implements Serializable {
      * @return The last block in the blockchain.
      */
     public Block getLastBlock() {
-        return chain.getLast();
+        return chain.tip();
+    }
+
+    /**
+     * Retrieves the block at the given height.
+     *
+     * @param height The height of the block, zero for the genesis block.
+     * @return The block at that height.
+     * @throws IndexOutOfBoundsException If the chain has no block at that height.
+     */
+    public Block getBlock(int height) {
+        return chain.get(height);
     }
 
     /**
-     * Retrieves the difficulty level of the blockchain.
+     * Finds the height of the block with the given hash.
      *
-     * @return The difficulty level of the blockchain.
+     * @param hash The hash of the block.
+     * @return The height of the block, or -1 if it is not in the chain.
+     */
+    public int getHeight(String hash) {
+        return chain.heightOf(hash);
+    }
+
+    /**
+     * Retrieves the difficulty level of the next block, in whole leading zero hex digits.
+     *
+     * @return The difficulty level of the blockchain, rounded down to whole hex digits.
      */
     public int getDifficulty() {
-        return difficulty;
+        return getDifficultyBits() / 4;
+    }
+
+    /**
+     * Retrieves the number of leading zero bits required of the next block.
+     *
+     * @return The number of leading zero bits required of a block extending the tip.
+     */
+    public int getDifficultyBits() {
+        return chain.zeroBitsAfter(null);
+    }
+
+    /**
+     * Retrieves the rule deciding the proof of work required of each block.
+     *
+     * @return The difficulty rule.
+     */
+    public DifficultyRule getDifficultyRule() {
+        return difficultyRule;
+    }
+
+    /**
+     * Computes the number of leading zero bits required of a block extending the given block. A block that is not in
+     * the chain is assumed to be at its tip.
+     *
+     * @param previousBlock The block being extended.
+     * @return The number of leading zero bits required.
+     */
+    public int getDifficultyBitsAfter(Block previousBlock) {
+        return chain.zeroBitsAfter(previousBlock);
+    }
+
+    /**
+     * Retrieves the total work of the chain, that is the number of hashes expected to have been computed to mine every
+     * block above the genesis block.
+     *
+     * @return The total work of the chain.
+     */
+    public BigInteger getTotalWork() {
+        return chain.totalWork();
+    }
+
+    /**
+     * Retrieves the work of the blocks above a given block of the chain.
+     *
+     * @param block The block to count work from.
+     * @return The total work of the blocks above the given block, or null if it is not in the chain.
+     */
+    public BigInteger getWorkSince(Block block) {
+        return block == null ? null : chain.workSince(block);
+    }
+
+    /**
+     * Checks whether the hash of a block has the required number of leading zero bits.
+     *
+     * @param block    The block to check.
+     * @param zeroBits The number of leading zero bits required.
+     * @return True if the proof of work is sufficient, false otherwise.
+     */
+    static boolean meetsDifficulty(Block block, int zeroBits) {
+        return block.hasLeadingZeroBits(zeroBits);
     }
 
     /**
@@ -110,45 +866,58 @@ public class BlockChain implements Serializable {
         // Check for a valid link to the existing chain
         Block firstIncomingBlock = incomingBlocks.get(0);
         String expectedPreviousHash = firstIncomingBlock.getPreviousHash();
-        Block linkingBlock = chain.getLast();
+        Block linkingBlock = chain.tip();
 
         if (!Objects.equals(linkingBlock.getHash(), expectedPreviousHash)) {
             return false; // The first incoming block must correctly link to a block in our existing chain
         }
 
-        // Validate the incoming chain
-        Block previousBlock = linkingBlock;
-        long incomingChainWork = 0;
-        for (Block block : incomingBlocks) {
-            if (!isValidNewBlock(block, previousBlock)) return false;
-            incomingChainWork += block.getNonce(); // Calculate work for proof of work consensus, replace if using a different method
-            previousBlock = block;
+        // Follow the requirement block by block, which only reads timestamps
+        List<Block> extendedChain = extend(chain.view(), incomingBlocks);
+        int height = chain.size() - 1;
+        int[] zeroBits = new int[incomingBlocks.size()];
+        int required = chain.zeroBitsAfter(height);
+        BigInteger incomingChainWork = BigInteger.ZERO;
+        for (int i = 0; i < zeroBits.length; i++) {
+            zeroBits[i] = required;
+            incomingChainWork = incomingChainWork.add(DifficultyRule.workOf(required));
+            required = difficultyRule.zeroBitsAfter(extendedChain, ++height, required);
+        }
+
+        if (!difficultyRule.haveValidTimestamps(extendedChain, extendedChain.size() - incomingBlocks.size(),
+                System.currentTimeMillis())) {
+            return false;
+        }
+
+        // Check the hashes and proofs of work in parallel, then the links and transactions in order
+        if (!ChainValidator.isValid(incomingBlocks, zeroBits, linkingBlock.getHash(), this::isConfirmed)) {
+            return false;
         }
 
         // Compare the total work of the incoming chain with the current chain's work from the divergence point
-        long currentChainWork = calculateWorkFromBlock(linkingBlock);
-        return incomingChainWork > currentChainWork;
+        BigInteger currentChainWork = getWorkSince(linkingBlock);
+        return incomingChainWork.compareTo(currentChainWork) > 0;
     }
 
     /**
-     * Calculates the total work from a given block to the end of the chain.
+     * Creates a read-only view of a chain followed by more blocks, without copying either.
      *
-     * @param startBlock The block to start calculating work from.
-     * @return The total work from the start block to the end of the chain.
+     * @param blocks     The chain, indexed by height.
+     * @param moreBlocks The blocks following the chain.
+     * @return The concatenation of both lists.
      */
-    private long calculateWorkFromBlock(Block startBlock) {
-        // Calculate the total work from a given block to the end of the chain
-        long work = 0;
-        boolean startCounting = false;
-        for (Block block : chain) {
-            if (startCounting) {
-                work += block.getNonce(); // Assuming proof of work, this adds the nonce as a simplistic work metric
+    private static List<Block> extend(List<Block> blocks, List<Block> moreBlocks) {
+        return new AbstractList<>() {
+            @Override
+            public Block get(int index) {
+                return index < blocks.size() ? blocks.get(index) : moreBlocks.get(index - blocks.size());
             }
-            if (block.equals(startBlock)) {
-                startCounting = true;
+
+            @Override
+            public int size() {
+                return blocks.size() + moreBlocks.size();
             }
-        }
-        return work;
+        };
     }
 
     /**
@@ -158,41 +927,105 @@ public class BlockChain implements Serializable {
      * @param incomingBlocks The missing chain received from another node.
      */
     public void addMissingChain(Block block, List<Block> incomingBlocks) {
-        Block linkingBlock = findLinkingBlockByHash(incomingBlocks.get(0).getPreviousHash());
-        // Determine the index of the linking block in the chain
-        int linkingIndex = chain.indexOf(linkingBlock);
+        // Determine the height of the linking block in the chain
+        int linkingIndex = chain.heightOf(incomingBlocks.get(0).getPreviousHash());
 
         if (linkingIndex == -1) {
             System.out.println("Linking block is not in the current chain.");
             return;
         }
 
-        // Remove blocks from the linking block's index to the end of the chain
-        while (chain.size() > linkingIndex + 1) {
-            chain.remove(chain.size() - 1);
+        // Place the incoming blocks on a branch from the linking block, then switch to it
+        BlockTree.SideBlock newTip = null;
+        for (Block incomingBlock : incomingBlocks) {
+            if (chain.heightOf(incomingBlock.getHash()) == -1) {
+                newTip = attach(incomingBlock, false);
+                if (newTip == null) {
+                    break;
+                }
+                tree.put(newTip);
+            }
+        }
+        if (newTip != null) {
+            reorganize(newTip);
         }
-
-        // Add all incoming blocks after the linking block
-        chain.addAll(incomingBlocks);
         System.out.println("Chain updated from the linking block with incoming blocks.");
     }
 
     /**
      * Retrieves the current blockchain.
      *
-     * @return The current blockchain.
+     * @return An immutable snapshot of the current blockchain, indexed by height, taken without locking or copying.
      */
     public List<Block> getChain() {
-        return chain;
+        return chain.view();
+    }
+
+    /**
+     * Retrieves the current blockchain with the bodies of its pruned blocks, read back from the block log, to serve it
+     * to a peer.
+     *
+     * @return The blocks of the chain, indexed by height; pruned blocks whose body is not in the log are headers.
+     */
+    public List<Block> getFullChain() {
+        List<Block> blocks = chain.view();
+        List<Block> full = withBodies(blocks);
+        return full == blocks ? blocks : new ArrayList<>(full);
     }
 
     /**
      * Replaces the current blockchain with a new chain.
      *
+     * Only the blocks above the last block both chains share are disconnected and connected; the disconnected blocks
+     * are kept as a side branch. A chain with another genesis block replaces every block. A chain that would
+     * disconnect pruned blocks is rejected, leaving the current chain as it is.
+     *
      * @param newChain The new chain to replace the current blockchain.
+     * @return True if the chain was replaced, false if it was rejected.
      */
-    public void replaceChain(List<Block> newChain) {
-        this.chain = new LinkedList<>(newChain);
+    public boolean replaceChain(List<Block> newChain) {
+        int shared = Math.min(chain.size(), newChain.size()) - 1;
+        if (shared >= 0 && !Objects.equals(chain.get(0).getHash(), newChain.get(0).getHash())) {
+            shared = -1;
+        }
+        while (shared >= 0 && !Objects.equals(chain.get(shared).getHash(), newChain.get(shared).getHash())) {
+            shared--;
+        }
+        if (shared + 1 < chain.prunedHeight()) {
+            // Their transactions are no longer known, so the blocks cannot be disconnected
+            System.out.println("Chain forks below the pruned blocks, at height " + shared + ", rejected");
+            return false;
+        }
+        if (shared == -1) {
+            while (chain.size() > 0) {
+                disconnectTip();
+            }
+            tree.clear();
+            for (Block block : newChain) {
+                connect(block);
+            }
+            fireTipChanged();
+            return true;
+        }
+
+        BlockTree.SideBlock newTip = null;
+        for (Block block : newChain.subList(shared + 1, newChain.size())) {
+            newTip = attach(block, false);
+            if (newTip == null) {
+                System.out.println("Chain cannot be attached at block " + block.getHash() + ", rejected");
+                return false;
+            }
+            tree.put(newTip);
+        }
+        if (newTip != null) {
+            reorganize(newTip);
+        } else {
+            while (chain.size() - 1 > shared) {
+                disconnectTip();
+            }
+            fireTipChanged();
+        }
+        return true;
     }
 
     /**
@@ -202,16 +1035,57 @@ public class BlockChain implements Serializable {
      * @return True if the transaction is in the blockchain, false otherwise.
      */
     public boolean containsTransaction(String transaction) {
-        if(chain == null || chain.isEmpty()) return false;
-        for (Block block : chain) {
-            if (block.getTransactions().contains(transaction)) {
-                System.out.println("Transaction already in chain");
-                return true;
-            }
+        if (isConfirmed(transaction)) {
+            System.out.println("Transaction already in chain");
+            return true;
         }
         return false;
     }
 
+    /**
+     * Checks if a transaction is confirmed in the blockchain, in constant time and without logging. Safe to call
+     * while another thread changes the chain.
+     *
+     * @param transaction The transaction to look up.
+     * @return True if a block of the chain contains the transaction, false otherwise.
+     */
+    public boolean isConfirmed(String transaction) {
+        return transaction != null && chain.getByTransaction(transaction) != null;
+    }
+
+    /**
+     * Finds the block confirming a transaction.
+     *
+     * @param transaction The transaction to look up.
+     * @return The block of the chain containing the transaction, or null if it is not confirmed.
+     */
+    public Block findBlockByTransaction(String transaction) {
+        return transaction == null ? null : chain.getByTransaction(transaction);
+    }
+
+    /**
+     * Replaces the exact index of confirmed transactions with a Bloom filter of bounded size. Lookups of unconfirmed
+     * transactions are then usually answered by the filter alone, while probable hits are confirmed by a compact
+     * table of transaction fingerprints.
+     *
+     * @param falsePositiveRate The target rate of lookups that reach the table in vain, between zero and one.
+     * @param maxBytes          The memory budget of the filter, in bytes.
+     */
+    public void enableTransactionFilter(double falsePositiveRate, long maxBytes) {
+        TransactionFilterMetrics metrics = new TransactionFilterMetrics();
+        chain.useTransactionIndex(new FilteredTransactionIndex(falsePositiveRate, maxBytes, metrics));
+        transactionFilterMetrics = metrics;
+    }
+
+    /**
+     * Retrieves the counters of the confirmed-transaction filter.
+     *
+     * @return The counters, or null if the filter is not enabled.
+     */
+    public TransactionFilterMetrics getTransactionFilterMetrics() {
+        return transactionFilterMetrics;
+    }
+
     /**
      * Checks if the blockchain contains a list of transactions.
      *
@@ -234,22 +1108,102 @@ public class BlockChain implements Serializable {
      * @return The missing chain from the block with the given hash to the end of the blockchain.
      */
     public List<Block> findMissingChainByHash(String hash) {
-        // This method needs to search through the blockchain to find the block with the given hash
-        for (Block block : chain) {
-            if (block.getHash().equals(hash)) {
-                return chain.subList(chain.indexOf(block), chain.size());
+        int height = chain.heightOf(hash);
+        if (height == -1) {
+            return emptyList();
+        }
+        return chain.view().subList(height, chain.size());
+    }
+
+    /**
+     * Describes the active chain to a peer by the hashes of a few of its blocks: the ten highest, then blocks
+     * exponentially further apart, down to the genesis block. A peer finds the highest block both chains share
+     * among them, however long the chains and however deep the fork.
+     *
+     * @return The hashes of the sampled blocks, highest first.
+     */
+    public List<String> getLocator() {
+        List<String> locator = new ArrayList<>();
+        int step = 1;
+        for (int height = chain.size() - 1; height > 0; height -= step) {
+            locator.add(chain.get(height).getHash());
+            if (locator.size() >= 10) {
+                step *= 2;
+            }
+        }
+        locator.add(chain.get(0).getHash());
+        return locator;
+    }
+
+    /**
+     * Finds the blocks of the active chain a peer is missing below a given block.
+     *
+     * @param hash      The hash of the highest block wanted.
+     * @param locator   The locator of the peer's chain, highest first, as built by {@link #getLocator()}.
+     * @param maxBlocks The largest number of blocks to return.
+     * @return The blocks above the highest block of the locator in our chain, up to and including the wanted block,
+     * lowest first; empty if the wanted block is not in our chain, no block is shared, or too many are missing.
+     */
+    public List<Block> getAncestors(String hash, List<String> locator, int maxBlocks) {
+        // Heights are checked against a single snapshot, as the chain may change meanwhile
+        List<Block> blocks = chain.view();
+        int height = heightIn(blocks, hash);
+        if (height == -1) {
+            return emptyList();
+        }
+        int shared = -1;
+        for (String locatorHash : locator) {
+            int locatorHeight = heightIn(blocks, locatorHash);
+            if (locatorHeight != -1 && locatorHeight <= height) {
+                shared = locatorHeight;
+                break;
+            }
+        }
+        if (shared == -1 || height - shared > maxBlocks) {
+            return emptyList();
+        }
+        return new ArrayList<>(withBodies(blocks).subList(shared + 1, height + 1));
+    }
+
+    /**
+     * Finds the blocks of the active chain a peer is missing above its tip, so that a node restored from its block log
+     * only downloads the blocks mined while it was down.
+     *
+     * @param locator   The locator of the peer's chain, highest first, as built by {@link #getLocator()}.
+     * @param maxBlocks The largest number of blocks to return.
+     * @return Up to {@code maxBlocks} blocks above the highest block of the locator in our chain, lowest first; empty
+     * if no block is shared.
+     */
+    public List<Block> getBlocksAfter(List<String> locator, int maxBlocks) {
+        List<Block> blocks = chain.view();
+        for (String locatorHash : locator) {
+            int shared = heightIn(blocks, locatorHash);
+            if (shared != -1) {
+                return new ArrayList<>(withBodies(blocks).subList(shared + 1, Math.min(blocks.size(), shared + 1 + maxBlocks)));
             }
         }
         return emptyList();
     }
 
+    /**
+     * Finds the height of a block within a snapshot of the chain.
+     *
+     * @param blocks A snapshot of the chain.
+     * @param hash   The hash of the block.
+     * @return The height of the block, or -1 if it is not in the snapshot.
+     */
+    private int heightIn(List<Block> blocks, String hash) {
+        int height = chain.heightOf(hash);
+        return height != -1 && height < blocks.size() && blocks.get(height).getHash().equals(hash) ? height : -1;
+    }
+
     /**
      * Checks if the blockchain is empty.
      *
      * @return True if the blockchain is empty, false otherwise.
      */
     public boolean isEmpty() {
-        return chain.isEmpty();
+        return chain.size() == 0;
     }
 
     /**
@@ -260,8 +1214,8 @@ public class BlockChain implements Serializable {
     @Override
     public String toString() {
         return "BlockChain{" +
-                "chain=" + chain +
-                ", difficulty=" + difficulty +
+                "chain=" + chain.view() +
+                ", difficultyRule=" + difficultyRule +
                 '}';
     }
 
@@ -272,12 +1226,7 @@ public class BlockChain implements Serializable {
      * @return The block that links to the block with the given hash.
      */
     public Block findLinkingBlockByHash(String previousHash) {
-        for (Block block : chain) {
-            if (block.getHash().equals(previousHash)) {
-                return block;
-            }
-        }
-        return null;
+        return chain.getByHash(previousHash);
     }
 
     /**
@@ -287,6 +1236,6 @@ public class BlockChain implements Serializable {
      * @return True if the block is in the blockchain, false otherwise.
      */
     public boolean containsBlock(Block block) {
-        return chain.contains(block);
+        return block != null && chain.heightOf(block) != -1;
     }
 }
@@ -0,0 +1,601 @@
+package blockchain;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StreamCorruptedException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Encodes blocks, and the messages peers exchange about them, in a compact and versioned binary format, for the peer
+ * protocol and the block log.
+ * <p>
+ * An encoded block starts with the {@link #FORMAT_VERSION} of the codec, then holds the header version, a flag byte,
+ * the hash and previous hash as raw 32-byte digests, the Merkle root of Merkle blocks, the timestamp and nonce as
+ * unsigned varints, and, unless the block is pruned, the number of transactions followed by each transaction as its
+ * UTF-8 bytes prefixed by their length plus one, zero standing for a null transaction. A hash that is not a SHA-256
+ * hash, such as the previous hash of a genesis block, is written as length-prefixed text instead, as the flags tell.
+ * <p>
+ * On a stream, a block is prefixed by its length and a sequence of blocks by their number. A peer message starts with
+ * {@link #MAGIC}, which also tells it from a Java serialization stream, followed by its command as a length-prefixed
+ * string and the arguments of the command. Decoding never trusts a length before checking it against the bytes
+ * available and the limits below, and only ever builds blocks and strings, so a malformed or hostile message costs no
+ * more memory than its own size and fails with an {@link IOException}.
+ */
+public final class BlockCodec {
+    /**
+     * Version of the encoding of blocks, the first byte of every encoded block.
+     */
+    public static final int FORMAT_VERSION = 1;
+    /**
+     * Start of every peer message: "BLK" followed by the version of the encoding.
+     */
+    static final byte[] MAGIC = {'B', 'L', 'K', FORMAT_VERSION};
+    /**
+     * Largest encoded block accepted from a stream, in bytes.
+     */
+    static final int MAX_BLOCK_BYTES = 64 * 1024 * 1024;
+    /**
+     * Largest string accepted from a stream, in bytes: commands and block hashes.
+     */
+    private static final int MAX_STRING_BYTES = 1024;
+    /**
+     * Largest number of strings accepted in a list from a stream, which bounds block locators.
+     */
+    private static final int MAX_STRINGS = 4096;
+    /**
+     * Flag of a block whose hash is written as text.
+     */
+    private static final int IRREGULAR_HASH = 1;
+    /**
+     * Flag of a block whose previous hash is written as text.
+     */
+    private static final int IRREGULAR_PREVIOUS_HASH = 2;
+    /**
+     * Flag of a block written without its transactions.
+     */
+    private static final int PRUNED = 4;
+
+    /**
+     * Private constructor to prevent instantiation of the utility class.
+     */
+    private BlockCodec() {
+    }
+
+    /**
+     * Encodes a block.
+     *
+     * @param block The block.
+     * @return The encoded block.
+     */
+    public static byte[] encode(Block block) {
+        Writer out = new Writer(128);
+        out.write(FORMAT_VERSION);
+        out.writeVarint(Integer.toUnsignedLong(block.getVersion()));
+        out.write((block.irregularHash() == null ? 0 : IRREGULAR_HASH)
+                | (block.irregularPreviousHash() == null ? 0 : IRREGULAR_PREVIOUS_HASH)
+                | (block.isPruned() ? PRUNED : 0));
+        byte[] digests = block.rawDigests();
+        writeDigest(out, digests, 0, block.irregularHash());
+        writeDigest(out, digests, MiningKernel.DIGEST_LENGTH, block.irregularPreviousHash());
+        if (digests.length > 2 * MiningKernel.DIGEST_LENGTH) {
+            out.write(digests, 2 * MiningKernel.DIGEST_LENGTH, MiningKernel.DIGEST_LENGTH);
+        }
+        out.writeVarint(block.getTimestamp());
+        out.writeVarint(Integer.toUnsignedLong(block.getNonce()));
+        TransactionList transactions = block.packedTransactions();
+        if (transactions != null) {
+            out.writeVarint(transactions.size());
+            for (int i = 0; i < transactions.size(); i++) {
+                int length = transactions.encodedLength(i);
+                out.writeVarint(length + 1);
+                if (length > 0) {
+                    byte[] target = out.reserve(length);
+                    transactions.copyEncoded(i, target, out.size - length);
+                }
+            }
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Decodes a block encoded by {@link #encode(Block)}.
+     *
+     * @param bytes The encoded block.
+     * @return The block.
+     * @throws IOException If the bytes are not a block of a known format version.
+     */
+    public static Block decode(byte[] bytes) throws IOException {
+        Reader in = new Reader(bytes);
+        int format = in.read();
+        if (format != FORMAT_VERSION) {
+            throw new StreamCorruptedException("Unknown block format version: " + format);
+        }
+        int version = in.readUnsignedInt();
+        int flags = in.read();
+        byte[] digests = new byte[version == Block.MERKLE_VERSION ? 3 * MiningKernel.DIGEST_LENGTH
+                : 2 * MiningKernel.DIGEST_LENGTH];
+        String irregularHash = readDigest(in, digests, 0, (flags & IRREGULAR_HASH) != 0);
+        String irregularPreviousHash = readDigest(in, digests, MiningKernel.DIGEST_LENGTH,
+                (flags & IRREGULAR_PREVIOUS_HASH) != 0);
+        if (version == Block.MERKLE_VERSION) {
+            in.read(digests, 2 * MiningKernel.DIGEST_LENGTH, MiningKernel.DIGEST_LENGTH);
+        }
+        long timestamp = in.readVarint();
+        int nonce = in.readUnsignedInt();
+        TransactionList transactions = null;
+        if ((flags & PRUNED) == 0) {
+            // Every transaction takes at least one byte, which bounds the list before it is read
+            int count = in.readLength(in.remaining());
+            List<String> list = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                int length = in.readLength(in.remaining() + 1) - 1;
+                list.add(length < 0 ? null : in.readString(length));
+            }
+            transactions = TransactionList.of(list);
+        }
+        if (in.remaining() != 0) {
+            throw new StreamCorruptedException(in.remaining() + " bytes after the end of a block");
+        }
+        return new Block(version, digests, irregularHash, irregularPreviousHash, timestamp, transactions, nonce);
+    }
+
+    /**
+     * Checks whether bytes start like a block encoded by {@link #encode(Block)}, as opposed to a Java serialization
+     * stream, whose first byte is 0xAC.
+     *
+     * @param bytes The bytes.
+     * @return True if they start with a known format version.
+     */
+    static boolean isEncoded(byte[] bytes) {
+        return bytes.length > 0 && bytes[0] == FORMAT_VERSION;
+    }
+
+    /**
+     * Writes a block to a stream, prefixed by its length.
+     *
+     * @param out   The stream.
+     * @param block The block.
+     * @throws IOException If the stream cannot be written.
+     */
+    public static void writeBlock(OutputStream out, Block block) throws IOException {
+        writeBytes(out, encode(block));
+    }
+
+    /**
+     * Reads a block written by {@link #writeBlock(OutputStream, Block)}.
+     *
+     * @param in The stream.
+     * @return The block.
+     * @throws IOException If the stream cannot be read, ends early or does not hold a block.
+     */
+    public static Block readBlock(InputStream in) throws IOException {
+        return decode(readBytes(in, MAX_BLOCK_BYTES));
+    }
+
+    /**
+     * Writes a sequence of blocks to a stream, prefixed by their number.
+     *
+     * @param out    The stream.
+     * @param blocks The blocks.
+     * @throws IOException If the stream cannot be written.
+     */
+    public static void writeBlocks(OutputStream out, List<Block> blocks) throws IOException {
+        writeVarint(out, blocks.size());
+        for (Block block : blocks) {
+            writeBlock(out, block);
+        }
+    }
+
+    /**
+     * Reads a sequence of blocks written by {@link #writeBlocks(OutputStream, List)}.
+     *
+     * @param in The stream.
+     * @return The blocks, in order.
+     * @throws IOException If the stream cannot be read, ends early or does not hold blocks.
+     */
+    public static List<Block> readBlocks(InputStream in) throws IOException {
+        int count = readLength(in, Integer.MAX_VALUE);
+        // The number is not trusted to size the list, which grows as blocks actually arrive
+        List<Block> blocks = new ArrayList<>(Math.min(count, 1024));
+        for (int i = 0; i < count; i++) {
+            blocks.add(readBlock(in));
+        }
+        return blocks;
+    }
+
+    /**
+     * Writes a string to a stream, prefixed by the length of its UTF-8 bytes.
+     *
+     * @param out   The stream.
+     * @param value The string.
+     * @throws IOException If the stream cannot be written.
+     */
+    static void writeString(OutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarint(out, bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Reads a string written by {@link #writeString(OutputStream, String)}.
+     *
+     * @param in The stream.
+     * @return The string.
+     * @throws IOException If the stream cannot be read, ends early or the string is too long.
+     */
+    static String readString(InputStream in) throws IOException {
+        return new String(readBytes(in, MAX_STRING_BYTES), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Writes a list of strings to a stream, prefixed by their number.
+     *
+     * @param out    The stream.
+     * @param values The strings.
+     * @throws IOException If the stream cannot be written.
+     */
+    static void writeStrings(OutputStream out, List<String> values) throws IOException {
+        writeVarint(out, values.size());
+        for (String value : values) {
+            writeString(out, value);
+        }
+    }
+
+    /**
+     * Reads a list of strings written by {@link #writeStrings(OutputStream, List)}.
+     *
+     * @param in The stream.
+     * @return The strings.
+     * @throws IOException If the stream cannot be read, ends early or the list is too long.
+     */
+    static List<String> readStrings(InputStream in) throws IOException {
+        int count = readLength(in, MAX_STRINGS);
+        List<String> values = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            values.add(readString(in));
+        }
+        return values;
+    }
+
+    /**
+     * Writes bytes to a stream, prefixed by their length.
+     *
+     * @param out   The stream.
+     * @param bytes The bytes.
+     * @throws IOException If the stream cannot be written.
+     */
+    static void writeBytes(OutputStream out, byte[] bytes) throws IOException {
+        writeVarint(out, bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Starts a peer message.
+     *
+     * @param out     The stream.
+     * @param command The command of the message.
+     * @throws IOException If the stream cannot be written.
+     */
+    static void writeCommand(OutputStream out, String command) throws IOException {
+        out.write(MAGIC);
+        writeString(out, command);
+    }
+
+    /**
+     * Reads the start of a peer message written by {@link #writeCommand(OutputStream, String)}.
+     *
+     * @param in The stream.
+     * @return The command of the message.
+     * @throws IOException If the stream cannot be read or does not start with {@link #MAGIC}.
+     */
+    static String readCommand(InputStream in) throws IOException {
+        byte[] magic = in.readNBytes(MAGIC.length);
+        if (!Arrays.equals(magic, MAGIC)) {
+            throw new StreamCorruptedException("Not a peer message of format version " + FORMAT_VERSION);
+        }
+        return readString(in);
+    }
+
+    /**
+     * Writes a hash as a raw digest, or as text if it is kept as text.
+     *
+     * @param out       The writer.
+     * @param digests   The raw digests of the block.
+     * @param offset    The offset of the hash in the digests.
+     * @param irregular The hash kept as text, or null.
+     */
+    private static void writeDigest(Writer out, byte[] digests, int offset, String irregular) {
+        if (irregular == null) {
+            out.write(digests, offset, MiningKernel.DIGEST_LENGTH);
+        } else {
+            byte[] bytes = irregular.getBytes(StandardCharsets.UTF_8);
+            out.writeVarint(bytes.length);
+            out.write(bytes, 0, bytes.length);
+        }
+    }
+
+    /**
+     * Reads a hash written by {@link #writeDigest(Writer, byte[], int, String)}.
+     *
+     * @param in        The reader.
+     * @param digests   The raw digests of the block, where a raw hash is stored.
+     * @param offset    The offset of the hash in the digests.
+     * @param irregular True if the hash was written as text.
+     * @return The hash read as text, or null if it was raw.
+     * @throws IOException If the bytes end early.
+     */
+    private static String readDigest(Reader in, byte[] digests, int offset, boolean irregular) throws IOException {
+        if (!irregular) {
+            in.read(digests, offset, MiningKernel.DIGEST_LENGTH);
+            return null;
+        }
+        return in.readString(in.readLength(MAX_STRING_BYTES));
+    }
+
+    /**
+     * Writes an unsigned varint to a stream: seven bits per byte, lowest first, the high bit set on every byte but
+     * the last.
+     *
+     * @param out   The stream.
+     * @param value The value, read as unsigned.
+     * @throws IOException If the stream cannot be written.
+     */
+    static void writeVarint(OutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    /**
+     * Reads a length written as a varint to a stream and checks it.
+     *
+     * @param in  The stream.
+     * @param max The largest length accepted.
+     * @return The length.
+     * @throws IOException If the stream cannot be read or ends early, or the length exceeds the maximum.
+     */
+    static int readLength(InputStream in, int max) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < Long.SIZE; shift += 7) {
+            int b = in.read();
+            if (b < 0) {
+                throw new EOFException("Stream ended within a length");
+            }
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                if (value < 0 || value > max) {
+                    throw new StreamCorruptedException("Length " + value + " exceeds " + max);
+                }
+                return (int) value;
+            }
+        }
+        throw new StreamCorruptedException("Varint longer than ten bytes");
+    }
+
+    /**
+     * Reads length-prefixed bytes from a stream.
+     *
+     * @param in  The stream.
+     * @param max The largest length accepted.
+     * @return The bytes.
+     * @throws IOException If the stream cannot be read or ends early, or the length exceeds the maximum.
+     */
+    static byte[] readBytes(InputStream in, int max) throws IOException {
+        int length = readLength(in, max);
+        byte[] bytes = in.readNBytes(length);
+        if (bytes.length != length) {
+            throw new EOFException("Stream ended after " + bytes.length + " of " + length + " bytes");
+        }
+        return bytes;
+    }
+
+    /**
+     * Writes into a byte array that grows as needed.
+     */
+    private static final class Writer {
+        /**
+         * The bytes written, followed by free space.
+         */
+        private byte[] bytes;
+        /**
+         * The number of bytes written.
+         */
+        private int size;
+
+        /**
+         * Creates a writer.
+         *
+         * @param capacity The initial capacity, in bytes.
+         */
+        Writer(int capacity) {
+            this.bytes = new byte[capacity];
+        }
+
+        /**
+         * Writes a byte.
+         *
+         * @param value The byte, in the low eight bits.
+         */
+        void write(int value) {
+            reserve(1)[size - 1] = (byte) value;
+        }
+
+        /**
+         * Writes bytes.
+         *
+         * @param source The array holding the bytes.
+         * @param offset The offset of the first byte.
+         * @param length The number of bytes.
+         */
+        void write(byte[] source, int offset, int length) {
+            System.arraycopy(source, offset, reserve(length), size - length, length);
+        }
+
+        /**
+         * Writes an unsigned varint.
+         *
+         * @param value The value, read as unsigned.
+         */
+        void writeVarint(long value) {
+            while ((value & ~0x7FL) != 0) {
+                write((int) (value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            write((int) value);
+        }
+
+        /**
+         * Counts bytes as written, growing the array if needed, for the caller to fill them.
+         *
+         * @param length The number of bytes.
+         * @return The array, whose bytes from {@code size - length} to {@code size} are to be filled.
+         */
+        byte[] reserve(int length) {
+            if (size + length > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(2 * bytes.length, size + length));
+            }
+            size += length;
+            return bytes;
+        }
+
+        /**
+         * Copies the bytes written.
+         *
+         * @return The bytes.
+         */
+        byte[] toByteArray() {
+            return Arrays.copyOf(bytes, size);
+        }
+    }
+
+    /**
+     * Reads from a byte array, checking every read against its end.
+     */
+    private static final class Reader {
+        /**
+         * The bytes.
+         */
+        private final byte[] bytes;
+        /**
+         * The offset of the next byte to read.
+         */
+        private int position;
+
+        /**
+         * Creates a reader.
+         *
+         * @param bytes The bytes.
+         */
+        Reader(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        /**
+         * Counts the bytes left.
+         *
+         * @return The number of bytes not read yet.
+         */
+        int remaining() {
+            return bytes.length - position;
+        }
+
+        /**
+         * Reads a byte.
+         *
+         * @return The byte, from 0 to 255.
+         * @throws EOFException If no byte is left.
+         */
+        int read() throws EOFException {
+            if (position == bytes.length) {
+                throw new EOFException("Block ends early");
+            }
+            return bytes[position++] & 0xFF;
+        }
+
+        /**
+         * Reads bytes into an array.
+         *
+         * @param destination The array.
+         * @param offset      The offset at which to store them.
+         * @param length      The number of bytes.
+         * @throws EOFException If fewer bytes are left.
+         */
+        void read(byte[] destination, int offset, int length) throws EOFException {
+            if (length > remaining()) {
+                throw new EOFException("Block ends early");
+            }
+            System.arraycopy(bytes, position, destination, offset, length);
+            position += length;
+        }
+
+        /**
+         * Reads UTF-8 bytes as a string.
+         *
+         * @param length The number of bytes.
+         * @return The string.
+         * @throws EOFException If fewer bytes are left.
+         */
+        String readString(int length) throws EOFException {
+            if (length > remaining()) {
+                throw new EOFException("Block ends early");
+            }
+            String value = new String(bytes, position, length, StandardCharsets.UTF_8);
+            position += length;
+            return value;
+        }
+
+        /**
+         * Reads an unsigned varint.
+         *
+         * @return The value.
+         * @throws IOException If the bytes end early or the varint is longer than ten bytes.
+         */
+        long readVarint() throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < Long.SIZE; shift += 7) {
+                int b = read();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new StreamCorruptedException("Varint longer than ten bytes");
+        }
+
+        /**
+         * Reads an int written as an unsigned varint.
+         *
+         * @return The value, whose 32 bits were written as unsigned.
+         * @throws IOException If the bytes end early or the value does not fit in 32 bits.
+         */
+        int readUnsignedInt() throws IOException {
+            long value = readVarint();
+            if (value >>> Integer.SIZE != 0) {
+                throw new StreamCorruptedException("Value " + value + " exceeds 32 bits");
+            }
+            return (int) value;
+        }
+
+        /**
+         * Reads a length written as a varint and checks it.
+         *
+         * @param max The largest length accepted.
+         * @return The length.
+         * @throws IOException If the bytes end early or the length exceeds the maximum.
+         */
+        int readLength(int max) throws IOException {
+            long value = readVarint();
+            if (value < 0 || value > max) {
+                throw new StreamCorruptedException("Length " + value + " exceeds " + max);
+            }
+            return (int) value;
+        }
+    }
+}
@@ -0,0 +1,345 @@
+package blockchain;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only log of the blocks of a chain on disk, with a memory-mapped index.
+ * <p>
+ * Blocks are encoded by {@link BlockCodec} one after the other into a segment file and never rewritten. The index file maps each height
+ * of the chain to the offset, length, checksum and hash of its record, in fixed-size entries, after a header holding
+ * the number of blocks of the chain and the end of the segment. Removing blocks from the chain only lowers that number,
+ * so a reorganization leaves the records of the disconnected blocks behind in the segment. Both files are forced to
+ * disk every {@link #syncInterval} appended blocks and when the log is closed, the segment first, so an index that
+ * reached the disk only points at records that did too; records torn by a crash in between are detected by their
+ * checksum and cut from the chain when the log is loaded, as are records in any other format than the codec's.
+ * <p>
+ * Like {@link BlockStore}, a log is only changed by the thread changing the chain, but {@link #get(int)} may read it
+ * from any thread, so the methods that touch the files hold the monitor of the log.
+ */
+final class BlockLog implements Closeable {
+    /**
+     * Name of the segment file of encoded blocks.
+     */
+    static final String SEGMENT_FILE = "blocks.dat";
+    /**
+     * Name of the memory-mapped index file.
+     */
+    static final String INDEX_FILE = "blocks.idx";
+    /**
+     * Marker of an index file, "BLKI".
+     */
+    private static final int MAGIC = 0x424C4B49;
+    /**
+     * Size of the index header: marker, number of blocks and end of the segment.
+     */
+    private static final int HEADER_BYTES = 16;
+    /**
+     * Size of an index entry: offset, length, checksum and hash of a record.
+     */
+    private static final int ENTRY_BYTES = 48;
+    /**
+     * Number of entries the index is first mapped with.
+     */
+    private static final int INITIAL_ENTRIES = 1024;
+
+    /**
+     * The segment file.
+     */
+    private final FileChannel segment;
+    /**
+     * The index file.
+     */
+    private final FileChannel indexFile;
+    /**
+     * Number of appended blocks after which both files are forced to disk.
+     */
+    private final int syncInterval;
+    /**
+     * The mapped index, remapped larger when full.
+     */
+    private MappedByteBuffer index;
+    /**
+     * Number of blocks of the chain.
+     */
+    private int size;
+    /**
+     * Offset at which the next record is written.
+     */
+    private long end;
+    /**
+     * Number of blocks appended since the files were last forced to disk.
+     */
+    private int unsynced;
+
+    /**
+     * Opens the log in a directory, creating it if needed.
+     *
+     * @param directory    The directory of the log files.
+     * @param syncInterval The number of appended blocks after which the files are forced to disk, at least one.
+     * @throws IOException If the files cannot be opened, or the index file is not a block log index.
+     */
+    BlockLog(Path directory, int syncInterval) throws IOException {
+        Files.createDirectories(directory);
+        this.syncInterval = syncInterval;
+        this.segment = FileChannel.open(directory.resolve(SEGMENT_FILE), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.indexFile = FileChannel.open(directory.resolve(INDEX_FILE), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            boolean created = indexFile.size() == 0;
+            map(Math.max(INITIAL_ENTRIES, entries(indexFile.size())));
+            if (created) {
+                index.putInt(0, MAGIC);
+                writeHeader();
+            } else if (index.getInt(0) != MAGIC) {
+                throw new IOException("Not a block log index: " + directory.resolve(INDEX_FILE));
+            }
+            size = index.getInt(4);
+            end = index.getLong(8);
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * Reads the blocks of the chain. Up to a trusted block whose hash the index entry at its height holds, the index
+     * entries are trusted and the records are only decoded; above it, each record is also checked against the
+     * checksum and hash of its entry and against the previous block. Blocks from the first one whose record is
+     * missing, torn, malformed or does not pass those checks are dropped from the log.
+     *
+     * @param trustedHeight The height of the trusted block, or -1 if none is trusted.
+     * @param trustedHash   The hash of the trusted block, or null if none is trusted.
+     * @return The blocks of the chain, starting with the genesis block.
+     * @throws IOException If the segment cannot be read.
+     */
+    List<Block> load(int trustedHeight, String trustedHash) throws IOException {
+        List<Block> blocks = new ArrayList<>(size);
+        long segmentSize = segment.size();
+        int trusted = trustedHash != null && trustedHeight >= 0 && trustedHeight < size
+                && Arrays.equals(hashBytes(trustedHash), hashAt(HEADER_BYTES + trustedHeight * ENTRY_BYTES))
+                ? trustedHeight : -1;
+        for (int height = 0; height < size; height++) {
+            int entry = HEADER_BYTES + height * ENTRY_BYTES;
+            long offset = index.getLong(entry);
+            int length = index.getInt(entry + 8);
+            boolean verified = height > trusted;
+            Block block = offset + length <= segmentSize
+                    ? read(offset, length, verified ? index.getInt(entry + 12) : null) : null;
+            if (block == null || verified && (!Arrays.equals(hashBytes(block.getHash()), hashAt(entry))
+                    || (height > 0 && !block.getPreviousHash().equals(blocks.get(height - 1).getHash())))) {
+                System.out.println("Block log damaged at height " + height + ", keeping " + height + " blocks");
+                truncate(height);
+                break;
+            }
+            blocks.add(block);
+        }
+        return blocks;
+    }
+
+    /**
+     * Appends a block on top of the chain.
+     *
+     * @param block The block, whose parent is the last block of the chain.
+     * @throws IOException If the block cannot be written.
+     */
+    synchronized void append(Block block) throws IOException {
+        byte[] record = BlockCodec.encode(block);
+        ByteBuffer buffer = ByteBuffer.wrap(record);
+        while (buffer.hasRemaining()) {
+            segment.write(buffer, end + buffer.position());
+        }
+
+        if (HEADER_BYTES + (long) (size + 1) * ENTRY_BYTES > index.capacity()) {
+            map(2 * entries(index.capacity()));
+        }
+        int entry = HEADER_BYTES + size * ENTRY_BYTES;
+        index.putLong(entry, end);
+        index.putInt(entry + 8, record.length);
+        index.putInt(entry + 12, checksum(record));
+        index.put(entry + 16, hashBytes(block.getHash()));
+        end += record.length;
+        size++;
+        writeHeader();
+        if (++unsynced >= syncInterval) {
+            sync();
+        }
+    }
+
+    /**
+     * Reads the block of the chain at the given height, for blocks whose body was pruned from memory.
+     *
+     * @param height The height of the block.
+     * @return The block, or null if the log has no intact record at that height or is closed.
+     * @throws IOException If the segment cannot be read.
+     */
+    synchronized Block get(int height) throws IOException {
+        if (height < 0 || height >= size || !segment.isOpen()) {
+            return null;
+        }
+        int entry = HEADER_BYTES + height * ENTRY_BYTES;
+        Block block = read(index.getLong(entry), index.getInt(entry + 8), (Integer) index.getInt(entry + 12));
+        return block != null && Arrays.equals(hashBytes(block.getHash()), hashAt(entry)) ? block : null;
+    }
+
+    /**
+     * Removes every block above the given height. Their records stay in the segment.
+     *
+     * @param size The number of blocks to keep.
+     */
+    synchronized void truncate(int size) {
+        if (size < this.size) {
+            this.size = size;
+            writeHeader();
+        }
+    }
+
+    /**
+     * Retrieves the number of blocks of the chain.
+     *
+     * @return The number of blocks.
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Forces both files to disk, the segment first.
+     *
+     * @throws IOException If the segment cannot be forced.
+     */
+    synchronized void sync() throws IOException {
+        segment.force(false);
+        index.force();
+        unsynced = 0;
+    }
+
+    /**
+     * Forces both files to disk and closes them.
+     *
+     * @throws IOException If the files cannot be forced or closed.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            if (index != null && segment.isOpen()) {
+                sync();
+            }
+        } finally {
+            segment.close();
+            indexFile.close();
+        }
+    }
+
+    /**
+     * Maps the index file with room for the given number of entries, growing the file if needed.
+     *
+     * @param entries The number of entries.
+     * @throws IOException If the file cannot be mapped.
+     */
+    private void map(int entries) throws IOException {
+        index = indexFile.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES + (long) entries * ENTRY_BYTES);
+    }
+
+    /**
+     * Computes the number of entries that fit in an index of the given size.
+     *
+     * @param bytes The size of the index.
+     * @return The number of entries.
+     */
+    private static int entries(long bytes) {
+        return (int) Math.max(0, (bytes - HEADER_BYTES) / ENTRY_BYTES);
+    }
+
+    /**
+     * Writes the number of blocks and the end of the segment to the index header.
+     */
+    private void writeHeader() {
+        index.putInt(4, size);
+        index.putLong(8, end);
+    }
+
+    /**
+     * Reads the hash of an index entry.
+     *
+     * @param entry The offset of the entry in the index.
+     * @return The 32 bytes of the hash.
+     */
+    private byte[] hashAt(int entry) {
+        byte[] hash = new byte[MiningKernel.DIGEST_LENGTH];
+        index.get(entry + 16, hash);
+        return hash;
+    }
+
+    /**
+     * Reads a record of the segment.
+     *
+     * @param offset   The offset of the record.
+     * @param length   The length of the record.
+     * @param checksum The checksum the record must have, or null if its index entry is trusted.
+     * @return The block, or null if the record is torn, not encoded by {@link BlockCodec} or malformed.
+     * @throws IOException If the segment cannot be read.
+     */
+    private Block read(long offset, int length, Integer checksum) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (segment.read(buffer, offset + buffer.position()) < 0) {
+                return null;
+            }
+        }
+        byte[] record = buffer.array();
+        if (checksum != null && checksum(record) != checksum) {
+            return null;
+        }
+        // Records are never deserialized with Java serialization, which could instantiate any class
+        if (!BlockCodec.isEncoded(record)) {
+            return null;
+        }
+        try {
+            return BlockCodec.decode(record);
+        } catch (IOException | RuntimeException e) {
+            // A record can pass its checksum and still not be a block, as when it was damaged before being written
+            return null;
+        }
+    }
+
+    /**
+     * Computes the checksum of a record.
+     *
+     * @param record The record.
+     * @return The CRC-32 of the record.
+     */
+    private static int checksum(byte[] record) {
+        CRC32 crc = new CRC32();
+        crc.update(record);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Encodes a block hash for the index.
+     *
+     * @param hash The hexadecimal hash of a block.
+     * @return The 32 bytes of the hash, or zeros if it is not a SHA-256 hash.
+     */
+    private static byte[] hashBytes(String hash) {
+        if (hash != null && hash.length() == 2 * MiningKernel.DIGEST_LENGTH) {
+            try {
+                return MiningKernel.fromHex(hash);
+            } catch (IllegalArgumentException e) {
+                // Not hexadecimal, recorded as zeros like any other hash that is not a SHA-256 hash
+            }
+        }
+        return new byte[MiningKernel.DIGEST_LENGTH];
+    }
+}
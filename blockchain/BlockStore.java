@@ -0,0 +1,585 @@
+package blockchain;
+
+import java.io.IOException;
+import java.io.NotSerializableException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The blocks of a chain, addressable in constant time by height and by hash.
+ * <p>
+ * Blocks are kept in an array indexed by height, next to a map from block hash to height. Changes only ever append
+ * blocks or cut the chain back to a given height, which keeps both structures consistent at the cost of a map update
+ * per block added or removed. Confirmed transactions are tracked by a {@link TransactionIndex}, exact by default.
+ * <p>
+ * Every height also carries the proof of work required of its block and the cumulative work of the chain up to it,
+ * both derived from the {@link DifficultyRule} as the block is appended, in arrays kept alongside the block array. The
+ * work of the chain above any height is then a single subtraction. These arrays are cut into
+ * {@link ChainSnapshot.Chunk chunks} of consecutive heights, so that rewriting a height only copies its chunk.
+ * <p>
+ * The bodies of the lowest blocks may be pruned, replacing each of them by its header in a copy of its chunk.
+ * <p>
+ * The blocks may instead be moved to a {@link BlockArena} outside of the heap, along with their difficulty and work.
+ * The chunks are then replaced by an array of record positions, and the map from hash to height by a
+ * {@link FingerprintTable} of the last eight bytes of each hash, checked against the header of the block it points to.
+ * Reads decode the blocks from the arena, and pruned blocks are read without their body, whose space stays reserved.
+ * <p>
+ * Every change publishes a new {@link ChainSnapshot} of the blocks, their difficulty and their work, sharing the
+ * chunks rather than copying them.
+ * Changes must be made by one thread at a time, but reads by height, by hash and by transaction, and snapshots, may
+ * be taken from any thread while the chain changes.
+ */
+final class BlockStore implements Serializable {
+    /**
+     * The chunks of the blocks, their difficulty and their work, indexed by height divided by the size of a chunk, in
+     * a table shared with the snapshots. The genesis block carries no work.
+     */
+    private ChainSnapshot.Chunk[] chunks = new ChainSnapshot.Chunk[16];
+    /**
+     * The number of first slots of {@link #chunks} that published snapshots can see, which must not be written again.
+     */
+    private int sharedChunks;
+    /**
+     * The lowest and highest index of the chunks written since the last snapshot was published, the lowest above the
+     * highest if none was.
+     */
+    private transient int firstWritten = Integer.MAX_VALUE;
+    private transient int lastWritten = -1;
+    /**
+     * The number of blocks.
+     */
+    private int size;
+    /**
+     * The number of slots of {@link #positions} that published snapshots can see, which must not be written again.
+     */
+    private int sharedSize;
+    /**
+     * The number of lowest blocks whose body is pruned.
+     */
+    private int prunedHeight;
+    /**
+     * The latest snapshot of the blocks.
+     */
+    private transient volatile List<Block> snapshot = new ChainSnapshot(chunks, 0);
+    /**
+     * The height of every block, indexed by hash.
+     */
+    private final Map<String, Integer> heightByHash = new ConcurrentHashMap<>();
+    /**
+     * The arena holding the blocks outside of the heap, or null while they are kept in {@link #chunks}.
+     */
+    private transient BlockArena arena;
+    /**
+     * The position of the record of every block in the arena, indexed by height, in an array shared with the
+     * snapshots. Used in place of {@link #chunks} with the arena.
+     */
+    private transient long[] positions;
+    /**
+     * The height of every block, indexed by a fingerprint of its hash. Used in place of {@link #heightByHash} with
+     * the arena, and read under its own monitor.
+     */
+    private transient FingerprintTable heightByFingerprint;
+    /**
+     * The index of the transactions of the chain.
+     */
+    private volatile TransactionIndex transactions = new ExactTransactionIndex();
+    /**
+     * The rule deciding the proof of work required of each block.
+     */
+    private final DifficultyRule difficultyRule;
+
+    /**
+     * Creates an empty store.
+     *
+     * @param difficultyRule The rule deciding the proof of work required of each block.
+     */
+    BlockStore(DifficultyRule difficultyRule) {
+        this.difficultyRule = difficultyRule;
+    }
+
+    /**
+     * Appends a block on top of the chain.
+     *
+     * @param block The block to append.
+     */
+    void append(Block block) {
+        int height = size;
+        int required = height == 0 ? difficultyRule.getInitialZeroBits() : zeroBitsAfter(height - 1);
+        BigInteger work = height == 0 ? BigInteger.ZERO
+                : cumulativeWork(height - 1).add(DifficultyRule.workOf(required));
+        if (arena == null) {
+            ChainSnapshot.Chunk chunk = writableChunk(height);
+            int slot = height & (ChainSnapshot.CHUNK_SIZE - 1);
+            chunk.blocks[slot] = block;
+            heightByHash.putIfAbsent(block.getHash(), height);
+            chunk.zeroBits[slot] = required;
+            chunk.cumulativeWork[slot] = work;
+        } else {
+            reserve(height);
+            positions[height] = arena.append(block, required, work);
+            synchronized (heightByFingerprint) {
+                heightByFingerprint.put(fingerprint(block.getHash()), height);
+            }
+        }
+        size++;
+        publish();
+        transactions.add(block, height);
+    }
+
+    /**
+     * Makes the chunk of the given height writable at that height, adding the chunk if the chain has none there yet,
+     * and copying it, along with the table of chunks, if a snapshot still sees that height, after the chain was cut
+     * back or to prune its block.
+     *
+     * @param height The height about to be written.
+     * @return The chunk holding that height, which no snapshot sees at that height.
+     */
+    private ChainSnapshot.Chunk writableChunk(int height) {
+        int index = height >>> ChainSnapshot.CHUNK_SHIFT;
+        if (index == chunks.length) {
+            chunks = Arrays.copyOf(chunks, 2 * chunks.length);
+            sharedChunks = 0;
+        }
+        ChainSnapshot.Chunk chunk = chunks[index];
+        if (chunk == null || (height & (ChainSnapshot.CHUNK_SIZE - 1)) < chunk.shared) {
+            chunk = chunk == null ? new ChainSnapshot.Chunk() : chunk.copy();
+            if (index < sharedChunks) {
+                chunks = chunks.clone();
+                sharedChunks = 0;
+            }
+            chunks[index] = chunk;
+        }
+        firstWritten = Math.min(firstWritten, index);
+        lastWritten = Math.max(lastWritten, index);
+        return chunk;
+    }
+
+    /**
+     * Makes the slot of the given height in the arena positions writable, growing the array if it is full and copying
+     * it if a snapshot still sees that slot, after the chain was cut back.
+     *
+     * @param height The height about to be written, the number of blocks.
+     */
+    private void reserve(int height) {
+        if (height == positions.length) {
+            positions = Arrays.copyOf(positions, 2 * positions.length);
+        } else if (height < sharedSize) {
+            positions = positions.clone();
+        } else {
+            return;
+        }
+        sharedSize = 0;
+    }
+
+    /**
+     * Retrieves the block at the given height from the chunks, whether or not the latest snapshot still has it.
+     *
+     * @param height The height of the block.
+     * @return The block.
+     */
+    private Block blockAt(int height) {
+        return chunks[height >>> ChainSnapshot.CHUNK_SHIFT].blocks[height & (ChainSnapshot.CHUNK_SIZE - 1)];
+    }
+
+    /**
+     * Removes every block above the given height.
+     *
+     * @param size The number of blocks to keep.
+     */
+    void truncate(int size) {
+        List<Block> removed = new ArrayList<>();
+        for (int height = this.size - 1; height >= size; height--) {
+            Block block;
+            if (arena == null) {
+                block = blockAt(height);
+                heightByHash.remove(block.getHash(), height);
+            } else {
+                block = arena.block(positions[height], height >= prunedHeight);
+                synchronized (heightByFingerprint) {
+                    heightByFingerprint.remove(fingerprint(block.getHash()), height);
+                }
+            }
+            removed.add(block);
+        }
+        if (removed.isEmpty()) {
+            return;
+        }
+        this.size = size;
+        prunedHeight = Math.min(prunedHeight, size);
+        publish();
+        for (Block block : removed) {
+            transactions.remove(block, snapshot);
+        }
+    }
+
+    /**
+     * Replaces every block below the given height by its header. The chunks of the pruned blocks are copied first, so
+     * that published snapshots keep the bodies they were taken with. In the arena, the blocks are only read without
+     * their body from then on.
+     *
+     * @param height The height of the lowest block keeping its body.
+     */
+    void prune(int height) {
+        height = Math.min(height, size);
+        if (height <= prunedHeight) {
+            return;
+        }
+        if (arena != null) {
+            prunedHeight = height;
+            publish();
+            return;
+        }
+        for (int h = prunedHeight; h < height; h++) {
+            ChainSnapshot.Chunk chunk = writableChunk(h);
+            int slot = h & (ChainSnapshot.CHUNK_SIZE - 1);
+            chunk.blocks[slot] = chunk.blocks[slot].withoutBody();
+        }
+        prunedHeight = height;
+        publish();
+    }
+
+    /**
+     * Retrieves the number of lowest blocks whose body is pruned.
+     *
+     * @return The height of the lowest block keeping its body.
+     */
+    int prunedHeight() {
+        return prunedHeight;
+    }
+
+    /**
+     * Publishes a snapshot of the current blocks.
+     */
+    private void publish() {
+        if (arena != null) {
+            snapshot = arena.snapshot(positions, size, prunedHeight);
+            sharedSize = Math.max(sharedSize, size);
+            return;
+        }
+        snapshot = new ChainSnapshot(chunks, size);
+        for (int index = firstWritten; index <= lastWritten; index++) {
+            int visible = Math.min(ChainSnapshot.CHUNK_SIZE, size - (index << ChainSnapshot.CHUNK_SHIFT));
+            chunks[index].shared = Math.max(chunks[index].shared, visible);
+        }
+        firstWritten = Integer.MAX_VALUE;
+        lastWritten = -1;
+        sharedChunks = Math.max(sharedChunks, (size + ChainSnapshot.CHUNK_SIZE - 1) >>> ChainSnapshot.CHUNK_SHIFT);
+    }
+
+    /**
+     * Retrieves the block at the given height.
+     *
+     * @param height The height, zero for the genesis block.
+     * @return The block.
+     * @throws IndexOutOfBoundsException If there is no block at that height.
+     */
+    Block get(int height) {
+        return snapshot.get(height);
+    }
+
+    /**
+     * Finds the lowest block with the given hash.
+     *
+     * @param hash The hash of the block.
+     * @return The block, or null if none has that hash.
+     */
+    Block getByHash(String hash) {
+        List<Block> current = snapshot;
+        int height = heightOf(current, hash);
+        return height == -1 ? null : current.get(height);
+    }
+
+    /**
+     * Finds the height of the lowest block with the given hash.
+     *
+     * @param hash The hash of the block.
+     * @return The height of the block, or -1 if none has that hash.
+     */
+    int heightOf(String hash) {
+        return heightOf(snapshot, hash);
+    }
+
+    /**
+     * Finds the height of the lowest block with the given hash in a snapshot.
+     *
+     * @param current The snapshot.
+     * @param hash    The hash of the block.
+     * @return The height of the block, or -1 if the snapshot has none with that hash.
+     */
+    private int heightOf(List<Block> current, String hash) {
+        if (!(current instanceof BlockArena.Snapshot blocks)) {
+            Integer height = heightByHash.get(hash);
+            return height == null || height >= current.size() ? -1 : height;
+        }
+        int height;
+        synchronized (heightByFingerprint) {
+            height = heightByFingerprint.get(fingerprint(hash));
+        }
+        return height != -1 && height < blocks.size() && blocks.header(height).getHash().equals(hash) ? height : -1;
+    }
+
+    /**
+     * Finds the height of a block.
+     *
+     * @param block The block.
+     * @return The height of a block equal to the given one, or -1 if it is not in the store.
+     */
+    int heightOf(Block block) {
+        return heightOf(snapshot, block);
+    }
+
+    /**
+     * Finds the height of a block in a snapshot.
+     *
+     * @param current The snapshot.
+     * @param block   The block.
+     * @return The height of a block equal to the given one, or -1 if it is not in the snapshot.
+     */
+    private int heightOf(List<Block> current, Block block) {
+        int height = heightOf(current, block.getHash());
+        return height != -1 && current.get(height).equals(block) ? height : -1;
+    }
+
+    /**
+     * Computes the number of leading zero bits required of a block extending the block at the given height.
+     *
+     * @param height The height of the block being extended.
+     * @return The number of leading zero bits required.
+     * @throws IndexOutOfBoundsException If there is no block at that height.
+     */
+    int zeroBitsAfter(int height) {
+        List<Block> current = snapshot;
+        return difficultyRule.zeroBitsAfter(current, height, zeroBits(current, height));
+    }
+
+    /**
+     * Computes the number of leading zero bits required of a block extending the given block, from a single snapshot,
+     * so that the result is consistent however the chain changes meanwhile. Safe to call from any thread.
+     *
+     * @param block The block being extended, or null for the tip.
+     * @return The number of leading zero bits required, after the tip if the block is null or not in the store.
+     * @throws IndexOutOfBoundsException If the store is empty.
+     */
+    int zeroBitsAfter(Block block) {
+        List<Block> current = snapshot;
+        int height = block == null ? -1 : heightOf(current, block);
+        if (height == -1) {
+            height = current.size() - 1;
+        }
+        return difficultyRule.zeroBitsAfter(current, height, zeroBits(current, height));
+    }
+
+    /**
+     * Retrieves the total work of the chain up to its tip. Safe to call from any thread.
+     *
+     * @return The sum of the work of the blocks above the genesis block.
+     * @throws IndexOutOfBoundsException If the store is empty.
+     */
+    BigInteger totalWork() {
+        List<Block> current = snapshot;
+        return cumulativeWork(current, current.size() - 1);
+    }
+
+    /**
+     * Computes the work of the blocks above the given block, from a single snapshot. Safe to call from any thread.
+     *
+     * @param block The block to count work from.
+     * @return The total work of the blocks above the block, or null if it is not in the store.
+     */
+    BigInteger workSince(Block block) {
+        List<Block> current = snapshot;
+        int height = heightOf(current, block);
+        if (height == -1) {
+            return null;
+        }
+        return cumulativeWork(current, current.size() - 1).subtract(cumulativeWork(current, height));
+    }
+
+    /**
+     * Retrieves the number of leading zero bits required of the block at the given height.
+     *
+     * @param height The height of the block.
+     * @return The number of leading zero bits required.
+     * @throws IndexOutOfBoundsException If there is no block at that height.
+     */
+    int zeroBits(int height) {
+        return zeroBits(snapshot, height);
+    }
+
+    /**
+     * Retrieves the number of leading zero bits required of the block at the given height of a snapshot.
+     *
+     * @param snapshot The snapshot.
+     * @param height   The height of the block.
+     * @return The number of leading zero bits required.
+     * @throws IndexOutOfBoundsException If the snapshot has no block at that height.
+     */
+    private static int zeroBits(List<Block> snapshot, int height) {
+        return snapshot instanceof BlockArena.Snapshot blocks ? blocks.zeroBits(height)
+                : ((ChainSnapshot) snapshot).zeroBits(height);
+    }
+
+    /**
+     * Retrieves the total work of the chain up to the given height.
+     *
+     * @param height The height, zero for the genesis block.
+     * @return The sum of the work of the blocks above the genesis block, up to and including that height.
+     * @throws IndexOutOfBoundsException If there is no block at that height.
+     */
+    BigInteger cumulativeWork(int height) {
+        return cumulativeWork(snapshot, height);
+    }
+
+    /**
+     * Retrieves the total work of the chain up to the given height of a snapshot.
+     *
+     * @param snapshot The snapshot.
+     * @param height   The height, zero for the genesis block.
+     * @return The sum of the work of the blocks above the genesis block, up to and including that height.
+     * @throws IndexOutOfBoundsException If the snapshot has no block at that height.
+     */
+    private static BigInteger cumulativeWork(List<Block> snapshot, int height) {
+        return snapshot instanceof BlockArena.Snapshot blocks ? blocks.cumulativeWork(height)
+                : ((ChainSnapshot) snapshot).cumulativeWork(height);
+    }
+
+    /**
+     * Finds the block confirming a transaction. Safe to call from any thread.
+     *
+     * @param transaction The transaction.
+     * @return A block of the chain containing the transaction, or null if it is not confirmed.
+     */
+    Block getByTransaction(String transaction) {
+        return transactions.find(transaction, snapshot);
+    }
+
+    /**
+     * Switches to another transaction index, filled from the current blocks.
+     *
+     * @param index The new, empty index.
+     */
+    void useTransactionIndex(TransactionIndex index) {
+        index.rebuild(snapshot);
+        transactions = index;
+    }
+
+    /**
+     * Moves the blocks, their difficulty and their work to an arena outside of the heap, where every later block is
+     * appended. The chunks and the map from hash to height are emptied. Must
+     * be called before the store is read by other threads.
+     */
+    void moveToArena() {
+        if (arena != null) {
+            return;
+        }
+        BlockArena moved = new BlockArena();
+        List<Block> current = snapshot;
+        long[] movedPositions = new long[Math.max(16, 2 * size)];
+        FingerprintTable table = new FingerprintTable();
+        for (int height = 0; height < size; height++) {
+            Block block = current.get(height);
+            movedPositions[height] = moved.append(block, zeroBits(current, height), cumulativeWork(current, height));
+            table.put(fingerprint(block.getHash()), height);
+        }
+        arena = moved;
+        positions = movedPositions;
+        heightByFingerprint = table;
+        sharedSize = 0;
+        publish();
+        chunks = new ChainSnapshot.Chunk[0];
+        sharedChunks = 0;
+        heightByHash.clear();
+    }
+
+    /**
+     * Retrieves the memory reserved by the arena outside of the heap.
+     *
+     * @return The size of the arena, in bytes, zero while the blocks are kept on the heap.
+     */
+    long offHeapBytes() {
+        return arena == null ? 0 : arena.bytes();
+    }
+
+    /**
+     * Computes the fingerprint of a block hash.
+     *
+     * @param hash The hash, normally 64 hexadecimal characters.
+     * @return The value of its last 16 characters, read as hexadecimal digits. The leading characters are not used, as
+     * proof of work makes them zero.
+     */
+    private static long fingerprint(String hash) {
+        long fingerprint = 0;
+        for (int i = Math.max(0, hash.length() - 2 * Long.BYTES); i < hash.length(); i++) {
+            fingerprint = fingerprint << 4 | (Character.digit(hash.charAt(i), 16) & 0xF);
+        }
+        return fingerprint;
+    }
+
+    /**
+     * Retrieves the highest block.
+     *
+     * @return The tip of the chain.
+     * @throws NoSuchElementException If the store is empty.
+     */
+    Block tip() {
+        List<Block> current = snapshot;
+        if (current.isEmpty()) {
+            throw new NoSuchElementException();
+        }
+        return current.get(current.size() - 1);
+    }
+
+    /**
+     * Retrieves the number of blocks.
+     *
+     * @return The number of blocks, genesis included.
+     */
+    int size() {
+        return snapshot.size();
+    }
+
+    /**
+     * Retrieves an immutable snapshot of the blocks, indexed by height. Later changes do not affect it.
+     *
+     * @return The blocks.
+     */
+    List<Block> view() {
+        return snapshot;
+    }
+
+    /**
+     * Writes the store, unless its blocks are in an arena, which stays in this process.
+     *
+     * @param out The stream to write to.
+     * @throws IOException If the stream cannot be written or the blocks are in an arena.
+     */
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        if (arena != null) {
+            throw new NotSerializableException("Blocks are kept outside of the heap");
+        }
+        out.defaultWriteObject();
+    }
+
+    /**
+     * Restores the store and publishes a snapshot of its blocks.
+     *
+     * @param in The stream to read from.
+     * @throws IOException            If the stream cannot be read.
+     * @throws ClassNotFoundException If a class of the store cannot be found.
+     */
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        sharedSize = 0;
+        firstWritten = Integer.MAX_VALUE;
+        lastWritten = -1;
+        publish();
+    }
+}
@@ -0,0 +1,93 @@
+package blockchain;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Builds the next block to mine by packing pending transactions from the pool.
+ * <p>
+ * Transactions are taken in pool order until either the transaction count or the byte budget of the block is reached.
+ * Transactions already confirmed in the chain, and repeated entries of the pool, are skipped. The first eligible
+ * transaction is always taken even if it alone exceeds the byte budget, so an oversized transaction cannot block the
+ * pool forever.
+ */
+public class BlockTemplateBuilder {
+    /**
+     * Maximum number of transactions packed into one block.
+     */
+    private final int maxTransactions;
+    /**
+     * Maximum total size, in UTF-8 bytes, of the transactions packed into one block.
+     */
+    private final int maxBytes;
+    /**
+     * Header version of the blocks built.
+     */
+    private final int blockVersion;
+
+    /**
+     * Creates a builder with the given block budget.
+     *
+     * @param maxTransactions Maximum number of transactions per block, at least one.
+     * @param maxBytes        Maximum total size of the transactions of a block in UTF-8 bytes, at least one.
+     * @param blockVersion    Header version of the blocks built.
+     */
+    public BlockTemplateBuilder(int maxTransactions, int maxBytes, int blockVersion) {
+        if (maxTransactions < 1 || maxBytes < 1) {
+            throw new IllegalArgumentException("Block budget must allow at least one transaction: "
+                    + maxTransactions + " transactions, " + maxBytes + " bytes");
+        }
+        this.maxTransactions = maxTransactions;
+        this.maxBytes = maxBytes;
+        this.blockVersion = blockVersion;
+    }
+
+    /**
+     * Selects the transactions of the next block from the pool.
+     *
+     * @param pool       The pending transactions, in the order they should be mined.
+     * @param blockchain The chain the block will extend, used to skip confirmed transactions.
+     * @return The selected transactions, empty if the pool holds nothing eligible.
+     */
+    public List<String> selectTransactions(Iterable<String> pool, BlockChain blockchain) {
+        Set<String> selected = new LinkedHashSet<>();
+        int bytes = 0;
+        for (String transaction : pool) {
+            if (selected.size() == maxTransactions) {
+                break;
+            }
+            if (transaction == null || transaction.isEmpty() || selected.contains(transaction)
+                    || blockchain.isConfirmed(transaction)) {
+                continue;
+            }
+            int size = transaction.getBytes(StandardCharsets.UTF_8).length;
+            if (!selected.isEmpty() && bytes + size > maxBytes) {
+                continue;
+            }
+            selected.add(transaction);
+            bytes += size;
+        }
+        return new ArrayList<>(selected);
+    }
+
+    /**
+     * Builds the next block on top of the given parent.
+     *
+     * @param parent     The block the new block extends.
+     * @param pool       The pending transactions, in the order they should be mined.
+     * @param blockchain The chain the block will extend, used to skip confirmed transactions.
+     * @return The unmined block, or null if the pool holds nothing eligible.
+     */
+    public Block build(Block parent, Iterable<String> pool, BlockChain blockchain) {
+        List<String> transactions = selectTransactions(pool, blockchain);
+        if (transactions.isEmpty()) {
+            return null;
+        }
+        // Stay later than the parent even if its miner's clock runs slightly ahead of ours
+        long timestamp = Math.max(System.currentTimeMillis(), parent.getTimestamp() + 1);
+        return new Block(blockVersion, parent.getHash(), timestamp, List.copyOf(transactions));
+    }
+}
@@ -0,0 +1,136 @@
+package blockchain;
+
+import java.io.Serializable;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The side branches of a block tree whose trunk is the active chain of a {@link BlockChain}.
+ * <p>
+ * Valid blocks that do not belong to the active chain, whether received on a competing branch or disconnected by a
+ * reorganization, are kept here with their height, requirement and cumulative work, so that switching to their branch
+ * later only connects the blocks above the fork point instead of downloading the whole chain again. Side blocks that
+ * fall more than {@link #MAX_DEPTH} blocks below the tip are forgotten. Like {@link BlockStore}, a tree is not
+ * thread-safe.
+ */
+final class BlockTree implements Serializable {
+    /**
+     * Number of blocks below the tip of the active chain beyond which side blocks are forgotten.
+     */
+    static final int MAX_DEPTH = 100;
+
+    /**
+     * The side blocks, indexed by hash.
+     */
+    private final Map<String, SideBlock> sideBlocks = new HashMap<>();
+
+    /**
+     * Adds a side block, unless one with the same hash is already known.
+     *
+     * @param sideBlock The side block.
+     */
+    void put(SideBlock sideBlock) {
+        sideBlocks.putIfAbsent(sideBlock.block.getHash(), sideBlock);
+    }
+
+    /**
+     * Finds a side block by hash.
+     *
+     * @param hash The hash of the block.
+     * @return The side block, or null if there is none with that hash.
+     */
+    SideBlock get(String hash) {
+        return sideBlocks.get(hash);
+    }
+
+    /**
+     * Forgets a side block.
+     *
+     * @param hash The hash of the block.
+     */
+    void remove(String hash) {
+        sideBlocks.remove(hash);
+    }
+
+    /**
+     * Forgets every side block.
+     */
+    void clear() {
+        sideBlocks.clear();
+    }
+
+    /**
+     * Retrieves the number of side blocks.
+     *
+     * @return The number of side blocks.
+     */
+    int size() {
+        return sideBlocks.size();
+    }
+
+    /**
+     * Collects the side blocks from the active chain up to a given side block.
+     *
+     * @param tip The last side block of the branch.
+     * @return The side blocks of the branch, lowest first; the parent of the first one is in the active chain, or
+     * missing if the branch is detached.
+     */
+    List<SideBlock> branch(SideBlock tip) {
+        List<SideBlock> branch = new ArrayList<>();
+        for (SideBlock sideBlock = tip; sideBlock != null; sideBlock = sideBlocks.get(sideBlock.block.getPreviousHash())) {
+            branch.add(sideBlock);
+        }
+        Collections.reverse(branch);
+        return branch;
+    }
+
+    /**
+     * Forgets the side blocks too far below the tip of the active chain to ever be reorganized to.
+     *
+     * @param tipHeight The height of the tip of the active chain.
+     */
+    void prune(int tipHeight) {
+        sideBlocks.values().removeIf(sideBlock -> sideBlock.height + MAX_DEPTH < tipHeight);
+    }
+
+    /**
+     * A block off the active chain, with the state it would have if its branch were active.
+     */
+    static final class SideBlock implements Serializable {
+        /**
+         * The block.
+         */
+        final Block block;
+        /**
+         * The height of the block, zero for the genesis block.
+         */
+        final int height;
+        /**
+         * The number of leading zero bits required of the block.
+         */
+        final int zeroBits;
+        /**
+         * The total work of the branch up to and including the block.
+         */
+        final BigInteger cumulativeWork;
+
+        /**
+         * Creates a side block.
+         *
+         * @param block          The block.
+         * @param height         The height of the block.
+         * @param zeroBits       The number of leading zero bits required of the block.
+         * @param cumulativeWork The total work of the branch up to and including the block.
+         */
+        SideBlock(Block block, int height, int zeroBits, BigInteger cumulativeWork) {
+            this.block = block;
+            this.height = height;
+            this.zeroBits = zeroBits;
+            this.cumulativeWork = cumulativeWork;
+        }
+    }
+}
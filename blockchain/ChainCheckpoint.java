@@ -0,0 +1,409 @@
+package blockchain;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StreamCorruptedException;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.ToIntFunction;
+
+/**
+ * A compact summary of a chain up to one of its blocks, from which a node bootstraps without checking the blocks
+ * below it again.
+ * <p>
+ * A checkpoint records the hash and height of its block, the work of the chain up to it, the number of leading zero
+ * bits required of it and a Bloom filter of the transactions confirmed up to it, sealed by a SHA-256 digest of all of
+ * them. A chain is only trusted below a checkpoint whose digest matches, whose block is in the chain at its height,
+ * and whose work and requirement match those derived from the timestamps of the chain; the blocks above it are
+ * validated in full. Their transactions are looked up in the filter, and only its probable hits are looked up in an
+ * index of the transactions below, as {@link FilteredTransactionIndex} does; a filter costs a few bits per transaction
+ * to store, read and digest, where the transactions themselves would cost about as much as validating their blocks.
+ * The filter is kept up to date by the chain as its blocks are connected, so writing a checkpoint only copies it.
+ * <p>
+ * The digest only reveals damage: a checkpoint received from a peer says nothing of the proof of work below it,
+ * which is still checked unless an ancestor of the checkpoint is trusted from the configuration.
+ * <p>
+ * Checkpoints are stored and sent to peers in a binary format, never with Java serialization: a marker and format
+ * version, the fields in the order they are digested, then the digest. Every length is checked against fixed limits
+ * before anything is allocated for it.
+ */
+final class ChainCheckpoint {
+    /**
+     * Name of the checkpoint file in the directory of a block log.
+     */
+    static final String FILE = "checkpoint.dat";
+    /**
+     * Target false positive rate of the transaction filter, low enough that searching the blocks below for the
+     * transactions of the blocks above is rare.
+     */
+    private static final double FALSE_POSITIVE_RATE = 0.001;
+    /**
+     * Memory budget of the transaction filter, in bytes.
+     */
+    private static final long MAX_FILTER_BYTES = 64L * 1024 * 1024;
+    /**
+     * Largest encoded checkpoint accepted from a peer, in bytes: a full filter and room for the other fields.
+     */
+    static final int MAX_BYTES = (int) MAX_FILTER_BYTES + 1024 * 1024;
+    /**
+     * Marker starting an encoded checkpoint, "CKPT".
+     */
+    private static final int MAGIC = 0x434B5054;
+    /**
+     * Version of the format of encoded checkpoints.
+     */
+    private static final int FORMAT_VERSION = 1;
+    /**
+     * Largest encoded string field, such as the hash of the block or the work, in bytes.
+     */
+    private static final int MAX_STRING_BYTES = 1024;
+
+    /**
+     * The height of the block of the checkpoint.
+     */
+    private final int height;
+    /**
+     * The hash of the block of the checkpoint.
+     */
+    private final String tipHash;
+    /**
+     * The total work of the chain up to and including the block of the checkpoint.
+     */
+    private final BigInteger cumulativeWork;
+    /**
+     * The number of leading zero bits required of the block of the checkpoint.
+     */
+    private final int zeroBits;
+    /**
+     * The filter of the transactions confirmed up to the block of the checkpoint.
+     */
+    private final ScalableBloomFilter transactions;
+    /**
+     * The hexadecimal SHA-256 digest of the other fields.
+     */
+    private final String digest;
+
+    /**
+     * Creates a checkpoint of a chain at a given height.
+     *
+     * @param height         The height of the block of the checkpoint.
+     * @param tipHash        The hash of that block.
+     * @param cumulativeWork The total work of the chain up to and including that block.
+     * @param zeroBits       The number of leading zero bits required of that block.
+     * @param transactions   A filter created by {@link #newTransactionFilter()} holding at least every transaction
+     *                       confirmed up to that block, no longer changed by anyone.
+     */
+    ChainCheckpoint(int height, String tipHash, BigInteger cumulativeWork, int zeroBits,
+                    ScalableBloomFilter transactions) {
+        this.height = height;
+        this.tipHash = tipHash;
+        this.cumulativeWork = cumulativeWork;
+        this.zeroBits = zeroBits;
+        this.transactions = transactions;
+        this.digest = computeDigest();
+    }
+
+    /**
+     * Restores a decoded checkpoint, which is not checked to be intact.
+     *
+     * @param height         The height of the block of the checkpoint.
+     * @param tipHash        The hash of that block.
+     * @param cumulativeWork The total work of the chain up to and including that block.
+     * @param zeroBits       The number of leading zero bits required of that block.
+     * @param transactions   The filter of the transactions confirmed up to that block.
+     * @param digest         The digest recorded with the checkpoint.
+     */
+    private ChainCheckpoint(int height, String tipHash, BigInteger cumulativeWork, int zeroBits,
+                            ScalableBloomFilter transactions, String digest) {
+        this.height = height;
+        this.tipHash = tipHash;
+        this.cumulativeWork = cumulativeWork;
+        this.zeroBits = zeroBits;
+        this.transactions = transactions;
+        this.digest = digest;
+    }
+
+    /**
+     * Creates an empty filter of transactions with the parameters of the filters of checkpoints.
+     *
+     * @return The filter.
+     */
+    static ScalableBloomFilter newTransactionFilter() {
+        return new ScalableBloomFilter(FALSE_POSITIVE_RATE, MAX_FILTER_BYTES);
+    }
+
+    /**
+     * Copies the filter of the transactions of the checkpoint, for a chain to keep adding transactions to.
+     *
+     * @return A copy of the filter.
+     */
+    ScalableBloomFilter copyTransactions() {
+        return transactions.copy();
+    }
+
+    /**
+     * Retrieves the height of the block of the checkpoint.
+     *
+     * @return The height.
+     */
+    int getHeight() {
+        return height;
+    }
+
+    /**
+     * Retrieves the hash of the block of the checkpoint.
+     *
+     * @return The hash.
+     */
+    String getTipHash() {
+        return tipHash;
+    }
+
+    /**
+     * Checks that the checkpoint was not altered since it was created, on disk or on the way from a peer.
+     *
+     * @return True if the digest matches the content of the checkpoint.
+     */
+    boolean isIntact() {
+        return tipHash != null && cumulativeWork != null && transactions != null
+                && Objects.equals(digest, computeDigest());
+    }
+
+    /**
+     * Checks that a chain passes through the block of the checkpoint and agrees with its work and requirement. The
+     * blocks below it are only checked to link to each other; their proofs of work are up to the caller.
+     *
+     * @param blocks         The blocks of the chain.
+     * @param cumulativeWork The work of the chain up to the height of the checkpoint, derived from its timestamps.
+     * @param zeroBits       The number of leading zero bits required at that height, derived likewise.
+     * @return True if the chain can be trusted up to the checkpoint.
+     */
+    boolean anchors(List<Block> blocks, BigInteger cumulativeWork, int zeroBits) {
+        if (height >= blocks.size() || !tipHash.equals(blocks.get(height).getHash())
+                || !this.cumulativeWork.equals(cumulativeWork) || this.zeroBits != zeroBits) {
+            return false;
+        }
+        for (int h = 1; h <= height; h++) {
+            if (!Objects.equals(blocks.get(h).getPreviousHash(), blocks.get(h - 1).getHash())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Checks whether a transaction is confirmed at or below the block of the checkpoint.
+     *
+     * @param transaction The transaction.
+     * @param heightOf    Gives the lowest height of a block confirming a transaction in a chain the checkpoint
+     *                    anchors, or -1 if none does; only asked on probable hits of the filter.
+     * @return True if the transaction is confirmed.
+     */
+    boolean confirms(String transaction, ToIntFunction<String> heightOf) {
+        if (!transactions.mightContain(transaction)) {
+            return false;
+        }
+        int confirmedAt = heightOf.applyAsInt(transaction);
+        return confirmedAt >= 0 && confirmedAt <= height;
+    }
+
+    /**
+     * Writes the checkpoint to a directory, replacing the previous one at once so that a crash leaves either.
+     *
+     * @param directory The directory.
+     * @throws IOException If the checkpoint cannot be written.
+     */
+    void write(Path directory) throws IOException {
+        Path temporary = directory.resolve(FILE + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+            writeTo(out);
+        }
+        Files.move(temporary, directory.resolve(FILE), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Reads the checkpoint of a directory.
+     *
+     * @param directory The directory.
+     * @return The checkpoint, or null if there is none or it is damaged.
+     */
+    static ChainCheckpoint read(Path directory) {
+        Path file = directory.resolve(FILE);
+        if (!Files.exists(file)) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            ChainCheckpoint checkpoint = readFrom(in);
+            if (checkpoint.isIntact()) {
+                return checkpoint;
+            }
+            System.out.println("Ignoring checkpoint " + file + " whose digest does not match");
+        } catch (IOException | RuntimeException e) {
+            // A damaged file may fail in many ways, none of which should stop the node from starting
+            System.out.println("Ignoring unreadable checkpoint " + file + ": " + e.getMessage());
+        }
+        return null;
+    }
+
+    /**
+     * Encodes the checkpoint, to send it to a peer.
+     *
+     * @return The encoded checkpoint.
+     * @throws IOException If the checkpoint cannot be encoded.
+     */
+    byte[] toBytes() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            writeTo(out);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Decodes a checkpoint received from a peer, which is not checked to be intact.
+     *
+     * @param bytes The encoded checkpoint.
+     * @return The checkpoint.
+     * @throws IOException If the bytes do not hold exactly one checkpoint of the current format.
+     */
+    static ChainCheckpoint fromBytes(byte[] bytes) throws IOException {
+        return readFrom(new DataInputStream(new ByteArrayInputStream(bytes)));
+    }
+
+    /**
+     * Encodes the checkpoint: the marker and format version, the digested fields, then the digest.
+     *
+     * @param out The stream to write to.
+     * @throws IOException If the stream cannot be written.
+     */
+    private void writeTo(DataOutputStream out) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeByte(FORMAT_VERSION);
+        writeFields(out);
+        writeString(out, digest);
+    }
+
+    /**
+     * Decodes a checkpoint written by {@link #writeTo(DataOutputStream)}, up to the end of the stream.
+     *
+     * @param in The stream to read from.
+     * @return The checkpoint.
+     * @throws IOException If the stream cannot be read, ends early, holds anything after the checkpoint, or does not
+     *                     hold a checkpoint of the current format within the limits.
+     */
+    private static ChainCheckpoint readFrom(DataInputStream in) throws IOException {
+        if (in.readInt() != MAGIC || in.readUnsignedByte() != FORMAT_VERSION) {
+            throw new StreamCorruptedException("Not a checkpoint of format version " + FORMAT_VERSION);
+        }
+        int height = in.readInt();
+        String tipHash = readString(in);
+        BigInteger cumulativeWork;
+        try {
+            cumulativeWork = new BigInteger(readString(in));
+        } catch (NumberFormatException e) {
+            throw new StreamCorruptedException("Malformed work: " + e.getMessage());
+        }
+        int zeroBits = in.readInt();
+        ScalableBloomFilter transactions = ScalableBloomFilter.readFrom(in, MAX_FILTER_BYTES);
+        String digest = readString(in);
+        if (height < 0 || cumulativeWork.signum() < 0) {
+            throw new StreamCorruptedException("Invalid checkpoint at height " + height);
+        }
+        if (in.read() != -1) {
+            throw new StreamCorruptedException("Bytes after the end of a checkpoint");
+        }
+        return new ChainCheckpoint(height, tipHash, cumulativeWork, zeroBits, transactions, digest);
+    }
+
+    /**
+     * Computes the digest of the fields of the checkpoint.
+     *
+     * @return The hexadecimal SHA-256 digest.
+     */
+    private String computeDigest() {
+        try {
+            MessageDigest sha256 = MessageDigest.getInstance("SHA-256");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    new DigestOutputStream(OutputStream.nullOutputStream(), sha256)))) {
+                writeFields(out);
+            }
+            return MiningKernel.toHex(sha256.digest());
+        } catch (NoSuchAlgorithmException | IOException e) {
+            throw new IllegalStateException("Cannot digest checkpoint", e);
+        }
+    }
+
+    /**
+     * Writes the fields covered by the digest.
+     *
+     * @param out The stream to write to.
+     * @throws IOException If the stream cannot be written.
+     */
+    private void writeFields(DataOutputStream out) throws IOException {
+        out.writeInt(height);
+        writeString(out, tipHash);
+        writeString(out, cumulativeWork.toString());
+        out.writeInt(zeroBits);
+        transactions.writeTo(out);
+    }
+
+    /**
+     * Writes a length-prefixed string.
+     *
+     * @param out   The stream.
+     * @param value The string.
+     * @throws IOException If the stream cannot be written.
+     */
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Reads a string written by {@link #writeString(DataOutputStream, String)}.
+     *
+     * @param in The stream.
+     * @return The string.
+     * @throws IOException If the stream cannot be read or ends early, or the string is longer than the limit.
+     */
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > MAX_STRING_BYTES) {
+            throw new StreamCorruptedException("String length " + length + " exceeds " + MAX_STRING_BYTES);
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Returns a string representation of the checkpoint.
+     *
+     * @return A string representation of the checkpoint.
+     */
+    @Override
+    public String toString() {
+        return "ChainCheckpoint{" +
+                "height=" + height +
+                ", tipHash='" + tipHash + '\'' +
+                ", cumulativeWork=" + cumulativeWork +
+                ", transactions=" + transactions.count() +
+                '}';
+    }
+}
@@ -0,0 +1,34 @@
+package blockchain;
+
+/**
+ * Receives notifications about changes to a {@link BlockChain}.
+ * <p>
+ * A reorganization first disconnects the blocks of the old branch from the top down, then connects the blocks of the
+ * new branch from the bottom up, and finally reports the new tip once.
+ */
+public interface ChainListener {
+    /**
+     * Called after the last block of the chain changed, whether a block was appended or the chain was reorganized.
+     *
+     * @param newTip The new last block of the chain.
+     */
+    void tipChanged(Block newTip);
+
+    /**
+     * Called after a block joined the active chain.
+     *
+     * @param block  The connected block.
+     * @param height The height of the block, zero for the genesis block.
+     */
+    default void blockConnected(Block block, int height) {
+    }
+
+    /**
+     * Called after a block left the active chain.
+     *
+     * @param block  The disconnected block.
+     * @param height The height the block had, zero for the genesis block.
+     */
+    default void blockDisconnected(Block block, int height) {
+    }
+}
@@ -0,0 +1,160 @@
+package blockchain;
+
+import java.io.Serializable;
+import java.math.BigInteger;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.RandomAccess;
+
+/**
+ * An immutable view of the blocks of a chain at one point in time, indexed by height.
+ * <p>
+ * A snapshot is the prefix of a table of fixed-size {@link Chunk chunks} shared with the {@link BlockStore} that
+ * published it, each chunk holding consecutive blocks along with the difficulty and cumulative work of each block.
+ * The store only ever writes the slots past the end of every snapshot sharing a chunk, and copies a chunk, and the
+ * table, before overwriting a slot that a snapshot can still see, after a reorganization or to prune a block. Taking
+ * a snapshot therefore costs neither a lock nor a copy of the chain, changing a block it can see only costs a copy of
+ * one chunk and of the table, and any thread may read one while the chain changes. A snapshot is serialized as a
+ * plain {@link ArrayList}.
+ */
+final class ChainSnapshot extends AbstractList<Block> implements RandomAccess, Serializable {
+    /**
+     * Base two logarithm of the number of blocks of a chunk.
+     */
+    static final int CHUNK_SHIFT = 10;
+    /**
+     * Number of blocks of a chunk.
+     */
+    static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+
+    /**
+     * The table of chunks, whose first {@link #size} blocks never change.
+     */
+    private final Chunk[] chunks;
+    /**
+     * The number of blocks of the snapshot.
+     */
+    private final int size;
+
+    /**
+     * Creates a snapshot of the first blocks of a table of chunks.
+     *
+     * @param chunks The table of chunks, whose first {@code size} blocks, with their difficulty and work, must never
+     *               be written again.
+     * @param size   The number of blocks of the snapshot.
+     */
+    ChainSnapshot(Chunk[] chunks, int size) {
+        this.chunks = chunks;
+        this.size = size;
+    }
+
+    @Override
+    public Block get(int index) {
+        checkHeight(index);
+        return chunks[index >>> CHUNK_SHIFT].blocks[index & (CHUNK_SIZE - 1)];
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Retrieves the number of leading zero bits required of a block.
+     *
+     * @param height The height of the block.
+     * @return The number of leading zero bits required.
+     * @throws IndexOutOfBoundsException If there is no block at that height.
+     */
+    int zeroBits(int height) {
+        checkHeight(height);
+        return chunks[height >>> CHUNK_SHIFT].zeroBits[height & (CHUNK_SIZE - 1)];
+    }
+
+    /**
+     * Retrieves the total work of the chain up to a block.
+     *
+     * @param height The height of the block, zero for the genesis block.
+     * @return The sum of the work of the blocks above the genesis block, up to and including that height.
+     * @throws IndexOutOfBoundsException If there is no block at that height.
+     */
+    BigInteger cumulativeWork(int height) {
+        checkHeight(height);
+        return chunks[height >>> CHUNK_SHIFT].cumulativeWork[height & (CHUNK_SIZE - 1)];
+    }
+
+    /**
+     * Checks that the snapshot has a block at the given height, as the shared chunks may hold more.
+     *
+     * @param height The height.
+     * @throws IndexOutOfBoundsException If there is no block at that height.
+     */
+    private void checkHeight(int height) {
+        if (height < 0 || height >= size) {
+            throw new IndexOutOfBoundsException("Height " + height + " out of chain of " + size + " blocks");
+        }
+    }
+
+    /**
+     * Replaces the snapshot by a list of its blocks when serialized, so that the unused slots of the shared chunks
+     * are not sent and the receiver needs no knowledge of this class.
+     *
+     * @return A list of the blocks of the snapshot.
+     */
+    private Object writeReplace() {
+        return new ArrayList<>(this);
+    }
+
+    /**
+     * {@link #CHUNK_SIZE} consecutive blocks of a chain, with the difficulty and cumulative work of each, written by
+     * the {@link BlockStore} holding it and read by the snapshots sharing it.
+     */
+    static final class Chunk implements Serializable {
+        /**
+         * The blocks, indexed by height within the chunk.
+         */
+        final Block[] blocks;
+        /**
+         * The number of leading zero bits required of every block, indexed likewise.
+         */
+        final int[] zeroBits;
+        /**
+         * The total work of the chain up to every block, indexed likewise.
+         */
+        final BigInteger[] cumulativeWork;
+        /**
+         * The number of first slots that published snapshots can see, which must not be written again. Only used by
+         * the store.
+         */
+        int shared;
+
+        /**
+         * Creates an empty chunk.
+         */
+        Chunk() {
+            this(new Block[CHUNK_SIZE], new int[CHUNK_SIZE], new BigInteger[CHUNK_SIZE]);
+        }
+
+        /**
+         * Creates a chunk of the given arrays.
+         *
+         * @param blocks         The blocks.
+         * @param zeroBits       The difficulty of every block.
+         * @param cumulativeWork The work of the chain up to every block.
+         */
+        private Chunk(Block[] blocks, int[] zeroBits, BigInteger[] cumulativeWork) {
+            this.blocks = blocks;
+            this.zeroBits = zeroBits;
+            this.cumulativeWork = cumulativeWork;
+        }
+
+        /**
+         * Copies the chunk, into a copy no snapshot can see yet.
+         *
+         * @return A chunk holding the same blocks, difficulty and work.
+         */
+        Chunk copy() {
+            return new Chunk(blocks.clone(), zeroBits.clone(), cumulativeWork.clone());
+        }
+    }
+}
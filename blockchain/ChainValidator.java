@@ -0,0 +1,104 @@
+package blockchain;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Predicate;
+import java.util.stream.IntStream;
+
+/**
+ * Validates a run of consecutive blocks in two stages.
+ * <p>
+ * The checks of a block on its own, its hash, its Merkle root and its proof of work, do not depend on the other
+ * blocks and account for nearly all of the cost, so they run in parallel on the common fork-join pool. The checks
+ * that relate blocks to each other, their links and their transactions, then run as a sequential pass that no longer
+ * hashes anything. Short runs are checked on the calling thread, where splitting the work would cost more than it
+ * saves.
+ */
+final class ChainValidator {
+    /**
+     * Number of blocks below which the first stage runs on the calling thread.
+     */
+    static final int PARALLEL_THRESHOLD = 8;
+
+    /**
+     * Prevents instantiation of this utility class.
+     */
+    private ChainValidator() {
+    }
+
+    /**
+     * Validates consecutive blocks.
+     *
+     * @param blocks       The blocks, lowest first.
+     * @param zeroBits     The number of leading zero bits required of each block, or a negative number for a block
+     *                     whose proof of work is not checked, such as a genesis block.
+     * @param previousHash The hash the first block must link to, or null to accept any.
+     * @param confirmed    Tells whether a transaction is already confirmed below the first block.
+     * @return True if every block is valid, false otherwise.
+     */
+    static boolean isValid(List<Block> blocks, int[] zeroBits, String previousHash, Predicate<String> confirmed) {
+        return areWellFormed(blocks, zeroBits) && areLinked(blocks, previousHash, confirmed);
+    }
+
+    /**
+     * Runs the checks of each block on its own, in parallel for long runs.
+     *
+     * @param blocks   The blocks.
+     * @param zeroBits The number of leading zero bits required of each block, negative to skip the check.
+     * @return True if every block has a correct hash, Merkle root and proof of work.
+     */
+    static boolean areWellFormed(List<Block> blocks, int[] zeroBits) {
+        IntStream heights = IntStream.range(0, blocks.size());
+        if (blocks.size() >= PARALLEL_THRESHOLD) {
+            heights = heights.parallel();
+        }
+        return heights.allMatch(i -> isWellFormed(blocks.get(i), zeroBits[i]));
+    }
+
+    /**
+     * Checks a block on its own.
+     *
+     * @param block    The block.
+     * @param zeroBits The number of leading zero bits required of its hash, negative to skip the check.
+     * @return True if the hash, Merkle root and proof of work of the block are correct.
+     */
+    private static boolean isWellFormed(Block block, int zeroBits) {
+        return block != null
+                && block.hasValidHash()
+                && block.hasValidMerkleRoot()
+                && (zeroBits < 0 || BlockChain.meetsDifficulty(block, zeroBits));
+    }
+
+    /**
+     * Checks in a single sequential pass that each block links to the previous one and that no transaction is empty
+     * or confirmed twice.
+     *
+     * @param blocks       The blocks, each already checked on its own.
+     * @param previousHash The hash the first block must link to, or null to accept any.
+     * @param confirmed    Tells whether a transaction is already confirmed below the first block.
+     * @return True if the blocks form a chain without repeated transactions.
+     */
+    static boolean areLinked(List<Block> blocks, String previousHash, Predicate<String> confirmed) {
+        Set<String> seen = new HashSet<>();
+        String expectedPreviousHash = previousHash;
+        for (Block block : blocks) {
+            if (expectedPreviousHash != null && !Objects.equals(block.getPreviousHash(), expectedPreviousHash)) {
+                return false;
+            }
+            List<String> transactions = block.getTransactions();
+            if (transactions == null || transactions.isEmpty()) {
+                return false;
+            }
+            for (String transaction : transactions) {
+                if (transaction == null || transaction.isEmpty() || !seen.add(transaction)
+                        || confirmed.test(transaction)) {
+                    return false;
+                }
+            }
+            expectedPreviousHash = block.getHash();
+        }
+        return true;
+    }
+}
@@ -0,0 +1,252 @@
+package blockchain;
+
+import java.io.Serializable;
+import java.math.BigInteger;
+import java.util.List;
+
+/**
+ * Determines the proof of work required of each block, as a number of leading zero bits of its SHA-256 digest.
+ * <p>
+ * Without retargeting every block needs the initial number of zero bits. With retargeting, the requirement is adjusted
+ * once every {@code retargetInterval} blocks so that blocks keep arriving about {@code targetBlockMillis} apart: the
+ * timestamps of the last {@code retargetInterval} blocks are compared with the expected timespan, and each factor of
+ * two between the two adds or removes one bit, by at most {@link #MAX_RETARGET_STEP} bits per adjustment. The genesis
+ * block never takes part in a window, since every node creates its own with a local timestamp.
+ * <p>
+ * Since the requirement follows the timestamps chosen by miners, retargeting also constrains them: a block must be
+ * later than its parent, unless the parent is the genesis block, and no more than {@link #MAX_FUTURE_MILLIS} ahead of
+ * the local clock of the node validating it. A miner can thus neither stretch a window by dating its last block in
+ * the future nor shrink the next one by dating blocks before their parents. Without retargeting timestamps are not
+ * checked, as nothing depends on them.
+ * <p>
+ * The requirement of a block only depends on its ancestors, so every node computes the same value for it. The work of
+ * a block is the number of hashes expected to meet its requirement, so the work of a chain does not depend on the luck
+ * of its miners nor on the nonces they happened to start from.
+ */
+public class DifficultyRule implements Serializable {
+    /**
+     * Largest change, in bits, of one adjustment; that is a factor of four in expected work.
+     */
+    public static final int MAX_RETARGET_STEP = 2;
+    /**
+     * Largest number of zero bits that can be required.
+     */
+    public static final int MAX_ZERO_BITS = 8 * 32 - 1;
+    /**
+     * Largest time a block may be dated ahead of the local clock when retargeting, in milliseconds.
+     */
+    public static final long MAX_FUTURE_MILLIS = 2 * 60 * 1000;
+
+    /**
+     * Number of leading zero bits required before the first adjustment.
+     */
+    private final int initialZeroBits;
+    /**
+     * Number of blocks between two adjustments, or zero when retargeting is disabled.
+     */
+    private final int retargetInterval;
+    /**
+     * Desired time between two blocks, in milliseconds.
+     */
+    private final long targetBlockMillis;
+
+    /**
+     * Creates a rule requiring the same number of zero bits of every block.
+     *
+     * @param zeroBits The number of leading zero bits required.
+     */
+    public DifficultyRule(int zeroBits) {
+        this(zeroBits, 0, 0);
+    }
+
+    /**
+     * Creates a rule adjusting the required number of zero bits to hold a target block interval.
+     *
+     * @param initialZeroBits   The number of leading zero bits required before the first adjustment.
+     * @param retargetInterval  The number of blocks between two adjustments, at least two, or zero to disable
+     *                          retargeting.
+     * @param targetBlockMillis The desired time between two blocks in milliseconds, positive when retargeting.
+     */
+    public DifficultyRule(int initialZeroBits, int retargetInterval, long targetBlockMillis) {
+        if (initialZeroBits < 0 || initialZeroBits > MAX_ZERO_BITS) {
+            throw new IllegalArgumentException("Invalid number of zero bits: " + initialZeroBits);
+        }
+        if (retargetInterval == 1 || retargetInterval < 0) {
+            throw new IllegalArgumentException("Retarget interval must be zero or at least two: " + retargetInterval);
+        }
+        if (retargetInterval > 0 && targetBlockMillis <= 0) {
+            throw new IllegalArgumentException("Target block interval must be positive: " + targetBlockMillis);
+        }
+        this.initialZeroBits = initialZeroBits;
+        this.retargetInterval = retargetInterval;
+        this.targetBlockMillis = targetBlockMillis;
+    }
+
+    /**
+     * Retrieves the number of leading zero bits required before the first adjustment.
+     *
+     * @return The initial number of zero bits.
+     */
+    public int getInitialZeroBits() {
+        return initialZeroBits;
+    }
+
+    /**
+     * Checks whether the requirement is adjusted over time.
+     *
+     * @return True if retargeting is enabled, false otherwise.
+     */
+    public boolean isRetargeting() {
+        return retargetInterval > 0;
+    }
+
+    /**
+     * Computes the number of zero bits required of the block that would follow the given chain.
+     *
+     * @param chain The chain, starting with the genesis block.
+     * @return The number of leading zero bits required of the next block.
+     */
+    public int zeroBitsAfter(List<Block> chain) {
+        int[] zeroBits = zeroBitsOf(chain);
+        return zeroBits[zeroBits.length - 1];
+    }
+
+    /**
+     * Computes the number of zero bits required of the block following the one at the given height, from the
+     * requirement of that block. Only the block at that height and the first block of its window are read, so a chain
+     * can be followed block by block in constant time per block.
+     *
+     * @param chain    The chain, starting with the genesis block and containing at least the given height.
+     * @param height   The height of the block being extended.
+     * @param zeroBits The number of leading zero bits required of the block at that height.
+     * @return The number of leading zero bits required of the next block.
+     */
+    public int zeroBitsAfter(List<Block> chain, int height, int zeroBits) {
+        if (!isRetargeting() || height == 0 || height % retargetInterval != 0) {
+            return zeroBits;
+        }
+        long windowStart = chain.get(height - retargetInterval + 1).getTimestamp();
+        return retarget(zeroBits, chain.get(height).getTimestamp() - windowStart);
+    }
+
+    /**
+     * Computes a lower bound of the requirement of blocks a little above a block of known requirement, to check the
+     * proof of work of a block whose parent is not known yet. Without retargeting every block has the same
+     * requirement; with retargeting it may have dropped by one adjustment in between.
+     *
+     * @param zeroBits The number of leading zero bits required after a known block, such as the tip.
+     * @return The fewest leading zero bits a block shortly after it can be required to have.
+     */
+    public int lowestZeroBitsNear(int zeroBits) {
+        return isRetargeting() ? Math.max(1, zeroBits - MAX_RETARGET_STEP) : zeroBits;
+    }
+
+    /**
+     * Checks the timestamp of a block against its parent and the local clock. Every timestamp is valid when
+     * retargeting is disabled.
+     *
+     * @param block        The block.
+     * @param parent       The block it extends.
+     * @param parentHeight The height of the parent, zero for the genesis block, whose timestamp is local to each node.
+     * @param now          The local time, in milliseconds since the epoch.
+     * @return True if the block is later than its parent and not too far ahead of the local time.
+     */
+    public boolean hasValidTimestamp(Block block, Block parent, int parentHeight, long now) {
+        if (!isRetargeting()) {
+            return true;
+        }
+        if (block.getTimestamp() > now + MAX_FUTURE_MILLIS) {
+            return false;
+        }
+        return parentHeight == 0 || block.getTimestamp() > parent.getTimestamp();
+    }
+
+    /**
+     * Checks the timestamps of the blocks of a chain from the given height up, each against its parent.
+     *
+     * @param chain      The chain, starting with the genesis block.
+     * @param fromHeight The height of the first block to check, at least one.
+     * @param now        The local time, in milliseconds since the epoch.
+     * @return True if every block from that height has a valid timestamp.
+     */
+    public boolean haveValidTimestamps(List<Block> chain, int fromHeight, long now) {
+        for (int height = fromHeight; height < chain.size(); height++) {
+            if (!hasValidTimestamp(chain.get(height), chain.get(height - 1), height - 1, now)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Computes the work of a block, that is the number of hashes expected to find a solution with the given number of
+     * leading zero bits.
+     *
+     * @param zeroBits The number of leading zero bits required of the block.
+     * @return Two to the power of the number of zero bits.
+     */
+    public static BigInteger workOf(int zeroBits) {
+        return BigInteger.ONE.shiftLeft(zeroBits);
+    }
+
+    /**
+     * Computes the number of zero bits required of every block of a chain, in a single pass over it.
+     *
+     * @param chain The chain, starting with the genesis block.
+     * @return The requirement of the block at each height, followed by the requirement of the block that would follow
+     * the chain; the entry of the genesis block is meaningless.
+     */
+    public int[] zeroBitsOf(List<Block> chain) {
+        int[] zeroBits = new int[chain.size() + 1];
+        int current = initialZeroBits;
+        long windowStart = 0;
+        int height = 0;
+        for (Block block : chain) {
+            zeroBits[height] = current;
+            if (isRetargeting() && height > 0) {
+                if (height % retargetInterval == 1) {
+                    windowStart = block.getTimestamp();
+                } else if (height % retargetInterval == 0) {
+                    current = retarget(current, block.getTimestamp() - windowStart);
+                }
+            }
+            height++;
+        }
+        zeroBits[height] = current;
+        return zeroBits;
+    }
+
+    /**
+     * Adjusts the requirement after a window of {@code retargetInterval} blocks.
+     *
+     * @param zeroBits       The requirement of the window.
+     * @param observedMillis The time between the first and the last block of the window.
+     * @return The requirement of the next window.
+     */
+    private int retarget(int zeroBits, long observedMillis) {
+        long expectedMillis = (retargetInterval - 1) * targetBlockMillis;
+        int step;
+        if (observedMillis <= 0) {
+            step = MAX_RETARGET_STEP;
+        } else {
+            double ratio = (double) expectedMillis / observedMillis;
+            step = (int) Math.round(StrictMath.log(ratio) / StrictMath.log(2));
+            step = Math.max(-MAX_RETARGET_STEP, Math.min(MAX_RETARGET_STEP, step));
+        }
+        return Math.max(1, Math.min(MAX_ZERO_BITS, zeroBits + step));
+    }
+
+    /**
+     * Returns a string representation of the rule.
+     *
+     * @return A string representation of the rule.
+     */
+    @Override
+    public String toString() {
+        return "DifficultyRule{" +
+                "initialZeroBits=" + initialZeroBits +
+                ", retargetInterval=" + retargetInterval +
+                ", targetBlockMillis=" + targetBlockMillis +
+                '}';
+    }
+}
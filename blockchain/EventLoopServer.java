@@ -0,0 +1,616 @@
+package blockchain;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Serves the ports of a node with non-blocking sockets, so that the number of threads stays the same however many
+ * connections are open.
+ * <p>
+ * A few I/O threads each run a {@link Selector} over their share of the connections, the first one also accepting the
+ * new ones. Each I/O thread reads into a single direct buffer of its own, and the bytes of a connection are only
+ * copied aside until its message is complete, so an idle connection holds no buffer. The {@link Handler} of the port
+ * decides from the bytes received when a message is complete, without blocking, and hands its processing over to a
+ * bounded pool of workers; a connection whose message cannot be queued there is closed. Replies are written by the I/O
+ * threads as the sockets accept them. A connection silent for {@link #IDLE_TIMEOUT_MILLIS}, or whose message exceeds
+ * the limit of its port, is closed.
+ */
+final class EventLoopServer {
+    /**
+     * Time a connection may stay silent before it is closed, in milliseconds.
+     */
+    static final long IDLE_TIMEOUT_MILLIS = 30_000;
+    /**
+     * Size of the direct buffer each I/O thread reads into, in bytes.
+     */
+    private static final int READ_BUFFER_BYTES = 64 * 1024;
+    /**
+     * Number of connections waiting to be accepted that the operating system may queue.
+     */
+    static final int ACCEPT_BACKLOG = 4096;
+
+    /**
+     * Decides when the message of a connection is complete and processes it.
+     */
+    interface Handler {
+        /**
+         * Examines the bytes received on a connection so far, on an I/O thread, which it must not block. Once the
+         * message is complete, the handler {@link Connection#dispatch(Runnable) dispatches} its processing, or
+         * {@link Connection#detach(Consumer) detaches} the connection; otherwise it waits for more bytes, unless the
+         * remote end has ended its output, in which case it closes the connection.
+         *
+         * @param connection The connection.
+         * @param received   The bytes received since the connection was accepted.
+         * @param length     The number of bytes received.
+         * @param ended      True if the remote end will send nothing more.
+         */
+        void received(Connection connection, byte[] received, int length, boolean ended);
+    }
+
+    /**
+     * The I/O threads.
+     */
+    private final Loop[] loops;
+    /**
+     * Processes the messages received.
+     */
+    private final ThreadPoolExecutor workers;
+    /**
+     * The sockets accepting connections.
+     */
+    private final List<ServerSocketChannel> servers = new ArrayList<>();
+    /**
+     * Number of connections accepted so far, which spreads them over the I/O threads.
+     */
+    private final AtomicInteger accepted = new AtomicInteger();
+    /**
+     * Number of connections open.
+     */
+    private final AtomicInteger open = new AtomicInteger();
+    /**
+     * Number of connections closed because the workers were saturated.
+     */
+    private final LongAdder rejected = new LongAdder();
+    /**
+     * True once the server is closed.
+     */
+    private volatile boolean closed;
+
+    /**
+     * Creates a server that listens on no port yet.
+     *
+     * @param ioThreads     The number of I/O threads.
+     * @param workerThreads The number of workers processing messages.
+     * @param workerQueue   The number of messages that may wait for a worker.
+     * @throws IOException If a selector cannot be opened.
+     */
+    EventLoopServer(int ioThreads, int workerThreads, int workerQueue) throws IOException {
+        this.loops = new Loop[ioThreads];
+        for (int i = 0; i < ioThreads; i++) {
+            loops[i] = new Loop(i);
+        }
+        this.workers = new ThreadPoolExecutor(workerThreads, workerThreads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(workerQueue));
+    }
+
+    /**
+     * Starts accepting connections on a port.
+     *
+     * @param port            The port.
+     * @param handler         Decides when messages are complete and processes them.
+     * @param maxMessageBytes The largest number of bytes a connection may send before its message is complete.
+     * @throws IOException If the port cannot be bound.
+     */
+    void listen(int port, Handler handler, int maxMessageBytes) throws IOException {
+        ServerSocketChannel server = ServerSocketChannel.open();
+        try {
+            server.bind(new InetSocketAddress(port), ACCEPT_BACKLOG);
+            server.configureBlocking(false);
+            servers.add(server);
+            loops[0].post(() -> loops[0].register(server, SelectionKey.OP_ACCEPT, new Port(handler, maxMessageBytes)));
+        } catch (IOException | RuntimeException e) {
+            server.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Starts the I/O threads.
+     */
+    void start() {
+        for (Loop loop : loops) {
+            loop.thread.start();
+        }
+    }
+
+    /**
+     * Stops accepting connections, closes the open ones and stops the threads.
+     */
+    void close() {
+        closed = true;
+        for (ServerSocketChannel server : servers) {
+            try {
+                server.close();
+            } catch (IOException e) {
+                System.out.println("Error closing server socket: " + e.getMessage());
+            }
+        }
+        for (Loop loop : loops) {
+            loop.selector.wakeup();
+        }
+        workers.shutdownNow();
+        for (Loop loop : loops) {
+            try {
+                loop.thread.join();
+                // A loop that never started has not closed its selector
+                loop.selector.close();
+            } catch (IOException e) {
+                System.out.println("Error closing selector: " + e.getMessage());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Retrieves the number of connections open, detached ones excluded.
+     *
+     * @return The number of open connections.
+     */
+    int getOpenConnections() {
+        return open.get();
+    }
+
+    /**
+     * Retrieves the number of connections closed because no worker could take their message.
+     *
+     * @return The number of rejected connections.
+     */
+    long getRejectedConnections() {
+        return rejected.sum();
+    }
+
+    /**
+     * The handler and message limit of a port.
+     *
+     * @param handler         Decides when messages are complete and processes them.
+     * @param maxMessageBytes The largest number of bytes a connection may send before its message is complete.
+     */
+    private record Port(Handler handler, int maxMessageBytes) {
+    }
+
+    /**
+     * An I/O thread and the connections it serves.
+     */
+    private final class Loop implements Runnable {
+        /**
+         * The selector of the connections.
+         */
+        private final Selector selector;
+        /**
+         * The thread running the loop.
+         */
+        private final Thread thread;
+        /**
+         * The buffer every read of the loop goes through.
+         */
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(READ_BUFFER_BYTES);
+        /**
+         * Tasks posted by other threads, run by the loop between two selections.
+         */
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+
+        /**
+         * Creates an I/O thread, without starting it.
+         *
+         * @param index The index of the thread, for its name.
+         * @throws IOException If the selector cannot be opened.
+         */
+        private Loop(int index) throws IOException {
+            this.selector = Selector.open();
+            this.thread = new Thread(this, "io-" + index);
+        }
+
+        /**
+         * Selects and serves ready connections until the server closes, then closes the remaining ones.
+         */
+        @Override
+        public void run() {
+            long lastSweep = System.currentTimeMillis();
+            try {
+                while (!closed) {
+                    selector.select(1000);
+                    Runnable task;
+                    while ((task = tasks.poll()) != null) {
+                        task.run();
+                    }
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        if (!key.isValid()) {
+                            continue;
+                        }
+                        if (key.isAcceptable()) {
+                            accept(key);
+                        } else {
+                            Connection connection = (Connection) key.attachment();
+                            if (key.isWritable()) {
+                                connection.flush();
+                            }
+                            if (key.isValid() && key.isReadable()) {
+                                connection.read();
+                            }
+                        }
+                    }
+                    long now = System.currentTimeMillis();
+                    if (now - lastSweep >= 1000) {
+                        lastSweep = now;
+                        closeIdle(now);
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                System.out.println("I/O thread failed: " + e.getMessage());
+            } finally {
+                for (SelectionKey key : selector.keys()) {
+                    if (key.attachment() instanceof Connection connection) {
+                        connection.close();
+                    }
+                }
+                try {
+                    selector.close();
+                } catch (IOException e) {
+                    System.out.println("Error closing selector: " + e.getMessage());
+                }
+            }
+        }
+
+        /**
+         * Runs a task on the loop, between two selections.
+         *
+         * @param task The task.
+         */
+        private void post(Runnable task) {
+            tasks.add(task);
+            selector.wakeup();
+        }
+
+        /**
+         * Registers a channel with the selector of the loop. Must be called on the loop.
+         *
+         * @param channel    The channel, in non-blocking mode.
+         * @param operations The operations of interest.
+         * @param attachment The port or connection of the channel.
+         * @return The key of the channel, or null if it was closed meanwhile.
+         */
+        private SelectionKey register(SelectableChannel channel, int operations, Object attachment) {
+            try {
+                return channel.register(selector, operations, attachment);
+            } catch (IOException e) {
+                System.out.println("Error registering channel: " + e.getMessage());
+                return null;
+            }
+        }
+
+        /**
+         * Accepts the connections waiting on a port and spreads them over the loops.
+         *
+         * @param key The key of the port.
+         * @throws IOException If the port fails.
+         */
+        private void accept(SelectionKey key) throws IOException {
+            Port port = (Port) key.attachment();
+            SocketChannel channel;
+            while ((channel = ((ServerSocketChannel) key.channel()).accept()) != null) {
+                channel.configureBlocking(false);
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                Loop loop = loops[Math.floorMod(accepted.getAndIncrement(), loops.length)];
+                Connection connection = new Connection(channel, loop, port);
+                open.incrementAndGet();
+                if (loop == this) {
+                    connection.register();
+                } else {
+                    loop.post(connection::register);
+                }
+            }
+        }
+
+        /**
+         * Closes the connections of the loop that have been silent for too long.
+         *
+         * @param now The current time, in milliseconds since the epoch.
+         */
+        private void closeIdle(long now) {
+            for (SelectionKey key : selector.keys()) {
+                if (key.attachment() instanceof Connection connection
+                        && now - connection.lastActive > IDLE_TIMEOUT_MILLIS) {
+                    connection.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * A connection accepted by the server. Its bytes are read and written on its I/O thread only; other threads reply
+     * through {@link #reply(byte[])}.
+     */
+    final class Connection {
+        /**
+         * The channel of the connection.
+         */
+        private final SocketChannel channel;
+        /**
+         * The I/O thread serving the connection.
+         */
+        private final Loop loop;
+        /**
+         * The port the connection was accepted on.
+         */
+        private final Port port;
+        /**
+         * The key of the channel with the selector of its loop.
+         */
+        private SelectionKey key;
+        /**
+         * The bytes received since the connection was accepted, followed by free space.
+         */
+        private byte[] received = new byte[0];
+        /**
+         * The number of bytes received.
+         */
+        private int length;
+        /**
+         * The bytes waiting to be written, in order.
+         */
+        private final Queue<ByteBuffer> output = new ArrayDeque<>();
+        /**
+         * True once the message is complete, after which nothing more is read.
+         */
+        private boolean complete;
+        /**
+         * True to close the connection once its output is written.
+         */
+        private boolean closing;
+        /**
+         * True once the connection is closed or detached.
+         */
+        private boolean closed;
+        /**
+         * The last time bytes were read or written, in milliseconds since the epoch.
+         */
+        private long lastActive = System.currentTimeMillis();
+        /**
+         * State the handler keeps about the connection, or null.
+         */
+        private Object attachment;
+
+        /**
+         * Creates a connection, not registered with its loop yet.
+         *
+         * @param channel The channel of the connection, in non-blocking mode.
+         * @param loop    The I/O thread serving the connection.
+         * @param port    The port the connection was accepted on.
+         */
+        private Connection(SocketChannel channel, Loop loop, Port port) {
+            this.channel = channel;
+            this.loop = loop;
+            this.port = port;
+        }
+
+        /**
+         * Hands the processing of the complete message over to a worker, and stops reading. Must be called from the
+         * handler.
+         *
+         * @param task The processing, which ends by calling {@link #reply(byte[])}.
+         */
+        void dispatch(Runnable task) {
+            complete = true;
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+            try {
+                workers.execute(task);
+            } catch (RejectedExecutionException e) {
+                rejected.increment();
+                close();
+            }
+        }
+
+        /**
+         * Writes bytes on the connection without waiting for the message to be processed, such as the header of a
+         * serialization stream. Must be called from the handler.
+         *
+         * @param bytes The bytes.
+         */
+        void write(byte[] bytes) {
+            output.add(ByteBuffer.wrap(bytes));
+            flush();
+        }
+
+        /**
+         * Writes the reply to the message and closes the connection once it is written. May be called by any thread.
+         *
+         * @param bytes The reply.
+         */
+        void reply(byte[] bytes) {
+            loop.post(() -> {
+                closing = true;
+                write(bytes);
+            });
+        }
+
+        /**
+         * Closes the connection without a reply. May be called by any thread.
+         */
+        void abort() {
+            if (Thread.currentThread() == loop.thread) {
+                close();
+            } else {
+                loop.post(this::close);
+            }
+        }
+
+        /**
+         * Keeps state about the connection for its handler.
+         *
+         * @param attachment The state, or null.
+         */
+        void attach(Object attachment) {
+            this.attachment = attachment;
+        }
+
+        /**
+         * Retrieves the state kept about the connection by its handler.
+         *
+         * @return The state, or null if none was attached.
+         */
+        Object attachment() {
+            return attachment;
+        }
+
+        /**
+         * Takes the connection out of the server and hands it over in blocking mode, for a long conversation that does
+         * not fit a single message. Must be called from the handler.
+         *
+         * @param taker Receives the socket of the connection, on a thread of the loop, and must not block.
+         */
+        void detach(Consumer<Socket> taker) {
+            complete = true;
+            closed = true;
+            open.decrementAndGet();
+            key.cancel();
+            // The key is only deregistered by the next selection, and the channel cannot block before
+            loop.post(() -> {
+                try {
+                    channel.configureBlocking(true);
+                    taker.accept(channel.socket());
+                } catch (IOException | RuntimeException e) {
+                    System.out.println("Error detaching connection: " + e.getMessage());
+                    try {
+                        channel.close();
+                    } catch (IOException ignored) {
+                        // Nothing more can be done
+                    }
+                }
+            });
+        }
+
+        /**
+         * Registers the connection with its loop, for reading. Must be called on the loop.
+         */
+        private void register() {
+            if (closed) {
+                return;
+            }
+            key = loop.register(channel, SelectionKey.OP_READ, this);
+            if (key == null) {
+                close();
+            }
+        }
+
+        /**
+         * Reads the bytes available and lets the handler examine them.
+         */
+        private void read() {
+            ByteBuffer buffer = loop.buffer;
+            buffer.clear();
+            int read;
+            try {
+                read = channel.read(buffer);
+            } catch (IOException e) {
+                close();
+                return;
+            }
+            lastActive = System.currentTimeMillis();
+            boolean ended = read < 0;
+            if (ended) {
+                key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+            } else {
+                buffer.flip();
+                if (length + buffer.remaining() > port.maxMessageBytes()) {
+                    close();
+                    return;
+                }
+                if (length + buffer.remaining() > received.length) {
+                    received = Arrays.copyOf(received, Math.max(length + buffer.remaining(), 2 * received.length));
+                }
+                buffer.get(received, length, buffer.remaining());
+                length += read;
+            }
+            port.handler().received(this, received, length, ended);
+            if (complete) {
+                // The message is in the hands of a worker; its bytes are no longer needed here
+                received = null;
+            } else if (ended && !closed) {
+                close();
+            }
+        }
+
+        /**
+         * Writes as much of the output as the socket accepts, and waits to be writable for the rest.
+         */
+        private void flush() {
+            if (closed) {
+                return;
+            }
+            try {
+                while (!output.isEmpty()) {
+                    ByteBuffer next = output.peek();
+                    channel.write(next);
+                    if (next.hasRemaining()) {
+                        key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                        return;
+                    }
+                    output.remove();
+                    lastActive = System.currentTimeMillis();
+                }
+                key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+                if (closing) {
+                    close();
+                }
+            } catch (IOException e) {
+                close();
+            }
+        }
+
+        /**
+         * Closes the connection. Does nothing if it is already closed or detached.
+         */
+        private void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            open.decrementAndGet();
+            if (key != null) {
+                key.cancel();
+            }
+            try {
+                channel.close();
+            } catch (IOException e) {
+                System.out.println("Error closing connection: " + e.getMessage());
+            }
+        }
+    }
+}
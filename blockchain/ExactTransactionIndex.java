@@ -0,0 +1,46 @@
+package blockchain;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps every confirmed transaction in a hash map, which answers lookups in constant time at the cost of one map entry
+ * per transaction.
+ */
+final class ExactTransactionIndex implements TransactionIndex {
+    /**
+     * The block confirming every transaction, indexed by transaction. Replaced as a whole on rebuild, so that
+     * concurrent readers never see it empty.
+     */
+    private volatile ConcurrentHashMap<String, Block> blockByTransaction = new ConcurrentHashMap<>();
+
+    @Override
+    public void add(Block block, int height) {
+        for (String transaction : block.getTransactions()) {
+            blockByTransaction.putIfAbsent(transaction, block);
+        }
+    }
+
+    @Override
+    public void remove(Block block, List<Block> blocks) {
+        for (String transaction : block.getTransactions()) {
+            blockByTransaction.remove(transaction, block);
+        }
+    }
+
+    @Override
+    public void rebuild(List<Block> blocks) {
+        ConcurrentHashMap<String, Block> transactions = new ConcurrentHashMap<>();
+        for (Block block : blocks) {
+            for (String transaction : block.getTransactions()) {
+                transactions.putIfAbsent(transaction, block);
+            }
+        }
+        blockByTransaction = transactions;
+    }
+
+    @Override
+    public Block find(String transaction, List<Block> blocks) {
+        return blockByTransaction.get(transaction);
+    }
+}
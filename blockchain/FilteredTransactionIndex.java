@@ -0,0 +1,123 @@
+package blockchain;
+
+import java.util.List;
+
+/**
+ * Keeps confirmed transactions in a {@link ScalableBloomFilter} instead of a map of transactions, so that the heap it
+ * holds stays bounded by the filter budget and a compact table however long the transactions grow.
+ * <p>
+ * Transactions the filter has never seen are reported unconfirmed straight away. Probable hits are confirmed in
+ * constant time by a {@link PrunedTransactionIndex}, which maps a fingerprint of every transaction to its height in
+ * primitive arrays, about twenty bytes per transaction and no object the garbage collector has to trace. Bloom filters
+ * cannot forget, so transactions of blocks removed from the chain stay in the filter as extra false positives until
+ * it is rebuilt, which happens once such stale transactions outnumber half the transactions of the filter.
+ */
+final class FilteredTransactionIndex implements TransactionIndex {
+    /**
+     * Target false positive rate of the filter.
+     */
+    private final double falsePositiveRate;
+    /**
+     * Memory budget of the filter, in bytes.
+     */
+    private final long maxBytes;
+    /**
+     * Counters of the lookups.
+     */
+    private final TransactionFilterMetrics metrics;
+    /**
+     * The exact index confirming the probable hits of the filter.
+     */
+    private final PrunedTransactionIndex heights = new PrunedTransactionIndex();
+    /**
+     * The filter of the transactions of the chain. Replaced as a whole on rebuild.
+     */
+    private volatile ScalableBloomFilter filter;
+    /**
+     * Number of transactions in the filter whose block has left the chain.
+     */
+    private long staleTransactions;
+
+    /**
+     * Creates an empty index.
+     *
+     * @param falsePositiveRate The target false positive rate of the filter, strictly between zero and one.
+     * @param maxBytes          The memory budget of the filter, in bytes.
+     * @param metrics           The counters to record lookups in.
+     */
+    FilteredTransactionIndex(double falsePositiveRate, long maxBytes, TransactionFilterMetrics metrics) {
+        this.falsePositiveRate = falsePositiveRate;
+        this.maxBytes = maxBytes;
+        this.metrics = metrics;
+        this.filter = new ScalableBloomFilter(falsePositiveRate, maxBytes);
+    }
+
+    @Override
+    public void add(Block block, int height) {
+        for (String transaction : block.getTransactions()) {
+            filter.add(transaction);
+        }
+        heights.add(block, height);
+    }
+
+    @Override
+    public void remove(Block block, List<Block> blocks) {
+        heights.remove(block, blocks);
+        staleTransactions += block.getTransactions().size();
+        if (staleTransactions > filter.count() / 2) {
+            rebuildFilter(blocks);
+        }
+    }
+
+    @Override
+    public void rebuild(List<Block> blocks) {
+        heights.rebuild(blocks);
+        rebuildFilter(blocks);
+    }
+
+    /**
+     * Replaces the filter with one holding only the transactions of the given blocks.
+     *
+     * @param blocks The blocks of the chain, starting with the genesis block.
+     */
+    private void rebuildFilter(List<Block> blocks) {
+        ScalableBloomFilter rebuilt = new ScalableBloomFilter(falsePositiveRate, maxBytes);
+        for (Block block : blocks) {
+            for (String transaction : block.getTransactions()) {
+                rebuilt.add(transaction);
+            }
+        }
+        filter = rebuilt;
+        staleTransactions = 0;
+        metrics.recordRebuild();
+    }
+
+    @Override
+    public Block find(String transaction, List<Block> blocks) {
+        if (!filter.mightContain(transaction)) {
+            metrics.recordDefiniteMiss();
+            return null;
+        }
+        Block found = heights.find(transaction, blocks);
+        metrics.recordProbableHit(found != null);
+        return found;
+    }
+
+    /**
+     * Retrieves the memory used by the filter and the table confirming its hits.
+     *
+     * @return The size of the filter and the table, in bytes.
+     */
+    long bytes() {
+        return filter.bytes() + heights.bytes();
+    }
+
+    /**
+     * Estimates the false positive rate of the filter from its fill.
+     *
+     * @return The expected false positive rate.
+     */
+    double expectedFalsePositiveRate() {
+        return filter.expectedFalsePositiveRate();
+    }
+}
@@ -0,0 +1,182 @@
+package blockchain;
+
+/**
+ * Maps 64-bit fingerprints to heights in a table of primitive arrays probed linearly, about twenty bytes per entry and
+ * no object per entry, so the garbage collector never has to trace it.
+ * <p>
+ * A fingerprint stands for a longer key, such as a transaction or a block hash, which callers check again when the
+ * key itself is at hand. Only the first height recorded for a fingerprint is kept. The table is not thread-safe;
+ * callers hold a lock around it when it is read by several threads.
+ */
+final class FingerprintTable {
+    /**
+     * Number of slots of an empty table, a power of two.
+     */
+    private static final int INITIAL_CAPACITY = 1024;
+    /**
+     * Fingerprint marking an empty slot; a key whose fingerprint is zero is stored under one instead.
+     */
+    private static final long EMPTY = 0;
+
+    /**
+     * The fingerprints, indexed by slot.
+     */
+    private long[] fingerprints = new long[INITIAL_CAPACITY];
+    /**
+     * The height recorded for the fingerprint of each slot.
+     */
+    private int[] heights = new int[INITIAL_CAPACITY];
+    /**
+     * Number of occupied slots.
+     */
+    private int count;
+
+    /**
+     * Records the height of a fingerprint, unless the fingerprint is already recorded.
+     *
+     * @param fingerprint The fingerprint.
+     * @param height      The height.
+     */
+    void put(long fingerprint, int height) {
+        fingerprint = stored(fingerprint);
+        if (4 * (count + 1) > 3 * fingerprints.length) {
+            resize(2 * fingerprints.length);
+        }
+        int mask = fingerprints.length - 1;
+        int slot = (int) fingerprint & mask;
+        while (fingerprints[slot] != EMPTY) {
+            if (fingerprints[slot] == fingerprint) {
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+        fingerprints[slot] = fingerprint;
+        heights[slot] = height;
+        count++;
+    }
+
+    /**
+     * Finds the height recorded for a fingerprint.
+     *
+     * @param fingerprint The fingerprint.
+     * @return The height, or -1 if the fingerprint is not in the table.
+     */
+    int get(long fingerprint) {
+        int slot = slotOf(stored(fingerprint));
+        return slot == -1 ? -1 : heights[slot];
+    }
+
+    /**
+     * Forgets a fingerprint if it is recorded at or above the given height.
+     *
+     * @param fingerprint The fingerprint.
+     * @param height      The lowest height to forget.
+     */
+    void remove(long fingerprint, int height) {
+        int slot = slotOf(stored(fingerprint));
+        if (slot != -1 && heights[slot] >= height) {
+            delete(slot);
+        }
+    }
+
+    /**
+     * Forgets every fingerprint recorded at or above the given height.
+     *
+     * @param height The lowest height to forget.
+     */
+    void retainBelow(int height) {
+        long[] oldFingerprints = fingerprints;
+        int[] oldHeights = heights;
+        fingerprints = new long[oldFingerprints.length];
+        heights = new int[oldHeights.length];
+        count = 0;
+        for (int slot = 0; slot < oldFingerprints.length; slot++) {
+            if (oldFingerprints[slot] != EMPTY && oldHeights[slot] < height) {
+                put(oldFingerprints[slot], oldHeights[slot]);
+            }
+        }
+    }
+
+    /**
+     * Forgets every fingerprint and shrinks the table back to its initial size.
+     */
+    void clear() {
+        fingerprints = new long[INITIAL_CAPACITY];
+        heights = new int[INITIAL_CAPACITY];
+        count = 0;
+    }
+
+    /**
+     * Retrieves the memory used by the table.
+     *
+     * @return The size of the fingerprint and height arrays, in bytes.
+     */
+    long bytes() {
+        return (long) fingerprints.length * (Long.BYTES + Integer.BYTES);
+    }
+
+    /**
+     * Maps a fingerprint to the value stored for it, which is never {@link #EMPTY}.
+     *
+     * @param fingerprint The fingerprint.
+     * @return The fingerprint, or one in place of {@link #EMPTY}.
+     */
+    private static long stored(long fingerprint) {
+        return fingerprint == EMPTY ? 1 : fingerprint;
+    }
+
+    /**
+     * Finds the slot of a stored fingerprint.
+     *
+     * @param fingerprint The fingerprint, never {@link #EMPTY}.
+     * @return The slot holding it, or -1 if it is not in the table.
+     */
+    private int slotOf(long fingerprint) {
+        int mask = fingerprints.length - 1;
+        for (int slot = (int) fingerprint & mask; fingerprints[slot] != EMPTY; slot = (slot + 1) & mask) {
+            if (fingerprints[slot] == fingerprint) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Empties a slot, moving back the entries probed past it so that they stay reachable.
+     *
+     * @param slot The slot.
+     */
+    private void delete(int slot) {
+        int mask = fingerprints.length - 1;
+        int hole = slot;
+        for (int next = (hole + 1) & mask; fingerprints[next] != EMPTY; next = (next + 1) & mask) {
+            int home = (int) fingerprints[next] & mask;
+            // The entry may fill the hole unless its home slot lies cyclically after the hole, up to its own slot
+            if (((next - home) & mask) >= ((next - hole) & mask)) {
+                fingerprints[hole] = fingerprints[next];
+                heights[hole] = heights[next];
+                hole = next;
+            }
+        }
+        fingerprints[hole] = EMPTY;
+        count--;
+    }
+
+    /**
+     * Moves every entry to a table of the given size.
+     *
+     * @param capacity The number of slots, a power of two.
+     */
+    private void resize(int capacity) {
+        long[] oldFingerprints = fingerprints;
+        int[] oldHeights = heights;
+        fingerprints = new long[capacity];
+        heights = new int[capacity];
+        count = 0;
+        for (int slot = 0; slot < oldFingerprints.length; slot++) {
+            if (oldFingerprints[slot] != EMPTY) {
+                put(oldFingerprints[slot], oldHeights[slot]);
+            }
+        }
+    }
+}
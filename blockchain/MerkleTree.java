@@ -0,0 +1,113 @@
+package blockchain;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Computes the Merkle root committing to the transactions of a block.
+ * <p>
+ * Each leaf is the SHA-256 of a transaction's UTF-8 bytes. Each level pairs adjacent nodes and hashes their
+ * concatenation, and the last node of a level with an odd count is paired with itself. An empty transaction list has an
+ * all-zero root.
+ * <p>
+ * Pairing the last node with itself gives a list ending with an odd number of transactions the same root as the list
+ * repeating them (CVE-2012-2459): {@code [a, b, c]} and {@code [a, b, c, c]} share a root. A root is therefore only
+ * accepted as committing to transactions by {@link #unambiguousRoot(List)}, whose tree never pairs two equal nodes, so
+ * that a block repeating its last transactions cannot pass for the block that does not, or the other way around.
+ */
+public final class MerkleTree {
+
+    /**
+     * Private constructor to prevent instantiation of the utility class.
+     */
+    private MerkleTree() {
+    }
+
+    /**
+     * Computes the Merkle root of a list of transactions.
+     *
+     * @param transactions The transactions, in block order.
+     * @return The 32-byte root.
+     * @throws IllegalArgumentException If a transaction is null.
+     */
+    public static byte[] root(List<String> transactions) {
+        if (hasNull(transactions)) {
+            throw new IllegalArgumentException("Null transaction in " + transactions);
+        }
+        return compute(transactions, false);
+    }
+
+    /**
+     * Computes the Merkle root of a list of transactions, provided it is the only list of transactions with that root
+     * this tree can produce.
+     *
+     * @param transactions The transactions, in block order.
+     * @return The 32-byte root, or null if a transaction is null or the tree pairs two equal nodes.
+     */
+    static byte[] unambiguousRoot(List<String> transactions) {
+        return hasNull(transactions) ? null : compute(transactions, true);
+    }
+
+    /**
+     * Checks whether a list holds a null transaction, which immutable lists cannot be asked with
+     * {@link List#contains(Object)}.
+     *
+     * @param transactions The transactions.
+     * @return True if a transaction is null.
+     */
+    private static boolean hasNull(List<String> transactions) {
+        for (String transaction : transactions) {
+            if (transaction == null) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Computes the Merkle root of a list of transactions none of which is null.
+     *
+     * @param transactions The transactions, in block order.
+     * @param strict       Whether to give up on a tree pairing two equal nodes.
+     * @return The 32-byte root, or null if strict and the tree pairs two equal nodes.
+     */
+    private static byte[] compute(List<String> transactions, boolean strict) {
+        if (transactions.isEmpty()) {
+            return new byte[MiningKernel.DIGEST_LENGTH];
+        }
+        MessageDigest digest = MiningKernel.threadDigest();
+        byte[][] level = new byte[transactions.size()][];
+        for (int i = 0; i < level.length; i++) {
+            level[i] = digest.digest(transactions.get(i).getBytes(StandardCharsets.UTF_8));
+        }
+        int count = level.length;
+        while (count > 1) {
+            int next = 0;
+            for (int i = 0; i < count; i += 2) {
+                byte[] left = level[i];
+                byte[] right = i + 1 < count ? level[i + 1] : left;
+                if (strict && right != left && Arrays.equals(left, right)) {
+                    return null;
+                }
+                digest.update(left);
+                digest.update(right);
+                level[next++] = digest.digest();
+            }
+            count = next;
+        }
+        return level[0];
+    }
+
+    /**
+     * Computes the Merkle root of a list of transactions as a hexadecimal string.
+     *
+     * @param transactions The transactions, in block order.
+     * @return The root as 64 lower case hexadecimal characters.
+     * @throws IllegalArgumentException If a transaction is null.
+     */
+    public static String rootHex(List<String> transactions) {
+        return MiningKernel.toHex(root(transactions));
+    }
+}
@@ -1,18 +1,40 @@
 package blockchain;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.ObjectInputStream;
+import java.io.ObjectInputFilter;
 import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.math.BigInteger;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -53,13 +75,22 @@ public class MinerNode {
      */
     private ServerSocket peerServerSocket;
     /**
-     * Thread responsible for the mining process.
+     * Thread responsible for the mining process. Assigned under {@link #lock}, as tip changes are, so that an attempt
+     * is either started on the current tip or abandoned by the change that made it stale.
      */
-    private MiningThread miningThread;
+    private volatile MiningThread miningThread;
     /**
      * Flag indicating whether mining is active.
      */
     private final AtomicBoolean miningActive = new AtomicBoolean(false);
+    /**
+     * Signal waking the block creation loop when a transaction arrives, the tip moves or a mining attempt ends.
+     */
+    private final Semaphore miningSignal = new Semaphore(0);
+    /**
+     * Counters describing the mining activity of this node.
+     */
+    private final MiningMetrics miningMetrics = new MiningMetrics();
     /**
      * Thread handling client communication.
      */
@@ -82,6 +113,94 @@ public class MinerNode {
      */
     private final ReentrantLock lock = new ReentrantLock();
 
+    /**
+     * Tunable settings of this node.
+     */
+    private final NodeConfig config;
+    /**
+     * Worker pool splitting the nonce space of each block, or null when mining on a single thread.
+     */
+    private ParallelMiner parallelMiner;
+    /**
+     * SHA-256 implementation the node mines with, resolved against the JVM when the node starts.
+     */
+    private volatile MiningBackend miningBackend = MiningBackend.MESSAGE_DIGEST;
+    /**
+     * Packs pool transactions into the blocks this node mines.
+     */
+    private final BlockTemplateBuilder templateBuilder;
+    /**
+     * Largest number of missing ancestors fetched for an orphan block before falling back to a full synchronization.
+     */
+    private static final int MAX_ANCESTORS = 500;
+    /**
+     * Counters of the blocks received before their parent.
+     */
+    private final OrphanMetrics orphanMetrics = new OrphanMetrics();
+    /**
+     * Blocks received before their parent, guarded by {@link #lock}.
+     */
+    private final OrphanPool orphanPool;
+    /**
+     * Timer of the orphan blocks waiting for their parent.
+     */
+    private ScheduledExecutorService orphanTimer;
+    /**
+     * Channels to the peer nodes, which also takes over the channels peers open to this node.
+     */
+    private PeerChannels peerChannels;
+    /**
+     * Counters of the channels to the peer nodes, kept across restarts.
+     */
+    private final PeerChannelMetrics peerChannelMetrics = new PeerChannelMetrics();
+    /**
+     * Counters of the outbound queue to each peer, by peer address, kept across restarts.
+     */
+    private final Map<String, PeerSendMetrics> peerSendMetrics;
+    /**
+     * Queues the blocks this node mines to each peer.
+     */
+    private BlockBroadcaster broadcaster;
+    /**
+     * The connection of each send to a peer in progress when the node does not keep channels, by peer address, so
+     * that a send exceeding its timeout can be aborted.
+     */
+    private final Map<String, Socket> pendingSends = new ConcurrentHashMap<>();
+    /**
+     * Serves the client and peer ports in {@link NetworkMode#SELECTOR} mode, or null in the other mode.
+     */
+    private EventLoopServer eventLoopServer;
+    /**
+     * Number of complete messages that may wait for a network worker in {@link NetworkMode#SELECTOR} mode.
+     */
+    private static final int NETWORK_WORKER_QUEUE = 4096;
+    /**
+     * Largest message a client may send in {@link NetworkMode#SELECTOR} mode, in bytes.
+     */
+    private static final int MAX_CLIENT_MESSAGE_BYTES = 1024 * 1024;
+    /**
+     * Largest message a peer may send on a connection of its own in {@link NetworkMode#SELECTOR} mode, in bytes: a
+     * block and its command.
+     */
+    private static final int MAX_PEER_MESSAGE_BYTES = BlockCodec.MAX_BLOCK_BYTES + 1024 * 1024;
+    /**
+     * Largest array, such as the transactions of a block or a block locator, that a message sent with Java
+     * serialization may hold.
+     */
+    private static final int MAX_SERIALIZED_ARRAY = 1 << 20;
+    /**
+     * Filter of the messages sent with Java serialization by clients and peers: only blocks, strings and JDK
+     * collections of them, within the size of a peer message, and with a bounded number of objects and array
+     * elements, so that a small stream cannot make the node allocate much more than it sent. Anything else is
+     * rejected before it is instantiated.
+     */
+    private static final ObjectInputFilter SERIALIZED_MESSAGE_FILTER = ObjectInputFilter.Config.createFilter(
+            "maxdepth=16;maxbytes=" + MAX_PEER_MESSAGE_BYTES + ";maxarray=" + MAX_SERIALIZED_ARRAY
+                    + ";maxrefs=" + 4 * MAX_SERIALIZED_ARRAY + ";blockchain.Block;java.lang.*;java.util.*;!*");
+    /**
+     * Number of bytes of the header starting every stream of Java serialization.
+     */
+    private static final int STREAM_HEADER_BYTES = 4;
 
     /**
      * Constructs a MinerNode with specified ports, peer addresses, index, and mining difficulty.
@@ -95,12 +214,66 @@ public class MinerNode {
      * @throws IOException   If an I/O error occurs when opening the server socket.
      */
     public MinerNode(int clientPort, int peerNodePort, List<String> peerAddresses, int myIndex, int difficulty) throws IOException {
+        this(clientPort, peerNodePort, peerAddresses, myIndex, difficulty, new NodeConfig());
+    }
+
+    /**
+     * Constructs a MinerNode with specified ports, peer addresses, index, mining difficulty and node settings.
+     *
+     * @param clientPort     Port number for client communications.
+     * @param peerNodePort   Port number for communications with other nodes.
+     * @param peerAddresses  List of addresses of peer nodes.
+     * @param myIndex        Index of this node in the list of peers.
+     * @param difficulty     Mining difficulty setting for the blockchain.
+     * @param config         Tunable settings of the node.
+     * @throws IOException   If an I/O error occurs when opening the server socket.
+     */
+    public MinerNode(int clientPort, int peerNodePort, List<String> peerAddresses, int myIndex, int difficulty, NodeConfig config) throws IOException {
+        this.config = config;
+        this.templateBuilder = new BlockTemplateBuilder(config.getMaxBlockTransactions(), config.getMaxBlockBytes(),
+                config.getBlockVersion());
         this.transactionPool = new ConcurrentLinkedQueue<>();
+        this.orphanPool = new OrphanPool(Math.max(1, config.getMaxOrphanBlocks()), orphanMetrics);
         this.peerAddresses = peerAddresses;
         this.myIndex = myIndex;
+        Map<String, PeerSendMetrics> sendMetrics = new LinkedHashMap<>();
+        for (int i = 0; i < peerAddresses.size(); i++) {
+            if (i != myIndex) {
+                sendMetrics.put(peerAddresses.get(i), new PeerSendMetrics());
+            }
+        }
+        this.peerSendMetrics = Collections.unmodifiableMap(sendMetrics);
         this.clientPort = clientPort;
         this.peerNodePort = peerNodePort;
-        this.blockchain = new BlockChain(difficulty);
+        this.blockchain = new BlockChain(new DifficultyRule(difficulty * 4, config.getRetargetInterval(),
+                config.getTargetBlockMillis()));
+        this.blockchain.addListener(new ChainListener() {
+            @Override
+            public void tipChanged(Block newTip) {
+                onTipChanged(newTip);
+            }
+
+            @Override
+            public void blockConnected(Block block, int height) {
+                onBlockConnected(block);
+            }
+
+            @Override
+            public void blockDisconnected(Block block, int height) {
+                if (height > 0) {
+                    onBlockDisconnected(block);
+                }
+            }
+        });
+        if (config.isOffHeapBlocks()) {
+            this.blockchain.enableOffHeapBlocks();
+        }
+        if (config.getPruneDepth() > 0) {
+            this.blockchain.enablePruning(config.getPruneDepth());
+        } else if (config.getTransactionFilterFalsePositiveRate() > 0) {
+            this.blockchain.enableTransactionFilter(config.getTransactionFilterFalsePositiveRate(),
+                    config.getTransactionFilterBytes());
+        }
     }
 
     /**
@@ -110,36 +283,221 @@ public class MinerNode {
     public void startNode() {
         System.out.println("Starting socket on port for client : " + clientPort);
         try {
-            this.executorService = Executors.newCachedThreadPool();
-            this.clientServerSocket = new ServerSocket(clientPort);
-            this.peerServerSocket = new ServerSocket(peerNodePort);
-            clientCommunicationThread = new Thread(this::listenForIncomingClientConnections);
-            clientCommunicationThread.start();
+            NetworkMode networkMode = config.getNetworkMode().orFallback();
+            if (networkMode != config.getNetworkMode()) {
+                System.out.println("Network mode " + config.getNetworkMode() + " unavailable, falling back to " + networkMode);
+            }
+            this.executorService = networkMode.newExecutor();
+            this.orphanTimer = Executors.newSingleThreadScheduledExecutor();
+            this.miningBackend = config.getMiningBackend().orFallback();
+            if (miningBackend != config.getMiningBackend()) {
+                System.out.println("Mining backend " + config.getMiningBackend() + " unavailable, falling back to " + miningBackend);
+            }
+            if (config.getMiningWorkers() > 1 && parallelMiner == null) {
+                this.parallelMiner = new ParallelMiner(config.getMiningWorkers(), miningBackend);
+            }
+            boolean restored = openBlockLog();
+            EventLoopServer server = null;
+            if (networkMode == NetworkMode.SELECTOR) {
+                server = openEventLoopServer();
+                this.eventLoopServer = server;
+            } else {
+                this.clientServerSocket = new ServerSocket(clientPort, EventLoopServer.ACCEPT_BACKLOG);
+                this.peerServerSocket = new ServerSocket(peerNodePort, EventLoopServer.ACCEPT_BACKLOG);
+            }
+            this.peerChannels = new PeerChannels(peerAddresses, peerAddresses.get(myIndex), this::handlePeerCommand,
+                    executorService, config.getPeerReconnectMaxMillis(), peerChannelMetrics);
+            this.broadcaster = new BlockBroadcaster(peerSendMetrics, new BlockBroadcaster.Sender() {
+                @Override
+                public void send(String address, byte[] block) throws IOException {
+                    sendToPeer(address, "BLOCK", out -> BlockCodec.writeBytes(out, block));
+                }
+
+                @Override
+                public void abort(String address) {
+                    abortSend(address);
+                }
+            }, config.getOutboundQueueCapacity(), config.getPeerSendTimeoutMillis());
+            broadcaster.start(executorService);
             System.out.println("Starting socket on port for peer : " + peerNodePort);
-            peerNodesCommunicationThread = new Thread(this::listenForIncomingPeerMessages);
-            peerNodesCommunicationThread.start();
+            if (server != null) {
+                server.start();
+            } else if (networkMode == NetworkMode.VIRTUAL_THREADS) {
+                // Each accepted connection is handled on a virtual thread of its own as well
+                executorService.submit(this::listenForIncomingClientConnections);
+                executorService.submit(this::listenForIncomingPeerMessages);
+            } else {
+                clientCommunicationThread = new Thread(this::listenForIncomingClientConnections);
+                clientCommunicationThread.start();
+                peerNodesCommunicationThread = new Thread(this::listenForIncomingPeerMessages);
+                peerNodesCommunicationThread.start();
+            }
+            if (config.isPeerChannels()) {
+                peerChannels.open();
+            }
             executorService.submit(this::handleBlockChainCreation);
+            if (restored) {
+                executorService.submit(this::catchUpWithPeers);
+            } else if (config.getDataDirectory() != null) {
+                executorService.submit(this::bootstrapFromPeers);
+            }
         } catch (IOException e) {
             System.err.println("Error starting node: " + e.getMessage());
         }
     }
 
+    /**
+     * Binds the client and peer ports to a server multiplexing their connections, without starting it.
+     *
+     * @return The server.
+     * @throws IOException If a port cannot be bound.
+     */
+    private EventLoopServer openEventLoopServer() throws IOException {
+        EventLoopServer server = new EventLoopServer(config.getIoThreads(), config.getNetworkWorkers(),
+                NETWORK_WORKER_QUEUE);
+        try {
+            server.listen(clientPort, this::receiveClientMessage, MAX_CLIENT_MESSAGE_BYTES);
+            server.listen(peerNodePort, this::receivePeerMessage, MAX_PEER_MESSAGE_BYTES);
+            return server;
+        } catch (IOException e) {
+            server.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Opens the block log of the node, if one is configured, restoring the chain from it.
+     *
+     * @return True if blocks above the genesis block were restored from the log.
+     */
+    private boolean openBlockLog() {
+        if (config.getDataDirectory() == null) {
+            return false;
+        }
+        try {
+            lock.lock();
+            return blockchain.openLog(config.getDataDirectory(), config.getBlockLogSyncInterval(),
+                    config.getCheckpointInterval()) > 1;
+        } catch (IOException e) {
+            System.err.println("Error opening block log, keeping the chain in memory only: " + e.getMessage());
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Downloads from each peer in turn the blocks mined above the tip restored from the block log, in batches of at
+     * most {@link #MAX_ANCESTORS} blocks.
+     */
+    private void catchUpWithPeers() {
+        for (int i = 0; i < peerAddresses.size(); i++) {
+            if (i == myIndex) {
+                continue;
+            }
+            List<Block> blocks;
+            do {
+                List<String> locator;
+                lock.lock();
+                try {
+                    locator = blockchain.getLocator();
+                } finally {
+                    lock.unlock();
+                }
+                blocks = fetchBlocksAfterFromPeer(peerAddresses.get(i), locator);
+                if (blocks == null || blocks.isEmpty()) {
+                    break;
+                }
+                System.out.println("Catching up with " + blocks.size() + " blocks from " + peerAddresses.get(i));
+                lock.lock();
+                try {
+                    for (Block block : blocks) {
+                        blockchain.acceptBlock(block);
+                        if (blockchain.isKnown(block.getHash())) {
+                            connectOrphans(block);
+                        }
+                    }
+                } finally {
+                    lock.unlock();
+                }
+            } while (blocks.size() == MAX_ANCESTORS && !Thread.currentThread().isInterrupted());
+        }
+    }
+
+    /**
+     * Bootstraps a node without a chain of its own from the checkpoint of the first peer that has one: the chain of
+     * that peer is validated in full only above the checkpoint, the blocks below it only for their proof of work
+     * unless the configuration trusts one of them, and adopted if it carries more work than ours.
+     */
+    private void bootstrapFromPeers() {
+        for (int i = 0; i < peerAddresses.size(); i++) {
+            if (i == myIndex) {
+                continue;
+            }
+            String address = peerAddresses.get(i);
+            ChainCheckpoint checkpoint = fetchCheckpointFromPeer(address);
+            if (checkpoint == null || !checkpoint.isIntact()) {
+                continue;
+            }
+            List<Block> peerChain = fetchChainFromPeer(address);
+            BigInteger work = peerChain == null ? null : blockchain.validWorkAbove(peerChain, checkpoint,
+                    config.getTrustedBlockHash());
+            if (work == null) {
+                System.out.println("Chain of " + address + " does not match its checkpoint " + checkpoint);
+                continue;
+            }
+            lock.lock();
+            try {
+                if (work.compareTo(blockchain.getTotalWork()) > 0 && blockchain.replaceChain(peerChain)) {
+                    System.out.println("Bootstrapped " + peerChain.size() + " blocks from " + address
+                            + " above checkpoint at height " + checkpoint.getHeight());
+                }
+            } finally {
+                lock.unlock();
+            }
+            return;
+        }
+    }
+
     /**
      * Stops the miner node by closing server sockets and interrupting communication threads.
      */
     public void stopNode() {
         try {
-            clientServerSocket.close();
-            peerServerSocket.close();
-            clientCommunicationThread.interrupt();
-            peerNodesCommunicationThread.interrupt();
-            if (miningThread != null)
-                miningThread.interrupt();
+            if (eventLoopServer != null) {
+                eventLoopServer.close();
+                eventLoopServer = null;
+            } else {
+                clientServerSocket.close();
+                peerServerSocket.close();
+                if (clientCommunicationThread != null) {
+                    clientCommunicationThread.interrupt();
+                    peerNodesCommunicationThread.interrupt();
+                }
+            }
+            peerChannels.close();
+            broadcaster.close();
+            MiningThread current = miningThread;
+            if (current != null)
+                current.interrupt();
             executorService.shutdownNow();
-            clientCommunicationThread.join();
-            peerNodesCommunicationThread.join();
-            clientCommunicationThread = null;
-            peerNodesCommunicationThread = null;
+            orphanTimer.shutdownNow();
+            lock.lock();
+            try {
+                blockchain.closeLog();
+            } finally {
+                lock.unlock();
+            }
+            if (parallelMiner != null) {
+                parallelMiner.shutdown();
+                parallelMiner = null;
+            }
+            if (clientCommunicationThread != null) {
+                clientCommunicationThread.join();
+                peerNodesCommunicationThread.join();
+                clientCommunicationThread = null;
+                peerNodesCommunicationThread = null;
+            }
             System.out.println("Node stopped.");
         } catch (Exception e) {
             System.err.println("Error stopping : " + e.getMessage());
@@ -168,21 +526,23 @@ public class MinerNode {
      * @param peerSocket The socket for communication with the peer node.
      */
     private void handleIncomingPeerMessages(Socket peerSocket) {
-        try (ObjectInputStream objectInputStream = new ObjectInputStream(peerSocket.getInputStream());
-             ObjectOutputStream objectOutputStream = new ObjectOutputStream(peerSocket.getOutputStream())) {
-
-            Object object = objectInputStream.readObject();
-            if (object instanceof Block) {
-                processReceivedBlock((Block) object);
-            } else if ("REQUEST_BLOCKCHAIN".equals(object)) {
-                if (blockchain != null && blockchain.getChain() != null) {
-                    List<Block> missingChain = blockchain.getChain();
-                    objectOutputStream.writeObject(missingChain);
-                    objectOutputStream.flush();
+        try {
+            InputStream input = new BufferedInputStream(peerSocket.getInputStream());
+            input.mark(1);
+            int first = input.read();
+            input.reset();
+            if (first == BlockCodec.MAGIC[0]) {
+                OutputStream output = new BufferedOutputStream(peerSocket.getOutputStream());
+                String command = BlockCodec.readCommand(input);
+                if (PeerChannel.COMMAND.equals(command)) {
+                    // The connection stays open, carrying the messages and requests of the peer until it closes
+                    peerChannels.accept(peerSocket, input, output);
                 } else {
-                    objectOutputStream.writeObject(emptyList());
-                    objectOutputStream.flush();
+                    handlePeerCommand(command, input, output);
+                    output.flush();
                 }
+            } else {
+                handleSerializedPeerMessage(input, peerSocket.getOutputStream());
             }
         } catch (Exception e) {
             System.out.println("Error handling peer message: " + e.getMessage());
@@ -196,6 +556,75 @@ public class MinerNode {
         }
     }
 
+    /**
+     * Processes a command of the binary peer protocol of {@link BlockCodec}, which peers running this code send, on a
+     * connection of its own or over a {@link PeerChannel}.
+     *
+     * @param command The command.
+     * @param in      The arguments of the command.
+     * @param out     The stream of the answer.
+     * @throws IOException If the arguments are malformed or the answer cannot be written.
+     */
+    private void handlePeerCommand(String command, InputStream in, OutputStream out) throws IOException {
+        if ("BLOCK".equals(command)) {
+            processReceivedBlock(BlockCodec.readBlock(in));
+        } else if ("REQUEST_ANCESTORS".equals(command)) {
+            String hash = BlockCodec.readString(in);
+            List<String> locator = BlockCodec.readStrings(in);
+            BlockCodec.writeBlocks(out, blockchain.getAncestors(hash, locator, MAX_ANCESTORS));
+        } else if ("REQUEST_BLOCKS_AFTER".equals(command)) {
+            BlockCodec.writeBlocks(out, blockchain.getBlocksAfter(BlockCodec.readStrings(in), MAX_ANCESTORS));
+        } else if ("REQUEST_CHECKPOINT".equals(command)) {
+            ChainCheckpoint checkpoint = blockchain.getCheckpoint();
+            BlockCodec.writeBytes(out, checkpoint == null ? new byte[0] : checkpoint.toBytes());
+        } else if ("REQUEST_BLOCKCHAIN".equals(command)) {
+            // A snapshot stays consistent while the chain changes, so no lock is needed
+            BlockCodec.writeBlocks(out, blockchain.getFullChain());
+        } else {
+            System.out.println("Ignoring unknown peer command: " + command);
+        }
+    }
+
+    /**
+     * Processes a message sent with Java serialization, by clients and peers that predate {@link BlockCodec}, and
+     * answers in kind. Only blocks, strings and JDK collections are deserialized. Checkpoints are only served in the
+     * binary format, as they are no longer serializable.
+     *
+     * @param in  The stream of the message.
+     * @param out The stream of the answer.
+     * @throws IOException            If the message is malformed or the answer cannot be written.
+     * @throws ClassNotFoundException If the message holds a class that cannot be found.
+     */
+    @SuppressWarnings("unchecked")
+    private void handleSerializedPeerMessage(InputStream in, OutputStream out) throws IOException, ClassNotFoundException {
+        ObjectInputStream objectInputStream = new ObjectInputStream(in);
+        objectInputStream.setObjectInputFilter(SERIALIZED_MESSAGE_FILTER);
+        ObjectOutputStream objectOutputStream = new ObjectOutputStream(out);
+
+        Object object = objectInputStream.readObject();
+        if (object instanceof Block) {
+            processReceivedBlock((Block) object);
+        } else if ("REQUEST_ANCESTORS".equals(object)) {
+            String hash = (String) objectInputStream.readObject();
+            List<String> locator = (List<String>) objectInputStream.readObject();
+            objectOutputStream.writeObject(blockchain.getAncestors(hash, locator, MAX_ANCESTORS));
+            objectOutputStream.flush();
+        } else if ("REQUEST_BLOCKS_AFTER".equals(object)) {
+            List<String> locator = (List<String>) objectInputStream.readObject();
+            objectOutputStream.writeObject(blockchain.getBlocksAfter(locator, MAX_ANCESTORS));
+            objectOutputStream.flush();
+        } else if ("REQUEST_BLOCKCHAIN".equals(object)) {
+            if (blockchain != null && blockchain.getChain() != null) {
+                // A snapshot stays consistent while the chain changes, so no lock is needed
+                objectOutputStream.writeObject(blockchain.getFullChain());
+                objectOutputStream.flush();
+            } else {
+                objectOutputStream.writeObject(emptyList());
+                objectOutputStream.flush();
+            }
+        }
+    }
+
     /**
      * Listens for incoming client connections and handles client transactions.
      */
@@ -219,18 +648,12 @@ public class MinerNode {
     private void handleClient(Socket clientSocket) {
         try (ObjectInputStream objectInputStream = new ObjectInputStream(clientSocket.getInputStream());
              ObjectOutputStream objectOutputStream = new ObjectOutputStream(clientSocket.getOutputStream())) {
+            objectInputStream.setObjectInputFilter(SERIALIZED_MESSAGE_FILTER);
             String transaction = (String) objectInputStream.readObject();
-            System.out.println("Received transaction: " + transaction);
-            if(isValidTransaction(transaction)) {
-                transactionPool.add(transaction);
-                System.out.println("Transaction added to pool: " + transaction);
-            } else {
-                objectOutputStream.writeObject("Invalid transaction.");
+            for (String answer : acceptTransaction(transaction)) {
+                objectOutputStream.writeObject(answer);
                 objectOutputStream.flush();
             }
-            objectOutputStream.writeObject("Transaction received and added to the pool.");
-            objectOutputStream.flush();
-
         } catch (Exception e) {
             e.printStackTrace(System.err);
             System.err.println("Error handling client: " + e.getMessage());
@@ -243,6 +666,237 @@ public class MinerNode {
         }
     }
 
+    /**
+     * Adds a transaction sent by a client to the transaction pool if it is valid.
+     *
+     * @param transaction The transaction.
+     * @return The answers to send back to the client, in order.
+     */
+    private List<String> acceptTransaction(String transaction) {
+        System.out.println("Received transaction: " + transaction);
+        List<String> answers = new ArrayList<>(2);
+        if(isValidTransaction(transaction)) {
+            transactionPool.add(transaction);
+            miningSignal.release();
+            System.out.println("Transaction added to pool: " + transaction);
+        } else {
+            answers.add("Invalid transaction.");
+        }
+        answers.add("Transaction received and added to the pool.");
+        return answers;
+    }
+
+    /**
+     * Examines the bytes a client sent so far in {@link NetworkMode#SELECTOR} mode, and once they hold a transaction,
+     * hands it over to a network worker, which answers as {@link #handleClient(Socket)} does. The header of the answer
+     * stream is sent as soon as the header of the client stream arrives, since clients wait for it before sending.
+     *
+     * @param connection The connection of the client.
+     * @param received   The bytes received so far.
+     * @param length     The number of bytes received.
+     * @param ended      True if the client will send nothing more.
+     */
+    private void receiveClientMessage(EventLoopServer.Connection connection, byte[] received, int length,
+                                      boolean ended) {
+        if (length < STREAM_HEADER_BYTES) {
+            return;
+        }
+        if (connection.attachment() == null) {
+            connection.attach(Boolean.TRUE);
+            connection.write(Arrays.copyOf(received, STREAM_HEADER_BYTES));
+        }
+        List<Object> message;
+        try {
+            message = readSerializedMessage(received, length, 1);
+        } catch (IOException | ClassNotFoundException e) {
+            System.err.println("Error handling client: " + e.getMessage());
+            connection.abort();
+            return;
+        }
+        if (message == null) {
+            return;
+        }
+        if (!(message.get(0) instanceof String transaction)) {
+            System.err.println("Error handling client: not a transaction");
+            connection.abort();
+            return;
+        }
+        connection.dispatch(() -> {
+            try {
+                ByteArrayOutputStream answer = new ByteArrayOutputStream();
+                ObjectOutputStream objectOutputStream = new ObjectOutputStream(answer);
+                objectOutputStream.flush();
+                // The header of the stream is already sent
+                answer.reset();
+                for (String line : acceptTransaction(transaction)) {
+                    objectOutputStream.writeObject(line);
+                }
+                objectOutputStream.flush();
+                connection.reply(answer.toByteArray());
+            } catch (IOException | RuntimeException e) {
+                System.err.println("Error handling client: " + e.getMessage());
+                connection.abort();
+            }
+        });
+    }
+
+    /**
+     * Examines the bytes a peer sent so far on a connection of its own in {@link NetworkMode#SELECTOR} mode. A
+     * {@link PeerChannel} is handed over to {@link PeerChannels} with its connection, which it keeps. A message of the
+     * binary protocol is handed over to a network worker once the peer has ended its output, and a message sent with
+     * Java serialization as soon as its objects are complete; both are answered as
+     * {@link #handleIncomingPeerMessages(Socket)} does.
+     *
+     * @param connection The connection of the peer.
+     * @param received   The bytes received so far.
+     * @param length     The number of bytes received.
+     * @param ended      True if the peer will send nothing more.
+     */
+    private void receivePeerMessage(EventLoopServer.Connection connection, byte[] received, int length,
+                                    boolean ended) {
+        if (length == 0) {
+            return;
+        }
+        try {
+            if (received[0] == BlockCodec.MAGIC[0]) {
+                receiveEncodedPeerMessage(connection, received, length, ended);
+            } else {
+                receiveSerializedPeerMessage(connection, received, length);
+            }
+        } catch (IOException | ClassNotFoundException e) {
+            System.out.println("Error handling peer message: " + e.getMessage());
+            connection.abort();
+        }
+    }
+
+    /**
+     * Examines the bytes received so far of a message of the binary peer protocol.
+     *
+     * @param connection The connection of the peer.
+     * @param received   The bytes received so far.
+     * @param length     The number of bytes received.
+     * @param ended      True if the peer will send nothing more.
+     * @throws IOException If the message is malformed.
+     */
+    private void receiveEncodedPeerMessage(EventLoopServer.Connection connection, byte[] received, int length,
+                                           boolean ended) throws IOException {
+        if (length < BlockCodec.MAGIC.length) {
+            return;
+        }
+        ByteArrayInputStream in = new ByteArrayInputStream(received, 0, length);
+        String command;
+        try {
+            command = BlockCodec.readCommand(in);
+        } catch (EOFException e) {
+            return;
+        }
+        if (PeerChannel.COMMAND.equals(command)) {
+            // The frames the peer sent after the command are read before the rest of the connection
+            byte[] sent = in.readAllBytes();
+            connection.detach(socket -> executorService.execute(() -> acceptPeerChannel(socket, sent)));
+        } else if (ended) {
+            connection.dispatch(() -> {
+                try {
+                    ByteArrayOutputStream answer = new ByteArrayOutputStream();
+                    handlePeerCommand(command, in, answer);
+                    connection.reply(answer.toByteArray());
+                } catch (IOException | RuntimeException e) {
+                    System.out.println("Error handling peer message: " + e.getMessage());
+                    connection.abort();
+                }
+            });
+        }
+    }
+
+    /**
+     * Examines the bytes received so far of a message sent with Java serialization.
+     *
+     * @param connection The connection of the peer.
+     * @param received   The bytes received so far.
+     * @param length     The number of bytes received.
+     * @throws IOException            If the message is malformed.
+     * @throws ClassNotFoundException If the message holds a class that cannot be found.
+     */
+    private void receiveSerializedPeerMessage(EventLoopServer.Connection connection, byte[] received, int length)
+            throws IOException, ClassNotFoundException {
+        if (length < STREAM_HEADER_BYTES) {
+            return;
+        }
+        if (connection.attachment() == null) {
+            connection.attach(Boolean.TRUE);
+            connection.write(Arrays.copyOf(received, STREAM_HEADER_BYTES));
+        }
+        List<Object> first = readSerializedMessage(received, length, 1);
+        if (first == null) {
+            return;
+        }
+        int objects = "REQUEST_ANCESTORS".equals(first.get(0)) ? 3
+                : "REQUEST_BLOCKS_AFTER".equals(first.get(0)) ? 2 : 1;
+        if (objects > 1 && readSerializedMessage(received, length, objects) == null) {
+            return;
+        }
+        connection.dispatch(() -> {
+            try {
+                ByteArrayOutputStream answer = new ByteArrayOutputStream();
+                handleSerializedPeerMessage(new ByteArrayInputStream(received, 0, length), answer);
+                byte[] bytes = answer.toByteArray();
+                // The header of the stream is already sent
+                connection.reply(Arrays.copyOfRange(bytes, Math.min(STREAM_HEADER_BYTES, bytes.length), bytes.length));
+            } catch (IOException | ClassNotFoundException | RuntimeException e) {
+                System.out.println("Error handling peer message: " + e.getMessage());
+                connection.abort();
+            }
+        });
+    }
+
+    /**
+     * Reads the first objects of a stream of Java serialization, if they have all been received.
+     *
+     * @param received The bytes received so far, header included.
+     * @param length   The number of bytes received.
+     * @param count    The number of objects.
+     * @return The objects, or null if more bytes are needed.
+     * @throws IOException            If the stream is malformed or holds a class outside of the message filter.
+     * @throws ClassNotFoundException If the stream holds a class that cannot be found.
+     */
+    private static List<Object> readSerializedMessage(byte[] received, int length, int count)
+            throws IOException, ClassNotFoundException {
+        try {
+            ObjectInputStream objectInputStream = new ObjectInputStream(new ByteArrayInputStream(received, 0, length));
+            objectInputStream.setObjectInputFilter(SERIALIZED_MESSAGE_FILTER);
+            List<Object> objects = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                objects.add(objectInputStream.readObject());
+            }
+            return objects;
+        } catch (EOFException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Takes over a connection on which a peer opened a channel in {@link NetworkMode#SELECTOR} mode, and reads its
+     * frames until it closes. Peers are few, so each channel keeps a thread of its own as in the other mode.
+     *
+     * @param socket The connection, in blocking mode.
+     * @param sent   The bytes the peer sent after the {@code CHANNEL} command, already received.
+     */
+    private void acceptPeerChannel(Socket socket, byte[] sent) {
+        try {
+            InputStream input = new SequenceInputStream(new ByteArrayInputStream(sent),
+                    new BufferedInputStream(socket.getInputStream()));
+            peerChannels.accept(socket, input, new BufferedOutputStream(socket.getOutputStream()));
+        } catch (IOException e) {
+            System.out.println("Error handling peer message: " + e.getMessage());
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                System.out.println("Error closing peer socket: " + e.getMessage());
+            }
+        }
+    }
+
     /**
      * Checks if a transaction is valid by verifying that it is not null or empty and has not been added to the blockchain.
      *
@@ -263,6 +917,8 @@ public class MinerNode {
     /**
      * Processes a received block by validating it and adding it to the blockchain if it is valid.
      * If the block is not valid, the node attempts to synchronize its chain with the peer that sent the block.
+     * A block whose parent is unknown is only buffered as an orphan, or makes the node synchronize, if its proof of
+     * work could meet the requirement of a block shortly above our tip.
      *
      * @param block The block received from a peer node.
      */
@@ -271,18 +927,26 @@ public class MinerNode {
             lock.lock();
             System.out.println("Received block: " + block);
             System.out.println("Current blockchain: " + blockchain);
-            Block lastBlock = blockchain.getLastBlock();
-            if (blockchain.isValidNewBlock(block, lastBlock)) {
-                if(Objects.equals(block.getPreviousHash(), lastBlock.getHash())) {
-                    System.out.println("Adding block to chain: " + block);
-                    blockchain.addBlock(block);
-                    updateTransactionPool();
-                    if(miningThread != null) {
-                        miningThread.interrupt(block);
-                    }
-                } else {
-                    synchronizeChain(block);
+            if (blockchain.isKnown(block.getHash())) {
+                System.out.println("Block already known: " + block.getHash());
+            } else if (blockchain.isKnown(block.getPreviousHash())) {
+                // The block extends the tip or a known branch, which is switched to once it carries more work
+                if (blockchain.acceptBlock(block)) {
+                    System.out.println("Added block to block tree: " + block);
+                    connectOrphans(block);
                 }
+            } else if (!block.hasValidHash() || !BlockChain.meetsDifficulty(block,
+                    blockchain.getDifficultyRule().lowestZeroBitsNear(blockchain.getDifficultyBits()))) {
+                // Cheap blocks would otherwise evict real orphans from the pool, or download every peer chain
+                System.out.println("Dropped orphan block without enough proof of work: " + block.getHash());
+            } else if (config.getMaxOrphanBlocks() == 0) {
+                // The peer chains are validated in full and compared by work
+                synchronizeChain(block);
+            } else if (orphanPool.add(block)) {
+                // The parent is probably just late; only fetch it if it does not show up
+                System.out.println("Buffered orphan block waiting for parent " + block.getPreviousHash());
+                orphanTimer.schedule(() -> resolveOrphan(block), config.getOrphanTimeoutMillis(),
+                        TimeUnit.MILLISECONDS);
             }
         } catch (Exception e) {
             System.err.println("Error processing received block: " + e.getMessage());
@@ -292,6 +956,84 @@ public class MinerNode {
         }
     }
 
+    /**
+     * Connects the orphan blocks waiting for a block that has just been added, then their own waiting children, and
+     * so on. Must be called under {@link #lock}.
+     *
+     * @param parent The block added to the block tree.
+     */
+    private void connectOrphans(Block parent) {
+        Queue<Block> connected = new ArrayDeque<>();
+        connected.add(parent);
+        while (!connected.isEmpty()) {
+            for (Block child : orphanPool.takeChildren(connected.remove().getHash())) {
+                if (blockchain.acceptBlock(child)) {
+                    orphanMetrics.recordConnected();
+                    System.out.println("Connected orphan block: " + child.getHash());
+                    connected.add(child);
+                }
+            }
+        }
+    }
+
+    /**
+     * Handles an orphan block whose parent has not arrived in time: its missing ancestors are fetched from the peers,
+     * and only if none of them can provide them is the orphan dropped and the whole chain synchronized. Either way the
+     * orphan only joins the chain through {@link BlockChain#acceptBlock}, validated against its real parent, as its
+     * proof of work was only checked against a lower bound when it was buffered.
+     *
+     * @param orphan The orphan block.
+     */
+    private void resolveOrphan(Block orphan) {
+        List<String> locator;
+        lock.lock();
+        try {
+            if (!orphanPool.contains(orphan.getHash())) {
+                return;
+            }
+            locator = blockchain.getLocator();
+        } finally {
+            lock.unlock();
+        }
+
+        System.out.println("Fetching missing ancestors of orphan block " + orphan.getHash());
+        for (int i = 0; i < peerAddresses.size(); i++) {
+            if (i == myIndex) {
+                continue;
+            }
+            List<Block> ancestors = fetchAncestorsFromPeer(peerAddresses.get(i), orphan.getPreviousHash(), locator);
+            if (ancestors == null || ancestors.isEmpty()) {
+                continue;
+            }
+            lock.lock();
+            try {
+                for (Block ancestor : ancestors) {
+                    blockchain.acceptBlock(ancestor);
+                    if (blockchain.isKnown(ancestor.getHash())) {
+                        connectOrphans(ancestor);
+                    }
+                }
+                if (!orphanPool.contains(orphan.getHash())) {
+                    return;
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        lock.lock();
+        try {
+            if (orphanPool.expire(orphan.getHash())) {
+                System.out.println("Orphan block expired, synchronizing chain: " + orphan.getHash());
+                synchronizeChain(orphan);
+            }
+        } catch (Exception e) {
+            System.err.println("Error synchronizing chain: " + e.getMessage());
+        } finally {
+            lock.unlock();
+        }
+    }
+
     /**
      * Checks if a chain is valid by verifying that each block links to the previous block and has a valid hash.
      *
@@ -299,18 +1041,35 @@ public class MinerNode {
      * @return True if the chain is valid, false otherwise.
      */
     public boolean isValidChain(List<Block> chain) {
-        Block previousBlock = null;
-        for (Block block : chain) {
-            // Check if the block is valid
-            if (previousBlock != null && !block.getPreviousHash().equals(previousBlock.getHash())) {
-                return false;  // The block doesn't link to the previous block
-            }
-            if (!block.getHash().equals(block.calculateHash())) {
-                return false;  // The block's hash isn't valid
+        return validChainWork(chain) != null;
+    }
+
+    /**
+     * Validates a chain and computes its total work. The requirement and work of each block are derived first, from
+     * the timestamps alone, and the timestamps themselves are checked; the hashes and proofs of work are then checked
+     * in parallel, and the links and transactions in a final sequential pass.
+     *
+     * @param chain The chain to validate, starting with the genesis block.
+     * @return The total work of the chain, or null if it is not valid.
+     */
+    private BigInteger validChainWork(List<Block> chain) {
+        DifficultyRule difficultyRule = blockchain.getDifficultyRule();
+        int[] zeroBits = new int[chain.size()];
+        int required = difficultyRule.getInitialZeroBits();
+        BigInteger work = BigInteger.ZERO;
+        for (int height = 0; height < zeroBits.length; height++) {
+            if (height == 0) {
+                zeroBits[height] = -1;  // Every node creates its own genesis block, without proof of work
+            } else {
+                zeroBits[height] = required;
+                work = work.add(DifficultyRule.workOf(required));
             }
-            previousBlock = block;
+            required = difficultyRule.zeroBitsAfter(chain, height, required);
         }
-        return true;
+        if (!difficultyRule.haveValidTimestamps(chain, 1, System.currentTimeMillis())) {
+            return null;
+        }
+        return ChainValidator.isValid(chain, zeroBits, null, transaction -> false) ? work : null;
     }
 
     /**
@@ -320,29 +1079,152 @@ public class MinerNode {
      * @return The blockchain received from the peer node.
      */
     private List<Block> fetchChainFromPeer(String peerAddress) {
+        try {
+            InputStream in = requestFromPeer(peerAddress, "REQUEST_BLOCKCHAIN", out -> { });
+            return BlockCodec.readBlocks(in);
+        } catch (Exception e) {
+            System.err.println("Failed to fetch blockchain from " + peerAddress + ": " + e.getMessage());
+            e.printStackTrace(System.err);
+        }
+        return null;
+    }
+
+    /**
+     * Fetches from a peer node the blocks of its chain that are missing below a given block.
+     *
+     * @param peerAddress The address of the peer node.
+     * @param hash        The hash of the highest block wanted.
+     * @param locator     The locator of our chain.
+     * @return The missing blocks, lowest first, empty if the peer cannot tell, or null if the request failed.
+     */
+    private List<Block> fetchAncestorsFromPeer(String peerAddress, String hash, List<String> locator) {
+        try {
+            InputStream in = requestFromPeer(peerAddress, "REQUEST_ANCESTORS", out -> {
+                BlockCodec.writeString(out, hash);
+                BlockCodec.writeStrings(out, locator);
+            });
+            return BlockCodec.readBlocks(in);
+        } catch (Exception e) {
+            System.err.println("Failed to fetch ancestors from " + peerAddress + ": " + e.getMessage());
+        }
+        return null;
+    }
+
+    /**
+     * Fetches from a peer node the blocks of its chain above the highest block it shares with ours.
+     *
+     * @param peerAddress The address of the peer node.
+     * @param locator     The locator of our chain.
+     * @return The blocks, lowest first, empty if the peer has none, or null if the request failed.
+     */
+    private List<Block> fetchBlocksAfterFromPeer(String peerAddress, List<String> locator) {
+        try {
+            InputStream in = requestFromPeer(peerAddress, "REQUEST_BLOCKS_AFTER", out -> BlockCodec.writeStrings(out, locator));
+            return BlockCodec.readBlocks(in);
+        } catch (Exception e) {
+            System.err.println("Failed to fetch blocks from " + peerAddress + ": " + e.getMessage());
+        }
+        return null;
+    }
+
+    /**
+     * Fetches the latest checkpoint of a peer node.
+     *
+     * @param peerAddress The address of the peer node.
+     * @return The checkpoint, or null if the peer has none or the request failed.
+     */
+    private ChainCheckpoint fetchCheckpointFromPeer(String peerAddress) {
+        try {
+            InputStream in = requestFromPeer(peerAddress, "REQUEST_CHECKPOINT", out -> { });
+            byte[] bytes = BlockCodec.readBytes(in, ChainCheckpoint.MAX_BYTES);
+            return bytes.length == 0 ? null : ChainCheckpoint.fromBytes(bytes);
+        } catch (Exception e) {
+            System.err.println("Failed to fetch checkpoint from " + peerAddress + ": " + e.getMessage());
+        }
+        return null;
+    }
+
+    /**
+     * Sends a request to a peer node and waits for its response, over the channel to the peer if the node keeps
+     * channels, or over a connection of its own otherwise.
+     *
+     * @param peerAddress The address of the peer node.
+     * @param command     The command of the request.
+     * @param args        The arguments of the command.
+     * @return The response.
+     * @throws IOException If the peer cannot be reached or does not answer.
+     */
+    private InputStream requestFromPeer(String peerAddress, String command, PeerChannel.Payload args) throws IOException {
+        if (config.isPeerChannels()) {
+            return peerChannels.request(peerAddress, command, args);
+        }
         String[] parts = peerAddress.split(":");
         try (Socket socket = new Socket(parts[0], Integer.parseInt(parts[1]));
-             ObjectOutputStream out = new ObjectOutputStream(socket.getOutputStream());
-             ObjectInputStream in = new ObjectInputStream(socket.getInputStream())) {
+             OutputStream out = new BufferedOutputStream(socket.getOutputStream())) {
+            BlockCodec.writeCommand(out, command);
+            args.write(out);
+            out.flush();
+            // The end of the request tells a peer multiplexing its connections that the request is complete
+            socket.shutdownOutput();
+            // The peer closes the connection once it has answered
+            return new ByteArrayInputStream(socket.getInputStream().readAllBytes());
+        }
+    }
 
-            out.writeObject("REQUEST_BLOCKCHAIN");
+    /**
+     * Sends a message to a peer node, over the channel to the peer if the node keeps channels, or over a connection
+     * of its own otherwise.
+     *
+     * @param peerAddress The address of the peer node.
+     * @param command     The command of the message.
+     * @param args        The arguments of the command.
+     * @throws IOException If the peer cannot be reached.
+     */
+    private void sendToPeer(String peerAddress, String command, PeerChannel.Payload args) throws IOException {
+        if (config.isPeerChannels()) {
+            peerChannels.send(peerAddress, command, args);
+            return;
+        }
+        String[] parts = peerAddress.split(":");
+        Socket socket = new Socket();
+        pendingSends.put(peerAddress, socket);
+        try (socket) {
+            socket.connect(new InetSocketAddress(parts[0], Integer.parseInt(parts[1])),
+                    (int) config.getPeerSendTimeoutMillis());
+            OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+            BlockCodec.writeCommand(out, command);
+            args.write(out);
             out.flush();
+        } finally {
+            pendingSends.remove(peerAddress, socket);
+        }
+    }
 
-            Object object = in.readObject();
-            if (object instanceof List) {
-                List<Block> peerChain = (List<Block>) object;
-                return peerChain;
+    /**
+     * Aborts a send to a peer node that exceeded its timeout, by closing the channel to the peer or the connection of
+     * the send, which makes the send fail.
+     *
+     * @param peerAddress The address of the peer node.
+     */
+    private void abortSend(String peerAddress) {
+        if (config.isPeerChannels()) {
+            peerChannels.abort(peerAddress);
+            return;
+        }
+        Socket socket = pendingSends.get(peerAddress);
+        if (socket != null) {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                System.out.println("Error closing peer socket: " + e.getMessage());
             }
-        } catch (Exception e) {
-            System.err.println("Failed to fetch blockchain from " + peerAddress + ": " + e.getMessage());
-            e.printStackTrace(System.err);
         }
-        return null;
     }
 
     /**
-     * Synchronizes the node's chain with a peer node's chain by comparing the lengths and work done on each chain.
-     * If the peer's chain is longer and has more work done, the node replaces its chain with the peer's chain.
+     * Synchronizes the node's chain with a peer node's chain by comparing the work done on each chain.
+     * If the peer's chain carries more work than every other chain, ours included, the node replaces its chain with
+     * the peer's chain. The work of a chain is the number of hashes its proof of work is expected to have taken.
      *
      * @param block The block received from the peer node.
      */
@@ -350,7 +1232,7 @@ public class MinerNode {
         System.out.println("Synchronizing chain for block: " + block);
         List<Block> longestChain = null;
         String longestChainAddress = null;
-        long maxWorkDone = 0;
+        BigInteger maxWorkDone = blockchain.getTotalWork();
 
         // Iterate over all peers
         //peerNodesCommunicationThread.interrupt();
@@ -359,13 +1241,12 @@ public class MinerNode {
                 // Fetch the missing part of the chain from the peer
                 String address = peerAddresses.get(i);
                 List<Block> peerChain = fetchChainFromPeer(address);
-                if (peerChain != null && !peerChain.isEmpty() && isValidChain(peerChain)) {
-                    // Calculate the total work done on the peer's chain
-                    long workDone = peerChain.stream().mapToLong(Block::getNonce).sum();
+                BigInteger workDone = peerChain == null || peerChain.isEmpty() ? null : validChainWork(peerChain);
+                if (workDone != null) {
                     System.out.println("Peer chain work done: " + workDone);
                     System.out.println("Peer chain length: " + peerChain.size());
-                    // If the peer's chain is longer and has more work done, update the longestChain and maxWorkDone
-                    if ((longestChain == null || peerChain.size() > longestChain.size()) && workDone > maxWorkDone) {
+                    // If the peer's chain has more work done, update the longestChain and maxWorkDone
+                    if (workDone.compareTo(maxWorkDone) > 0) {
                         longestChain = peerChain;
                         longestChainAddress = address;
                         maxWorkDone = workDone;
@@ -375,22 +1256,18 @@ public class MinerNode {
         }
 
         // If a longest chain was found, replace the current chain with it
-        if (longestChain != null) {
-            System.out.println("Chain replaced due to longer peer chain from " + longestChainAddress);
+        if (longestChain != null && blockchain.replaceChain(longestChain)) {
+            System.out.println("Chain replaced due to peer chain with more work from " + longestChainAddress);
             //blockchainLock.lock();
             try {
-                blockchain.replaceChain(longestChain);
                 if(blockchain.containsTransactions(block.getTransactions())) {
                     System.out.println("Transactions already in fetched chain");
                 }
-                else if(Objects.equals(block.getPreviousHash(), blockchain.getLastBlock().getHash())) {
-                    blockchain.addBlock(block);
-                    if (miningThread != null) {
-                        miningThread.interrupt(block);
-                    }
+                else if(blockchain.acceptBlock(block)) {
+                    // Validated against its parent in the fetched chain, which the peer may not have extended yet
+                    System.out.println("Added block after synchronizing: " + block.getHash());
                 }
                 //blockchainLock.unlock();
-                updateTransactionPool();
             } finally {
                 //blockchainLock.unlock();
             }
@@ -398,24 +1275,14 @@ public class MinerNode {
     }
 
     /**
-     * Broadcasts a new block to all peer nodes in the network.
+     * Queues a new block to every peer node in the network, without waiting for it to be sent.
      *
      * @param block The block to broadcast.
      */
     private void broadcastNewBlock(Block block) {
         System.out.println("Node " +myIndex + " Broadcasting new block :" + block + " to all peers");
-        for (int i = 0; i < peerAddresses.size(); i++) {
-            if (i != myIndex) {
-                String[] parts = peerAddresses.get(i).split(":");
-                try (Socket socket = new Socket(parts[0], Integer.parseInt(parts[1]));
-                     ObjectOutputStream out = new ObjectOutputStream(socket.getOutputStream())) {
-                    out.writeObject(block);
-                    out.flush();
-                } catch (IOException e) {
-                    System.err.println("Failed to send block to " + parts[1] + ": " + e.getMessage());
-                }
-            }
-        }
+        // Queued blocks that a reorganization took off the chain are superseded by this one
+        broadcaster.announce(block.getHash(), BlockCodec.encode(block), hash -> blockchain.getHeight(hash) < 0);
     }
 
     /**
@@ -429,21 +1296,21 @@ public class MinerNode {
                     System.out.println("Current transactions on node : " + transactionPool.size() + " : " + myIndex);
                     System.out.println("Transaction pool not empty, mining a new block...");
                     Block latestBlock = blockchain.getLastBlock();
-                    String transaction = transactionPool.peek();
-                    if(transaction != null) {
-                        Block newBlock = new Block(latestBlock.getHash(), System.currentTimeMillis(), List.of(transactionPool.peek()));
-                        //
-                        miningThread = new MiningThread(newBlock, latestBlock);
-                        miningThread.start();
-                        miningActive.set(true);
+                    Block newBlock = templateBuilder.build(latestBlock, transactionPool, blockchain);
+                    if (newBlock != null) {
+                        startMining(newBlock, latestBlock);
+                    } else {
+                        // Nothing eligible: drop transactions confirmed since they entered the pool
+                        updateTransactionPool();
                     }
                     try {
                         Thread.sleep(100);  // Sleep to reduce CPU usage
                     } catch (InterruptedException e) {
                         Thread.currentThread().interrupt();
                     }
+                } else {
+                    awaitMiningSignal();
                 }
-                //
             }
         } catch (Exception e) {
             System.err.println("Error handling block chain creation: " + e.getMessage());
@@ -454,24 +1321,148 @@ public class MinerNode {
     }
 
     /**
-     * Updates the transaction pool by removing transactions that are included in blocks in the blockchain.
+     * Starts mining a block unless the tip moved since its template was built, in which case the block creation loop
+     * builds a new one. The tip is checked and the attempt published under {@link #lock}, so a tip change either
+     * happens before and is seen here, or happens after and abandons the attempt.
+     *
+     * @param newBlock    The block to mine.
+     * @param latestBlock The tip the block was built on.
      */
-    public void updateTransactionPool() {
-        // Iterate over the blocks in the blockchain
-       //
+    private void startMining(Block newBlock, Block latestBlock) {
+        lock.lock();
         try {
-            for (Block block : blockchain.getChain()) {
-                // Get the list of transactions in the current block
-                List<String> blockTransactions = block.getTransactions();
-                // Remove all block transactions from the pool
-                transactionPool.removeAll(blockTransactions);
-                System.out.println("Transactions removed from pool: " + blockTransactions);
-                System.out.println("Current transaction pool size: " + transactionPool.size());
+            if (!Objects.equals(latestBlock.getHash(), blockchain.getLastBlock().getHash())) {
+                System.out.println("Chain tip moved while building the block template, rebuilding it");
+                return;
             }
+            miningActive.set(true);
+            MiningThread thread = new MiningThread(newBlock, latestBlock,
+                    blockchain.getDifficultyBitsAfter(latestBlock));
+            miningThread = thread;
+            thread.start();
         } finally {
-          //
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Waits until a transaction arrives, the tip moves or the current mining attempt ends, or at most 100ms.
+     */
+    private void awaitMiningSignal() {
+        try {
+            if (miningSignal.tryAcquire(100, TimeUnit.MILLISECONDS)) {
+                miningSignal.drainPermits();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Abandons the current mining attempt once its parent block is no longer the tip of the chain, so that the block
+     * creation loop can start a new template on the new tip. Called under {@link #lock}, like every tip change.
+     *
+     * @param newTip The new last block of the chain.
+     */
+    private void onTipChanged(Block newTip) {
+        MiningThread current = miningThread;
+        if (current != null && current.isStaleFor(newTip) && current.abandon()) {
+            System.out.println("Mining abandoned as the chain tip moved to " + newTip.getHash());
+        }
+        miningSignal.release();
+    }
+
+    /**
+     * Removes the transactions of a block that joined the chain from the pool.
+     *
+     * @param block The connected block.
+     */
+    private void onBlockConnected(Block block) {
+        Set<String> confirmed = new HashSet<>(block.getTransactions());
+        if (transactionPool.removeAll(confirmed)) {
+            System.out.println("Current transaction pool size: " + transactionPool.size());
         }
+    }
 
+    /**
+     * Returns the transactions of a block that left the chain to the pool, so that they are mined again unless the
+     * new branch confirms them too.
+     *
+     * @param block The disconnected block.
+     */
+    private void onBlockDisconnected(Block block) {
+        for (String transaction : block.getTransactions()) {
+            if (!transactionPool.contains(transaction)) {
+                transactionPool.add(transaction);
+            }
+        }
+        System.out.println("Transactions returned to pool: " + block.getTransactions());
+    }
+
+    /**
+     * Updates the transaction pool by removing transactions that are included in blocks in the blockchain.
+     */
+    public void updateTransactionPool() {
+        // Look every pending transaction up in the confirmed-transaction index rather than walking the chain
+        List<String> removed = new ArrayList<>();
+        transactionPool.removeIf(transaction -> blockchain.isConfirmed(transaction) && removed.add(transaction));
+        System.out.println("Transactions removed from pool: " + removed);
+        System.out.println("Current transaction pool size: " + transactionPool.size());
+    }
+
+    /**
+     * Retrieves the average hash rate of each parallel mining worker, to help size the worker pool.
+     *
+     * @return The hashes per second of each worker, or an empty array when mining on a single thread.
+     */
+    public double[] getWorkerHashRates() {
+        ParallelMiner miner = parallelMiner;
+        return miner == null ? new double[0] : miner.getWorkerHashRates();
+    }
+
+    /**
+     * Retrieves the counters describing the mining activity of this node, including the hashes wasted on stale work.
+     *
+     * @return The mining metrics.
+     */
+    public MiningMetrics getMiningMetrics() {
+        return miningMetrics;
+    }
+
+    /**
+     * Retrieves the counters of the blocks this node received before their parent.
+     *
+     * @return The orphan metrics.
+     */
+    public OrphanMetrics getOrphanMetrics() {
+        return orphanMetrics;
+    }
+
+    /**
+     * Retrieves the counters of the channels to the peer nodes.
+     *
+     * @return The peer channel metrics of this node.
+     */
+    public PeerChannelMetrics getPeerChannelMetrics() {
+        return peerChannelMetrics;
+    }
+
+    /**
+     * Retrieves the counters of the outbound queue to each peer, such as its depth and send latency.
+     *
+     * @return The counters of each peer, by peer address.
+     */
+    public Map<String, PeerSendMetrics> getPeerSendMetrics() {
+        return peerSendMetrics;
+    }
+
+    /**
+     * Retrieves the counters describing how the confirmed-transaction filter answered lookups.
+     *
+     * @return The filter metrics, or null if the node indexes confirmed transactions exactly.
+     */
+    public TransactionFilterMetrics getTransactionFilterMetrics() {
+        return blockchain.getTransactionFilterMetrics();
     }
 
     /**
@@ -487,16 +1478,26 @@ public class MinerNode {
          * Represents the most recently mined block.
          */
         private Block latestBlock;
+        /**
+         * Cancellation token and hash counter of this attempt.
+         */
+        private final MiningAttempt attempt = new MiningAttempt();
+        /**
+         * Number of leading zero bits required of the new block.
+         */
+        private final int zeroBits;
 
         /**
          * Constructs a MiningThread to mine a block based on a given new block and the latest block in the chain.
          *
          * @param newBlock The new block to mine.
          * @param latestBlock The latest block in the blockchain for reference.
+         * @param zeroBits The number of leading zero bits required of the new block.
          */
-        public MiningThread(Block newBlock, Block latestBlock) {
+        public MiningThread(Block newBlock, Block latestBlock, int zeroBits) {
             this.newBlock = newBlock;
             this.latestBlock = latestBlock;
+            this.zeroBits = zeroBits;
         }
 
         /**
@@ -504,34 +1505,68 @@ public class MinerNode {
          */
         @Override
         public void run() {
+            boolean mined = false;
             try {
-                newBlock.mineBlock(blockchain.getDifficulty());
+                ParallelMiner miner = parallelMiner;
+                if (miner == null) {
+                    if (!newBlock.mineBlockBits(zeroBits, attempt, miningBackend)) {
+                        return;
+                    }
+                } else {
+                    if (!miner.mine(newBlock, zeroBits, attempt)) {
+                        return;
+                    }
+                    System.out.println("Worker hash rates (H/s): " + Arrays.toString(miner.getWorkerHashRates()));
+                }
                 lock.lock();
-                if (blockchain.isValidNewBlock(newBlock, latestBlock)) {
+                if (!Objects.equals(latestBlock.getHash(), blockchain.getLastBlock().getHash())) {
+                    System.out.println("Discarding mined block as its parent is no longer the tip");
+                    attempt.cancel();
+                } else if (blockchain.isValidNewBlock(newBlock, latestBlock)) {
                     blockchain.addBlock(newBlock);
+                    mined = true;
                     broadcastNewBlock(newBlock);
-                    updateTransactionPool();
                 }
             } catch (Exception e) {
                 System.err.println("Mining interrupted: " + e.getMessage());
             } finally {
-                System.out.println("Mining completed");
+                miningMetrics.recordAttempt(attempt, mined);
+                System.out.println("Mining completed, " + miningMetrics);
                 miningActive.set(false);
-                lock.unlock();
+                miningSignal.release();
+                if (lock.isHeldByCurrentThread()) {
+                    lock.unlock();
+                }
             }
         }
 
         /**
-         * Interrupts the mining process if a new block that contains the same transactions is received.
+         * Checks whether this attempt is mining on top of a block that is no longer the tip of the chain.
          *
-         * @param latestBlock The latest block to compare with the current mining block.
+         * @param newTip The current last block of the chain.
+         * @return True if the new tip is neither the parent of the block being mined nor that block itself.
          */
-        public void interrupt(Block latestBlock) {
-            if(newBlock.getTransactions().equals(latestBlock.getTransactions())) {
-                System.out.println("Mining interrupted as already received from other");
-                super.interrupt();
-                miningActive.set(false);
-            }
+        public boolean isStaleFor(Block newTip) {
+            return !Objects.equals(latestBlock.getHash(), newTip.getHash())
+                    && !Objects.equals(newBlock.getHash(), newTip.getHash());
+        }
+
+        /**
+         * Cancels the attempt so that the search stops within milliseconds.
+         *
+         * @return True if this call cancelled the attempt, false if it was already cancelled.
+         */
+        public boolean abandon() {
+            return attempt.cancel();
+        }
+
+        /**
+         * Cancels the attempt and interrupts the thread.
+         */
+        @Override
+        public void interrupt() {
+            attempt.cancel();
+            super.interrupt();
         }
     }
 }
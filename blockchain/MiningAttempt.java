@@ -0,0 +1,58 @@
+package blockchain;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Cancellation token and progress counter for one attempt at mining a block.
+ * <p>
+ * Mining loops poll {@link #isCancelled()} every few thousand nonces, so cancelling an attempt stops the search within
+ * milliseconds. They also report the number of hashes they computed, which tells how much work was wasted when an
+ * attempt is abandoned.
+ */
+public class MiningAttempt {
+    /**
+     * Flag raised once the attempt should stop.
+     */
+    private final AtomicBoolean cancelled = new AtomicBoolean(false);
+    /**
+     * Number of hashes computed on behalf of this attempt.
+     */
+    private final LongAdder hashes = new LongAdder();
+
+    /**
+     * Requests that the attempt stop as soon as possible.
+     *
+     * @return True if this call cancelled the attempt, false if it was already cancelled.
+     */
+    public boolean cancel() {
+        return cancelled.compareAndSet(false, true);
+    }
+
+    /**
+     * Checks whether the attempt has been cancelled.
+     *
+     * @return True if the attempt has been cancelled, false otherwise.
+     */
+    public boolean isCancelled() {
+        return cancelled.get();
+    }
+
+    /**
+     * Records hashes computed on behalf of this attempt.
+     *
+     * @param count The number of hashes computed.
+     */
+    public void addHashes(long count) {
+        hashes.add(count);
+    }
+
+    /**
+     * Retrieves the number of hashes computed on behalf of this attempt so far.
+     *
+     * @return The number of hashes computed.
+     */
+    public long getHashes() {
+        return hashes.sum();
+    }
+}
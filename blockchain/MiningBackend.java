@@ -0,0 +1,85 @@
+package blockchain;
+
+/**
+ * The SHA-256 implementation used to search for proof-of-work solutions.
+ * <p>
+ * The vector backends hash several consecutive nonces at once with the incubating {@code jdk.incubator.vector} module
+ * and are only available when the JVM was started with {@code --add-modules jdk.incubator.vector}. Every backend finds
+ * the same first solution in a range of nonces and produces hashes bit-identical to {@link Block#calculateHash()}.
+ */
+public enum MiningBackend {
+    /** One hash at a time through {@link java.security.MessageDigest}. */
+    MESSAGE_DIGEST(-1),
+    /** Multi-buffer hashing with the preferred vector width of the platform. */
+    VECTOR(0),
+    /** Multi-buffer hashing of 4 nonces at once, in 128-bit vectors. */
+    VECTOR_4(4),
+    /** Multi-buffer hashing of 8 nonces at once, in 256-bit vectors. */
+    VECTOR_8(8),
+    /** Multi-buffer hashing of 16 nonces at once, in 512-bit vectors. */
+    VECTOR_16(16);
+
+    /** Whether the Vector API module is present in this JVM. */
+    private static final boolean VECTOR_API_PRESENT = detectVectorApi();
+
+    /** The number of lanes, zero for the preferred width, or -1 for the scalar backend. */
+    private final int lanes;
+
+    /**
+     * Creates a backend.
+     *
+     * @param lanes The number of lanes, zero for the preferred width, or -1 for the scalar backend.
+     */
+    MiningBackend(int lanes) {
+        this.lanes = lanes;
+    }
+
+    /**
+     * Checks whether this backend can run in the current JVM.
+     *
+     * @return True if the backend is usable, false otherwise.
+     */
+    public boolean isAvailable() {
+        return lanes < 0 || VECTOR_API_PRESENT;
+    }
+
+    /**
+     * Returns this backend if it can run in the current JVM, or {@link #MESSAGE_DIGEST} otherwise.
+     *
+     * @return A usable backend.
+     */
+    public MiningBackend orFallback() {
+        return isAvailable() ? this : MESSAGE_DIGEST;
+    }
+
+    /**
+     * Creates a search over the given header for the calling thread.
+     *
+     * @param header        The header bytes preceding the nonce.
+     * @param nonceEncoding How the nonce is appended to the header.
+     * @return The search.
+     */
+    NonceSearch newSearch(byte[] header, MiningKernel.NonceEncoding nonceEncoding) {
+        if (!isAvailable() || lanes < 0) {
+            return new MiningKernel(header, nonceEncoding);
+        }
+        return new VectorMiningKernel(header, nonceEncoding, lanes);
+    }
+
+    /**
+     * Checks whether the Vector API module has been resolved in the boot layer.
+     *
+     * @return True if the module and its classes are present, false otherwise.
+     */
+    private static boolean detectVectorApi() {
+        if (ModuleLayer.boot().findModule("jdk.incubator.vector").isEmpty()) {
+            return false;
+        }
+        try {
+            Class.forName("jdk.incubator.vector.IntVector");
+            return true;
+        } catch (ClassNotFoundException | LinkageError e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,285 @@
+package blockchain;
+
+import java.nio.charset.StandardCharsets;
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Proof-of-work search engine working directly on the bytes of a block header.
+ * <p>
+ * The fixed part of the header is encoded once when the kernel is created. Every nonce attempt then only writes the
+ * nonce into a reusable buffer, runs SHA-256 on a per-thread {@link MessageDigest} and checks the leading zero bits of
+ * the raw digest, so the search loop itself does not allocate. The hexadecimal hash string is only rendered once a
+ * solution has been found.
+ * <p>
+ * The nonce is appended either as decimal text, for legacy blocks, or as four big-endian bytes, for blocks with a
+ * fixed-size header (see {@link NonceEncoding}).
+ * <p>
+ * A kernel is not thread safe: it must only be used by the thread that created it.
+ */
+public final class MiningKernel implements NonceSearch {
+    /** Returned by {@link #search(long, long, int)} when no nonce in the range satisfies the difficulty. */
+    public static final long NOT_FOUND = -1L;
+    /** Number of nonces tried between two checks of a {@link MiningAttempt} for cancellation. */
+    public static final int CANCELLATION_CHECK_INTERVAL = 1024;
+    /** Length in bytes of a SHA-256 digest. */
+    public static final int DIGEST_LENGTH = 32;
+
+    /** One SHA-256 instance per thread, reused across every hash computed on that thread. */
+    private static final ThreadLocal<MessageDigest> DIGESTS = ThreadLocal.withInitial(MiningKernel::newDigest);
+    /** Lower case hexadecimal alphabet, matching the output of {@link Integer#toHexString(int)}. */
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    /**
+     * How the nonce is appended to the fixed part of the header.
+     */
+    public enum NonceEncoding {
+        /** The nonce is appended as its decimal string representation. */
+        DECIMAL,
+        /** The nonce is appended as a four byte big-endian integer. */
+        INT32
+    }
+
+    /** The pre-encoded part of the header that does not depend on the nonce. */
+    private final byte[] header;
+    /** How the nonce is appended to the header. */
+    private final NonceEncoding nonceEncoding;
+    /** Scratch buffer holding the encoding of the current nonce, right aligned. */
+    private final byte[] nonceBytes = new byte[11];
+    /** Scratch buffer receiving the digest of the current attempt. */
+    private final byte[] digest = new byte[DIGEST_LENGTH];
+    /** The digest engine of the owning thread. */
+    private final MessageDigest sha256;
+
+    /**
+     * Creates a kernel for the given fixed header bytes, appending the nonce as decimal text.
+     *
+     * @param header The header bytes preceding the nonce.
+     */
+    public MiningKernel(byte[] header) {
+        this(header, NonceEncoding.DECIMAL);
+    }
+
+    /**
+     * Creates a kernel for the given fixed header bytes.
+     *
+     * @param header        The header bytes preceding the nonce.
+     * @param nonceEncoding How the nonce is appended to the header.
+     */
+    public MiningKernel(byte[] header, NonceEncoding nonceEncoding) {
+        this.header = header;
+        this.nonceEncoding = nonceEncoding;
+        this.sha256 = DIGESTS.get();
+    }
+
+    /**
+     * Searches the nonces in {@code [fromNonce, toNonce)} for the first one whose hash has at least {@code zeroBits}
+     * leading zero bits.
+     *
+     * @param fromNonce The first nonce to try.
+     * @param toNonce   The nonce at which to stop, exclusive.
+     * @param zeroBits  The number of leading zero bits required in the digest.
+     * @return The first nonce satisfying the difficulty, or {@link #NOT_FOUND}.
+     */
+    public long search(long fromNonce, long toNonce, int zeroBits) {
+        for (long nonce = fromNonce; nonce < toNonce; nonce++) {
+            if (hasLeadingZeroBits(hash((int) nonce), zeroBits)) {
+                return nonce;
+            }
+        }
+        return NOT_FOUND;
+    }
+
+    /**
+     * Searches the nonces in {@code [fromNonce, toNonce)} like {@link #search(long, long, int)}, checking the attempt
+     * for cancellation every {@link #CANCELLATION_CHECK_INTERVAL} nonces and recording the hashes computed in it.
+     *
+     * @param fromNonce The first nonce to try.
+     * @param toNonce   The nonce at which to stop, exclusive.
+     * @param zeroBits  The number of leading zero bits required in the digest.
+     * @param attempt   The attempt the search is performed for.
+     * @return The first nonce satisfying the difficulty, or {@link #NOT_FOUND} if there is none or the attempt was
+     * cancelled.
+     */
+    @Override
+    public long search(long fromNonce, long toNonce, int zeroBits, MiningAttempt attempt) {
+        long nonce = fromNonce;
+        while (nonce < toNonce && !attempt.isCancelled()) {
+            long chunkEnd = Math.min(toNonce, nonce + CANCELLATION_CHECK_INTERVAL);
+            long found = search(nonce, chunkEnd, zeroBits);
+            attempt.addHashes((found == NOT_FOUND ? chunkEnd : found + 1) - nonce);
+            if (found != NOT_FOUND) {
+                return found;
+            }
+            nonce = chunkEnd;
+        }
+        return NOT_FOUND;
+    }
+
+    /**
+     * Hashes the header followed by the encoded {@code nonce}.
+     * <p>
+     * The returned array is owned by the kernel and is overwritten by the next call.
+     *
+     * @param nonce The nonce to append to the header.
+     * @return The raw SHA-256 digest.
+     */
+    public byte[] hash(int nonce) {
+        int start = nonceEncoding == NonceEncoding.DECIMAL ? writeDecimal(nonce) : writeInt32(nonce);
+        sha256.update(header);
+        sha256.update(nonceBytes, start, nonceBytes.length - start);
+        try {
+            sha256.digest(digest, 0, DIGEST_LENGTH);
+        } catch (DigestException e) {
+            throw new IllegalStateException(e);
+        }
+        return digest;
+    }
+
+    /**
+     * Hashes the header with the given nonce and renders the digest as a hexadecimal string.
+     *
+     * @param nonce The nonce to append to the header.
+     * @return The hash as 64 lower case hexadecimal characters.
+     */
+    public String hashHex(int nonce) {
+        return toHex(hash(nonce));
+    }
+
+    /**
+     * Checks whether a digest starts with at least the given number of zero bits.
+     *
+     * @param digest   The raw digest.
+     * @param zeroBits The number of leading zero bits required.
+     * @return True if the digest satisfies the requirement, false otherwise.
+     */
+    public static boolean hasLeadingZeroBits(byte[] digest, int zeroBits) {
+        int fullBytes = zeroBits >>> 3;
+        if (fullBytes > digest.length) {
+            return false;
+        }
+        for (int i = 0; i < fullBytes; i++) {
+            if (digest[i] != 0) {
+                return false;
+            }
+        }
+        int remainingBits = zeroBits & 7;
+        if (remainingBits == 0) {
+            return true;
+        }
+        if (fullBytes == digest.length) {
+            return false;
+        }
+        return (digest[fullBytes] & 0xff) >>> (8 - remainingBits) == 0;
+    }
+
+    /**
+     * Encodes raw bytes as lower case hexadecimal, two characters per byte.
+     *
+     * @param bytes The bytes to encode.
+     * @return The hexadecimal string.
+     */
+    public static String toHex(byte[] bytes) {
+        return toHex(bytes, 0, bytes.length);
+    }
+
+    /**
+     * Encodes a range of raw bytes as lower case hexadecimal, two characters per byte.
+     *
+     * @param bytes  The bytes to encode.
+     * @param offset The offset of the first byte to encode.
+     * @param length The number of bytes to encode.
+     * @return The hexadecimal string.
+     */
+    public static String toHex(byte[] bytes, int offset, int length) {
+        // Latin-1 bytes become the content of a compact string as is, without a pass over UTF-16 characters
+        byte[] text = new byte[length * 2];
+        for (int i = 0; i < length; i++) {
+            text[2 * i] = (byte) HEX_DIGITS[(bytes[offset + i] >>> 4) & 0x0f];
+            text[2 * i + 1] = (byte) HEX_DIGITS[bytes[offset + i] & 0x0f];
+        }
+        return new String(text, StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Decodes a hexadecimal string into raw bytes.
+     *
+     * @param hex The hexadecimal string, with an even number of characters.
+     * @return The decoded bytes.
+     * @throws IllegalArgumentException If the string is not valid hexadecimal.
+     */
+    public static byte[] fromHex(String hex) {
+        if ((hex.length() & 1) != 0) {
+            throw new IllegalArgumentException("Odd length hexadecimal string: " + hex);
+        }
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            int high = Character.digit(hex.charAt(2 * i), 16);
+            int low = Character.digit(hex.charAt(2 * i + 1), 16);
+            if (high < 0 || low < 0) {
+                throw new IllegalArgumentException("Invalid hexadecimal string: " + hex);
+            }
+            bytes[i] = (byte) ((high << 4) | low);
+        }
+        return bytes;
+    }
+
+    /**
+     * Retrieves the SHA-256 digest of the calling thread, for hashing outside of a kernel.
+     *
+     * @return The digest, reset and ready for use.
+     */
+    static MessageDigest threadDigest() {
+        MessageDigest digest = DIGESTS.get();
+        digest.reset();
+        return digest;
+    }
+
+    /**
+     * Writes the decimal digits of a nonce, right aligned, into the scratch buffer.
+     *
+     * @param nonce The nonce to encode.
+     * @return The index of the first digit in the buffer.
+     */
+    private int writeDecimal(int nonce) {
+        int position = nonceBytes.length;
+        long value = Math.abs((long) nonce);
+        do {
+            nonceBytes[--position] = (byte) ('0' + (int) (value % 10));
+            value /= 10;
+        } while (value != 0);
+        if (nonce < 0) {
+            nonceBytes[--position] = '-';
+        }
+        return position;
+    }
+
+    /**
+     * Writes a nonce as four big-endian bytes at the end of the scratch buffer.
+     *
+     * @param nonce The nonce to encode.
+     * @return The index of the first byte in the buffer.
+     */
+    private int writeInt32(int nonce) {
+        int position = nonceBytes.length - 4;
+        nonceBytes[position] = (byte) (nonce >>> 24);
+        nonceBytes[position + 1] = (byte) (nonce >>> 16);
+        nonceBytes[position + 2] = (byte) (nonce >>> 8);
+        nonceBytes[position + 3] = (byte) nonce;
+        return position;
+    }
+
+    /**
+     * Creates a new SHA-256 digest instance.
+     *
+     * @return The digest.
+     */
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package blockchain;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters describing the mining activity of a node.
+ */
+public class MiningMetrics {
+    /**
+     * Number of mining attempts started.
+     */
+    private final LongAdder attemptsStarted = new LongAdder();
+    /**
+     * Number of attempts abandoned because their parent block stopped being the tip of the chain.
+     */
+    private final LongAdder attemptsAbandoned = new LongAdder();
+    /**
+     * Number of blocks mined and appended to the local chain.
+     */
+    private final LongAdder blocksMined = new LongAdder();
+    /**
+     * Number of hashes computed over all attempts.
+     */
+    private final LongAdder totalHashes = new LongAdder();
+    /**
+     * Number of hashes computed on attempts whose parent was no longer the tip.
+     */
+    private final LongAdder staleHashes = new LongAdder();
+
+    /**
+     * Records the outcome of a finished mining attempt.
+     *
+     * @param attempt The finished attempt.
+     * @param mined   True if the attempt produced a block that was appended to the chain.
+     */
+    void recordAttempt(MiningAttempt attempt, boolean mined) {
+        attemptsStarted.increment();
+        totalHashes.add(attempt.getHashes());
+        if (mined) {
+            blocksMined.increment();
+        } else if (attempt.isCancelled()) {
+            attemptsAbandoned.increment();
+            staleHashes.add(attempt.getHashes());
+        }
+    }
+
+    /**
+     * Retrieves the number of mining attempts that have finished, whatever their outcome.
+     *
+     * @return The number of attempts.
+     */
+    public long getAttempts() {
+        return attemptsStarted.sum();
+    }
+
+    /**
+     * Retrieves the number of attempts abandoned because the chain tip moved.
+     *
+     * @return The number of abandoned attempts.
+     */
+    public long getAttemptsAbandoned() {
+        return attemptsAbandoned.sum();
+    }
+
+    /**
+     * Retrieves the number of blocks mined and appended to the local chain.
+     *
+     * @return The number of mined blocks.
+     */
+    public long getBlocksMined() {
+        return blocksMined.sum();
+    }
+
+    /**
+     * Retrieves the number of hashes computed over all attempts.
+     *
+     * @return The number of hashes.
+     */
+    public long getTotalHashes() {
+        return totalHashes.sum();
+    }
+
+    /**
+     * Retrieves the number of hashes wasted on stale work, i.e. on attempts abandoned after the tip moved.
+     *
+     * @return The number of wasted hashes.
+     */
+    public long getStaleHashes() {
+        return staleHashes.sum();
+    }
+
+    /**
+     * Returns a string representation of the metrics.
+     *
+     * @return A string representation of the metrics.
+     */
+    @Override
+    public String toString() {
+        return "MiningMetrics{attempts=" + getAttempts() +
+                ", abandoned=" + getAttemptsAbandoned() +
+                ", mined=" + getBlocksMined() +
+                ", hashes=" + getTotalHashes() +
+                ", staleHashes=" + getStaleHashes() +
+                '}';
+    }
+}
@@ -0,0 +1,82 @@
+package blockchain;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * How a {@link MinerNode} serves the connections of its clients and peers.
+ * <p>
+ * Virtual threads are only available from Java 21; the mode is looked up reflectively so that the node still builds and
+ * runs on older JVMs, where it falls back to {@link #THREAD_PER_CONNECTION}.
+ */
+public enum NetworkMode {
+    /** A thread blocked in {@code accept()} on each port, and a pooled thread blocked on each connection. */
+    THREAD_PER_CONNECTION,
+    /**
+     * A few non-blocking I/O threads multiplexing every connection over selectors, and a bounded pool of workers
+     * processing complete messages, so that the number of threads does not grow with the number of connections.
+     */
+    SELECTOR,
+    /**
+     * The blocking code of {@link #THREAD_PER_CONNECTION}, accept loops included, run on a virtual thread per task, so
+     * that a connection blocked on I/O only holds a small heap-allocated stack rather than a platform thread.
+     */
+    VIRTUAL_THREADS;
+
+    /** The factory of virtual-thread executors of this JVM, or null if it has none. */
+    private static final Method NEW_VIRTUAL_THREAD_EXECUTOR = findVirtualThreadExecutor();
+
+    /**
+     * Checks whether this mode can run in the current JVM.
+     *
+     * @return True if the mode is usable, false otherwise.
+     */
+    public boolean isAvailable() {
+        return this != VIRTUAL_THREADS || NEW_VIRTUAL_THREAD_EXECUTOR != null;
+    }
+
+    /**
+     * Returns this mode if it can run in the current JVM, or {@link #THREAD_PER_CONNECTION} otherwise.
+     *
+     * @return A usable mode.
+     */
+    public NetworkMode orFallback() {
+        return isAvailable() ? this : THREAD_PER_CONNECTION;
+    }
+
+    /**
+     * Creates the executor running the tasks of a node in this mode: a cached pool of platform threads, or a virtual
+     * thread per task.
+     *
+     * @return The executor.
+     */
+    ExecutorService newExecutor() {
+        if (this != VIRTUAL_THREADS || NEW_VIRTUAL_THREAD_EXECUTOR == null) {
+            return Executors.newCachedThreadPool();
+        }
+        try {
+            return (ExecutorService) NEW_VIRTUAL_THREAD_EXECUTOR.invoke(null);
+        } catch (IllegalAccessException | InvocationTargetException e) {
+            throw new IllegalStateException("Cannot create a virtual-thread executor", e);
+        }
+    }
+
+    /**
+     * Looks up {@code Executors.newVirtualThreadPerTaskExecutor()}, which only exists from Java 21.
+     *
+     * @return The method, or null if this JVM has no virtual threads.
+     */
+    private static Method findVirtualThreadExecutor() {
+        if (Runtime.version().feature() < 21) {
+            // Java 19 and 20 have the method, but only as a preview feature
+            return null;
+        }
+        try {
+            return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,635 @@
+package blockchain;
+
+import java.nio.file.Path;
+
+/**
+ * Tunable settings of a {@link MinerNode}.
+ * <p>
+ * A freshly constructed configuration reproduces the behaviour of a node created without one; every setting has to be
+ * chosen before {@link MinerNode#startNode()} is called.
+ */
+public class NodeConfig {
+    /**
+     * Number of worker threads searching the nonce space of each block in parallel.
+     */
+    private int miningWorkers = 1;
+    /**
+     * Maximum number of pool transactions packed into one block.
+     */
+    private int maxBlockTransactions = 1;
+    /**
+     * Maximum total size, in UTF-8 bytes, of the transactions packed into one block.
+     */
+    private int maxBlockBytes = 1024 * 1024;
+    /**
+     * Header version of the blocks this node mines.
+     */
+    private int blockVersion = Block.LEGACY_VERSION;
+    /**
+     * SHA-256 implementation used to search for proof-of-work solutions.
+     */
+    private MiningBackend miningBackend = MiningBackend.MESSAGE_DIGEST;
+    /**
+     * Number of blocks between two difficulty adjustments, or zero to keep the difficulty fixed.
+     */
+    private int retargetInterval = 0;
+    /**
+     * Desired time between two blocks when retargeting, in milliseconds.
+     */
+    private long targetBlockMillis = 5_000;
+    /**
+     * Target false positive rate of the confirmed-transaction filter, or zero to index transactions exactly.
+     */
+    private double transactionFilterFalsePositiveRate = 0;
+    /**
+     * Memory budget of the confirmed-transaction filter, in bytes.
+     */
+    private long transactionFilterBytes = 16L * 1024 * 1024;
+    /**
+     * Maximum number of blocks buffered while waiting for their parent, or zero to synchronize at once.
+     */
+    private int maxOrphanBlocks = 100;
+    /**
+     * Time an orphan block waits for its parent before its missing ancestors are fetched, in milliseconds.
+     */
+    private long orphanTimeoutMillis = 500;
+    /**
+     * Directory of the block log the chain is persisted to, or null to keep the chain in memory only.
+     */
+    private Path dataDirectory = null;
+    /**
+     * Number of blocks appended to the block log between two writes of the log to disk.
+     */
+    private int blockLogSyncInterval = 16;
+    /**
+     * Number of blocks between two checkpoints written next to the block log.
+     */
+    private int checkpointInterval = 100;
+    /**
+     * Hash of a block trusted without checking the proof of work of its chain when bootstrapping, or null.
+     */
+    private String trustedBlockHash = null;
+    /**
+     * Number of blocks below the tip that keep their transactions in memory, or zero to keep every block whole.
+     */
+    private int pruneDepth = 0;
+    /**
+     * Whether blocks are kept outside of the Java heap.
+     */
+    private boolean offHeapBlocks = false;
+    /**
+     * Whether peers are reached over long-lived channels rather than a connection per message.
+     */
+    private boolean peerChannels = true;
+    /**
+     * Longest delay between two attempts to reach a peer whose channel is down, in milliseconds.
+     */
+    private long peerReconnectMaxMillis = 1_000;
+    /**
+     * How the connections of clients and peers are served.
+     */
+    private NetworkMode networkMode = NetworkMode.THREAD_PER_CONNECTION;
+    /**
+     * Number of threads multiplexing the connections in {@link NetworkMode#SELECTOR} mode.
+     */
+    private int ioThreads = Math.min(4, Runtime.getRuntime().availableProcessors());
+    /**
+     * Number of threads processing complete messages in {@link NetworkMode#SELECTOR} mode.
+     */
+    private int networkWorkers = Math.max(4, 2 * Runtime.getRuntime().availableProcessors());
+    /**
+     * Largest number of mined blocks queued to each peer.
+     */
+    private int outboundQueueCapacity = 64;
+    /**
+     * Longest time sending a block to a peer may take, connection included, in milliseconds.
+     */
+    private long peerSendTimeoutMillis = 5_000;
+
+    /**
+     * Retrieves the number of mining worker threads.
+     *
+     * @return The number of mining workers.
+     */
+    public int getMiningWorkers() {
+        return miningWorkers;
+    }
+
+    /**
+     * Sets the number of worker threads that split the nonce space of each block between them.
+     * A value of one mines on the mining thread itself.
+     *
+     * @param miningWorkers The number of mining workers, at least one.
+     */
+    public void setMiningWorkers(int miningWorkers) {
+        if (miningWorkers < 1) {
+            throw new IllegalArgumentException("At least one mining worker is required: " + miningWorkers);
+        }
+        this.miningWorkers = miningWorkers;
+    }
+
+    /**
+     * Retrieves the maximum number of transactions packed into one block.
+     *
+     * @return The maximum number of transactions per block.
+     */
+    public int getMaxBlockTransactions() {
+        return maxBlockTransactions;
+    }
+
+    /**
+     * Sets the maximum number of pool transactions packed into one block.
+     *
+     * @param maxBlockTransactions The maximum number of transactions per block, at least one.
+     */
+    public void setMaxBlockTransactions(int maxBlockTransactions) {
+        if (maxBlockTransactions < 1) {
+            throw new IllegalArgumentException("A block must hold at least one transaction: " + maxBlockTransactions);
+        }
+        this.maxBlockTransactions = maxBlockTransactions;
+    }
+
+    /**
+     * Retrieves the maximum total size of the transactions packed into one block.
+     *
+     * @return The byte budget of a block.
+     */
+    public int getMaxBlockBytes() {
+        return maxBlockBytes;
+    }
+
+    /**
+     * Sets the maximum total size, in UTF-8 bytes, of the transactions packed into one block.
+     *
+     * @param maxBlockBytes The byte budget of a block, at least one.
+     */
+    public void setMaxBlockBytes(int maxBlockBytes) {
+        if (maxBlockBytes < 1) {
+            throw new IllegalArgumentException("A block budget must be at least one byte: " + maxBlockBytes);
+        }
+        this.maxBlockBytes = maxBlockBytes;
+    }
+
+    /**
+     * Retrieves the header version of the blocks this node mines.
+     *
+     * @return {@link Block#LEGACY_VERSION} or {@link Block#MERKLE_VERSION}.
+     */
+    public int getBlockVersion() {
+        return blockVersion;
+    }
+
+    /**
+     * Sets the header version of the blocks this node mines. Nodes validate both versions whatever this setting.
+     * <p>
+     * Merkle headers make the cost of a hash independent of the number of transactions, but they also cover the
+     * timestamp, so two nodes mining the same transactions on the same parent produce different blocks instead of
+     * the same one.
+     *
+     * @param blockVersion {@link Block#LEGACY_VERSION} or {@link Block#MERKLE_VERSION}.
+     */
+    public void setBlockVersion(int blockVersion) {
+        if (blockVersion != Block.LEGACY_VERSION && blockVersion != Block.MERKLE_VERSION) {
+            throw new IllegalArgumentException("Unknown block version: " + blockVersion);
+        }
+        this.blockVersion = blockVersion;
+    }
+
+    /**
+     * Retrieves the SHA-256 implementation used for mining.
+     *
+     * @return The mining backend.
+     */
+    public MiningBackend getMiningBackend() {
+        return miningBackend;
+    }
+
+    /**
+     * Sets the SHA-256 implementation used for mining. A vector backend that cannot run in the JVM of the node is
+     * replaced by {@link MiningBackend#MESSAGE_DIGEST} when the node starts.
+     *
+     * @param miningBackend The mining backend.
+     */
+    public void setMiningBackend(MiningBackend miningBackend) {
+        if (miningBackend == null) {
+            throw new IllegalArgumentException("A mining backend is required");
+        }
+        this.miningBackend = miningBackend;
+    }
+
+    /**
+     * Retrieves the number of blocks between two difficulty adjustments.
+     *
+     * @return The retarget interval, or zero if the difficulty is fixed.
+     */
+    public int getRetargetInterval() {
+        return retargetInterval;
+    }
+
+    /**
+     * Sets the number of blocks between two difficulty adjustments. Every node of a network must use the same
+     * retargeting settings, or they will disagree on which blocks are valid.
+     *
+     * @param retargetInterval The retarget interval, at least two, or zero to keep the difficulty fixed.
+     */
+    public void setRetargetInterval(int retargetInterval) {
+        if (retargetInterval == 1 || retargetInterval < 0) {
+            throw new IllegalArgumentException("Retarget interval must be zero or at least two: " + retargetInterval);
+        }
+        this.retargetInterval = retargetInterval;
+    }
+
+    /**
+     * Retrieves the desired time between two blocks when retargeting.
+     *
+     * @return The target block interval in milliseconds.
+     */
+    public long getTargetBlockMillis() {
+        return targetBlockMillis;
+    }
+
+    /**
+     * Sets the desired time between two blocks when retargeting.
+     *
+     * @param targetBlockMillis The target block interval in milliseconds, positive.
+     */
+    public void setTargetBlockMillis(long targetBlockMillis) {
+        if (targetBlockMillis <= 0) {
+            throw new IllegalArgumentException("Target block interval must be positive: " + targetBlockMillis);
+        }
+        this.targetBlockMillis = targetBlockMillis;
+    }
+
+    /**
+     * Retrieves the target false positive rate of the confirmed-transaction filter.
+     *
+     * @return The false positive rate, or zero if transactions are indexed exactly.
+     */
+    public double getTransactionFilterFalsePositiveRate() {
+        return transactionFilterFalsePositiveRate;
+    }
+
+    /**
+     * Sets the target false positive rate of the confirmed-transaction filter. A non-zero rate replaces the exact
+     * index of confirmed transactions, whose size grows with the chain, by a Bloom filter of bounded size.
+     *
+     * @param transactionFilterFalsePositiveRate The false positive rate, below one, or zero to index exactly.
+     */
+    public void setTransactionFilterFalsePositiveRate(double transactionFilterFalsePositiveRate) {
+        if (!(transactionFilterFalsePositiveRate >= 0 && transactionFilterFalsePositiveRate < 1)) {
+            throw new IllegalArgumentException("False positive rate must be in [0, 1): " + transactionFilterFalsePositiveRate);
+        }
+        this.transactionFilterFalsePositiveRate = transactionFilterFalsePositiveRate;
+    }
+
+    /**
+     * Retrieves the memory budget of the confirmed-transaction filter.
+     *
+     * @return The memory budget in bytes.
+     */
+    public long getTransactionFilterBytes() {
+        return transactionFilterBytes;
+    }
+
+    /**
+     * Sets the memory budget of the confirmed-transaction filter. Once the budget is used up the filter keeps working
+     * but its false positive rate rises above the target.
+     *
+     * @param transactionFilterBytes The memory budget in bytes, at least 64.
+     */
+    public void setTransactionFilterBytes(long transactionFilterBytes) {
+        if (transactionFilterBytes < 64) {
+            throw new IllegalArgumentException("Filter memory budget must be at least 64 bytes: " + transactionFilterBytes);
+        }
+        this.transactionFilterBytes = transactionFilterBytes;
+    }
+
+    /**
+     * Retrieves the maximum number of blocks buffered while waiting for their parent.
+     *
+     * @return The capacity of the orphan pool, zero if orphans are not buffered.
+     */
+    public int getMaxOrphanBlocks() {
+        return maxOrphanBlocks;
+    }
+
+    /**
+     * Sets the maximum number of blocks buffered while waiting for their parent. Once the pool is full the oldest
+     * orphan is dropped. With zero, a block whose parent is unknown makes the node synchronize with its peers at once.
+     *
+     * @param maxOrphanBlocks The capacity of the orphan pool, at least zero.
+     */
+    public void setMaxOrphanBlocks(int maxOrphanBlocks) {
+        if (maxOrphanBlocks < 0) {
+            throw new IllegalArgumentException("Orphan pool capacity cannot be negative: " + maxOrphanBlocks);
+        }
+        this.maxOrphanBlocks = maxOrphanBlocks;
+    }
+
+    /**
+     * Retrieves the time an orphan block waits for its parent.
+     *
+     * @return The timeout in milliseconds.
+     */
+    public long getOrphanTimeoutMillis() {
+        return orphanTimeoutMillis;
+    }
+
+    /**
+     * Sets the time an orphan block waits for its parent before the node asks its peers for the missing ancestors.
+     *
+     * @param orphanTimeoutMillis The timeout in milliseconds, at least zero.
+     */
+    public void setOrphanTimeoutMillis(long orphanTimeoutMillis) {
+        if (orphanTimeoutMillis < 0) {
+            throw new IllegalArgumentException("Orphan timeout cannot be negative: " + orphanTimeoutMillis);
+        }
+        this.orphanTimeoutMillis = orphanTimeoutMillis;
+    }
+
+    /**
+     * Retrieves the directory of the block log.
+     *
+     * @return The directory, or null if the chain is kept in memory only.
+     */
+    public Path getDataDirectory() {
+        return dataDirectory;
+    }
+
+    /**
+     * Sets the directory of the block log the chain is persisted to. A node started on a directory that already
+     * holds a log restores its chain from it and only asks its peers for the blocks above its restored tip. Every
+     * node needs a directory of its own.
+     *
+     * @param dataDirectory The directory, or null to keep the chain in memory only.
+     */
+    public void setDataDirectory(Path dataDirectory) {
+        this.dataDirectory = dataDirectory;
+    }
+
+    /**
+     * Retrieves the number of blocks appended to the block log between two writes of the log to disk.
+     *
+     * @return The sync interval in blocks.
+     */
+    public int getBlockLogSyncInterval() {
+        return blockLogSyncInterval;
+    }
+
+    /**
+     * Sets the number of blocks appended to the block log between two writes of the log to disk. A crash loses at
+     * most that many blocks, which the node then downloads again from its peers.
+     *
+     * @param blockLogSyncInterval The sync interval in blocks, at least one.
+     */
+    public void setBlockLogSyncInterval(int blockLogSyncInterval) {
+        if (blockLogSyncInterval < 1) {
+            throw new IllegalArgumentException("Block log sync interval must be at least one block: " + blockLogSyncInterval);
+        }
+        this.blockLogSyncInterval = blockLogSyncInterval;
+    }
+
+    /**
+     * Retrieves the number of blocks between two checkpoints written next to the block log.
+     *
+     * @return The checkpoint interval in blocks.
+     */
+    public int getCheckpointInterval() {
+        return checkpointInterval;
+    }
+
+    /**
+     * Sets the number of blocks between two checkpoints written next to the block log. A restarted node only
+     * validates the blocks above its latest checkpoint, and a new node bootstraps from the checkpoint of a peer the
+     * same way, so a shorter interval speeds up startup at the cost of more frequent writes.
+     *
+     * @param checkpointInterval The checkpoint interval in blocks, at least one.
+     */
+    public void setCheckpointInterval(int checkpointInterval) {
+        if (checkpointInterval < 1) {
+            throw new IllegalArgumentException("Checkpoint interval must be at least one block: " + checkpointInterval);
+        }
+        this.checkpointInterval = checkpointInterval;
+    }
+
+    /**
+     * Retrieves the hash of the block up to which a chain bootstrapped from a peer is trusted.
+     *
+     * @return The hash of the trusted block, or null if no block is trusted.
+     */
+    public String getTrustedBlockHash() {
+        return trustedBlockHash;
+    }
+
+    /**
+     * Sets the hash of a block, obtained out of band, up to which a chain bootstrapped from the checkpoint of a peer
+     * is trusted. A checkpoint only proves that a peer built it, not that the chain below it holds any work, so the
+     * hashes and proofs of work of the blocks below it are still checked, except those of the trusted block and its
+     * ancestors.
+     *
+     * @param trustedBlockHash The hash of the trusted block, or null to check every block.
+     */
+    public void setTrustedBlockHash(String trustedBlockHash) {
+        this.trustedBlockHash = trustedBlockHash;
+    }
+
+    /**
+     * Retrieves the number of blocks below the tip that keep their transactions in memory.
+     *
+     * @return The pruning depth in blocks, zero if pruning is disabled.
+     */
+    public int getPruneDepth() {
+        return pruneDepth;
+    }
+
+    /**
+     * Sets the number of blocks below the tip that keep their transactions in memory. Deeper blocks keep only their
+     * header, their transactions are indexed by fingerprint instead of by value, and the chain no longer reorganizes
+     * below them. Their bodies stay in the block log when a data directory is set, from which the node still serves
+     * its whole chain to peers; without one they are dropped. Pruning replaces the confirmed-transaction filter.
+     *
+     * @param pruneDepth The pruning depth in blocks, or zero to disable pruning.
+     */
+    public void setPruneDepth(int pruneDepth) {
+        if (pruneDepth < 0) {
+            throw new IllegalArgumentException("Pruning depth cannot be negative: " + pruneDepth);
+        }
+        this.pruneDepth = pruneDepth;
+    }
+
+    /**
+     * Retrieves whether blocks are kept outside of the Java heap.
+     *
+     * @return True if blocks are kept in an off-heap arena.
+     */
+    public boolean isOffHeapBlocks() {
+        return offHeapBlocks;
+    }
+
+    /**
+     * Sets whether blocks are kept outside of the Java heap, in an arena of direct buffers that the garbage collector
+     * does not trace, which keeps collection pauses short however long the chain. Blocks are decoded on every read,
+     * and the arena counts against the maximum direct memory of the JVM ({@code -XX:MaxDirectMemorySize}).
+     *
+     * @param offHeapBlocks True to keep blocks in an off-heap arena.
+     */
+    public void setOffHeapBlocks(boolean offHeapBlocks) {
+        this.offHeapBlocks = offHeapBlocks;
+    }
+
+    /**
+     * Retrieves whether peers are reached over long-lived channels.
+     *
+     * @return True if the node keeps a channel to each peer.
+     */
+    public boolean isPeerChannels() {
+        return peerChannels;
+    }
+
+    /**
+     * Sets whether peers are reached over long-lived channels, one per pair of nodes, shared by new blocks and requests
+     * in both directions and reopened when they fail. Without them, every message opens a connection of its own.
+     * Nodes accept both, whatever this setting.
+     *
+     * @param peerChannels True to keep a channel to each peer.
+     */
+    public void setPeerChannels(boolean peerChannels) {
+        this.peerChannels = peerChannels;
+    }
+
+    /**
+     * Retrieves the longest delay between two attempts to reach a peer whose channel is down.
+     *
+     * @return The delay in milliseconds.
+     */
+    public long getPeerReconnectMaxMillis() {
+        return peerReconnectMaxMillis;
+    }
+
+    /**
+     * Sets the longest delay between two attempts to reach a peer whose channel is down. The delay starts at 50
+     * milliseconds and doubles after each failed attempt up to this value; until it has elapsed, messages to the peer
+     * fail without trying to connect, and blocks wait in the outbound queue of the peer.
+     *
+     * @param peerReconnectMaxMillis The delay in milliseconds, at least 50.
+     */
+    public void setPeerReconnectMaxMillis(long peerReconnectMaxMillis) {
+        if (peerReconnectMaxMillis < 50) {
+            throw new IllegalArgumentException("Reconnection delay must be at least 50 ms: " + peerReconnectMaxMillis);
+        }
+        this.peerReconnectMaxMillis = peerReconnectMaxMillis;
+    }
+
+    /**
+     * Retrieves how the connections of clients and peers are served.
+     *
+     * @return The network mode.
+     */
+    public NetworkMode getNetworkMode() {
+        return networkMode;
+    }
+
+    /**
+     * Sets how the connections of clients and peers are served. All modes speak the same protocols. Virtual threads
+     * are replaced by {@link NetworkMode#THREAD_PER_CONNECTION} when the node starts on a JVM older than Java 21.
+     *
+     * @param networkMode The network mode.
+     */
+    public void setNetworkMode(NetworkMode networkMode) {
+        if (networkMode == null) {
+            throw new IllegalArgumentException("A network mode is required");
+        }
+        this.networkMode = networkMode;
+    }
+
+    /**
+     * Retrieves the number of threads multiplexing the connections in {@link NetworkMode#SELECTOR} mode.
+     *
+     * @return The number of I/O threads.
+     */
+    public int getIoThreads() {
+        return ioThreads;
+    }
+
+    /**
+     * Sets the number of threads multiplexing the connections in {@link NetworkMode#SELECTOR} mode. They only move
+     * bytes, so a few suffice for thousands of connections.
+     *
+     * @param ioThreads The number of I/O threads, at least 1.
+     */
+    public void setIoThreads(int ioThreads) {
+        if (ioThreads < 1) {
+            throw new IllegalArgumentException("At least one I/O thread is required: " + ioThreads);
+        }
+        this.ioThreads = ioThreads;
+    }
+
+    /**
+     * Retrieves the number of threads processing complete messages in {@link NetworkMode#SELECTOR} mode.
+     *
+     * @return The number of network workers.
+     */
+    public int getNetworkWorkers() {
+        return networkWorkers;
+    }
+
+    /**
+     * Sets the number of threads processing complete messages, such as transactions to validate and blocks to connect,
+     * in {@link NetworkMode#SELECTOR} mode. A message that arrives while all of them are busy and their queue is full
+     * is refused by closing its connection.
+     *
+     * @param networkWorkers The number of network workers, at least 1.
+     */
+    public void setNetworkWorkers(int networkWorkers) {
+        if (networkWorkers < 1) {
+            throw new IllegalArgumentException("At least one network worker is required: " + networkWorkers);
+        }
+        this.networkWorkers = networkWorkers;
+    }
+
+    /**
+     * Retrieves the largest number of mined blocks queued to each peer.
+     *
+     * @return The capacity of each outbound queue.
+     */
+    public int getOutboundQueueCapacity() {
+        return outboundQueueCapacity;
+    }
+
+    /**
+     * Sets the largest number of mined blocks queued to each peer. Each peer has a queue of its own, drained by a
+     * sender of its own, so that a slow or unreachable peer does not delay the others. When a queue is full its oldest
+     * block is dropped, and the peer fetches it as the missing ancestor of a later one.
+     *
+     * @param outboundQueueCapacity The capacity of each outbound queue, at least 1.
+     */
+    public void setOutboundQueueCapacity(int outboundQueueCapacity) {
+        if (outboundQueueCapacity < 1) {
+            throw new IllegalArgumentException("Outbound queues must hold at least one block: "
+                    + outboundQueueCapacity);
+        }
+        this.outboundQueueCapacity = outboundQueueCapacity;
+    }
+
+    /**
+     * Retrieves the longest time sending a block to a peer may take.
+     *
+     * @return The send timeout in milliseconds.
+     */
+    public long getPeerSendTimeoutMillis() {
+        return peerSendTimeoutMillis;
+    }
+
+    /**
+     * Sets the longest time sending a block to a peer may take, connection included. A send that takes longer, to a
+     * peer that does not answer or stopped reading, is aborted by closing its connection, and retried.
+     *
+     * @param peerSendTimeoutMillis The send timeout in milliseconds, at least 100.
+     */
+    public void setPeerSendTimeoutMillis(long peerSendTimeoutMillis) {
+        if (peerSendTimeoutMillis < 100) {
+            throw new IllegalArgumentException("Send timeout must be at least 100 ms: " + peerSendTimeoutMillis);
+        }
+        this.peerSendTimeoutMillis = peerSendTimeoutMillis;
+    }
+}
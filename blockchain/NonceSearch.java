@@ -0,0 +1,20 @@
+package blockchain;
+
+/**
+ * A proof-of-work search over the nonces of one block header, bound to the thread that created it.
+ */
+interface NonceSearch {
+    /**
+     * Searches the nonces in {@code [fromNonce, toNonce)} for the first one whose hash has at least {@code zeroBits}
+     * leading zero bits, checking the attempt for cancellation every
+     * {@link MiningKernel#CANCELLATION_CHECK_INTERVAL} nonces and recording the hashes computed in it.
+     *
+     * @param fromNonce The first nonce to try.
+     * @param toNonce   The nonce at which to stop, exclusive.
+     * @param zeroBits  The number of leading zero bits required in the digest.
+     * @param attempt   The attempt the search is performed for.
+     * @return The first nonce satisfying the difficulty, or {@link MiningKernel#NOT_FOUND} if there is none or the
+     * attempt was cancelled.
+     */
+    long search(long fromNonce, long toNonce, int zeroBits, MiningAttempt attempt);
+}
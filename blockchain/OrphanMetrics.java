@@ -0,0 +1,83 @@
+package blockchain;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters describing the blocks a node received before their parent.
+ */
+public class OrphanMetrics {
+    /**
+     * Number of orphan blocks buffered while waiting for their parent.
+     */
+    private final LongAdder buffered = new LongAdder();
+    /**
+     * Number of buffered orphan blocks connected once their parent arrived.
+     */
+    private final LongAdder connected = new LongAdder();
+    /**
+     * Number of buffered orphan blocks dropped, because their parent did not arrive in time or the pool was full.
+     */
+    private final LongAdder expired = new LongAdder();
+
+    /**
+     * Records an orphan block entering the pool.
+     */
+    void recordBuffered() {
+        buffered.increment();
+    }
+
+    /**
+     * Records an orphan block connected after its parent.
+     */
+    void recordConnected() {
+        connected.increment();
+    }
+
+    /**
+     * Records an orphan block dropped from the pool without being connected.
+     */
+    void recordExpired() {
+        expired.increment();
+    }
+
+    /**
+     * Retrieves the number of orphan blocks buffered so far.
+     *
+     * @return The number of buffered orphans.
+     */
+    public long getBuffered() {
+        return buffered.sum();
+    }
+
+    /**
+     * Retrieves the number of orphan blocks connected once their parent arrived.
+     *
+     * @return The number of connected orphans.
+     */
+    public long getConnected() {
+        return connected.sum();
+    }
+
+    /**
+     * Retrieves the number of orphan blocks dropped without being connected.
+     *
+     * @return The number of expired orphans.
+     */
+    public long getExpired() {
+        return expired.sum();
+    }
+
+    /**
+     * Returns a string representation of the counters.
+     *
+     * @return A string representation of the counters.
+     */
+    @Override
+    public String toString() {
+        return "OrphanMetrics{" +
+                "buffered=" + getBuffered() +
+                ", connected=" + getConnected() +
+                ", expired=" + getExpired() +
+                '}';
+    }
+}
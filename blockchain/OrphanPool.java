@@ -0,0 +1,138 @@
+package blockchain;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static java.util.Collections.emptyList;
+
+/**
+ * A bounded buffer of blocks received before their parent, indexed by the hash of the missing parent.
+ * <p>
+ * Blocks often arrive one hop out of order. Rather than downloading whole chains from every peer, a node parks such
+ * blocks here and connects them, and in cascade their own waiting children, as soon as the parent connects. When the
+ * pool is full the oldest orphan is dropped. Like {@link BlockChain}, a pool is not thread-safe; {@link MinerNode}
+ * only uses it under its lock.
+ */
+final class OrphanPool {
+    /**
+     * Largest number of orphans held at once.
+     */
+    private final int capacity;
+    /**
+     * Counters of the orphans.
+     */
+    private final OrphanMetrics metrics;
+    /**
+     * The orphans, indexed by hash, oldest first.
+     */
+    private final LinkedHashMap<String, Block> orphans = new LinkedHashMap<>();
+    /**
+     * The orphans waiting for each missing parent, indexed by the hash of the parent.
+     */
+    private final Map<String, List<Block>> orphansByParent = new HashMap<>();
+
+    /**
+     * Creates an empty pool.
+     *
+     * @param capacity The largest number of orphans held at once, at least one.
+     * @param metrics  The counters to record orphans in.
+     */
+    OrphanPool(int capacity, OrphanMetrics metrics) {
+        this.capacity = capacity;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Buffers an orphan block, dropping the oldest orphan if the pool is full.
+     *
+     * @param block The block whose parent is unknown.
+     * @return True if the block was buffered, false if it already was.
+     */
+    boolean add(Block block) {
+        if (orphans.containsKey(block.getHash())) {
+            return false;
+        }
+        if (orphans.size() >= capacity) {
+            Iterator<Block> oldest = orphans.values().iterator();
+            Block dropped = oldest.next();
+            oldest.remove();
+            unlink(dropped);
+            metrics.recordExpired();
+        }
+        orphans.put(block.getHash(), block);
+        orphansByParent.computeIfAbsent(block.getPreviousHash(), parent -> new ArrayList<>(1)).add(block);
+        metrics.recordBuffered();
+        return true;
+    }
+
+    /**
+     * Checks whether a block is buffered.
+     *
+     * @param hash The hash of the block.
+     * @return True if the block is waiting for its parent.
+     */
+    boolean contains(String hash) {
+        return orphans.containsKey(hash);
+    }
+
+    /**
+     * Removes and returns the orphans waiting for a given parent, which has just connected.
+     *
+     * @param parentHash The hash of the parent.
+     * @return The orphans whose parent it is, in arrival order.
+     */
+    List<Block> takeChildren(String parentHash) {
+        List<Block> children = orphansByParent.remove(parentHash);
+        if (children == null) {
+            return emptyList();
+        }
+        for (Block child : children) {
+            orphans.remove(child.getHash());
+        }
+        return children;
+    }
+
+    /**
+     * Drops an orphan whose parent did not arrive in time.
+     *
+     * @param hash The hash of the orphan.
+     * @return True if the orphan was still buffered, false otherwise.
+     */
+    boolean expire(String hash) {
+        Block block = orphans.remove(hash);
+        if (block == null) {
+            return false;
+        }
+        unlink(block);
+        metrics.recordExpired();
+        return true;
+    }
+
+    /**
+     * Retrieves the number of buffered orphans.
+     *
+     * @return The number of orphans.
+     */
+    int size() {
+        return orphans.size();
+    }
+
+    /**
+     * Removes an orphan from the index by parent.
+     *
+     * @param block The orphan.
+     */
+    private void unlink(Block block) {
+        List<Block> siblings = orphansByParent.get(block.getPreviousHash());
+        if (siblings != null) {
+            siblings.remove(block);
+            if (siblings.isEmpty()) {
+                orphansByParent.remove(block.getPreviousHash());
+            }
+        }
+    }
+}
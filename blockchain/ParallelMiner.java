@@ -0,0 +1,211 @@
+package blockchain;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Mines a block on a fixed pool of worker threads, each searching a disjoint range of the nonce space.
+ * <p>
+ * The remaining nonce space of the block is cut into one contiguous range per worker. Workers scan their range in
+ * small chunks and stop as soon as any of them has found a solution or the {@link MiningAttempt} is cancelled, so the
+ * first winning nonce cancels the rest of the search. The winning nonce is not necessarily the smallest one, but the
+ * resulting block is exactly what {@link Block#mineBlock(int)} would accept: its hash is the hash of its contents and
+ * meets the difficulty.
+ */
+public class ParallelMiner {
+    /**
+     * Number of nonces a worker tries between two checks of the shared stop flag.
+     */
+    private static final int CHUNK_SIZE = MiningKernel.CANCELLATION_CHECK_INTERVAL;
+    /**
+     * One past the largest nonce a block can carry.
+     */
+    private static final long NONCE_LIMIT = (long) Integer.MAX_VALUE + 1;
+
+    /**
+     * The pool running the workers.
+     */
+    private final ExecutorService workers;
+    /**
+     * The number of workers sharing each block.
+     */
+    private final int workerCount;
+    /**
+     * Total number of hashes computed by each worker.
+     */
+    private final AtomicLongArray hashes;
+    /**
+     * Total time each worker spent hashing, in nanoseconds.
+     */
+    private final AtomicLongArray busyNanos;
+    /**
+     * The SHA-256 implementation the workers search with.
+     */
+    private final MiningBackend backend;
+
+    /**
+     * Creates a miner with a dedicated pool of worker threads hashing through {@link MiningBackend#MESSAGE_DIGEST}.
+     *
+     * @param workerCount The number of workers, at least one.
+     */
+    public ParallelMiner(int workerCount) {
+        this(workerCount, MiningBackend.MESSAGE_DIGEST);
+    }
+
+    /**
+     * Creates a miner with a dedicated pool of worker threads.
+     *
+     * @param workerCount The number of workers, at least one.
+     * @param backend     The SHA-256 implementation to search with, replaced by
+     *                    {@link MiningBackend#MESSAGE_DIGEST} if it cannot run in this JVM.
+     */
+    public ParallelMiner(int workerCount, MiningBackend backend) {
+        if (workerCount < 1) {
+            throw new IllegalArgumentException("At least one mining worker is required: " + workerCount);
+        }
+        this.workerCount = workerCount;
+        this.backend = backend.orFallback();
+        this.hashes = new AtomicLongArray(workerCount);
+        this.busyNanos = new AtomicLongArray(workerCount);
+        AtomicInteger threadIndex = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(workerCount, runnable -> {
+            Thread thread = new Thread(runnable, "mining-worker-" + threadIndex.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Mines the block, returning once a solution has been applied to it or the search was given up.
+     *
+     * @param block    The block to mine.
+     * @param zeroBits The number of leading zero bits required in the hash.
+     * @param attempt  The attempt to check for cancellation and to record the hashes computed in.
+     * @return True if the block was solved, false if the attempt was cancelled, the calling thread was interrupted or
+     * the nonce space exhausted.
+     * @throws IllegalStateException If a worker failed or the miner was shut down.
+     */
+    public boolean mine(Block block, int zeroBits, MiningAttempt attempt) {
+        long startTime = System.currentTimeMillis();
+        System.out.println("Mining block on " + workerCount + " workers with transactions:" + block.getTransactions());
+        long first = block.getNonce();
+        long rangeLength = (NONCE_LIMIT - first + workerCount - 1) / workerCount;
+        AtomicBoolean stop = new AtomicBoolean(false);
+        AtomicInteger running = new AtomicInteger(workerCount);
+        CompletableFuture<Long> solution = new CompletableFuture<>();
+        try {
+            for (int i = 0; i < workerCount; i++) {
+                int worker = i;
+                long from = Math.min(NONCE_LIMIT, first + i * rangeLength);
+                long to = Math.min(NONCE_LIMIT, from + rangeLength);
+                workers.execute(() -> {
+                    try {
+                        long nonce = searchRange(worker, block, from, to, zeroBits, stop, attempt);
+                        if (nonce != MiningKernel.NOT_FOUND && stop.compareAndSet(false, true)) {
+                            solution.complete(nonce);
+                        }
+                    } catch (Throwable e) {
+                        // Without this the caller would wait forever for a worker that is gone
+                        stop.set(true);
+                        solution.completeExceptionally(e);
+                    } finally {
+                        if (running.decrementAndGet() == 0) {
+                            solution.complete(MiningKernel.NOT_FOUND);
+                        }
+                    }
+                });
+            }
+        } catch (RejectedExecutionException e) {
+            // The miner was shut down; the workers already started stop on the flag
+            stop.set(true);
+            solution.completeExceptionally(e);
+        }
+        try {
+            long nonce = solution.get();
+            if (nonce == MiningKernel.NOT_FOUND) {
+                System.out.println("Mining abandoned for block with transactions : " + block.getTransactions() + " after " + attempt.getHashes() + " hashes");
+                return false;
+            }
+            block.applySolution((int) nonce, block.newKernel().hashHex((int) nonce));
+            System.out.println("Block mined with transactions : " + block.getTransactions() + " in time: " + (System.currentTimeMillis() - startTime) + "ms");
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            stop.set(true);
+        }
+    }
+
+    /**
+     * Searches one worker's range chunk by chunk until a solution is found, the stop flag is raised or the attempt is
+     * cancelled.
+     *
+     * @param worker   The index of the worker.
+     * @param block    The block being mined.
+     * @param from     The first nonce of the range.
+     * @param to       The end of the range, exclusive.
+     * @param zeroBits The number of leading zero bits required in the hash.
+     * @param stop     Flag raised once the search is over.
+     * @param attempt  The attempt to check for cancellation and to record the hashes computed in.
+     * @return The winning nonce, or {@link MiningKernel#NOT_FOUND}.
+     */
+    private long searchRange(int worker, Block block, long from, long to, int zeroBits, AtomicBoolean stop,
+                             MiningAttempt attempt) {
+        NonceSearch search = block.newSearch(backend);
+        MiningAttempt chunkHashes = new MiningAttempt();
+        long start = System.nanoTime();
+        long nonce = from;
+        long found = MiningKernel.NOT_FOUND;
+        while (nonce < to && found == MiningKernel.NOT_FOUND && !stop.get() && !attempt.isCancelled()
+                && !Thread.currentThread().isInterrupted()) {
+            long chunkEnd = Math.min(to, nonce + CHUNK_SIZE);
+            long before = chunkHashes.getHashes();
+            found = search.search(nonce, chunkEnd, zeroBits, chunkHashes);
+            long computed = chunkHashes.getHashes() - before;
+            hashes.addAndGet(worker, computed);
+            attempt.addHashes(computed);
+            nonce = chunkEnd;
+        }
+        busyNanos.addAndGet(worker, System.nanoTime() - start);
+        return found;
+    }
+
+    /**
+     * Retrieves the number of workers.
+     *
+     * @return The number of workers.
+     */
+    public int getWorkerCount() {
+        return workerCount;
+    }
+
+    /**
+     * Retrieves the average hash rate of each worker over all blocks it has mined so far.
+     *
+     * @return The hashes per second of each worker, indexed by worker.
+     */
+    public double[] getWorkerHashRates() {
+        double[] rates = new double[workerCount];
+        for (int i = 0; i < workerCount; i++) {
+            long nanos = busyNanos.get(i);
+            rates[i] = nanos == 0 ? 0 : hashes.get(i) * 1_000_000_000.0 / nanos;
+        }
+        return rates;
+    }
+
+    /**
+     * Stops the worker threads. Any search in progress is abandoned.
+     */
+    public void shutdown() {
+        workers.shutdownNow();
+    }
+}
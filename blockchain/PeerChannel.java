@@ -0,0 +1,486 @@
+package blockchain;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.StreamCorruptedException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * A long-lived connection to a peer node, over which both nodes send framed messages and requests, so that blocks and
+ * requests no longer pay for a connection each.
+ * <p>
+ * A channel is opened by the peer message {@code CHANNEL} of {@link BlockCodec}, carrying the peer address of the node
+ * opening it, to which the other node answers with its own. Either node then writes frames: a type byte, a request
+ * identifier as a varint, and a length-prefixed payload. A message, such as a new block, holds a command and its
+ * arguments and is not answered; messages are handled one after another, in the order they were sent. A request holds
+ * a command and its arguments too, and is answered by a response or a failure carrying its identifier, so that several
+ * requests share the channel and are handled concurrently, answered in any order.
+ * <p>
+ * Frames are written by any thread, one at a time; the frames received are read by a single thread running
+ * {@link #run()}, which hands them over to an executor. A channel that fails is closed, failing the requests still
+ * waiting for a response, and never opened again.
+ */
+final class PeerChannel implements Runnable {
+    /**
+     * Command of the peer message opening a channel.
+     */
+    static final String COMMAND = "CHANNEL";
+    /**
+     * Largest payload of a frame, in bytes, enough for the whole chain of a node.
+     */
+    static final int MAX_FRAME_BYTES = 512 << 20;
+    /**
+     * Time a request waits for its response, in milliseconds.
+     */
+    static final long REQUEST_TIMEOUT_MILLIS = 30_000;
+    /**
+     * Type of a frame holding a message, which is not answered.
+     */
+    private static final int MESSAGE = 0;
+    /**
+     * Type of a frame holding a request.
+     */
+    private static final int REQUEST = 1;
+    /**
+     * Type of a frame holding the response to a request.
+     */
+    private static final int RESPONSE = 2;
+    /**
+     * Type of a frame telling that a request failed, holding the reason as UTF-8 text.
+     */
+    private static final int FAILURE = 3;
+
+    /**
+     * Handles the commands received over channels.
+     */
+    interface Handler {
+        /**
+         * Handles a command.
+         *
+         * @param command The command.
+         * @param in      The arguments of the command.
+         * @param out     The stream of the answer, discarded for messages.
+         * @throws IOException If the arguments are malformed or the answer cannot be written.
+         */
+        void handle(String command, InputStream in, OutputStream out) throws IOException;
+    }
+
+    /**
+     * Writes the arguments of a command.
+     */
+    interface Payload {
+        /**
+         * Writes the arguments.
+         *
+         * @param out The stream.
+         * @throws IOException If the stream cannot be written.
+         */
+        void write(OutputStream out) throws IOException;
+    }
+
+    /**
+     * The connection to the peer.
+     */
+    private final Socket socket;
+    /**
+     * The stream of the frames received.
+     */
+    private final InputStream in;
+    /**
+     * The stream of the frames sent, written by one thread at a time.
+     */
+    private final OutputStream out;
+    /**
+     * Lets one thread at a time write to {@link #out}. A lock rather than a monitor, so that a virtual thread blocked
+     * on a slow peer while holding it does not pin its carrier thread.
+     */
+    private final ReentrantLock writeLock = new ReentrantLock();
+    /**
+     * The peer address of the node at the other end.
+     */
+    private final String peerAddress;
+    /**
+     * True if this node opened the channel.
+     */
+    private final boolean initiated;
+    /**
+     * Handles the messages and requests received.
+     */
+    private final Handler handler;
+    /**
+     * Runs the handler.
+     */
+    private final Executor executor;
+    /**
+     * Notified once when the channel closes.
+     */
+    private final Consumer<PeerChannel> onClose;
+    /**
+     * The responses awaited, by request identifier.
+     */
+    private final Map<Integer, CompletableFuture<byte[]>> pending = new ConcurrentHashMap<>();
+    /**
+     * Identifier of the last request sent.
+     */
+    private final AtomicInteger lastRequest = new AtomicInteger();
+    /**
+     * The messages received and not handled yet, in order, guarded by itself.
+     */
+    private final Queue<byte[]> inbox = new ArrayDeque<>();
+    /**
+     * True while a task handles the messages of the inbox, guarded by {@link #inbox}.
+     */
+    private boolean draining;
+    /**
+     * True once the channel is closed.
+     */
+    private final AtomicBoolean closed = new AtomicBoolean();
+    /**
+     * True once the channel is replaced by another to the same peer, after which it only waits for its responses.
+     */
+    private volatile boolean retired;
+
+    /**
+     * Creates a channel over a connection whose handshake is done.
+     *
+     * @param socket      The connection to the peer.
+     * @param in          The stream of the frames received.
+     * @param out         The stream of the frames sent.
+     * @param peerAddress The peer address of the node at the other end.
+     * @param initiated   True if this node opened the channel.
+     * @param handler     Handles the messages and requests received.
+     * @param executor    Runs the handler.
+     * @param onClose     Notified once when the channel closes.
+     */
+    PeerChannel(Socket socket, InputStream in, OutputStream out, String peerAddress, boolean initiated,
+                Handler handler, Executor executor, Consumer<PeerChannel> onClose) {
+        this.socket = socket;
+        this.in = in;
+        this.out = out;
+        this.peerAddress = peerAddress;
+        this.initiated = initiated;
+        this.handler = handler;
+        this.executor = executor;
+        this.onClose = onClose;
+    }
+
+    /**
+     * Opens a channel to a peer node and starts reading its frames on the executor.
+     *
+     * @param peerAddress    The peer address of the node to connect to, as {@code host:port}.
+     * @param ownAddress     The peer address of this node.
+     * @param timeoutMillis  The time the connection and the handshake may take, in milliseconds.
+     * @param handler        Handles the messages and requests received.
+     * @param executor       Runs the handler and reads the frames.
+     * @param onClose        Notified once when the channel closes.
+     * @return The open channel.
+     * @throws IOException If the peer cannot be reached or does not answer the handshake.
+     */
+    static PeerChannel connect(String peerAddress, String ownAddress, int timeoutMillis, Handler handler,
+                               Executor executor, Consumer<PeerChannel> onClose) throws IOException {
+        String[] parts = peerAddress.split(":");
+        Socket socket = new Socket();
+        try {
+            socket.connect(new InetSocketAddress(parts[0], Integer.parseInt(parts[1])), timeoutMillis);
+            socket.setTcpNoDelay(true);
+            socket.setSoTimeout(timeoutMillis);
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+            BlockCodec.writeCommand(out, COMMAND);
+            BlockCodec.writeString(out, ownAddress);
+            out.flush();
+            String answered = BlockCodec.readString(in);
+            if (!answered.equals(peerAddress)) {
+                System.out.println("Peer " + peerAddress + " answered the channel handshake as " + answered);
+            }
+            socket.setSoTimeout(0);
+            PeerChannel channel = new PeerChannel(socket, in, out, peerAddress, true, handler, executor, onClose);
+            executor.execute(channel);
+            return channel;
+        } catch (IOException | RuntimeException e) {
+            socket.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Completes the handshake of a channel opened by a peer node, whose {@code CHANNEL} command was read.
+     *
+     * @param socket     The connection to the peer.
+     * @param in         The stream of the connection, positioned after the command.
+     * @param out        The stream of the answers.
+     * @param ownAddress The peer address of this node.
+     * @param handler    Handles the messages and requests received.
+     * @param executor   Runs the handler.
+     * @param onClose    Notified once when the channel closes.
+     * @return The channel, whose frames are read by calling {@link #run()}.
+     * @throws IOException If the handshake is malformed or cannot be answered.
+     */
+    static PeerChannel accept(Socket socket, InputStream in, OutputStream out, String ownAddress, Handler handler,
+                              Executor executor, Consumer<PeerChannel> onClose) throws IOException {
+        String peerAddress = BlockCodec.readString(in);
+        BlockCodec.writeString(out, ownAddress);
+        out.flush();
+        socket.setTcpNoDelay(true);
+        return new PeerChannel(socket, in, out, peerAddress, false, handler, executor, onClose);
+    }
+
+    /**
+     * Sends a message, which the peer handles after the messages sent before it.
+     *
+     * @param command The command.
+     * @param args    The arguments of the command.
+     * @throws IOException If the channel is closed or cannot be written.
+     */
+    void send(String command, Payload args) throws IOException {
+        write(MESSAGE, 0, body(command, args));
+    }
+
+    /**
+     * Sends a request and waits for its response.
+     *
+     * @param command The command.
+     * @param args    The arguments of the command.
+     * @return The response.
+     * @throws IOException If the channel closes or the peer fails before answering, or the response is late.
+     */
+    InputStream request(String command, Payload args) throws IOException {
+        byte[] body = body(command, args);
+        int id = lastRequest.incrementAndGet();
+        CompletableFuture<byte[]> response = new CompletableFuture<>();
+        pending.put(id, response);
+        try {
+            if (closed.get()) {
+                throw new EOFException("Channel to " + peerAddress + " is closed");
+            }
+            write(REQUEST, id, body);
+            return new ByteArrayInputStream(response.get(REQUEST_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+        } catch (TimeoutException e) {
+            throw new SocketTimeoutException("No response from " + peerAddress + " to " + command);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for " + peerAddress);
+        } finally {
+            pending.remove(id);
+            if (retired && pending.isEmpty()) {
+                close();
+            }
+        }
+    }
+
+    /**
+     * Reads the frames of the peer until the channel closes, then closes it.
+     */
+    @Override
+    public void run() {
+        try {
+            int type;
+            while ((type = in.read()) >= 0) {
+                int id = BlockCodec.readLength(in, Integer.MAX_VALUE);
+                byte[] payload = BlockCodec.readBytes(in, MAX_FRAME_BYTES);
+                if (type == MESSAGE) {
+                    deliver(payload);
+                } else if (type == REQUEST) {
+                    executor.execute(() -> answer(id, payload));
+                } else if (type == RESPONSE || type == FAILURE) {
+                    CompletableFuture<byte[]> response = pending.get(id);
+                    if (response != null && type == RESPONSE) {
+                        response.complete(payload);
+                    } else if (response != null) {
+                        response.completeExceptionally(new IOException(peerAddress + " failed to answer: "
+                                + new String(payload, StandardCharsets.UTF_8)));
+                    }
+                } else {
+                    throw new StreamCorruptedException("Unknown frame type " + type);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            if (!closed.get()) {
+                System.out.println("Channel to " + peerAddress + " failed: " + e.getMessage());
+            }
+        } finally {
+            close();
+        }
+    }
+
+    /**
+     * Closes the channel, failing the requests waiting for a response. Does nothing if it is already closed.
+     */
+    void close() {
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            socket.close();
+        } catch (IOException e) {
+            System.out.println("Error closing channel to " + peerAddress + ": " + e.getMessage());
+        }
+        IOException reason = new EOFException("Channel to " + peerAddress + " closed");
+        for (CompletableFuture<byte[]> response : pending.values()) {
+            response.completeExceptionally(reason);
+        }
+        onClose.accept(this);
+    }
+
+    /**
+     * Stops using the channel for new messages and requests, and closes it once the requests sent are answered.
+     */
+    void retire() {
+        retired = true;
+        if (pending.isEmpty()) {
+            close();
+        }
+    }
+
+    /**
+     * Checks whether the channel can carry new messages and requests.
+     *
+     * @return True if the channel is neither closed nor retired.
+     */
+    boolean isOpen() {
+        return !closed.get() && !retired;
+    }
+
+    /**
+     * Retrieves the peer address of the node at the other end.
+     *
+     * @return The peer address.
+     */
+    String getPeerAddress() {
+        return peerAddress;
+    }
+
+    /**
+     * Tells which end opened the channel.
+     *
+     * @return True if this node opened the channel.
+     */
+    boolean isInitiated() {
+        return initiated;
+    }
+
+    /**
+     * Encodes a command and its arguments.
+     *
+     * @param command The command.
+     * @param args    The arguments of the command.
+     * @return The encoded command.
+     * @throws IOException If the arguments cannot be written.
+     */
+    private static byte[] body(String command, Payload args) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        BlockCodec.writeString(body, command);
+        args.write(body);
+        return body.toByteArray();
+    }
+
+    /**
+     * Writes a frame.
+     *
+     * @param type    The type of the frame.
+     * @param id      The request identifier, or zero for a message.
+     * @param payload The payload.
+     * @throws IOException If the channel is closed or cannot be written, in which case it is closed.
+     */
+    private void write(int type, int id, byte[] payload) throws IOException {
+        try {
+            writeLock.lock();
+            try {
+                out.write(type);
+                BlockCodec.writeVarint(out, id);
+                BlockCodec.writeBytes(out, payload);
+                out.flush();
+            } finally {
+                writeLock.unlock();
+            }
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * Queues a message received, starting a task to handle the queue unless one is running.
+     *
+     * @param message The command and arguments of the message.
+     */
+    private void deliver(byte[] message) {
+        synchronized (inbox) {
+            inbox.add(message);
+            if (draining) {
+                return;
+            }
+            draining = true;
+        }
+        executor.execute(this::drain);
+    }
+
+    /**
+     * Handles the messages of the inbox in order until it is empty.
+     */
+    private void drain() {
+        while (true) {
+            byte[] message;
+            synchronized (inbox) {
+                message = inbox.poll();
+                if (message == null) {
+                    draining = false;
+                    return;
+                }
+            }
+            try {
+                InputStream arguments = new ByteArrayInputStream(message);
+                handler.handle(BlockCodec.readString(arguments), arguments, OutputStream.nullOutputStream());
+            } catch (IOException | RuntimeException e) {
+                System.out.println("Error handling message from " + peerAddress + ": " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Handles a request received and sends its response, or the reason it failed.
+     *
+     * @param id      The request identifier.
+     * @param request The command and arguments of the request.
+     */
+    private void answer(int id, byte[] request) {
+        try {
+            InputStream arguments = new ByteArrayInputStream(request);
+            ByteArrayOutputStream response = new ByteArrayOutputStream();
+            try {
+                handler.handle(BlockCodec.readString(arguments), arguments, response);
+            } catch (IOException | RuntimeException e) {
+                write(FAILURE, id, String.valueOf(e.getMessage()).getBytes(StandardCharsets.UTF_8));
+                return;
+            }
+            write(RESPONSE, id, response.toByteArray());
+        } catch (IOException e) {
+            System.out.println("Error answering " + peerAddress + ": " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package blockchain;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters describing the channels a node keeps to its peers, and the traffic they carry.
+ */
+public class PeerChannelMetrics {
+    /**
+     * Number of channels this node opened to its peers.
+     */
+    private final LongAdder opened = new LongAdder();
+    /**
+     * Number of channels peers opened to this node.
+     */
+    private final LongAdder accepted = new LongAdder();
+    /**
+     * Number of attempts to open a channel that failed.
+     */
+    private final LongAdder failedConnections = new LongAdder();
+    /**
+     * Number of channels closed while this node was running.
+     */
+    private final LongAdder closed = new LongAdder();
+    /**
+     * Number of messages sent over channels.
+     */
+    private final LongAdder messages = new LongAdder();
+    /**
+     * Number of requests sent over channels.
+     */
+    private final LongAdder requests = new LongAdder();
+
+    /**
+     * Records a channel opened by this node.
+     */
+    void recordOpened() {
+        opened.increment();
+    }
+
+    /**
+     * Records a channel opened by a peer.
+     */
+    void recordAccepted() {
+        accepted.increment();
+    }
+
+    /**
+     * Records a failed attempt to open a channel.
+     */
+    void recordFailedConnection() {
+        failedConnections.increment();
+    }
+
+    /**
+     * Records a channel closed.
+     */
+    void recordClosed() {
+        closed.increment();
+    }
+
+    /**
+     * Records a message sent.
+     */
+    void recordMessage() {
+        messages.increment();
+    }
+
+    /**
+     * Records a request sent.
+     */
+    void recordRequest() {
+        requests.increment();
+    }
+
+    /**
+     * Retrieves the number of channels this node opened to its peers.
+     *
+     * @return The number of channels opened.
+     */
+    public long getOpened() {
+        return opened.sum();
+    }
+
+    /**
+     * Retrieves the number of channels peers opened to this node.
+     *
+     * @return The number of channels accepted.
+     */
+    public long getAccepted() {
+        return accepted.sum();
+    }
+
+    /**
+     * Retrieves the number of attempts to open a channel that failed.
+     *
+     * @return The number of failed connections.
+     */
+    public long getFailedConnections() {
+        return failedConnections.sum();
+    }
+
+    /**
+     * Retrieves the number of channels closed, by either end.
+     *
+     * @return The number of channels closed.
+     */
+    public long getClosed() {
+        return closed.sum();
+    }
+
+    /**
+     * Retrieves the number of messages, such as new blocks, sent over channels.
+     *
+     * @return The number of messages sent.
+     */
+    public long getMessages() {
+        return messages.sum();
+    }
+
+    /**
+     * Retrieves the number of requests sent over channels.
+     *
+     * @return The number of requests sent.
+     */
+    public long getRequests() {
+        return requests.sum();
+    }
+
+    /**
+     * Returns a string representation of the counters.
+     *
+     * @return A string representation of the counters.
+     */
+    @Override
+    public String toString() {
+        return "PeerChannelMetrics{" +
+                "opened=" + getOpened() +
+                ", accepted=" + getAccepted() +
+                ", failedConnections=" + getFailedConnections() +
+                ", closed=" + getClosed() +
+                ", messages=" + getMessages() +
+                ", requests=" + getRequests() +
+                '}';
+    }
+}
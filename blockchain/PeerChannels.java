@@ -0,0 +1,402 @@
+package blockchain;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ConnectException;
+import java.net.Socket;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Keeps one {@link PeerChannel} open to each peer of a node, reopening it with exponential backoff whenever it closes,
+ * as when the peer is stopped and started again.
+ * <p>
+ * Channels are opened to every peer when the node starts, and are also accepted from peers. When two nodes open a
+ * channel to each other at once, both keep the one opened by the node whose peer address sorts first and retire the
+ * other, so that a pair of nodes ends up sharing a single channel in both directions. While a peer cannot be reached,
+ * messages and requests to it fail at once, without a connection attempt, until its backoff delay has elapsed; a
+ * background task keeps retrying in the meantime, so the channel is reopened soon after the peer comes back.
+ */
+final class PeerChannels {
+    /**
+     * Delay before the first attempt to reopen a channel, in milliseconds, doubled after each failed attempt.
+     */
+    private static final long INITIAL_BACKOFF_MILLIS = 50;
+    /**
+     * Time a connection and its handshake may take, in milliseconds.
+     */
+    private static final int CONNECT_TIMEOUT_MILLIS = 1_000;
+
+    /**
+     * The state of the channel to one peer, guarded by its lock.
+     */
+    private static final class Peer {
+        /**
+         * The peer address of the peer.
+         */
+        private final String address;
+        /**
+         * Guards the state of the peer, and is held while connecting to it. A lock rather than a monitor, so that a
+         * virtual thread connecting to the peer does not pin its carrier thread.
+         */
+        private final ReentrantLock lock = new ReentrantLock();
+        /**
+         * The channel messages and requests to the peer are sent over, or null if there is none.
+         */
+        private PeerChannel channel;
+        /**
+         * The delay between the last failed attempt to reach the peer and the next, in milliseconds.
+         */
+        private long backoffMillis;
+        /**
+         * The time before which no attempt is made to reach the peer, in milliseconds since the epoch.
+         */
+        private long nextAttempt;
+        /**
+         * True while a background attempt to reach the peer is scheduled.
+         */
+        private boolean reconnecting;
+
+        /**
+         * Creates the state of a peer that has not been reached yet.
+         *
+         * @param address The peer address of the peer.
+         */
+        private Peer(String address) {
+            this.address = address;
+        }
+    }
+
+    /**
+     * The peer address of this node.
+     */
+    private final String ownAddress;
+    /**
+     * The state of each peer, by peer address.
+     */
+    private final Map<String, Peer> peers = new HashMap<>();
+    /**
+     * Handles the messages and requests received.
+     */
+    private final PeerChannel.Handler handler;
+    /**
+     * Reads the channels and runs the handler.
+     */
+    private final ExecutorService executor;
+    /**
+     * Runs the background attempts to reach peers.
+     */
+    private final ScheduledExecutorService reconnector = Executors.newSingleThreadScheduledExecutor();
+    /**
+     * The longest delay between two attempts to reach a peer, in milliseconds.
+     */
+    private final long maxBackoffMillis;
+    /**
+     * The counters of the channels.
+     */
+    private final PeerChannelMetrics metrics;
+    /**
+     * Every channel not closed yet, including those accepted but not used to send.
+     */
+    private final Set<PeerChannel> channels = ConcurrentHashMap.newKeySet();
+    /**
+     * True once the channels are closed for good.
+     */
+    private volatile boolean closed;
+
+    /**
+     * Creates the channels of a node, without opening them.
+     *
+     * @param peerAddresses    The peer addresses of all nodes.
+     * @param ownAddress       The peer address of this node, which is not a peer.
+     * @param handler          Handles the messages and requests received.
+     * @param executor         Reads the channels and runs the handler.
+     * @param maxBackoffMillis The longest delay between two attempts to reach a peer, in milliseconds.
+     * @param metrics          The counters of the channels.
+     */
+    PeerChannels(List<String> peerAddresses, String ownAddress, PeerChannel.Handler handler, ExecutorService executor,
+                 long maxBackoffMillis, PeerChannelMetrics metrics) {
+        this.ownAddress = ownAddress;
+        this.handler = handler;
+        this.executor = executor;
+        this.maxBackoffMillis = Math.max(INITIAL_BACKOFF_MILLIS, maxBackoffMillis);
+        this.metrics = metrics;
+        for (String address : peerAddresses) {
+            if (!address.equals(ownAddress)) {
+                peers.put(address, new Peer(address));
+            }
+        }
+    }
+
+    /**
+     * Starts opening a channel to every peer in the background.
+     */
+    void open() {
+        for (Peer peer : peers.values()) {
+            peer.lock.lock();
+            try {
+                scheduleReconnect(peer);
+            } finally {
+                peer.lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Sends a message to a peer.
+     *
+     * @param address The peer address of the peer.
+     * @param command The command.
+     * @param args    The arguments of the command.
+     * @throws IOException If the peer cannot be reached or the channel fails.
+     */
+    void send(String address, String command, PeerChannel.Payload args) throws IOException {
+        channel(address).send(command, args);
+        metrics.recordMessage();
+    }
+
+    /**
+     * Sends a request to a peer and waits for its response.
+     *
+     * @param address The peer address of the peer.
+     * @param command The command.
+     * @param args    The arguments of the command.
+     * @return The response.
+     * @throws IOException If the peer cannot be reached, the channel fails or the peer does not answer in time.
+     */
+    InputStream request(String address, String command, PeerChannel.Payload args) throws IOException {
+        PeerChannel channel = channel(address);
+        metrics.recordRequest();
+        return channel.request(command, args);
+    }
+
+    /**
+     * Takes over a connection on which a peer opened a channel, and reads its frames until it closes.
+     *
+     * @param socket The connection.
+     * @param in     The stream of the connection, positioned after the {@code CHANNEL} command.
+     * @param out    The stream of the answers.
+     * @throws IOException If the handshake is malformed or cannot be answered.
+     */
+    void accept(Socket socket, InputStream in, OutputStream out) throws IOException {
+        PeerChannel channel = PeerChannel.accept(socket, in, out, ownAddress, handler, executor, this::closed);
+        channels.add(channel);
+        metrics.recordAccepted();
+        Peer peer = peers.get(channel.getPeerAddress());
+        if (peer != null) {
+            peer.lock.lock();
+            try {
+                adopt(peer, channel);
+            } finally {
+                peer.lock.unlock();
+            }
+        }
+        if (closed) {
+            channel.close();
+        }
+        channel.run();
+    }
+
+    /**
+     * Closes the channel to a peer, which fails the messages and requests in progress on it, such as a send that
+     * exceeded its timeout. The channel is reopened by the next message.
+     *
+     * @param address The peer address of the peer.
+     */
+    void abort(String address) {
+        Peer peer = peers.get(address);
+        if (peer == null) {
+            return;
+        }
+        PeerChannel channel;
+        peer.lock.lock();
+        try {
+            channel = peer.channel;
+        } finally {
+            peer.lock.unlock();
+        }
+        if (channel != null) {
+            System.out.println("Aborting channel to " + address);
+            channel.close();
+        }
+    }
+
+    /**
+     * Closes every channel and stops reopening them.
+     */
+    void close() {
+        closed = true;
+        reconnector.shutdownNow();
+        for (PeerChannel channel : channels) {
+            channel.close();
+        }
+    }
+
+    /**
+     * Finds the open channel to a peer, opening one if there is none and the backoff delay of the peer has elapsed.
+     *
+     * @param address The peer address of the peer.
+     * @return The channel.
+     * @throws IOException If the address is not a peer, or the peer cannot be reached.
+     */
+    private PeerChannel channel(String address) throws IOException {
+        Peer peer = peers.get(address);
+        if (peer == null) {
+            throw new IOException("Unknown peer " + address);
+        }
+        peer.lock.lock();
+        try {
+            if (peer.channel != null && peer.channel.isOpen()) {
+                return peer.channel;
+            }
+            long wait = peer.nextAttempt - System.currentTimeMillis();
+            if (closed || wait > 0) {
+                throw new ConnectException("Peer " + address + " unreachable, next attempt in " + wait + " ms");
+            }
+            return connect(peer);
+        } finally {
+            peer.lock.unlock();
+        }
+    }
+
+    /**
+     * Opens a channel to a peer, or backs off if it cannot be reached. Must be called holding the lock of the peer.
+     *
+     * @param peer The peer.
+     * @return The channel.
+     * @throws IOException If the peer cannot be reached.
+     */
+    private PeerChannel connect(Peer peer) throws IOException {
+        try {
+            PeerChannel channel = PeerChannel.connect(peer.address, ownAddress, CONNECT_TIMEOUT_MILLIS, handler,
+                    executor, this::closed);
+            channels.add(channel);
+            metrics.recordOpened();
+            if (closed) {
+                channel.close();
+            }
+            adopt(peer, channel);
+            return channel;
+        } catch (IOException | RejectedExecutionException e) {
+            metrics.recordFailedConnection();
+            peer.backoffMillis = peer.backoffMillis == 0 ? INITIAL_BACKOFF_MILLIS
+                    : Math.min(2 * peer.backoffMillis, maxBackoffMillis);
+            peer.nextAttempt = System.currentTimeMillis() + peer.backoffMillis;
+            scheduleReconnect(peer);
+            throw e instanceof IOException ? (IOException) e : new IOException(e);
+        }
+    }
+
+    /**
+     * Makes a channel the one used to reach its peer, unless the peer already has an open channel that both nodes
+     * prefer. Must be called holding the lock of the peer.
+     *
+     * @param peer    The peer.
+     * @param channel The new channel.
+     */
+    private void adopt(Peer peer, PeerChannel channel) {
+        PeerChannel current = peer.channel;
+        if (current != null && current.isOpen() && current != channel && !prefers(channel, current)) {
+            // The peer makes the same choice and retires the new channel itself
+            return;
+        }
+        peer.channel = channel;
+        peer.backoffMillis = 0;
+        peer.nextAttempt = 0;
+        if (current != null && current != channel) {
+            current.retire();
+        }
+    }
+
+    /**
+     * Chooses between two open channels to the same peer the same way the peer does.
+     *
+     * @param channel The new channel.
+     * @param current The channel in use.
+     * @return True if the new channel should replace the one in use.
+     */
+    private boolean prefers(PeerChannel channel, PeerChannel current) {
+        String opener = channel.isInitiated() ? ownAddress : channel.getPeerAddress();
+        String currentOpener = current.isInitiated() ? ownAddress : current.getPeerAddress();
+        // A node reopening its channel replaces the old one, which the other end may not have seen fail yet
+        return opener.equals(currentOpener) || opener.compareTo(currentOpener) < 0;
+    }
+
+    /**
+     * Forgets a closed channel, and starts reopening it if it was the one used to reach its peer.
+     *
+     * @param channel The closed channel.
+     */
+    private void closed(PeerChannel channel) {
+        channels.remove(channel);
+        metrics.recordClosed();
+        Peer peer = peers.get(channel.getPeerAddress());
+        if (peer == null) {
+            return;
+        }
+        peer.lock.lock();
+        try {
+            if (peer.channel == channel) {
+                peer.channel = null;
+                if (!closed) {
+                    System.out.println("Lost channel to " + peer.address + ", reconnecting");
+                    peer.nextAttempt = System.currentTimeMillis() + INITIAL_BACKOFF_MILLIS;
+                    scheduleReconnect(peer);
+                }
+            }
+        } finally {
+            peer.lock.unlock();
+        }
+    }
+
+    /**
+     * Schedules a background attempt to reach a peer once its backoff delay has elapsed, unless one is scheduled.
+     * Must be called holding the lock of the peer.
+     *
+     * @param peer The peer.
+     */
+    private void scheduleReconnect(Peer peer) {
+        if (peer.reconnecting || closed) {
+            return;
+        }
+        peer.reconnecting = true;
+        try {
+            reconnector.schedule(() -> reconnect(peer),
+                    Math.max(0, peer.nextAttempt - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            peer.reconnecting = false;
+        }
+    }
+
+    /**
+     * Attempts to reach a peer in the background, unless it has an open channel by now.
+     *
+     * @param peer The peer.
+     */
+    private void reconnect(Peer peer) {
+        peer.lock.lock();
+        try {
+            peer.reconnecting = false;
+            if (closed || (peer.channel != null && peer.channel.isOpen())) {
+                return;
+            }
+            try {
+                connect(peer);
+            } catch (IOException e) {
+                // The next attempt is already scheduled
+            }
+        } finally {
+            peer.lock.unlock();
+        }
+    }
+}
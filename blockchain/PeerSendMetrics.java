@@ -0,0 +1,198 @@
+package blockchain;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters describing the blocks a node announces to one peer through its outbound queue.
+ */
+public class PeerSendMetrics {
+    /**
+     * Number of announcements waiting in the queue.
+     */
+    private final AtomicInteger queueDepth = new AtomicInteger();
+    /**
+     * Largest number of announcements the queue has held at once.
+     */
+    private final LongAccumulator maxQueueDepth = new LongAccumulator(Math::max, 0);
+    /**
+     * Number of announcements sent.
+     */
+    private final LongAdder sent = new LongAdder();
+    /**
+     * Number of queued announcements dropped because a newer tip left their block off the best chain.
+     */
+    private final LongAdder coalesced = new LongAdder();
+    /**
+     * Number of queued announcements dropped because the queue was full.
+     */
+    private final LongAdder dropped = new LongAdder();
+    /**
+     * Number of attempts to send an announcement that failed.
+     */
+    private final LongAdder failures = new LongAdder();
+    /**
+     * Number of sends aborted because they exceeded the send timeout.
+     */
+    private final LongAdder timeouts = new LongAdder();
+    /**
+     * Total time between queueing and sending the announcements sent, in nanoseconds.
+     */
+    private final LongAdder latencyNanos = new LongAdder();
+    /**
+     * Longest time between queueing and sending an announcement, in nanoseconds.
+     */
+    private final LongAccumulator maxLatencyNanos = new LongAccumulator(Math::max, 0);
+
+    /**
+     * Records the number of announcements now waiting in the queue.
+     *
+     * @param depth The number of queued announcements.
+     */
+    void recordQueueDepth(int depth) {
+        queueDepth.set(depth);
+        maxQueueDepth.accumulate(depth);
+    }
+
+    /**
+     * Records an announcement sent.
+     *
+     * @param latencyNanos The time between queueing and sending it, in nanoseconds.
+     */
+    void recordSent(long latencyNanos) {
+        sent.increment();
+        this.latencyNanos.add(latencyNanos);
+        maxLatencyNanos.accumulate(latencyNanos);
+    }
+
+    /**
+     * Records a queued announcement superseded by a newer tip.
+     */
+    void recordCoalesced() {
+        coalesced.increment();
+    }
+
+    /**
+     * Records a queued announcement dropped from a full queue.
+     */
+    void recordDropped() {
+        dropped.increment();
+    }
+
+    /**
+     * Records a failed attempt to send an announcement.
+     */
+    void recordFailure() {
+        failures.increment();
+    }
+
+    /**
+     * Records a send aborted after the send timeout.
+     */
+    void recordTimeout() {
+        timeouts.increment();
+    }
+
+    /**
+     * Retrieves the number of announcements waiting in the queue.
+     *
+     * @return The queue depth.
+     */
+    public int getQueueDepth() {
+        return queueDepth.get();
+    }
+
+    /**
+     * Retrieves the largest number of announcements the queue has held at once.
+     *
+     * @return The largest queue depth.
+     */
+    public long getMaxQueueDepth() {
+        return maxQueueDepth.get();
+    }
+
+    /**
+     * Retrieves the number of announcements sent.
+     *
+     * @return The number of announcements sent.
+     */
+    public long getSent() {
+        return sent.sum();
+    }
+
+    /**
+     * Retrieves the number of queued announcements dropped because a newer tip left their block off the best chain.
+     *
+     * @return The number of coalesced announcements.
+     */
+    public long getCoalesced() {
+        return coalesced.sum();
+    }
+
+    /**
+     * Retrieves the number of queued announcements dropped because the queue was full.
+     *
+     * @return The number of dropped announcements.
+     */
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    /**
+     * Retrieves the number of attempts to send an announcement that failed, and were retried.
+     *
+     * @return The number of failed attempts.
+     */
+    public long getFailures() {
+        return failures.sum();
+    }
+
+    /**
+     * Retrieves the number of sends aborted because they exceeded the send timeout.
+     *
+     * @return The number of timeouts.
+     */
+    public long getTimeouts() {
+        return timeouts.sum();
+    }
+
+    /**
+     * Retrieves the average time between queueing and sending an announcement, retries included.
+     *
+     * @return The average send latency in milliseconds, or zero if nothing was sent.
+     */
+    public double getAverageLatencyMillis() {
+        long count = sent.sum();
+        return count == 0 ? 0 : latencyNanos.sum() / 1e6 / count;
+    }
+
+    /**
+     * Retrieves the longest time between queueing and sending an announcement, retries included.
+     *
+     * @return The longest send latency in milliseconds.
+     */
+    public double getMaxLatencyMillis() {
+        return maxLatencyNanos.get() / 1e6;
+    }
+
+    /**
+     * Returns a string representation of the counters.
+     *
+     * @return A string representation of the counters.
+     */
+    @Override
+    public String toString() {
+        return "PeerSendMetrics{" +
+                "queueDepth=" + getQueueDepth() +
+                ", maxQueueDepth=" + getMaxQueueDepth() +
+                ", sent=" + getSent() +
+                ", coalesced=" + getCoalesced() +
+                ", dropped=" + getDropped() +
+                ", failures=" + getFailures() +
+                ", timeouts=" + getTimeouts() +
+                ", averageLatencyMillis=" + String.format("%.3f", getAverageLatencyMillis()) +
+                ", maxLatencyMillis=" + String.format("%.3f", getMaxLatencyMillis()) +
+                '}';
+    }
+}
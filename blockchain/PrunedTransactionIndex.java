@@ -0,0 +1,86 @@
+package blockchain;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Keeps the height of every confirmed transaction under a 64-bit fingerprint, so that transactions stay indexed after
+ * the bodies of their blocks are pruned.
+ * <p>
+ * Fingerprints are the first eight bytes of the SHA-256 digest of a transaction, and live with their heights in a
+ * {@link FingerprintTable}, about twenty bytes per transaction however long the transaction. A
+ * lookup that lands on a block still holding its body is checked against its transactions; one that lands on a pruned
+ * block is trusted to the fingerprint, whose chance of a false match is the number of transactions divided by 2^64.
+ * The index cannot learn the transactions of a block that is already pruned, so it must be installed, or rebuilt,
+ * while every block still has its body.
+ * <p>
+ * Changes are made by the single thread changing the chain and lookups may come from any thread, so every method
+ * holds the monitor of the index.
+ */
+final class PrunedTransactionIndex implements TransactionIndex {
+    /**
+     * The height of the block confirming every transaction, indexed by fingerprint.
+     */
+    private final FingerprintTable heights = new FingerprintTable();
+
+    @Override
+    public synchronized void add(Block block, int height) {
+        for (String transaction : block.getTransactions()) {
+            heights.put(fingerprint(transaction), height);
+        }
+    }
+
+    @Override
+    public synchronized void remove(Block block, List<Block> blocks) {
+        if (block.isPruned()) {
+            // The transactions of the block are unknown, so forget everything above the remaining chain
+            heights.retainBelow(blocks.size());
+            return;
+        }
+        for (String transaction : block.getTransactions()) {
+            heights.remove(fingerprint(transaction), blocks.size());
+        }
+    }
+
+    @Override
+    public synchronized void rebuild(List<Block> blocks) {
+        heights.clear();
+        for (int height = 0; height < blocks.size(); height++) {
+            add(blocks.get(height), height);
+        }
+    }
+
+    @Override
+    public synchronized Block find(String transaction, List<Block> blocks) {
+        int height = heights.get(fingerprint(transaction));
+        if (height == -1 || height >= blocks.size()) {
+            return null;
+        }
+        Block block = blocks.get(height);
+        return block.isPruned() || block.getTransactions().contains(transaction) ? block : null;
+    }
+
+    /**
+     * Retrieves the memory used by the table.
+     *
+     * @return The size of the fingerprint table, in bytes.
+     */
+    synchronized long bytes() {
+        return heights.bytes();
+    }
+
+    /**
+     * Computes the fingerprint of a transaction.
+     *
+     * @param transaction The transaction.
+     * @return The first eight bytes of its SHA-256 digest.
+     */
+    private static long fingerprint(String transaction) {
+        byte[] digest = MiningKernel.threadDigest().digest(transaction.getBytes(StandardCharsets.UTF_8));
+        long fingerprint = 0;
+        for (int i = 0; i < Long.BYTES; i++) {
+            fingerprint = (fingerprint << 8) | (digest[i] & 0xFF);
+        }
+        return fingerprint;
+    }
+}
@@ -0,0 +1,392 @@
+package blockchain;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A scalable Bloom filter of strings within a memory budget.
+ * <p>
+ * The filter is a series of slices. Once a slice holds as many elements as it was sized for, a new one is added with
+ * twice the capacity and half the false positive rate, so the overall rate stays below the target however many
+ * elements are added (Almeida et al., "Scalable Bloom Filters"). When the next slice would not fit in the memory budget,
+ * the last slice that fits is sized from the remaining memory, and past that point elements keep going into the last
+ * slice: the filter then stays within budget and never gives false negatives, but its false positive rate rises.
+ * <p>
+ * Elements are added by a single thread; {@link #mightContain(String)} may be called concurrently from any thread.
+ */
+final class ScalableBloomFilter {
+    /**
+     * Number of elements the first slice is sized for.
+     */
+    private static final int INITIAL_CAPACITY = 4096;
+    /**
+     * Factor between the false positive rates of two consecutive slices.
+     */
+    private static final double TIGHTENING_RATIO = 0.5;
+    /**
+     * Smallest slice worth allocating, in bytes.
+     */
+    private static final int MIN_SLICE_BYTES = 64;
+    /**
+     * The square of the natural logarithm of two.
+     */
+    private static final double LN2_SQUARED = Math.log(2) * Math.log(2);
+    /**
+     * Largest number of slices or of bits set per element accepted from a filter read back, well above what a filter
+     * within any budget reaches as each slice doubles the capacity of the previous one.
+     */
+    private static final int MAX_SLICES = 64;
+
+    /**
+     * The slices, oldest first. Replaced as a whole when a slice is added.
+     */
+    private volatile Slice[] slices = new Slice[0];
+    /**
+     * False positive rate the filter is sized for.
+     */
+    private final double falsePositiveRate;
+    /**
+     * Largest total size of the slices, in bytes.
+     */
+    private final long maxBytes;
+    /**
+     * Total size of the slices, in bytes.
+     */
+    private long bytes;
+    /**
+     * Number of elements added.
+     */
+    private long count;
+
+    /**
+     * Creates an empty filter.
+     *
+     * @param falsePositiveRate The target false positive rate, strictly between zero and one.
+     * @param maxBytes          The memory budget of the bit arrays, in bytes.
+     */
+    ScalableBloomFilter(double falsePositiveRate, long maxBytes) {
+        if (!(falsePositiveRate > 0 && falsePositiveRate < 1)) {
+            throw new IllegalArgumentException("False positive rate must be between 0 and 1: " + falsePositiveRate);
+        }
+        if (maxBytes < MIN_SLICE_BYTES) {
+            throw new IllegalArgumentException("Memory budget must be at least " + MIN_SLICE_BYTES + " bytes: " + maxBytes);
+        }
+        this.falsePositiveRate = falsePositiveRate;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Adds an element.
+     *
+     * @param element The element.
+     */
+    void add(String element) {
+        Slice[] current = slices;
+        Slice last = current.length == 0 ? null : current[current.length - 1];
+        if (last == null || last.count >= last.capacity) {
+            Slice next = newSlice(current.length);
+            if (next != null) {
+                Slice[] grown = new Slice[current.length + 1];
+                System.arraycopy(current, 0, grown, 0, current.length);
+                grown[current.length] = next;
+                slices = grown;
+                last = next;
+            }
+        }
+        long hash = hash(element);
+        last.set(hash, mix(hash) | 1);
+        last.count++;
+        count++;
+    }
+
+    /**
+     * Checks whether an element may have been added.
+     *
+     * @param element The element.
+     * @return False if the element was definitely never added, true if it probably was.
+     */
+    boolean mightContain(String element) {
+        long hash = hash(element);
+        long step = mix(hash) | 1;
+        for (Slice slice : slices) {
+            if (slice.get(hash, step)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Copies the filter, so that the copy can be read by another thread while elements keep being added to this one.
+     * Must be called by the thread adding elements.
+     *
+     * @return A filter holding the same elements, with the same parameters.
+     */
+    ScalableBloomFilter copy() {
+        ScalableBloomFilter copy = new ScalableBloomFilter(falsePositiveRate, maxBytes);
+        Slice[] current = slices;
+        Slice[] copied = new Slice[current.length];
+        for (int i = 0; i < current.length; i++) {
+            copied[i] = current[i].copy();
+        }
+        copy.slices = copied;
+        copy.bytes = bytes;
+        copy.count = count;
+        return copy;
+    }
+
+    /**
+     * Retrieves the number of elements added.
+     *
+     * @return The number of elements.
+     */
+    long count() {
+        return count;
+    }
+
+    /**
+     * Retrieves the memory used by the bit arrays.
+     *
+     * @return The size of the slices, in bytes.
+     */
+    long bytes() {
+        return bytes;
+    }
+
+    /**
+     * Writes the parameters and bits of the filter in a fixed binary form, for example to digest them.
+     *
+     * @param out The stream to write to.
+     * @throws IOException If the stream cannot be written.
+     */
+    void writeTo(DataOutputStream out) throws IOException {
+        out.writeDouble(falsePositiveRate);
+        out.writeLong(maxBytes);
+        out.writeLong(count);
+        Slice[] current = slices;
+        out.writeInt(current.length);
+        for (Slice slice : current) {
+            out.writeInt(slice.hashes);
+            out.writeLong(slice.capacity);
+            out.writeLong(slice.count);
+            out.writeInt(slice.words.length());
+            for (int i = 0; i < slice.words.length(); i++) {
+                out.writeLong(slice.words.get(i));
+            }
+        }
+    }
+
+    /**
+     * Reads a filter written by {@link #writeTo(DataOutputStream)}, checking its parameters before allocating its
+     * slices.
+     *
+     * @param in       The stream to read from.
+     * @param maxBytes The largest memory budget accepted for the filter, in bytes.
+     * @return The filter.
+     * @throws IOException If the stream cannot be read or ends early, or does not hold a consistent filter within
+     *                     the budget.
+     */
+    static ScalableBloomFilter readFrom(DataInputStream in, long maxBytes) throws IOException {
+        double falsePositiveRate = in.readDouble();
+        long budget = in.readLong();
+        if (!(falsePositiveRate > 0 && falsePositiveRate < 1) || budget < MIN_SLICE_BYTES || budget > maxBytes) {
+            throw new StreamCorruptedException("Invalid filter parameters: " + falsePositiveRate + ", " + budget);
+        }
+        ScalableBloomFilter filter = new ScalableBloomFilter(falsePositiveRate, budget);
+        long count = in.readLong();
+        int sliceCount = in.readInt();
+        if (count < 0 || sliceCount < 0 || sliceCount > MAX_SLICES) {
+            throw new StreamCorruptedException("Invalid filter of " + count + " elements in " + sliceCount + " slices");
+        }
+        Slice[] slices = new Slice[sliceCount];
+        long sliceElements = 0;
+        for (int i = 0; i < sliceCount; i++) {
+            int hashes = in.readInt();
+            long capacity = in.readLong();
+            long elements = in.readLong();
+            int words = in.readInt();
+            if (hashes < 1 || hashes > MAX_SLICES || capacity < 1 || elements < 0 || words < 1
+                    || (long) words * Long.BYTES > budget - filter.bytes) {
+                throw new StreamCorruptedException("Invalid filter slice " + i);
+            }
+            Slice slice = new Slice(words, hashes, capacity);
+            for (int word = 0; word < words; word++) {
+                slice.words.set(word, in.readLong());
+            }
+            slice.count = elements;
+            slices[i] = slice;
+            filter.bytes += (long) words * Long.BYTES;
+            sliceElements += elements;
+        }
+        if (sliceElements != count) {
+            throw new StreamCorruptedException("Filter counts " + count + " elements, its slices " + sliceElements);
+        }
+        filter.slices = slices;
+        filter.count = count;
+        return filter;
+    }
+
+    /**
+     * Estimates the current false positive rate from the fill of every slice.
+     *
+     * @return The probability that an element never added is reported as present.
+     */
+    double expectedFalsePositiveRate() {
+        double allNegative = 1;
+        for (Slice slice : slices) {
+            double fill = 1 - Math.exp(-(double) slice.hashes * slice.count / slice.bits);
+            allNegative *= 1 - Math.pow(fill, slice.hashes);
+        }
+        return 1 - allNegative;
+    }
+
+    /**
+     * Sizes the slice following {@code index} existing ones, within the remaining budget.
+     *
+     * @param index The number of existing slices.
+     * @return The new slice, or null if the budget does not allow another one.
+     */
+    private Slice newSlice(int index) {
+        double rate = falsePositiveRate * (1 - TIGHTENING_RATIO) * Math.pow(TIGHTENING_RATIO, index);
+        long capacity = (long) INITIAL_CAPACITY << Math.min(index, 32);
+        long bits = (long) Math.ceil(-capacity * Math.log(rate) / LN2_SQUARED);
+        long remainingBits = (maxBytes - bytes) * Byte.SIZE;
+        if (bits > remainingBits) {
+            if (remainingBits < MIN_SLICE_BYTES * Byte.SIZE) {
+                return null;
+            }
+            bits = remainingBits;
+            capacity = Math.max(1, (long) (bits * LN2_SQUARED / -Math.log(rate)));
+        }
+        int words = (int) Math.min(Integer.MAX_VALUE, (bits + Long.SIZE - 1) / Long.SIZE);
+        int hashes = Math.max(1, (int) Math.ceil(-Math.log(rate) / Math.log(2)));
+        bytes += (long) words * Long.BYTES;
+        return new Slice(words, hashes, capacity);
+    }
+
+    /**
+     * Computes a 64-bit hash of a string with FNV-1a over its characters, followed by a finalizer.
+     *
+     * @param element The string.
+     * @return The hash.
+     */
+    private static long hash(String element) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < element.length(); i++) {
+            hash ^= element.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return mix(hash);
+    }
+
+    /**
+     * Scrambles the bits of a 64-bit value (the MurmurHash3 finalizer).
+     *
+     * @param value The value.
+     * @return The scrambled value.
+     */
+    private static long mix(long value) {
+        value ^= value >>> 33;
+        value *= 0xff51afd7ed558ccdL;
+        value ^= value >>> 33;
+        value *= 0xc4ceb9fe1a85ec53L;
+        value ^= value >>> 33;
+        return value;
+    }
+
+    /**
+     * One fixed-size Bloom filter of the series, probed by double hashing.
+     */
+    private static final class Slice {
+        /**
+         * The bit array.
+         */
+        private final AtomicLongArray words;
+        /**
+         * The number of bits of the array.
+         */
+        private final long bits;
+        /**
+         * The number of bits set per element.
+         */
+        private final int hashes;
+        /**
+         * The number of elements the slice is sized for.
+         */
+        private final long capacity;
+        /**
+         * The number of elements added to the slice.
+         */
+        private long count;
+
+        /**
+         * Creates an empty slice.
+         *
+         * @param words    The number of 64-bit words of the bit array.
+         * @param hashes   The number of bits set per element.
+         * @param capacity The number of elements the slice is sized for.
+         */
+        private Slice(int words, int hashes, long capacity) {
+            this.words = new AtomicLongArray(words);
+            this.bits = (long) words * Long.SIZE;
+            this.hashes = hashes;
+            this.capacity = capacity;
+        }
+
+        /**
+         * Copies the slice.
+         *
+         * @return A slice with the same bits, parameters and count.
+         */
+        private Slice copy() {
+            Slice copy = new Slice(words.length(), hashes, capacity);
+            for (int i = 0; i < words.length(); i++) {
+                copy.words.set(i, words.get(i));
+            }
+            copy.count = count;
+            return copy;
+        }
+
+        /**
+         * Sets the bits of an element.
+         *
+         * @param hash The hash of the element.
+         * @param step The increment between two probes.
+         */
+        private void set(long hash, long step) {
+            long probe = hash;
+            for (int i = 0; i < hashes; i++) {
+                long bit = Long.remainderUnsigned(probe, bits);
+                int word = (int) (bit >>> 6);
+                long mask = 1L << bit;
+                long value = words.get(word);
+                if ((value & mask) == 0) {
+                    words.set(word, value | mask);
+                }
+                probe += step;
+            }
+        }
+
+        /**
+         * Checks the bits of an element.
+         *
+         * @param hash The hash of the element.
+         * @param step The increment between two probes.
+         * @return True if every bit of the element is set.
+         */
+        private boolean get(long hash, long step) {
+            long probe = hash;
+            for (int i = 0; i < hashes; i++) {
+                long bit = Long.remainderUnsigned(probe, bits);
+                if ((words.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+                    return false;
+                }
+                probe += step;
+            }
+            return true;
+        }
+    }
+}
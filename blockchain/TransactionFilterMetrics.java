@@ -0,0 +1,123 @@
+package blockchain;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters describing how well the confirmed-transaction filter of a chain answers lookups.
+ * <p>
+ * A lookup either ends at the filter, which proves the transaction unconfirmed, or falls through to an exact search of
+ * the blocks, which either finds the transaction or reveals a false positive of the filter.
+ */
+public class TransactionFilterMetrics {
+    /**
+     * Number of lookups the filter answered alone.
+     */
+    private final LongAdder definiteMisses = new LongAdder();
+    /**
+     * Number of lookups confirmed by the exact search.
+     */
+    private final LongAdder confirmedHits = new LongAdder();
+    /**
+     * Number of lookups the filter let through but the exact search did not confirm.
+     */
+    private final LongAdder falsePositives = new LongAdder();
+    /**
+     * Number of times the filter was rebuilt from the chain.
+     */
+    private final LongAdder rebuilds = new LongAdder();
+
+    /**
+     * Records a lookup answered by the filter alone.
+     */
+    void recordDefiniteMiss() {
+        definiteMisses.increment();
+    }
+
+    /**
+     * Records a lookup that fell through to the exact search.
+     *
+     * @param confirmed True if the exact search found the transaction.
+     */
+    void recordProbableHit(boolean confirmed) {
+        (confirmed ? confirmedHits : falsePositives).increment();
+    }
+
+    /**
+     * Records a rebuild of the filter.
+     */
+    void recordRebuild() {
+        rebuilds.increment();
+    }
+
+    /**
+     * Retrieves the number of lookups.
+     *
+     * @return The number of lookups.
+     */
+    public long getLookups() {
+        return definiteMisses.sum() + confirmedHits.sum() + falsePositives.sum();
+    }
+
+    /**
+     * Retrieves the number of lookups the filter answered without searching the blocks.
+     *
+     * @return The number of definite misses.
+     */
+    public long getDefiniteMisses() {
+        return definiteMisses.sum();
+    }
+
+    /**
+     * Retrieves the number of lookups that found a confirmed transaction.
+     *
+     * @return The number of confirmed hits.
+     */
+    public long getConfirmedHits() {
+        return confirmedHits.sum();
+    }
+
+    /**
+     * Retrieves the number of lookups that searched the blocks in vain.
+     *
+     * @return The number of false positives.
+     */
+    public long getFalsePositives() {
+        return falsePositives.sum();
+    }
+
+    /**
+     * Retrieves the share of lookups of unconfirmed transactions that the filter could not answer alone.
+     *
+     * @return The observed false positive rate, or zero before any such lookup.
+     */
+    public double getObservedFalsePositiveRate() {
+        long misses = definiteMisses.sum();
+        long positives = falsePositives.sum();
+        return misses + positives == 0 ? 0 : (double) positives / (misses + positives);
+    }
+
+    /**
+     * Retrieves the number of times the filter was rebuilt from the chain.
+     *
+     * @return The number of rebuilds.
+     */
+    public long getRebuilds() {
+        return rebuilds.sum();
+    }
+
+    /**
+     * Returns a string representation of the counters.
+     *
+     * @return A string representation of the counters.
+     */
+    @Override
+    public String toString() {
+        return "TransactionFilterMetrics{" +
+                "lookups=" + getLookups() +
+                ", definiteMisses=" + getDefiniteMisses() +
+                ", confirmedHits=" + getConfirmedHits() +
+                ", falsePositives=" + getFalsePositives() +
+                ", rebuilds=" + getRebuilds() +
+                '}';
+    }
+}
@@ -0,0 +1,42 @@
+package blockchain;
+
+import java.util.List;
+
+/**
+ * Maps confirmed transactions to the block of the chain that contains them, for a {@link BlockStore}.
+ * <p>
+ * Changes are made by the single thread changing the chain; {@link #find(String, List)} may be called from any thread.
+ */
+interface TransactionIndex {
+    /**
+     * Records the transactions of a block appended to the chain.
+     *
+     * @param block  The appended block.
+     * @param height The height of the block.
+     */
+    void add(Block block, int height);
+
+    /**
+     * Forgets the transactions of a block removed from the chain.
+     *
+     * @param block  The removed block.
+     * @param blocks The blocks of the chain once the block is removed, for indexes that may rebuild themselves.
+     */
+    void remove(Block block, List<Block> blocks);
+
+    /**
+     * Replaces the content of the index with the transactions of the given blocks.
+     *
+     * @param blocks The blocks of the chain, starting with the genesis block.
+     */
+    void rebuild(List<Block> blocks);
+
+    /**
+     * Finds the block confirming a transaction.
+     *
+     * @param transaction The transaction to look up.
+     * @param blocks      The blocks of the chain, for indexes that do not keep the answer themselves.
+     * @return The block of the chain containing the transaction, or null if it is not confirmed.
+     */
+    Block find(String transaction, List<Block> blocks);
+}
@@ -0,0 +1,194 @@
+package blockchain;
+
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * An immutable list of transactions packed into one array of UTF-8 bytes, the body of a {@link Block}.
+ * <p>
+ * A list of strings costs an object header, a length and a byte array header per transaction, plus a reference in the
+ * list; packed, a transaction only costs its bytes and the four-byte offset of its end. Transactions are decoded each
+ * time they are read, and {@link #contains(Object)} compares encoded bytes without decoding anything, which is how
+ * blocks are searched for a transaction. Null elements are kept, marked by a negative end offset. A list is serialized
+ * as a plain {@link ArrayList}.
+ */
+final class TransactionList extends AbstractList<String> implements RandomAccess, Serializable {
+    /**
+     * The UTF-8 bytes of the transactions, one after the other.
+     */
+    private final byte[] bytes;
+    /**
+     * The offset in {@link #bytes} at which each transaction ends, or {@code -1 - end} for a null transaction, which
+     * takes no bytes.
+     */
+    private final int[] ends;
+
+    /**
+     * Packs a list of transactions.
+     *
+     * @param transactions The transactions, which may include nulls.
+     */
+    private TransactionList(List<String> transactions) {
+        byte[][] encoded = new byte[transactions.size()][];
+        int length = 0;
+        for (int i = 0; i < encoded.length; i++) {
+            String transaction = transactions.get(i);
+            if (transaction != null) {
+                encoded[i] = transaction.getBytes(StandardCharsets.UTF_8);
+                length += encoded[i].length;
+            }
+        }
+        this.bytes = new byte[length];
+        this.ends = new int[encoded.length];
+        int end = 0;
+        for (int i = 0; i < encoded.length; i++) {
+            if (encoded[i] == null) {
+                ends[i] = -1 - end;
+            } else {
+                System.arraycopy(encoded[i], 0, bytes, end, encoded[i].length);
+                end += encoded[i].length;
+                ends[i] = end;
+            }
+        }
+    }
+
+    /**
+     * Wraps transactions that are packed already.
+     *
+     * @param bytes The UTF-8 bytes of the transactions, one after the other.
+     * @param ends  The offset at which each transaction ends, negative for null transactions.
+     */
+    private TransactionList(byte[] bytes, int[] ends) {
+        this.bytes = bytes;
+        this.ends = ends;
+    }
+
+    /**
+     * Packs a list of transactions, unless it is packed already.
+     *
+     * @param transactions The transactions, which may include nulls.
+     * @return The packed list.
+     */
+    static TransactionList of(List<String> transactions) {
+        return transactions instanceof TransactionList packed ? packed : new TransactionList(transactions);
+    }
+
+    @Override
+    public String get(int index) {
+        if (ends[index] < 0) {
+            return null;
+        }
+        int start = start(index);
+        return new String(bytes, start, ends[index] - start, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public int size() {
+        return ends.length;
+    }
+
+    @Override
+    public boolean contains(Object object) {
+        if (!(object instanceof String transaction)) {
+            return object == null && Arrays.stream(ends).anyMatch(end -> end < 0);
+        }
+        byte[] target = transaction.getBytes(StandardCharsets.UTF_8);
+        for (int i = 0; i < ends.length; i++) {
+            int start = start(i);
+            if (ends[i] - start == target.length
+                    && Arrays.equals(bytes, start, ends[i], target, 0, target.length)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Retrieves the length of the UTF-8 encoding of a transaction.
+     *
+     * @param index The index of the transaction.
+     * @return The number of bytes of the transaction, or -1 if it is null.
+     */
+    int encodedLength(int index) {
+        return ends[index] < 0 ? -1 : ends[index] - start(index);
+    }
+
+    /**
+     * Copies the UTF-8 encoding of a transaction, without decoding it.
+     *
+     * @param index       The index of the transaction, which must not be null.
+     * @param destination The array to copy to.
+     * @param offset      The offset in the array at which to copy.
+     */
+    void copyEncoded(int index, byte[] destination, int offset) {
+        int start = start(index);
+        System.arraycopy(bytes, start, destination, offset, ends[index] - start);
+    }
+
+    /**
+     * Computes the number of bytes {@link #store(ByteBuffer)} writes for this list.
+     *
+     * @return The length of the stored list.
+     */
+    int storedLength() {
+        return Integer.BYTES * (2 + ends.length) + bytes.length;
+    }
+
+    /**
+     * Writes the list as it is packed: the number of transactions, their end offsets, the number of bytes and the
+     * bytes.
+     *
+     * @param out The buffer to write to, with at least {@link #storedLength()} bytes remaining.
+     */
+    void store(ByteBuffer out) {
+        out.putInt(ends.length);
+        out.asIntBuffer().put(ends);
+        out.position(out.position() + Integer.BYTES * ends.length);
+        out.putInt(bytes.length).put(bytes);
+    }
+
+    /**
+     * Reads a list written by {@link #store(ByteBuffer)}.
+     *
+     * @param in The buffer to read from, positioned at the start of the list.
+     * @return The list.
+     */
+    static TransactionList load(ByteBuffer in) {
+        int[] ends = new int[in.getInt()];
+        in.asIntBuffer().get(ends);
+        in.position(in.position() + Integer.BYTES * ends.length);
+        byte[] bytes = new byte[in.getInt()];
+        in.get(bytes);
+        return new TransactionList(bytes, ends);
+    }
+
+    /**
+     * Finds the offset at which a transaction starts, which is where the previous one ends.
+     *
+     * @param index The index of the transaction.
+     * @return The offset of its first byte.
+     */
+    private int start(int index) {
+        if (index == 0) {
+            return 0;
+        }
+        int previous = ends[index - 1];
+        return previous < 0 ? -1 - previous : previous;
+    }
+
+    /**
+     * Replaces the list by a list of its transactions when serialized, so that the receiver needs no knowledge of
+     * this class.
+     *
+     * @return A list of the transactions.
+     */
+    private Object writeReplace() {
+        return new ArrayList<>(this);
+    }
+}
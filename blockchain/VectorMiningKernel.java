@@ -0,0 +1,373 @@
+package blockchain;
+
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+import java.util.Arrays;
+
+/**
+ * Multi-buffer SHA-256 search computing the hashes of several consecutive nonces at once, one per SIMD lane.
+ * <p>
+ * The 64-byte blocks of the header that precede the nonce are identical for every nonce, so they are compressed once
+ * into a midstate. For each batch of nonces only the final one or two blocks are compressed, with lane {@code i}
+ * holding nonce {@code first + i}. This requires every message in the batch to have the same length, which holds
+ * except when a batch of decimal nonces crosses a power of ten; such batches, like the partial batch at the end of a
+ * range, are hashed by the scalar {@link MiningKernel}. Every solution is confirmed by the scalar kernel, so the
+ * result is bit-identical to {@link Block#calculateHash()}.
+ * <p>
+ * This class uses the incubating {@code jdk.incubator.vector} module and must only be loaded once
+ * {@link MiningBackend#isAvailable()} has confirmed that the module is present.
+ */
+final class VectorMiningKernel implements NonceSearch {
+    /** The SHA-256 round constants. */
+    private static final int[] K = {
+            0x428a2f98, 0x71374491, 0xb5c0fbcf, 0xe9b5dba5, 0x3956c25b, 0x59f111f1, 0x923f82a4, 0xab1c5ed5,
+            0xd807aa98, 0x12835b01, 0x243185be, 0x550c7dc3, 0x72be5d74, 0x80deb1fe, 0x9bdc06a7, 0xc19bf174,
+            0xe49b69c1, 0xefbe4786, 0x0fc19dc6, 0x240ca1cc, 0x2de92c6f, 0x4a7484aa, 0x5cb0a9dc, 0x76f988da,
+            0x983e5152, 0xa831c66d, 0xb00327c8, 0xbf597fc7, 0xc6e00bf3, 0xd5a79147, 0x06ca6351, 0x14292967,
+            0x27b70a85, 0x2e1b2138, 0x4d2c6dfc, 0x53380d13, 0x650a7354, 0x766a0abb, 0x81c2c92e, 0x92722c85,
+            0xa2bfe8a1, 0xa81a664b, 0xc24b8b70, 0xc76c51a3, 0xd192e819, 0xd6990624, 0xf40e3585, 0x106aa070,
+            0x19a4c116, 0x1e376c08, 0x2748774c, 0x34b0bcb5, 0x391c0cb3, 0x4ed8aa4a, 0x5b9cca4f, 0x682e6ff3,
+            0x748f82ee, 0x78a5636f, 0x84c87814, 0x8cc70208, 0x90befffa, 0xa4506ceb, 0xbef9a3f7, 0xc67178f2
+    };
+    /** The SHA-256 initial hash value. */
+    private static final int[] INITIAL_STATE = {
+            0x6a09e667, 0xbb67ae85, 0x3c6ef372, 0xa54ff53a, 0x510e527f, 0x9b05688c, 0x1f83d9ab, 0x5be0cd19
+    };
+    /** Size of a SHA-256 message block in bytes. */
+    private static final int BLOCK_BYTES = 64;
+
+    /** Four lanes of 32 bits. */
+    private static final VectorSpecies<Integer> SPECIES_4 = IntVector.SPECIES_128;
+    /** Eight lanes of 32 bits. */
+    private static final VectorSpecies<Integer> SPECIES_8 = IntVector.SPECIES_256;
+    /** Sixteen lanes of 32 bits. */
+    private static final VectorSpecies<Integer> SPECIES_16 = IntVector.SPECIES_512;
+
+    /** The number of nonces hashed per batch. */
+    private final int lanes;
+    /** The hash state after compressing every full block of the header. */
+    private final int[] midstate = new int[8];
+    /** The header bytes following the last block absorbed into the midstate. */
+    private final byte[] tail;
+    /** The total length of the header in bytes. */
+    private final int headerLength;
+    /** How the nonce is appended to the header. */
+    private final MiningKernel.NonceEncoding nonceEncoding;
+    /** Scalar kernel hashing irregular batches and confirming solutions. */
+    private final MiningKernel scalar;
+    /** The final blocks of the message, padded for nonces of {@link #preparedLength} bytes. */
+    private final byte[] message = new byte[2 * BLOCK_BYTES];
+    /** Message schedules of the final blocks, indexed by block, then word-major with one int per lane. */
+    private final int[][] schedules;
+    /** The nonce length the message and the schedules are prepared for, or zero before the first batch. */
+    private int preparedLength;
+    /** Final hash state of every lane, word-major with one int per lane. */
+    private final int[] digests;
+
+    /**
+     * Creates a kernel for the given fixed header bytes.
+     *
+     * @param header        The header bytes preceding the nonce.
+     * @param nonceEncoding How the nonce is appended to the header.
+     * @param lanes         The number of lanes, or zero for the preferred vector width of the platform.
+     */
+    VectorMiningKernel(byte[] header, MiningKernel.NonceEncoding nonceEncoding, int lanes) {
+        this.lanes = lanes == 0 ? IntVector.SPECIES_PREFERRED.length() : lanes;
+        if (this.lanes != 4 && this.lanes != 8 && this.lanes != 16) {
+            throw new IllegalArgumentException("Unsupported number of lanes: " + lanes);
+        }
+        this.headerLength = header.length;
+        this.nonceEncoding = nonceEncoding;
+        this.scalar = new MiningKernel(header, nonceEncoding);
+        this.schedules = new int[2][64 * this.lanes];
+        this.digests = new int[8 * this.lanes];
+        int fullBlocks = header.length / BLOCK_BYTES;
+        System.arraycopy(INITIAL_STATE, 0, midstate, 0, 8);
+        int[] words = new int[64];
+        for (int block = 0; block < fullBlocks; block++) {
+            for (int t = 0; t < 16; t++) {
+                words[t] = readInt(header, block * BLOCK_BYTES + 4 * t);
+            }
+            compress(midstate, words);
+        }
+        this.tail = Arrays.copyOfRange(header, fullBlocks * BLOCK_BYTES, header.length);
+    }
+
+    @Override
+    public long search(long fromNonce, long toNonce, int zeroBits, MiningAttempt attempt) {
+        long nonce = fromNonce;
+        while (nonce < toNonce && !attempt.isCancelled()) {
+            long chunkStart = nonce;
+            long chunkEnd = Math.min(toNonce, nonce + MiningKernel.CANCELLATION_CHECK_INTERVAL);
+            while (nonce < chunkEnd) {
+                int count = (int) Math.min(lanes, chunkEnd - nonce);
+                long found;
+                if (count == lanes && encodedLength(nonce) == encodedLength(nonce + count - 1)) {
+                    int lane = hashBatch((int) nonce, zeroBits);
+                    found = lane < 0 ? MiningKernel.NOT_FOUND : nonce + lane;
+                } else {
+                    found = scalar.search(nonce, nonce + count, zeroBits);
+                }
+                if (found != MiningKernel.NOT_FOUND) {
+                    attempt.addHashes(found + 1 - chunkStart);
+                    if (!MiningKernel.hasLeadingZeroBits(scalar.hash((int) found), zeroBits)) {
+                        throw new IllegalStateException("Vector hash disagrees with SHA-256 for nonce " + found);
+                    }
+                    return found;
+                }
+                nonce += count;
+            }
+            attempt.addHashes(chunkEnd - chunkStart);
+        }
+        return MiningKernel.NOT_FOUND;
+    }
+
+    /**
+     * Hashes {@link #lanes} consecutive nonces whose encodings have the same length.
+     *
+     * @param firstNonce The nonce of lane zero.
+     * @param zeroBits   The number of leading zero bits required in the digest.
+     * @return The first lane whose digest satisfies the difficulty, or -1.
+     */
+    private int hashBatch(int firstNonce, int zeroBits) {
+        int nonceLength = encodedLength(firstNonce);
+        int messageLength = tail.length + nonceLength;
+        int blocks = (messageLength + 9 + BLOCK_BYTES - 1) / BLOCK_BYTES;
+        if (nonceLength != preparedLength) {
+            prepare(nonceLength, blocks);
+        }
+        int firstWord = tail.length / 4;
+        int lastWord = (messageLength - 1) / 4;
+        for (int lane = 0; lane < lanes; lane++) {
+            writeNonce(firstNonce + lane, nonceLength, tail.length);
+            for (int word = firstWord; word <= lastWord; word++) {
+                schedules[word / 16][word % 16 * lanes + lane] = readInt(message, 4 * word);
+            }
+        }
+        switch (lanes) {
+            case 4 -> compressBlocks(SPECIES_4, blocks);
+            case 8 -> compressBlocks(SPECIES_8, blocks);
+            default -> compressBlocks(SPECIES_16, blocks);
+        }
+        for (int lane = 0; lane < lanes; lane++) {
+            if (hasLeadingZeroBits(lane, zeroBits)) {
+                return lane;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Pads the message for nonces of the given length and fills the schedules of every lane with its words. Only the
+     * words holding the nonce differ between lanes and batches, so they are the only ones rewritten per batch.
+     *
+     * @param nonceLength The length of the nonce encodings.
+     * @param blocks      The number of final blocks.
+     */
+    private void prepare(int nonceLength, int blocks) {
+        int messageLength = tail.length + nonceLength;
+        long bitLength = 8L * (headerLength + nonceLength);
+        Arrays.fill(message, (byte) 0);
+        System.arraycopy(tail, 0, message, 0, tail.length);
+        message[messageLength] = (byte) 0x80;
+        int end = blocks * BLOCK_BYTES;
+        for (int i = 0; i < 8; i++) {
+            message[end - 1 - i] = (byte) (bitLength >>> (8 * i));
+        }
+        for (int block = 0; block < blocks; block++) {
+            for (int t = 0; t < 16; t++) {
+                Arrays.fill(schedules[block], t * lanes, (t + 1) * lanes, readInt(message, block * BLOCK_BYTES + 4 * t));
+            }
+        }
+        preparedLength = nonceLength;
+    }
+
+    /**
+     * Compresses the final blocks of every lane, starting from the midstate, and stores the digests.
+     * <p>
+     * The species is passed as one of the static constants so that the JIT can compile the vector operations into
+     * SIMD instructions of that width.
+     *
+     * @param species The vector shape holding one nonce per lane.
+     * @param blocks  The number of final blocks.
+     */
+    private void compressBlocks(VectorSpecies<Integer> species, int blocks) {
+        IntVector[] state = new IntVector[8];
+        for (int i = 0; i < 8; i++) {
+            state[i] = IntVector.broadcast(species, midstate[i]);
+        }
+        for (int block = 0; block < blocks; block++) {
+            compressLanes(species, state, schedules[block]);
+        }
+        for (int i = 0; i < 8; i++) {
+            state[i].intoArray(digests, i * lanes);
+        }
+    }
+
+    /**
+     * Runs one SHA-256 compression on every lane.
+     *
+     * @param species  The vector shape holding one nonce per lane.
+     * @param state    The hash state of every lane, updated in place.
+     * @param schedule The first 16 message words of every lane, word-major; extended in place to 64 words.
+     */
+    private void compressLanes(VectorSpecies<Integer> species, IntVector[] state, int[] schedule) {
+        for (int t = 16; t < 64; t++) {
+            IntVector w2 = IntVector.fromArray(species, schedule, (t - 2) * lanes);
+            IntVector w15 = IntVector.fromArray(species, schedule, (t - 15) * lanes);
+            IntVector sigma1 = w2.lanewise(VectorOperators.ROR, 17)
+                    .lanewise(VectorOperators.XOR, w2.lanewise(VectorOperators.ROR, 19))
+                    .lanewise(VectorOperators.XOR, w2.lanewise(VectorOperators.LSHR, 10));
+            IntVector sigma0 = w15.lanewise(VectorOperators.ROR, 7)
+                    .lanewise(VectorOperators.XOR, w15.lanewise(VectorOperators.ROR, 18))
+                    .lanewise(VectorOperators.XOR, w15.lanewise(VectorOperators.LSHR, 3));
+            sigma1.add(IntVector.fromArray(species, schedule, (t - 7) * lanes))
+                    .add(sigma0)
+                    .add(IntVector.fromArray(species, schedule, (t - 16) * lanes))
+                    .intoArray(schedule, t * lanes);
+        }
+        IntVector a = state[0], b = state[1], c = state[2], d = state[3];
+        IntVector e = state[4], f = state[5], g = state[6], h = state[7];
+        for (int t = 0; t < 64; t++) {
+            IntVector bigSigma1 = e.lanewise(VectorOperators.ROR, 6)
+                    .lanewise(VectorOperators.XOR, e.lanewise(VectorOperators.ROR, 11))
+                    .lanewise(VectorOperators.XOR, e.lanewise(VectorOperators.ROR, 25));
+            IntVector choose = e.and(f).lanewise(VectorOperators.XOR, e.not().and(g));
+            IntVector t1 = h.add(bigSigma1).add(choose).add(K[t])
+                    .add(IntVector.fromArray(species, schedule, t * lanes));
+            IntVector bigSigma0 = a.lanewise(VectorOperators.ROR, 2)
+                    .lanewise(VectorOperators.XOR, a.lanewise(VectorOperators.ROR, 13))
+                    .lanewise(VectorOperators.XOR, a.lanewise(VectorOperators.ROR, 22));
+            IntVector majority = a.and(b).lanewise(VectorOperators.XOR, a.and(c))
+                    .lanewise(VectorOperators.XOR, b.and(c));
+            h = g;
+            g = f;
+            f = e;
+            e = d.add(t1);
+            d = c;
+            c = b;
+            b = a;
+            a = t1.add(bigSigma0.add(majority));
+        }
+        state[0] = state[0].add(a);
+        state[1] = state[1].add(b);
+        state[2] = state[2].add(c);
+        state[3] = state[3].add(d);
+        state[4] = state[4].add(e);
+        state[5] = state[5].add(f);
+        state[6] = state[6].add(g);
+        state[7] = state[7].add(h);
+    }
+
+    /**
+     * Checks whether the digest of one lane starts with at least the given number of zero bits.
+     *
+     * @param lane     The lane to check.
+     * @param zeroBits The number of leading zero bits required.
+     * @return True if the digest satisfies the requirement, false otherwise.
+     */
+    private boolean hasLeadingZeroBits(int lane, int zeroBits) {
+        int remaining = zeroBits;
+        for (int word = 0; word < 8 && remaining > 0; word++) {
+            int leadingZeros = Integer.numberOfLeadingZeros(digests[word * lanes + lane]);
+            if (leadingZeros < Math.min(remaining, Integer.SIZE)) {
+                return false;
+            }
+            remaining -= Integer.SIZE;
+        }
+        return remaining <= 0;
+    }
+
+    /**
+     * Computes the length in bytes of the encoding of a nonce.
+     *
+     * @param nonce The nonce.
+     * @return The length of its encoding.
+     */
+    private int encodedLength(long nonce) {
+        if (nonceEncoding == MiningKernel.NonceEncoding.INT32) {
+            return 4;
+        }
+        int length = 1;
+        for (long value = nonce; value >= 10; value /= 10) {
+            length++;
+        }
+        return length;
+    }
+
+    /**
+     * Writes the encoding of a nonce into the message buffer.
+     *
+     * @param nonce    The nonce, non-negative for decimal encoding.
+     * @param length   The length of its encoding.
+     * @param position The offset at which to write.
+     */
+    private void writeNonce(int nonce, int length, int position) {
+        if (nonceEncoding == MiningKernel.NonceEncoding.INT32) {
+            message[position] = (byte) (nonce >>> 24);
+            message[position + 1] = (byte) (nonce >>> 16);
+            message[position + 2] = (byte) (nonce >>> 8);
+            message[position + 3] = (byte) nonce;
+            return;
+        }
+        int value = nonce;
+        for (int i = position + length - 1; i >= position; i--) {
+            message[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+    }
+
+    /**
+     * Runs one scalar SHA-256 compression.
+     *
+     * @param state The hash state, updated in place.
+     * @param words The first 16 message words; extended in place to 64 words.
+     */
+    private static void compress(int[] state, int[] words) {
+        for (int t = 16; t < 64; t++) {
+            int w2 = words[t - 2];
+            int w15 = words[t - 15];
+            int sigma1 = Integer.rotateRight(w2, 17) ^ Integer.rotateRight(w2, 19) ^ (w2 >>> 10);
+            int sigma0 = Integer.rotateRight(w15, 7) ^ Integer.rotateRight(w15, 18) ^ (w15 >>> 3);
+            words[t] = sigma1 + words[t - 7] + sigma0 + words[t - 16];
+        }
+        int a = state[0], b = state[1], c = state[2], d = state[3];
+        int e = state[4], f = state[5], g = state[6], h = state[7];
+        for (int t = 0; t < 64; t++) {
+            int bigSigma1 = Integer.rotateRight(e, 6) ^ Integer.rotateRight(e, 11) ^ Integer.rotateRight(e, 25);
+            int t1 = h + bigSigma1 + ((e & f) ^ (~e & g)) + K[t] + words[t];
+            int bigSigma0 = Integer.rotateRight(a, 2) ^ Integer.rotateRight(a, 13) ^ Integer.rotateRight(a, 22);
+            int t2 = bigSigma0 + ((a & b) ^ (a & c) ^ (b & c));
+            h = g;
+            g = f;
+            f = e;
+            e = d + t1;
+            d = c;
+            c = b;
+            b = a;
+            a = t1 + t2;
+        }
+        state[0] += a;
+        state[1] += b;
+        state[2] += c;
+        state[3] += d;
+        state[4] += e;
+        state[5] += f;
+        state[6] += g;
+        state[7] += h;
+    }
+
+    /**
+     * Reads a big-endian int.
+     *
+     * @param bytes  The source bytes.
+     * @param offset The offset of the first byte.
+     * @return The int.
+     */
+    private static int readInt(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xff) << 24 | (bytes[offset + 1] & 0xff) << 16
+                | (bytes[offset + 2] & 0xff) << 8 | (bytes[offset + 3] & 0xff);
+    }
+}
@@ -0,0 +1,185 @@
+package test;
+
+import blockchain.Block;
+import blockchain.BlockCodec;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compares the size of blocks and chains encoded by {@link BlockCodec} with their Java serialization, and the time to
+ * encode and decode them both ways.
+ * <p>
+ * Single blocks are measured as a block log stores them and as a peer broadcasts them, one stream each; chains as a
+ * peer sends them when asked for its chain, one stream for the whole list. Every measurement runs a warm-up round
+ * first. The logs of the node code are discarded.
+ */
+public class BenchmarkBlockCodec {
+    /** Number of blocks of a chain. */
+    private static final int BLOCKS = 2_000;
+    /** Number of times each single block is encoded and decoded. */
+    private static final int ROUNDS = 20_000;
+    /** Number of times a chain is encoded and decoded. */
+    private static final int CHAIN_ROUNDS = 20;
+
+    /**
+     * Runs the benchmark.
+     *
+     * @param args Unused.
+     * @throws Exception If a block cannot be encoded or decoded.
+     */
+    public static void main(String[] args) throws Exception {
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        out.printf("%-28s %10s %10s %12s %12s %12s %12s%n", "payload", "java B", "codec B", "java enc us",
+                "codec enc us", "java dec us", "codec dec us");
+        report(out, "block, 1 transaction", List.of(block(Block.MERKLE_VERSION, 0, 1)), ROUNDS);
+        report(out, "block, 10 transactions", List.of(block(Block.LEGACY_VERSION, 0, 10)), ROUNDS);
+        report(out, "block, 100 transactions", List.of(block(Block.MERKLE_VERSION, 0, 100)), ROUNDS / 10);
+        List<Block> chain = new ArrayList<>(BLOCKS);
+        for (int i = 0; i < BLOCKS; i++) {
+            chain.add(block(i % 2 == 0 ? Block.LEGACY_VERSION : Block.MERKLE_VERSION, i, 1 + i % 10));
+        }
+        report(null, null, chain, 1);
+        report(out, "chain of " + BLOCKS + " blocks", chain, CHAIN_ROUNDS);
+    }
+
+    /**
+     * Measures one payload both ways and prints its sizes and times.
+     *
+     * @param out    The stream to print to, or null to only warm up.
+     * @param name   The name of the payload.
+     * @param blocks The blocks, sent as a single block if there is one, as a chain otherwise.
+     * @param rounds The number of times the payload is encoded and decoded.
+     * @throws Exception If a block cannot be encoded or decoded.
+     */
+    private static void report(PrintStream out, String name, List<Block> blocks, int rounds) throws Exception {
+        byte[] serialized = null;
+        byte[] encoded = null;
+        double[] micros = new double[4];
+        // The first round warms up the compiler
+        for (int round = 0; round < 2; round++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < rounds; i++) {
+                serialized = serialize(blocks);
+            }
+            micros[0] = (System.nanoTime() - start) / 1e3 / rounds;
+            start = System.nanoTime();
+            for (int i = 0; i < rounds; i++) {
+                encoded = encode(blocks);
+            }
+            micros[1] = (System.nanoTime() - start) / 1e3 / rounds;
+            start = System.nanoTime();
+            for (int i = 0; i < rounds; i++) {
+                check(deserialize(serialized, blocks.size()), blocks);
+            }
+            micros[2] = (System.nanoTime() - start) / 1e3 / rounds;
+            start = System.nanoTime();
+            for (int i = 0; i < rounds; i++) {
+                check(decode(encoded, blocks.size()), blocks);
+            }
+            micros[3] = (System.nanoTime() - start) / 1e3 / rounds;
+        }
+        if (out != null) {
+            out.printf("%-28s %,10d %,10d %12.2f %12.2f %12.2f %12.2f%n", name, serialized.length, encoded.length,
+                    micros[0], micros[1], micros[2], micros[3]);
+        }
+    }
+
+    /**
+     * Serializes a payload with Java serialization, as nodes used to send it.
+     *
+     * @param blocks The blocks.
+     * @return The serialized bytes.
+     * @throws IOException If the blocks cannot be serialized.
+     */
+    private static byte[] serialize(List<Block> blocks) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(blocks.size() == 1 ? blocks.get(0) : blocks);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Encodes a payload with the codec, as nodes send it now.
+     *
+     * @param blocks The blocks.
+     * @return The encoded bytes.
+     * @throws IOException If the blocks cannot be encoded.
+     */
+    private static byte[] encode(List<Block> blocks) throws IOException {
+        if (blocks.size() == 1) {
+            return BlockCodec.encode(blocks.get(0));
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        BlockCodec.writeBlocks(bytes, blocks);
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Deserializes a payload written by {@link #serialize(List)}.
+     *
+     * @param bytes The serialized bytes.
+     * @param size  The number of blocks of the payload.
+     * @return The blocks.
+     * @throws Exception If the bytes cannot be deserialized.
+     */
+    @SuppressWarnings("unchecked")
+    private static List<Block> deserialize(byte[] bytes, int size) throws Exception {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+            Object object = in.readObject();
+            return size == 1 ? List.of((Block) object) : (List<Block>) object;
+        }
+    }
+
+    /**
+     * Decodes a payload written by {@link #encode(List)}.
+     *
+     * @param bytes The encoded bytes.
+     * @param size  The number of blocks of the payload.
+     * @return The blocks.
+     * @throws IOException If the bytes cannot be decoded.
+     */
+    private static List<Block> decode(byte[] bytes, int size) throws IOException {
+        if (size == 1) {
+            return List.of(BlockCodec.decode(bytes));
+        }
+        return BlockCodec.readBlocks(new ByteArrayInputStream(bytes));
+    }
+
+    /**
+     * Checks that decoded blocks are the blocks encoded, so that decoding is not optimized away.
+     *
+     * @param decoded The decoded blocks.
+     * @param blocks  The blocks encoded.
+     */
+    private static void check(List<Block> decoded, List<Block> blocks) {
+        if (decoded.size() != blocks.size() || !decoded.get(decoded.size() - 1).equals(blocks.get(blocks.size() - 1))) {
+            throw new IllegalStateException("Decoded different blocks");
+        }
+    }
+
+    /**
+     * Builds a block of the given shape.
+     *
+     * @param version      The header version.
+     * @param index        The index of the block, which makes its contents unique.
+     * @param transactions The number of transactions.
+     * @return The block.
+     */
+    private static Block block(int version, int index, int transactions) {
+        List<String> list = new ArrayList<>(transactions);
+        for (int t = 0; t < transactions; t++) {
+            list.add("transaction-" + index + "-" + t);
+        }
+        return new Block(version, "00000000000000000000000000000000000000000000000000000000000000ab", index, list);
+    }
+}
@@ -0,0 +1,147 @@
+package test;
+
+import blockchain.Block;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.IntFunction;
+
+/**
+ * Compares the heap footprint of blocks with that of the same blocks laid out with text hashes and a list of strings.
+ * <p>
+ * Many blocks of each shape are built and kept reachable, once as {@link Block} objects, which keep raw digests and
+ * packed transactions, and once as {@link TextBlock} objects, the layout blocks used to have, holding the same values.
+ * The heap is collected before and after and the difference is reported per block, the way a layout tool would sum
+ * the objects reachable from each block. The time to render the hash of a block as text, which the compact layout
+ * pays on every read, is reported too. The logs of the node code are discarded.
+ */
+public class BenchmarkBlockFootprint {
+    /** Number of blocks of each shape kept on the heap. */
+    private static final int BLOCKS = 20_000;
+    /** Number of hash reads timed. */
+    private static final int READS = 1_000_000;
+    /** A 64-character hexadecimal parent hash. */
+    private static final String PARENT_HASH = "00000000000000000000000000000000000000000000000000000000000000ab";
+
+    /**
+     * Runs the benchmark.
+     *
+     * @param args Unused.
+     */
+    public static void main(String[] args) {
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        out.printf("%-32s %14s %14s %8s%n", "block shape", "text B/block", "compact B/block", "saved");
+        report(out, "legacy, 1 transaction", i -> block(Block.LEGACY_VERSION, i, 1));
+        report(out, "legacy, 10 transactions", i -> block(Block.LEGACY_VERSION, i, 10));
+        report(out, "merkle, 10 transactions", i -> block(Block.MERKLE_VERSION, i, 10));
+        report(out, "merkle, 100 transactions", i -> block(Block.MERKLE_VERSION, i, 100));
+
+        Block block = block(Block.MERKLE_VERSION, 0, 1);
+        long chars = 0;
+        double nanos = 0;
+        // The first round warms up the compiler
+        for (int round = 0; round < 2; round++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < READS; i++) {
+                chars += block.getHash().length();
+            }
+            nanos = (System.nanoTime() - start) / (double) READS;
+        }
+        out.printf("hash read: %.1f ns to render the digest as text (%d chars)%n", nanos, chars);
+    }
+
+    /**
+     * Measures the heap held by blocks of one shape in both layouts and prints it.
+     *
+     * @param out    The stream to print to.
+     * @param name   The name of the shape.
+     * @param blocks Creates the block of the shape with the given index.
+     */
+    private static void report(PrintStream out, String name, IntFunction<Block> blocks) {
+        List<Object> kept = new ArrayList<>(BLOCKS);
+        long before = usedHeap();
+        for (int i = 0; i < BLOCKS; i++) {
+            kept.add(blocks.apply(i));
+        }
+        double compact = (usedHeap() - before) / (double) BLOCKS;
+
+        for (int i = 0; i < BLOCKS; i++) {
+            kept.set(i, new TextBlock((Block) kept.get(i)));
+        }
+        before = usedHeap();
+        kept.clear();
+        double text = (before - usedHeap()) / (double) BLOCKS;
+        out.printf("%-32s %14.0f %14.0f %7.0f%%%n", name, text, compact, 100 * (1 - compact / text));
+    }
+
+    /**
+     * Creates a block of numbered transactions, without proof of work.
+     *
+     * @param version      The header version of the block.
+     * @param index        The index of the block, which makes its transactions unique.
+     * @param transactions The number of transactions.
+     * @return The block.
+     */
+    private static Block block(int version, int index, int transactions) {
+        List<String> list = new ArrayList<>(transactions);
+        for (int t = 0; t < transactions; t++) {
+            list.add("transaction-" + (index * transactions + t));
+        }
+        return new Block(version, PARENT_HASH, index, list);
+    }
+
+    /**
+     * Collects the heap until its use settles and measures it.
+     *
+     * @return The bytes of heap in use.
+     */
+    private static long usedHeap() {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        long used = Long.MAX_VALUE;
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+            used = Math.min(used, memory.getHeapMemoryUsage().getUsed());
+        }
+        return used;
+    }
+
+    /**
+     * A block laid out with its hashes as hexadecimal strings and its transactions as a list of strings.
+     */
+    private static final class TextBlock {
+        /** The hash of the block. */
+        final String hash;
+        /** The hash of the previous block. */
+        final String previousHash;
+        /** The timestamp of the block. */
+        final long timestamp;
+        /** The transactions of the block. */
+        final List<String> transactions;
+        /** The nonce of the block. */
+        final int nonce;
+        /** The header version of the block. */
+        final int version;
+        /** The Merkle root of the transactions, or null for legacy blocks. */
+        final String merkleRoot;
+
+        /**
+         * Copies the values of a block into separate objects.
+         *
+         * @param block The block.
+         */
+        TextBlock(Block block) {
+            this.hash = block.getHash();
+            this.previousHash = block.getPreviousHash();
+            this.timestamp = block.getTimestamp();
+            this.transactions = new ArrayList<>(block.getTransactions());
+            this.nonce = block.getNonce();
+            this.version = block.getVersion();
+            this.merkleRoot = block.getMerkleRoot();
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package test;
+
+import blockchain.Block;
+import blockchain.BlockChain;
+import blockchain.DifficultyRule;
+import blockchain.MinerNode;
+import blockchain.MiningAttempt;
+import blockchain.MiningBackend;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Benchmarks the startup of a node against a cold full synchronization.
+ * <p>
+ * A chain of blocks is mined once and persisted to a block log with a checkpoint below its tip. The benchmark then
+ * times a cold synchronization, which reads the whole chain as a peer sends it, validates it and adopts it, and
+ * restores of the chain from the log with and without the checkpoint. The best time of several runs is reported for
+ * each. The logs of the node code are discarded.
+ */
+public class BenchmarkBootstrap {
+    /** Number of blocks of the chain. */
+    private static final int BLOCKS = 2_000;
+    /** Number of transactions per block. */
+    private static final int TRANSACTIONS_PER_BLOCK = 50;
+    /** Number of leading zero bits required of each block, two hex digits. */
+    private static final int ZERO_BITS = 8;
+    /** Number of blocks between two checkpoints. */
+    private static final int CHECKPOINT_INTERVAL = 600;
+    /** Number of times each startup is timed. */
+    private static final int RUNS = 5;
+
+    /**
+     * Runs the benchmark.
+     *
+     * @param args Unused.
+     * @throws Exception If the chain cannot be persisted or restored.
+     */
+    @SuppressWarnings("unchecked")
+    public static void main(String[] args) throws Exception {
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        Path directory = Files.createTempDirectory("bootstrap");
+        try {
+            BlockChain blockchain = new BlockChain(new DifficultyRule(ZERO_BITS));
+            blockchain.openLog(directory, 64, CHECKPOINT_INTERVAL);
+            for (Block block : mineChain(blockchain.getLastBlock())) {
+                blockchain.addBlock(block);
+            }
+            blockchain.closeLog();
+            ByteArrayOutputStream sent = new ByteArrayOutputStream();
+            try (ObjectOutputStream objectOutputStream = new ObjectOutputStream(sent)) {
+                objectOutputStream.writeObject(blockchain.getChain());
+            }
+            MinerNode node = new MinerNode(0, 0, List.of(), 0, ZERO_BITS / 4);
+
+            out.printf("%-28s %12s%n", "startup", "best ms");
+            out.printf("%-28s %12.1f%n", "cold full sync", best(() -> {
+                List<Block> chain;
+                try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(sent.toByteArray()))) {
+                    chain = (List<Block>) in.readObject();
+                }
+                if (!node.isValidChain(chain)) {
+                    throw new IllegalStateException("Mined chain failed validation");
+                }
+                new BlockChain(new DifficultyRule(ZERO_BITS)).replaceChain(chain);
+            }));
+            Path checkpoint = directory.resolve("checkpoint.dat");
+            Path aside = directory.resolve("checkpoint.aside");
+            Files.move(checkpoint, aside);
+            out.printf("%-28s %12.1f%n", "restore without checkpoint", best(() -> restore(directory)));
+            Files.move(aside, checkpoint);
+            out.printf("%-28s %12.1f%n", "restore with checkpoint", best(() -> restore(directory)));
+        } finally {
+            try (Stream<Path> files = Files.walk(directory)) {
+                for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                    Files.delete(file);
+                }
+            }
+        }
+    }
+
+    /**
+     * Restores a chain from the block log and checks every block was kept.
+     *
+     * @param directory The directory of the log.
+     * @throws Exception If the log cannot be read.
+     */
+    private static void restore(Path directory) throws Exception {
+        BlockChain restored = new BlockChain(new DifficultyRule(ZERO_BITS));
+        int blocks = restored.openLog(directory, 64, CHECKPOINT_INTERVAL);
+        restored.closeLog();
+        if (blocks != BLOCKS + 1) {
+            throw new IllegalStateException("Restored " + blocks + " blocks instead of " + (BLOCKS + 1));
+        }
+    }
+
+    /**
+     * Times a startup several times.
+     *
+     * @param startup The startup to time.
+     * @return The best time, in milliseconds.
+     * @throws Exception If the startup fails.
+     */
+    private static double best(Startup startup) throws Exception {
+        double best = Double.MAX_VALUE;
+        for (int run = 0; run < RUNS; run++) {
+            long start = System.nanoTime();
+            startup.run();
+            best = Math.min(best, (System.nanoTime() - start) / 1_000_000.0);
+        }
+        return best;
+    }
+
+    /**
+     * Mines a chain of {@link #BLOCKS} blocks on top of a genesis block.
+     *
+     * @param genesis The genesis block.
+     * @return The mined blocks, lowest first.
+     */
+    private static List<Block> mineChain(Block genesis) {
+        List<Block> blocks = new ArrayList<>(BLOCKS);
+        String previousHash = genesis.getHash();
+        for (int b = 0; b < BLOCKS; b++) {
+            List<String> transactions = new ArrayList<>(TRANSACTIONS_PER_BLOCK);
+            for (int t = 0; t < TRANSACTIONS_PER_BLOCK; t++) {
+                transactions.add("transaction-" + (b * TRANSACTIONS_PER_BLOCK + t));
+            }
+            Block block = new Block(previousHash, genesis.getTimestamp() + b + 1, transactions);
+            block.mineBlockBits(ZERO_BITS, new MiningAttempt(), MiningBackend.MESSAGE_DIGEST);
+            blocks.add(block);
+            previousHash = block.getHash();
+        }
+        return blocks;
+    }
+
+    /**
+     * A startup procedure to time.
+     */
+    private interface Startup {
+        /**
+         * Runs the startup.
+         *
+         * @throws Exception If the startup fails.
+         */
+        void run() throws Exception;
+    }
+}
@@ -0,0 +1,129 @@
+package test;
+
+import blockchain.Block;
+import blockchain.MinerNode;
+import blockchain.NodeConfig;
+import blockchain.PeerSendMetrics;
+
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Benchmarks how fast the blocks a node mines reach a live peer while another of its peers does not answer.
+ * <p>
+ * The unresponsive peer is a socket that never accepts and whose pending connection queue is full, so connection
+ * attempts to it hang until they time out, as with a host that went away. Blocks are mined one after the other on the
+ * first node, and the benchmark measures, for each, the time from submitting its transaction to the live peer holding
+ * it, mining included. It then reports the median and maximum of those times and the outbound queue counters of the
+ * miner for both peers. The logs and errors of the node code are discarded.
+ */
+public class BenchmarkBroadcast {
+    /** Number of blocks mined. */
+    private static final int BLOCKS = 30;
+    /** Client port of the miner. */
+    private static final int MINER_CLIENT_PORT = 17_441;
+    /** Peer port of the miner. */
+    private static final int MINER_PEER_PORT = 17_442;
+    /** Client port of the live peer. */
+    private static final int PEER_CLIENT_PORT = 17_443;
+    /** Peer port of the live peer. */
+    private static final int PEER_PEER_PORT = 17_444;
+    /** Port of the unresponsive peer. */
+    private static final int DEAD_PEER_PORT = 17_445;
+
+    /**
+     * Runs the benchmark.
+     *
+     * @param args Unused.
+     * @throws Exception If a node fails.
+     */
+    public static void main(String[] args) throws Exception {
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        System.setErr(new PrintStream(OutputStream.nullOutputStream()));
+
+        // A backlog of one, filled by connections never accepted, makes the kernel ignore further attempts
+        ServerSocket deadPeer = new ServerSocket(DEAD_PEER_PORT, 1);
+        List<Socket> backlog = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            backlog.add(new Socket("127.0.0.1", DEAD_PEER_PORT));
+        }
+
+        List<String> peerAddresses = List.of("127.0.0.1:" + MINER_PEER_PORT, "127.0.0.1:" + PEER_PEER_PORT,
+                "127.0.0.1:" + DEAD_PEER_PORT);
+        MinerNode miner = new MinerNode(MINER_CLIENT_PORT, MINER_PEER_PORT, peerAddresses, 0, 4, new NodeConfig());
+        MinerNode peer = new MinerNode(PEER_CLIENT_PORT, PEER_PEER_PORT, peerAddresses, 1, 4, new NodeConfig());
+        miner.startNode();
+        peer.startNode();
+        Thread.sleep(1000);
+        try {
+            long[] latencies = new long[BLOCKS];
+            for (int i = 0; i < BLOCKS; i++) {
+                long start = System.nanoTime();
+                submit(String.valueOf(i + 1));
+                while (fetchChain(PEER_PEER_PORT).size() < i + 2) {
+                    Thread.sleep(1);
+                }
+                latencies[i] = System.nanoTime() - start;
+            }
+            Arrays.sort(latencies);
+
+            out.printf("%-20s %8s %10s %10s%n", "peer", "blocks", "p50 ms", "max ms");
+            out.printf("%-20s %8d %10.3f %10.3f%n", "live", BLOCKS, latencies[BLOCKS / 2] / 1e6,
+                    latencies[BLOCKS - 1] / 1e6);
+            for (Map.Entry<String, PeerSendMetrics> metrics : miner.getPeerSendMetrics().entrySet()) {
+                out.println(metrics.getKey() + ": " + metrics.getValue());
+            }
+        } finally {
+            miner.stopNode();
+            peer.stopNode();
+            for (Socket socket : backlog) {
+                socket.close();
+            }
+            deadPeer.close();
+        }
+        System.exit(0);
+    }
+
+    /**
+     * Submits a transaction to the miner as clients do and waits for the answer.
+     *
+     * @param transaction The transaction.
+     * @throws Exception If the miner does not answer.
+     */
+    private static void submit(String transaction) throws Exception {
+        try (Socket socket = new Socket("127.0.0.1", MINER_CLIENT_PORT);
+             ObjectOutputStream out = new ObjectOutputStream(socket.getOutputStream());
+             ObjectInputStream in = new ObjectInputStream(socket.getInputStream())) {
+            out.writeObject(transaction);
+            out.flush();
+            in.readObject();
+        }
+    }
+
+    /**
+     * Fetches the chain of a node as peers do.
+     *
+     * @param peerPort The peer port of the node.
+     * @return The chain of the node.
+     * @throws Exception If the node does not answer.
+     */
+    @SuppressWarnings("unchecked")
+    private static List<Block> fetchChain(int peerPort) throws Exception {
+        try (Socket socket = new Socket("127.0.0.1", peerPort);
+             ObjectOutputStream out = new ObjectOutputStream(socket.getOutputStream());
+             ObjectInputStream in = new ObjectInputStream(socket.getInputStream())) {
+            out.writeObject("REQUEST_BLOCKCHAIN");
+            out.flush();
+            return (List<Block>) in.readObject();
+        }
+    }
+}
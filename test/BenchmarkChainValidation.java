@@ -0,0 +1,87 @@
+package test;
+
+import blockchain.Block;
+import blockchain.BlockChain;
+import blockchain.DifficultyRule;
+import blockchain.MiningAttempt;
+import blockchain.MiningBackend;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Benchmarks the validation of a received chain as the number of threads grows.
+ * <p>
+ * A chain of blocks is mined once, then validated on top of the same genesis block from fork-join pools of increasing
+ * parallelism; the parallel stage of the validation runs in the pool it is called from. The best time of several runs
+ * is reported for each pool, with the speedup over a single thread. The logs of the node code are discarded.
+ */
+public class BenchmarkChainValidation {
+    /** Number of blocks of the chain. */
+    private static final int BLOCKS = 2_000;
+    /** Number of transactions per block. */
+    private static final int TRANSACTIONS_PER_BLOCK = 50;
+    /** Number of leading zero bits required of each block. */
+    private static final int ZERO_BITS = 8;
+    /** Number of validations timed per pool. */
+    private static final int RUNS = 5;
+
+    /**
+     * Runs the benchmark.
+     *
+     * @param args Unused.
+     * @throws Exception If a validation fails to run.
+     */
+    public static void main(String[] args) throws Exception {
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        BlockChain blockchain = new BlockChain(new DifficultyRule(ZERO_BITS));
+        List<Block> blocks = mineChain(blockchain.getLastBlock());
+
+        out.printf("%8s %14s %10s%n", "threads", "validate ms", "speedup");
+        double singleThreaded = 0;
+        int cores = Runtime.getRuntime().availableProcessors();
+        for (int threads = 1; threads <= cores; threads = threads < cores ? Math.min(threads * 2, cores) : threads + 1) {
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            double best = Double.MAX_VALUE;
+            for (int run = 0; run < RUNS; run++) {
+                long start = System.nanoTime();
+                boolean valid = pool.submit(() -> blockchain.isValidMissingChain(blocks)).get();
+                best = Math.min(best, (System.nanoTime() - start) / 1_000_000.0);
+                if (!valid) {
+                    throw new IllegalStateException("Mined chain failed validation");
+                }
+            }
+            pool.shutdown();
+            if (threads == 1) {
+                singleThreaded = best;
+            }
+            out.printf("%8d %14.1f %10.2f%n", threads, best, singleThreaded / best);
+        }
+    }
+
+    /**
+     * Mines a chain of {@link #BLOCKS} blocks on top of a genesis block.
+     *
+     * @param genesis The genesis block.
+     * @return The mined blocks, lowest first.
+     */
+    private static List<Block> mineChain(Block genesis) {
+        List<Block> blocks = new ArrayList<>(BLOCKS);
+        String previousHash = genesis.getHash();
+        for (int b = 0; b < BLOCKS; b++) {
+            List<String> transactions = new ArrayList<>(TRANSACTIONS_PER_BLOCK);
+            for (int t = 0; t < TRANSACTIONS_PER_BLOCK; t++) {
+                transactions.add("transaction-" + (b * TRANSACTIONS_PER_BLOCK + t));
+            }
+            Block block = new Block(previousHash, b, transactions);
+            block.mineBlockBits(ZERO_BITS, new MiningAttempt(), MiningBackend.MESSAGE_DIGEST);
+            blocks.add(block);
+            previousHash = block.getHash();
+        }
+        return blocks;
+    }
+}
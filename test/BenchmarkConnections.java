@@ -0,0 +1,142 @@
+package test;
+
+import blockchain.MinerNode;
+import blockchain.NetworkMode;
+import blockchain.NodeConfig;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.net.Socket;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Benchmarks how a node copes with many concurrent client connections in a given {@link NetworkMode}.
+ * <p>
+ * A child JVM opens the connections, so that both ends of them do not share the file descriptor limit of one process,
+ * and holds them open and idle while the benchmark submits invalid transactions one after the other. The benchmark
+ * reports the rate at which the connections were accepted, the thread count of the node before and while holding
+ * them, and the median and 99th percentile latency of the submissions. The logs and errors of the node code are discarded.
+ */
+public class BenchmarkConnections {
+    /** Number of concurrent connections held by the child JVM. */
+    private static final int CONNECTIONS = 10_000;
+    /** Number of transactions submitted while the connections are held. */
+    private static final int SUBMISSIONS = 500;
+    /** Client port of the node. */
+    private static final int CLIENT_PORT = 17_431;
+    /** Peer port of the node. */
+    private static final int PEER_PORT = 17_432;
+
+    /**
+     * Runs the benchmark, or holds the connections when run as the child JVM.
+     *
+     * @param args The network mode, {@code SELECTOR} by default; or {@code hold} and the number of connections in the
+     *             child JVM.
+     * @throws Exception If the node or the child JVM fails.
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length == 2 && args[0].equals("hold")) {
+            hold(Integer.parseInt(args[1]));
+            return;
+        }
+        NetworkMode mode = args.length > 0 ? NetworkMode.valueOf(args[0]) : NetworkMode.SELECTOR;
+        PrintStream out = System.out;
+        if (mode.orFallback() != mode) {
+            out.println(mode + " unavailable in this JVM, benchmarking " + mode.orFallback());
+            mode = mode.orFallback();
+        }
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        // Connections the child JVM abandons are reported by the node as errors
+        System.setErr(new PrintStream(OutputStream.nullOutputStream()));
+        NodeConfig config = new NodeConfig();
+        config.setNetworkMode(mode);
+        MinerNode node = new MinerNode(CLIENT_PORT, PEER_PORT, List.of("127.0.0.1:" + PEER_PORT), 0, 4, config);
+        node.startNode();
+        Thread.sleep(500);
+        int threadsBefore = ManagementFactory.getThreadMXBean().getThreadCount();
+
+        Process child = new ProcessBuilder(Path.of(System.getProperty("java.home"), "bin", "java").toString(),
+                "-cp", System.getProperty("java.class.path"), BenchmarkConnections.class.getName(),
+                "hold", String.valueOf(CONNECTIONS))
+                .redirectError(ProcessBuilder.Redirect.INHERIT)
+                .start();
+        try {
+            BufferedReader childOut = new BufferedReader(new InputStreamReader(child.getInputStream()));
+            String held = childOut.readLine();
+            if (held == null) {
+                throw new IllegalStateException("Child JVM failed to hold its connections");
+            }
+            double seconds = Double.parseDouble(held);
+            Thread.sleep(500);
+            int threadsHeld = ManagementFactory.getThreadMXBean().getThreadCount();
+
+            long[] latencies = new long[SUBMISSIONS];
+            for (int i = 0; i < SUBMISSIONS; i++) {
+                long start = System.nanoTime();
+                // Empty transactions are validated and answered, but leave the node idle rather than mining
+                submit("");
+                latencies[i] = System.nanoTime() - start;
+            }
+            Arrays.sort(latencies);
+
+            out.printf("%-22s %8s %10s %9s %9s %10s %10s%n", "mode", "conns", "conns/s", "threads", "held",
+                    "p50 ms", "p99 ms");
+            out.printf("%-22s %8d %10.0f %9d %9d %10.3f %10.3f%n", mode, CONNECTIONS, CONNECTIONS / seconds,
+                    threadsBefore, threadsHeld, latencies[SUBMISSIONS / 2] / 1e6,
+                    latencies[SUBMISSIONS * 99 / 100] / 1e6);
+        } finally {
+            child.getOutputStream().close();
+            child.waitFor();
+            node.stopNode();
+        }
+        System.exit(0);
+    }
+
+    /**
+     * Submits a transaction as clients do and waits for the answer.
+     *
+     * @param transaction The transaction.
+     * @throws Exception If the node does not answer.
+     */
+    private static void submit(String transaction) throws Exception {
+        try (Socket socket = new Socket("127.0.0.1", CLIENT_PORT);
+             ObjectOutputStream out = new ObjectOutputStream(socket.getOutputStream());
+             ObjectInputStream in = new ObjectInputStream(socket.getInputStream())) {
+            out.writeObject(transaction);
+            out.flush();
+            in.readObject();
+        }
+    }
+
+    /**
+     * Opens connections to the node, reports on standard output how long that took, in seconds, and holds them until
+     * standard input closes.
+     *
+     * @param connections The number of connections.
+     * @throws Exception If a connection cannot be opened.
+     */
+    private static void hold(int connections) throws Exception {
+        List<Socket> sockets = new ArrayList<>(connections);
+        long start = System.nanoTime();
+        for (int i = 0; i < connections; i++) {
+            Socket socket = new Socket("127.0.0.1", CLIENT_PORT);
+            // Each connection starts a message it never finishes, as a slow client would
+            new ObjectOutputStream(socket.getOutputStream()).flush();
+            sockets.add(socket);
+        }
+        System.out.println((System.nanoTime() - start) / 1e9);
+        System.out.flush();
+        System.in.read();
+        for (Socket socket : sockets) {
+            socket.close();
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package test;
+
+import blockchain.Block;
+import blockchain.MiningAttempt;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the cost of one proof-of-work attempt as the number of transactions in a block grows.
+ * <p>
+ * For each transaction count, a legacy block (hashing the whole transaction list on every nonce) and a Merkle block
+ * (hashing a fixed-size header) are mined at an unreachable difficulty for a fixed time, and the number of hashes
+ * computed is reported as nanoseconds per nonce. The one-off cost of building the Merkle template is reported
+ * separately.
+ */
+public class BenchmarkHeaderHashing {
+    /** Time spent mining each block, in milliseconds. */
+    private static final long MEASURE_MILLIS = 500;
+    /** A difficulty no block can meet, so mining only stops when the attempt is cancelled. */
+    private static final int UNREACHABLE_DIFFICULTY = 64;
+    /** Hash of a fictitious parent block. */
+    private static final String PARENT_HASH = "00000a5cd25b66be183036efbf5b92be5344957445ca1e98ce2eb9ad34a3a150";
+
+    /**
+     * Runs the benchmark.
+     *
+     * @param args Unused.
+     */
+    public static void main(String[] args) {
+        ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+        System.out.printf("%12s %18s %18s %18s%n", "transactions", "legacy ns/nonce", "merkle ns/nonce", "merkle build ms");
+        for (int count : new int[]{1, 10, 100, 1_000, 10_000}) {
+            List<String> transactions = new ArrayList<>();
+            for (int i = 0; i < count; i++) {
+                transactions.add("transaction-" + i);
+            }
+            Block legacy = new Block(Block.LEGACY_VERSION, PARENT_HASH, 0, transactions);
+            long buildStart = System.nanoTime();
+            Block merkle = new Block(Block.MERKLE_VERSION, PARENT_HASH, 0, transactions);
+            double buildMillis = (System.nanoTime() - buildStart) / 1_000_000.0;
+            System.out.printf("%12d %18.1f %18.1f %18.3f%n", count,
+                    nanosPerNonce(legacy, timer), nanosPerNonce(merkle, timer), buildMillis);
+        }
+        timer.shutdownNow();
+    }
+
+    /**
+     * Mines a block for {@link #MEASURE_MILLIS} and reports the average time per nonce.
+     *
+     * @param block The block to mine.
+     * @param timer The scheduler cancelling the attempt.
+     * @return The average nanoseconds per nonce.
+     */
+    private static double nanosPerNonce(Block block, ScheduledExecutorService timer) {
+        MiningAttempt attempt = new MiningAttempt();
+        timer.schedule(attempt::cancel, MEASURE_MILLIS, TimeUnit.MILLISECONDS);
+        long start = System.nanoTime();
+        block.mineBlock(UNREACHABLE_DIFFICULTY, attempt);
+        return (System.nanoTime() - start) / (double) Math.max(1, attempt.getHashes());
+    }
+}
@@ -0,0 +1,110 @@
+package test;
+
+import blockchain.Block;
+import blockchain.MiningAttempt;
+import blockchain.MiningBackend;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the hash rate of each {@link MiningBackend} on one thread, and checks that every backend finds the same
+ * solution as {@link MiningBackend#MESSAGE_DIGEST}.
+ * <p>
+ * Vector backends are skipped unless the JVM was started with {@code --add-modules jdk.incubator.vector}. The JIT
+ * specializes the vector code for the first width it runs, so each vector backend should be measured in its own JVM by
+ * naming it on the command line, as {@code make bench} does.
+ */
+public class BenchmarkMiningBackends {
+    /** Time spent mining with each backend, in milliseconds, once after a warm-up run of the same length. */
+    private static final long MEASURE_MILLIS = 1_000;
+    /** A difficulty no block can meet, so mining only stops when the attempt is cancelled. */
+    private static final int UNREACHABLE_DIFFICULTY = 64;
+    /** Difficulty of the blocks mined to compare the solutions of the backends. */
+    private static final int CHECK_DIFFICULTY = 4;
+    /** Hash of a fictitious parent block. */
+    private static final String PARENT_HASH = "00000a5cd25b66be183036efbf5b92be5344957445ca1e98ce2eb9ad34a3a150";
+
+    /**
+     * Runs the benchmark.
+     *
+     * @param args The names of the backends to measure, or none to measure every backend.
+     */
+    public static void main(String[] args) {
+        List<MiningBackend> backends = new ArrayList<>();
+        for (String name : args) {
+            backends.add(MiningBackend.valueOf(name));
+        }
+        if (backends.isEmpty()) {
+            backends.addAll(List.of(MiningBackend.values()));
+        }
+        ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+        for (MiningBackend backend : backends) {
+            if (!backend.isAvailable()) {
+                System.out.printf("%-16s unavailable%n", backend);
+                continue;
+            }
+            hashRate(Block.LEGACY_VERSION, backend, timer);
+            hashRate(Block.MERKLE_VERSION, backend, timer);
+            double legacy = hashRate(Block.LEGACY_VERSION, backend, timer);
+            double merkle = hashRate(Block.MERKLE_VERSION, backend, timer);
+            boolean same = sameSolution(Block.LEGACY_VERSION, backend) && sameSolution(Block.MERKLE_VERSION, backend);
+            System.out.printf("%-16s legacy %6.2f MH/s, merkle %6.2f MH/s, solutions %s%n", backend, legacy / 1e6,
+                    merkle / 1e6, same ? "identical" : "MISMATCH");
+        }
+        timer.shutdownNow();
+    }
+
+    /**
+     * Mines a block for {@link #MEASURE_MILLIS} with the given backend and reports the hash rate.
+     *
+     * @param version The header version of the block.
+     * @param backend The backend to mine with.
+     * @param timer   The scheduler cancelling the attempt.
+     * @return The hashes per second.
+     */
+    private static double hashRate(int version, MiningBackend backend, ScheduledExecutorService timer) {
+        Block block = newBlock(version, "benchmark");
+        MiningAttempt attempt = new MiningAttempt();
+        timer.schedule(attempt::cancel, MEASURE_MILLIS, TimeUnit.MILLISECONDS);
+        long start = System.nanoTime();
+        block.mineBlock(UNREACHABLE_DIFFICULTY, attempt, backend);
+        return attempt.getHashes() * 1e9 / (System.nanoTime() - start);
+    }
+
+    /**
+     * Mines several blocks with the given backend and with {@link MiningBackend#MESSAGE_DIGEST}, and compares the
+     * solutions.
+     *
+     * @param version The header version of the blocks.
+     * @param backend The backend to check.
+     * @return True if every block got the same nonce and hash from both backends, and that hash is the hash of its
+     * contents.
+     */
+    private static boolean sameSolution(int version, MiningBackend backend) {
+        for (int i = 0; i < 4; i++) {
+            Block expected = newBlock(version, "check-" + i);
+            Block actual = newBlock(version, "check-" + i);
+            expected.mineBlock(CHECK_DIFFICULTY, new MiningAttempt(), MiningBackend.MESSAGE_DIGEST);
+            actual.mineBlock(CHECK_DIFFICULTY, new MiningAttempt(), backend);
+            if (!expected.equals(actual) || !actual.getHash().equals(actual.calculateHash())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Creates an unmined block holding a single transaction.
+     *
+     * @param version     The header version of the block.
+     * @param transaction The transaction of the block.
+     * @return The block.
+     */
+    private static Block newBlock(int version, String transaction) {
+        return new Block(version, PARENT_HASH, 0, List.of(transaction));
+    }
+}
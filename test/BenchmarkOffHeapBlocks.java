@@ -0,0 +1,146 @@
+package test;
+
+import blockchain.Block;
+import blockchain.BlockChain;
+import blockchain.DifficultyRule;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compares the heap held by a long chain, and the garbage collection pauses it causes, with its blocks on the heap and
+ * in an off-heap arena.
+ * <p>
+ * The chain is built without proof of work, then the heap is collected and the memory still in use is reported, with
+ * the size of the arena. Full collections are timed directly, as they trace every live object. A workload of random
+ * block reads, transaction lookups and short-lived allocations then runs while the young collections it triggers are
+ * counted and timed. Each mode should be measured in its own JVM by naming it on the command line, as
+ * {@code make bench} does, so that one chain does not weigh on the collections of the other. The logs of the node code
+ * are discarded.
+ */
+public class BenchmarkOffHeapBlocks {
+    /** Number of blocks of the chain. */
+    private static final int BLOCKS = 300_000;
+    /** Number of transactions per block. */
+    private static final int TRANSACTIONS_PER_BLOCK = 4;
+    /** Number of full collections timed. */
+    private static final int FULL_COLLECTIONS = 5;
+    /** Number of operations of the workload. */
+    private static final int OPERATIONS = 2_000_000;
+
+    /**
+     * Runs the benchmark.
+     *
+     * @param args The modes to measure, {@code heap} or {@code off-heap}, or none to measure both in this JVM.
+     */
+    public static void main(String[] args) {
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        List<String> modes = args.length == 0 ? List.of("heap", "off-heap") : List.of(args);
+        for (String mode : modes) {
+            if (!mode.equals("heap") && !mode.equals("off-heap")) {
+                throw new IllegalArgumentException("Unknown mode: " + mode);
+            }
+            report(out, mode.equals("off-heap"));
+        }
+    }
+
+    /**
+     * Builds a chain in one mode and prints the memory it holds and the collection pauses it causes.
+     *
+     * @param out     The stream to print to.
+     * @param offHeap True to keep the blocks in an off-heap arena.
+     */
+    private static void report(PrintStream out, boolean offHeap) {
+        long before = usedHeap();
+        BlockChain blockchain = new BlockChain(new DifficultyRule(0));
+        if (offHeap) {
+            blockchain.enableOffHeapBlocks();
+        }
+        for (int b = 0; b < BLOCKS; b++) {
+            List<String> transactions = new ArrayList<>(TRANSACTIONS_PER_BLOCK);
+            for (int t = 0; t < TRANSACTIONS_PER_BLOCK; t++) {
+                transactions.add("transaction-" + (b * TRANSACTIONS_PER_BLOCK + t));
+            }
+            Block tip = blockchain.getLastBlock();
+            blockchain.addBlock(new Block(tip.getHash(), tip.getTimestamp() + 1, transactions));
+        }
+        long heap = usedHeap() - before;
+
+        long start = System.nanoTime();
+        for (int i = 0; i < FULL_COLLECTIONS; i++) {
+            System.gc();
+        }
+        double fullMillis = (System.nanoTime() - start) / 1e6 / FULL_COLLECTIONS;
+
+        long[] gcBefore = youngCollections();
+        Random random = new Random(1);
+        long found = 0;
+        List<Object> survivors = new ArrayList<>();
+        start = System.nanoTime();
+        for (int i = 0; i < OPERATIONS; i++) {
+            int height = 1 + random.nextInt(BLOCKS);
+            found += blockchain.getBlock(height).getTransactions().size();
+            if (blockchain.isConfirmed("transaction-" + random.nextInt(BLOCKS * TRANSACTIONS_PER_BLOCK))) {
+                found++;
+            }
+            // Some objects live long enough to be copied, as requests and messages would
+            survivors.add(new byte[64]);
+            if (survivors.size() == 10_000) {
+                survivors.clear();
+            }
+        }
+        double workloadMillis = (System.nanoTime() - start) / 1e6;
+        long[] gcAfter = youngCollections();
+        long collections = gcAfter[0] - gcBefore[0];
+        long collectionMillis = gcAfter[1] - gcBefore[1];
+
+        out.printf("%-9s %,d blocks: heap %7.1f MiB, off-heap %6.1f MiB, full GC %7.1f ms, workload %6.0f ms "
+                        + "with %4d young GCs averaging %5.2f ms (%d hits)%n",
+                offHeap ? "off-heap" : "heap", BLOCKS, heap / (1024.0 * 1024.0),
+                blockchain.getOffHeapBytes() / (1024.0 * 1024.0), fullMillis, workloadMillis, collections,
+                collections == 0 ? 0.0 : (double) collectionMillis / collections, found);
+        // Keep the chain reachable until it has been measured
+        if (blockchain.getChain().size() != BLOCKS + 1) {
+            throw new IllegalStateException("Chain lost blocks");
+        }
+    }
+
+    /**
+     * Reads the counters of the young-generation collectors.
+     *
+     * @return The number of young collections so far and their total time in milliseconds.
+     */
+    private static long[] youngCollections() {
+        long[] counters = new long[2];
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            String name = collector.getName();
+            if (name.equals("Copy") || name.contains("Young") || name.equals("PS Scavenge")) {
+                counters[0] += collector.getCollectionCount();
+                counters[1] += collector.getCollectionTime();
+            }
+        }
+        return counters;
+    }
+
+    /**
+     * Collects the heap until its use settles and measures it.
+     *
+     * @return The bytes of heap in use.
+     */
+    private static long usedHeap() {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        long used = Long.MAX_VALUE;
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+            used = Math.min(used, memory.getHeapMemoryUsage().getUsed());
+        }
+        return used;
+    }
+}
@@ -0,0 +1,96 @@
+package test;
+
+import blockchain.Block;
+import blockchain.BlockChain;
+import blockchain.DifficultyRule;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Reports the steady-state heap used by a chain whose blocks keep their bodies against a pruned chain.
+ * <p>
+ * The same blocks are appended to a chain indexing its transactions exactly and to one pruning the bodies of its deep
+ * blocks. After each chain is built, the heap is collected and the memory still in use, less that in use before, is
+ * reported along with the time to look up every transaction. Blocks are built without proof of work. The logs of the
+ * node code are discarded.
+ */
+public class BenchmarkPruning {
+    /** Number of blocks of the chain. */
+    private static final int BLOCKS = 5_000;
+    /** Number of transactions per block. */
+    private static final int TRANSACTIONS_PER_BLOCK = 50;
+    /** Number of blocks below the tip that keep their body in the pruned chain. */
+    private static final int PRUNE_DEPTH = 100;
+
+    /**
+     * Runs the benchmark.
+     *
+     * @param args Unused.
+     */
+    public static void main(String[] args) {
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        out.printf("%d blocks of %d transactions%n", BLOCKS, TRANSACTIONS_PER_BLOCK);
+        out.printf("%-28s %12s %16s %14s%n", "chain", "heap MiB", "bytes/transaction", "lookups ms");
+        report(out, "unpruned, exact index", blockchain -> {
+        });
+        report(out, "pruned below depth " + PRUNE_DEPTH, blockchain -> blockchain.enablePruning(PRUNE_DEPTH));
+    }
+
+    /**
+     * Builds a chain in the given mode and prints the heap it holds and the time to look up its transactions.
+     *
+     * @param out  The stream to print to.
+     * @param name The name of the mode.
+     * @param mode Configures the new chain before blocks are appended to it.
+     */
+    private static void report(PrintStream out, String name, Consumer<BlockChain> mode) {
+        long before = usedHeap();
+        BlockChain blockchain = new BlockChain(new DifficultyRule(0));
+        mode.accept(blockchain);
+        for (int b = 0; b < BLOCKS; b++) {
+            List<String> transactions = new ArrayList<>(TRANSACTIONS_PER_BLOCK);
+            for (int t = 0; t < TRANSACTIONS_PER_BLOCK; t++) {
+                transactions.add("transaction-" + (b * TRANSACTIONS_PER_BLOCK + t));
+            }
+            Block tip = blockchain.getLastBlock();
+            blockchain.addBlock(new Block(tip.getHash(), tip.getTimestamp() + 1, transactions));
+        }
+        long used = usedHeap() - before;
+
+        long start = System.nanoTime();
+        for (int i = 0; i < BLOCKS * TRANSACTIONS_PER_BLOCK; i++) {
+            if (!blockchain.isConfirmed("transaction-" + i)) {
+                throw new IllegalStateException("Lost transaction-" + i);
+            }
+        }
+        double lookupMillis = (System.nanoTime() - start) / 1_000_000.0;
+        out.printf("%-28s %12.1f %16.1f %14.1f%n", name, used / (1024.0 * 1024.0),
+                (double) used / (BLOCKS * TRANSACTIONS_PER_BLOCK), lookupMillis);
+        // Keep the chain reachable until its heap has been measured
+        if (blockchain.getChain().size() != BLOCKS + 1) {
+            throw new IllegalStateException("Chain lost blocks");
+        }
+    }
+
+    /**
+     * Collects the heap until its use settles and measures it.
+     *
+     * @return The bytes of heap in use.
+     */
+    private static long usedHeap() {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        long used = Long.MAX_VALUE;
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+            used = Math.min(used, memory.getHeapMemoryUsage().getUsed());
+        }
+        return used;
+    }
+}
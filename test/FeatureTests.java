@@ -0,0 +1,57 @@
+package test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static common.FormattedSystemOut.setupFormattedSysOut;
+
+/**
+ * Runs the tests of the features added on top of the conformance tests of {@link Lab4FinalTests}, in order, and exits
+ * with a non-zero status if any of them fails.
+ */
+public class FeatureTests {
+
+    public static void main(String[] args) {
+        setupFormattedSysOut();
+        List<Test> tests = new ArrayList<>();
+        tests.add(new TestLegacyBlockHash());
+        tests.add(new TestMiningBackends());
+        tests.add(new TestParallelMiner());
+        tests.add(new TestMultiTransactionBlocks());
+        tests.add(new TestDifficultyRetargeting());
+        tests.add(new TestTransactionFilter());
+        tests.add(new TestBlockTree());
+        tests.add(new TestChainSnapshots());
+        tests.add(new TestBlockLog());
+        tests.add(new TestChainCheckpoint());
+        tests.add(new TestCheckpointBootstrap());
+        tests.add(new TestBlockPruning());
+        tests.add(new TestOffHeapBlocks());
+        tests.add(new TestBlockCodec());
+        tests.add(new TestPeerChannels());
+        tests.add(new TestSelectorNetworking());
+        tests.add(new TestVirtualThreadMode());
+        tests.add(new TestPeerOutboundQueues());
+        tests.add(new TestOrphanBlocks());
+        tests.add(new TestStaleMiningAbandoned());
+        tests.add(new TestChainValidation());
+        List<String> failed = new ArrayList<>();
+        for (Test test : tests) {
+            try {
+                test.perform();
+                System.out.println("Test passed: " + test.getClass().getName());
+            } catch (Exception e) {
+                failed.add(test.getClass().getName());
+                System.out.println("Test failed: " + test.getClass().getName() + ": " + e.getMessage());
+            }
+        }
+        System.out.println((tests.size() - failed.size()) + " of " + tests.size() + " feature tests passed");
+        if (failed.isEmpty()) {
+            System.out.println("All feature tests passed!");
+            System.exit(0);
+        } else {
+            System.out.println("Failed: " + failed);
+            System.exit(2);
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package test;
+
+import blockchain.Block;
+import blockchain.BlockChain;
+import blockchain.BlockCodec;
+import blockchain.DifficultyRule;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Tests that blocks of every kind are encoded by {@link BlockCodec} and decoded back equal, alone and in sequences,
+ * and that truncated, padded or damaged encodings are rejected rather than decoded into other blocks.
+ * <p>
+ * Blocks are built locally without proof of work, so no node is started.
+ */
+public class TestBlockCodec extends Test {
+    /**
+     * Creates the test; it needs no nodes.
+     */
+    public TestBlockCodec() {
+        NUM_NODES = 0;
+    }
+
+    /**
+     * Encodes and decodes sample blocks, then feeds the decoder broken encodings.
+     *
+     * @throws IOException If a stream cannot be written.
+     */
+    @Override
+    public void perform() throws IOException {
+        BlockChain blockchain = new BlockChain(new DifficultyRule(0));
+        Block genesis = blockchain.getLastBlock();
+        Block legacy = new Block(Block.LEGACY_VERSION, genesis.getHash(), 1, List.of("tx-1", "\u00e9-\u2211-\ud83d\ude00", ""));
+        legacy.mineBlock(1);
+        Block merkle = new Block(Block.MERKLE_VERSION, legacy.getHash(), 2, List.of("tx-2", "tx-3"));
+        Block empty = new Block(Block.MERKLE_VERSION, merkle.getHash(), 3, List.of());
+        blockchain.addBlock(legacy);
+        blockchain.addBlock(merkle);
+        blockchain.addBlock(empty);
+        blockchain.enablePruning(1);
+        Block pruned = blockchain.getBlock(1);
+        if (!pruned.isPruned()) {
+            fail("Sample block was not pruned");
+        }
+        // Blocks no chain would accept are still carried as they are
+        Block irregular = new Block("not-a-hash", Long.MAX_VALUE, List.of("tx-4"));
+        List<String> transactions = new ArrayList<>(List.of("tx-5"));
+        transactions.add(null);
+        Block withNull = new Block(Block.LEGACY_VERSION, empty.getHash(), 4, transactions);
+        List<Block> samples = List.of(genesis, legacy, merkle, empty, pruned, irregular, withNull);
+
+        for (Block block : samples) {
+            Block decoded = BlockCodec.decode(BlockCodec.encode(block));
+            if (!decoded.equals(block) || decoded.isPruned() != block.isPruned()
+                    || !decoded.getTransactions().equals(block.getTransactions())
+                    || decoded.getNonce() != block.getNonce() || decoded.getTimestamp() != block.getTimestamp()) {
+                fail("Block decoded as " + decoded + " instead of " + block);
+            }
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        BlockCodec.writeBlocks(bytes, samples);
+        BlockCodec.writeBlock(bytes, merkle);
+        ByteArrayInputStream in = new ByteArrayInputStream(bytes.toByteArray());
+        if (!BlockCodec.readBlocks(in).equals(samples) || !BlockCodec.readBlock(in).equals(merkle)
+                || in.available() != 0) {
+            fail("Sequence of blocks decoded differently");
+        }
+
+        // Every cut of an encoding, and any byte after it, is rejected
+        byte[] encoded = BlockCodec.encode(legacy);
+        for (int length = 0; length < encoded.length; length++) {
+            rejects(Arrays.copyOf(encoded, length), "Truncated encoding of " + length + " bytes");
+        }
+        rejects(Arrays.copyOf(encoded, encoded.length + 1), "Padded encoding");
+        byte[] version = encoded.clone();
+        version[0] = BlockCodec.FORMAT_VERSION + 1;
+        rejects(version, "Encoding of an unknown format version");
+        byte[] count = BlockCodec.encode(merkle);
+        // The body of this block is its count and two transactions of five bytes; claim one only
+        count[count.length - 11] = 1;
+        rejects(count, "Encoding with a wrong transaction count");
+        rejects(new byte[]{BlockCodec.FORMAT_VERSION, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF,
+                (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF}, "Overlong varint");
+
+        ByteArrayOutputStream huge = new ByteArrayOutputStream();
+        huge.write(new byte[]{(byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x0F});
+        try {
+            BlockCodec.readBlock(new ByteArrayInputStream(huge.toByteArray()));
+            fail("Accepted a block of 4 GiB");
+        } catch (IOException e) {
+            // Expected: the length is refused before anything is allocated
+        }
+        System.out.println("Encoded " + samples.size() + " blocks in " + bytes.size() + " bytes");
+    }
+
+    /**
+     * Checks that an encoding is rejected.
+     *
+     * @param encoded The encoding.
+     * @param name    The description of the encoding, for failure messages.
+     */
+    private void rejects(byte[] encoded, String name) {
+        try {
+            Block block = BlockCodec.decode(encoded);
+            fail(name + " decoded as " + block);
+        } catch (IOException e) {
+            // Expected
+        } catch (RuntimeException e) {
+            fail(name + " failed with " + e);
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package test;
+
+import blockchain.Block;
+import blockchain.BlockChain;
+import blockchain.BlockCodec;
+import blockchain.DifficultyRule;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Tests that a chain persisted to a block log is restored as it was, across reorganizations and a torn last record,
+ * that a restored chain can be brought up to date with only the blocks above its tip, and that records in Java
+ * serialization, or malformed behind an intact checksum, are cut rather than deserialized.
+ * <p>
+ * Blocks are built locally without proof of work, so no node is started.
+ */
+public class TestBlockLog extends Test {
+    /**
+     * Creates the test; it needs no nodes.
+     */
+    public TestBlockLog() {
+        NUM_NODES = 0;
+    }
+
+    /**
+     * Persists a chain, restores it into new chains, and checks the restored blocks.
+     *
+     * @throws IOException If the log cannot be written or read.
+     */
+    @Override
+    public void perform() throws IOException {
+        Path directory = Files.createTempDirectory("block-log");
+        try {
+            BlockChain blockchain = new BlockChain(new DifficultyRule(0));
+            blockchain.openLog(directory, 4, 100);
+            for (int i = 0; i <= 50; i++) {
+                extend(blockchain, "tx-" + i);
+                if (i % 10 == 9) {
+                    // Cut the last three blocks, whose records stay behind in the log
+                    blockchain.replaceChain(new ArrayList<>(blockchain.getChain().subList(0, blockchain.getChain().size() - 3)));
+                }
+            }
+            blockchain.closeLog();
+
+            BlockChain restored = new BlockChain(new DifficultyRule(0));
+            int count = restored.openLog(directory, 4, 100);
+            if (count != blockchain.getChain().size() || !hashes(restored).equals(hashes(blockchain))
+                    || !restored.getTotalWork().equals(blockchain.getTotalWork())
+                    || !restored.isConfirmed("tx-50") || restored.isConfirmed("tx-48")) {
+                fail("Restored " + count + " blocks instead of the " + blockchain.getChain().size() + " persisted");
+            }
+
+            // Appending to the restored chain continues the same log
+            extend(restored, "tx-after-restart");
+            restored.closeLog();
+
+            // A torn last record is cut from the chain rather than failing the restore
+            try (FileChannel segment = FileChannel.open(directory.resolve("blocks.dat"), StandardOpenOption.WRITE)) {
+                segment.truncate(segment.size() - 1);
+            }
+            BlockChain recovered = new BlockChain(new DifficultyRule(0));
+            count = recovered.openLog(directory, 4, 100);
+            recovered.closeLog();
+            if (count != blockchain.getChain().size() || !hashes(recovered).equals(hashes(blockchain))) {
+                fail("Recovered " + count + " blocks from a torn log instead of " + blockchain.getChain().size());
+            }
+
+            // A restored chain only needs the blocks mined above its tip
+            List<Block> missing = restored.getBlocksAfter(recovered.getLocator(), 500);
+            if (missing.size() != 1 || !missing.get(0).getTransactions().equals(List.of("tx-after-restart"))) {
+                fail("Expected the single block above the restored tip, got " + missing);
+            }
+            if (!recovered.acceptBlock(missing.get(0)) || !hashes(recovered).equals(hashes(restored))) {
+                fail("Restored chain did not catch up");
+            }
+
+            // A record in Java serialization rather than the codec is never deserialized, and is cut like a torn one
+            int last = blockchain.getChain().size() - 1;
+            ByteArrayOutputStream serialized = new ByteArrayOutputStream();
+            try (ObjectOutputStream out = new ObjectOutputStream(serialized)) {
+                out.writeObject(blockchain.getLastBlock());
+            }
+            replaceLastRecord(directory, last, serialized.toByteArray());
+            BlockChain unfiltered = new BlockChain(new DifficultyRule(0));
+            count = unfiltered.openLog(directory, 4, 100);
+            unfiltered.closeLog();
+            if (count != last) {
+                fail("Restored " + count + " blocks from a log with a serialized record instead of " + last);
+            }
+
+            // A record in the codec's format with an intact checksum but malformed content is cut like a torn one
+            byte[] encoded = BlockCodec.encode(blockchain.getChain().get(last - 1));
+            replaceLastRecord(directory, last - 1, Arrays.copyOf(encoded, encoded.length + 1));
+            BlockChain malformed = new BlockChain(new DifficultyRule(0));
+            count = malformed.openLog(directory, 4, 100);
+            malformed.closeLog();
+            if (count != last - 1) {
+                fail("Restored " + count + " blocks from a log with a malformed record instead of " + (last - 1));
+            }
+            System.out.println("Restored " + count + " blocks from the block log");
+        } finally {
+            try (Stream<Path> files = Files.walk(directory)) {
+                for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                    Files.delete(file);
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes a record at the end of the segment of a block log and points the index entry of the last block at it.
+     *
+     * @param directory The directory of the log.
+     * @param last      The height of the last block of the log.
+     * @param record    The record.
+     * @throws IOException If the log cannot be written.
+     */
+    private void replaceLastRecord(Path directory, int last, byte[] record) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(record);
+        try (FileChannel segment = FileChannel.open(directory.resolve("blocks.dat"), StandardOpenOption.WRITE);
+             FileChannel index = FileChannel.open(directory.resolve("blocks.idx"), StandardOpenOption.WRITE)) {
+            long offset = segment.size();
+            segment.write(ByteBuffer.wrap(record), offset);
+            // Point the index entry at the record: offset, length and checksum
+            ByteBuffer entry = ByteBuffer.allocate(16).putLong(offset).putInt(record.length)
+                    .putInt((int) crc.getValue()).flip();
+            index.write(entry, 16 + (long) last * 48);
+        }
+    }
+
+    /**
+     * Appends a block with a single transaction on top of a chain.
+     *
+     * @param blockchain  The chain.
+     * @param transaction The transaction of the block.
+     */
+    private void extend(BlockChain blockchain, String transaction) {
+        Block tip = blockchain.getLastBlock();
+        blockchain.addBlock(new Block(tip.getHash(), tip.getTimestamp() + 1, List.of(transaction)));
+    }
+
+    /**
+     * Lists the hashes of the blocks of a chain.
+     *
+     * @param blockchain The chain.
+     * @return The hashes, lowest first.
+     */
+    private List<String> hashes(BlockChain blockchain) {
+        List<String> hashes = new ArrayList<>();
+        for (Block block : blockchain.getChain()) {
+            hashes.add(block.getHash());
+        }
+        return hashes;
+    }
+}
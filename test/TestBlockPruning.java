@@ -0,0 +1,148 @@
+package test;
+
+import blockchain.Block;
+import blockchain.BlockChain;
+import blockchain.DifficultyRule;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Tests that a pruned chain keeps only the headers of its deep blocks, still rejects their transactions through its
+ * fingerprint index, refuses forks below them, and serves and restores their bodies from the block log.
+ * <p>
+ * Blocks are built locally without proof of work, so no node is started.
+ */
+public class TestBlockPruning extends Test {
+    /** Number of blocks below the tip that keep their body. */
+    private static final int DEPTH = 4;
+    /** Number of blocks appended above the genesis block. */
+    private static final int BLOCKS = 40;
+
+    /**
+     * Creates the test; it needs no nodes.
+     */
+    public TestBlockPruning() {
+        NUM_NODES = 0;
+    }
+
+    /**
+     * Grows a pruned, persisted chain and checks its blocks, lookups and forks, then restores it.
+     *
+     * @throws IOException If the log cannot be written or read.
+     */
+    @Override
+    public void perform() throws IOException {
+        Path directory = Files.createTempDirectory("pruning");
+        try {
+            BlockChain blockchain = new BlockChain(new DifficultyRule(0));
+            blockchain.enablePruning(DEPTH);
+            blockchain.openLog(directory, 1, 100);
+            for (int i = 0; i < BLOCKS; i++) {
+                extend(blockchain, "tx-" + i);
+            }
+            checkPruned(blockchain);
+
+            // Transactions of pruned blocks are still confirmed, and a block repeating one is rejected
+            if (!blockchain.isConfirmed("tx-0") || blockchain.isConfirmed("tx-pending")) {
+                fail("Fingerprint index lost track of the pruned transactions");
+            }
+            Block tip = blockchain.getLastBlock();
+            if (blockchain.acceptBlock(new Block(tip.getHash(), tip.getTimestamp() + 1, List.of("tx-1")))) {
+                fail("Accepted a block repeating the transaction of a pruned block");
+            }
+
+            // A fork whose blocks would disconnect pruned blocks is refused, one above them is kept
+            Block deep = blockchain.getBlock(1);
+            if (blockchain.acceptBlock(new Block(deep.getHash(), deep.getTimestamp() + 1, List.of("fork-deep")))) {
+                fail("Accepted a fork below the pruned blocks");
+            }
+            Block shallow = blockchain.getBlock(BLOCKS - 1);
+            if (!blockchain.acceptBlock(new Block(shallow.getHash(), shallow.getTimestamp() + 2, List.of("fork-shallow")))) {
+                fail("Refused a fork above the pruned blocks");
+            }
+
+            // So is a longer peer chain forking below them, which leaves the chain as it is
+            List<Block> peerChain = new ArrayList<>(blockchain.getFullChain().subList(0, 2));
+            for (int i = 0; i < BLOCKS + 5; i++) {
+                Block parent = peerChain.get(peerChain.size() - 1);
+                peerChain.add(new Block(parent.getHash(), parent.getTimestamp() + 3, List.of("peer-" + i)));
+            }
+            Block tipBefore = blockchain.getLastBlock();
+            if (blockchain.replaceChain(peerChain) || !blockchain.getLastBlock().equals(tipBefore)) {
+                fail("Replaced the chain by one forking below the pruned blocks");
+            }
+
+            // Cutting blocks that kept their body forgets their transactions only
+            blockchain.replaceChain(new ArrayList<>(blockchain.getChain().subList(0, BLOCKS - 1)));
+            if (blockchain.isConfirmed("tx-" + (BLOCKS - 1)) || !blockchain.isConfirmed("tx-0")) {
+                fail("Transaction lookups do not follow the shortened chain");
+            }
+            extend(blockchain, "tx-after-cut");
+
+            // Peers are served every body, read back from the log
+            List<Block> full = blockchain.getFullChain();
+            for (int height = 1; height < full.size(); height++) {
+                Block block = full.get(height);
+                if (block.isPruned() || !block.getHash().equals(blockchain.getBlock(height).getHash())
+                        || !block.getHash().equals(block.calculateHash())) {
+                    fail("Served block at height " + height + " without its body: " + block);
+                }
+            }
+            blockchain.closeLog();
+
+            // A restored chain is pruned again and keeps its index
+            BlockChain restored = new BlockChain(new DifficultyRule(0));
+            restored.enablePruning(DEPTH);
+            int count = restored.openLog(directory, 1, 100);
+            restored.closeLog();
+            if (count != blockchain.getChain().size() || !restored.isConfirmed("tx-0")
+                    || !restored.isConfirmed("tx-after-cut") || restored.isConfirmed("tx-" + (BLOCKS - 1))) {
+                fail("Restored " + count + " blocks with wrong transactions instead of " + blockchain.getChain().size());
+            }
+            checkPruned(restored);
+            System.out.println("Pruned " + restored.getPrunedHeight() + " of " + count + " blocks to their header");
+        } finally {
+            try (Stream<Path> files = Files.walk(directory)) {
+                for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                    Files.delete(file);
+                }
+            }
+        }
+    }
+
+    /**
+     * Checks that exactly the blocks below the pruned height lost their body, and that it leaves no more blocks
+     * whole than the depth allows, plus one batch.
+     *
+     * @param blockchain The chain.
+     */
+    private void checkPruned(BlockChain blockchain) {
+        int tip = blockchain.getChain().size() - 1;
+        int pruned = blockchain.getPrunedHeight();
+        if (pruned == 0 || pruned > tip - DEPTH || tip - pruned > 2 * DEPTH) {
+            fail("Pruned " + pruned + " blocks of a chain of " + (tip + 1) + " at depth " + DEPTH);
+        }
+        for (int height = 0; height <= tip; height++) {
+            if (blockchain.getBlock(height).isPruned() != height < pruned) {
+                fail("Block at height " + height + " is " + (height < pruned ? "not " : "") + "pruned");
+            }
+        }
+    }
+
+    /**
+     * Appends a block with a single transaction on top of a chain.
+     *
+     * @param blockchain  The chain.
+     * @param transaction The transaction of the block.
+     */
+    private void extend(BlockChain blockchain, String transaction) {
+        Block tip = blockchain.getLastBlock();
+        blockchain.addBlock(new Block(tip.getHash(), tip.getTimestamp() + 1, List.of(transaction)));
+    }
+}
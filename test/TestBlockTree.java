@@ -0,0 +1,114 @@
+package test;
+
+import blockchain.Block;
+import blockchain.BlockChain;
+import blockchain.ChainListener;
+import blockchain.DifficultyRule;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests that competing branches are kept in the block tree and that switching between them only disconnects and
+ * connects the blocks above the fork point.
+ * <p>
+ * Blocks are built locally without proof of work, so no node is started.
+ */
+public class TestBlockTree extends Test {
+    /**
+     * Creates the test; it needs no nodes.
+     */
+    public TestBlockTree() {
+        NUM_NODES = 0;
+    }
+
+    /**
+     * Grows two branches from a common block, alternately heavier, and checks the reorganizations between them.
+     */
+    @Override
+    public void perform() {
+        BlockChain blockchain = new BlockChain(new DifficultyRule(0));
+        List<String> events = new ArrayList<>();
+        blockchain.addListener(new ChainListener() {
+            @Override
+            public void tipChanged(Block newTip) {
+            }
+
+            @Override
+            public void blockConnected(Block block, int height) {
+                events.add("+" + height);
+            }
+
+            @Override
+            public void blockDisconnected(Block block, int height) {
+                events.add("-" + height);
+            }
+        });
+
+        Block shared = extend(blockchain, blockchain.getLastBlock(), "a", "shared");
+        Block a2 = extend(blockchain, shared, "a", "x");
+        Block a3 = extend(blockchain, a2, "a", "y");
+
+        // A lighter branch reusing the transactions of the active one is kept aside
+        Block b2 = extend(blockchain, shared, "b", "y");
+        Block b3 = extend(blockchain, b2, "b", "x");
+        if (!blockchain.getLastBlock().equals(a3) || blockchain.getSideBlockCount() != 2) {
+            fail("Branch of equal work replaced the active chain");
+        }
+
+        // Once heavier, it becomes active: only the blocks above the fork point move
+        events.clear();
+        Block b4 = extend(blockchain, b3, "b", "z");
+        if (!blockchain.getLastBlock().equals(b4) || !events.equals(List.of("-3", "-2", "+2", "+3", "+4"))) {
+            fail("Unexpected reorganization " + events + " to tip " + blockchain.getLastBlock());
+        }
+        if (!blockchain.containsBlock(shared) || blockchain.containsBlock(a2) || !blockchain.isConfirmed("x")
+                || blockchain.getSideBlockCount() != 2) {
+            fail("Active chain does not match the heavier branch");
+        }
+
+        // The old branch is still known, so it can win back without being downloaded again
+        events.clear();
+        Block a4 = extend(blockchain, a3, "a", "z");
+        Block a5 = extend(blockchain, a4, "a", "w");
+        if (!blockchain.getLastBlock().equals(a5)
+                || !events.equals(List.of("-4", "-3", "-2", "+2", "+3", "+4", "+5"))) {
+            fail("Unexpected reorganization " + events + " to tip " + blockchain.getLastBlock());
+        }
+
+        // A block repeating a transaction of its own branch is rejected
+        Block duplicate = new Block(a5.getHash(), 0, List.of("a-dup", "x"));
+        if (blockchain.acceptBlock(duplicate)) {
+            fail("Block repeating a confirmed transaction was accepted");
+        }
+        // A peer sharing only the fork point is sent exactly the blocks it misses
+        List<String> locator = blockchain.getLocator();
+        if (!locator.get(0).equals(a5.getHash())
+                || !locator.get(locator.size() - 1).equals(blockchain.getBlock(0).getHash())) {
+            fail("Locator does not span the chain: " + locator);
+        }
+        List<Block> missing = blockchain.getAncestors(a5.getHash(), List.of("unknown", shared.getHash()), 10);
+        if (!missing.equals(List.of(a2, a3, a4, a5))
+                || !blockchain.getAncestors(a5.getHash(), List.of(shared.getHash()), 3).isEmpty()) {
+            fail("Unexpected missing ancestors " + missing);
+        }
+        System.out.println("Block tree switched branches with " + blockchain.getSideBlockCount() + " side blocks");
+    }
+
+    /**
+     * Builds a block on top of the given parent and submits it to the chain.
+     *
+     * @param blockchain  The chain.
+     * @param parent      The parent of the block.
+     * @param branch      The name of the branch, which makes the block unique.
+     * @param transaction The transaction of the block.
+     * @return The block.
+     */
+    private Block extend(BlockChain blockchain, Block parent, String branch, String transaction) {
+        Block block = new Block(parent.getHash(), 0, List.of(branch + "-" + parent.getHash(), transaction));
+        if (!blockchain.acceptBlock(block)) {
+            fail("Valid block on branch " + branch + " was rejected: " + block);
+        }
+        return block;
+    }
+}
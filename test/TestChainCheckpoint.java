@@ -0,0 +1,108 @@
+package test;
+
+import blockchain.Block;
+import blockchain.BlockChain;
+import blockchain.DifficultyRule;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Tests that a chain restored from its block log is only validated above its latest checkpoint, stored in a binary
+ * format of its own, and in full when the checkpoint is cut or altered.
+ * <p>
+ * The blocks are appended without proof of work to a chain requiring 32 leading zero bits, so a restore that validates
+ * a block always rejects it. No node is started.
+ */
+public class TestChainCheckpoint extends Test {
+    /** Number of leading zero bits the blocks would need to be valid. */
+    private static final int ZERO_BITS = 32;
+    /** Number of blocks between two checkpoints. */
+    private static final int CHECKPOINT_INTERVAL = 10;
+
+    /**
+     * Creates the test; it needs no nodes.
+     */
+    public TestChainCheckpoint() {
+        NUM_NODES = 0;
+    }
+
+    /**
+     * Restores the same log with its checkpoint, without it and with an altered one.
+     *
+     * @throws IOException If the log cannot be written or read.
+     */
+    @Override
+    public void perform() throws IOException {
+        Path directory = Files.createTempDirectory("checkpoint");
+        try {
+            BlockChain blockchain = new BlockChain(new DifficultyRule(ZERO_BITS));
+            blockchain.openLog(directory, 1, CHECKPOINT_INTERVAL);
+            for (int i = 0; i < 25; i++) {
+                Block tip = blockchain.getLastBlock();
+                blockchain.addBlock(new Block(tip.getHash(), tip.getTimestamp() + 1, List.of("tx-" + i)));
+            }
+            blockchain.closeLog();
+            Path checkpoint = directory.resolve("checkpoint.dat");
+            if (!Files.exists(checkpoint)) {
+                fail("No checkpoint written after 25 blocks");
+            }
+
+            // Blocks up to the checkpoint at height 20 are trusted, the five above it are validated and dropped
+            byte[] index = Files.readAllBytes(directory.resolve("blocks.idx"));
+            int restored = restore(directory);
+            if (restored != 21) {
+                fail("Expected the 21 blocks up to the checkpoint, restored " + restored);
+            }
+
+            // Checkpoints are stored in their own binary format rather than with Java serialization
+            byte[] bytes = Files.readAllBytes(checkpoint);
+            if (!new String(bytes, 0, 4, StandardCharsets.ISO_8859_1).equals("CKPT")) {
+                fail("Checkpoint is not in the binary format: " + Arrays.toString(Arrays.copyOf(bytes, 4)));
+            }
+
+            // A cut checkpoint is ignored, so every block above the genesis block is validated
+            Files.write(checkpoint, Arrays.copyOf(bytes, bytes.length / 2));
+            restored = restore(directory);
+            if (restored != 1) {
+                fail("Expected only the genesis block with a cut checkpoint, restored " + restored);
+            }
+
+            // So is a checkpoint whose filter no longer matches its digest, restored with the blocks cut since
+            Files.write(directory.resolve("blocks.idx"), index);
+            bytes[bytes.length / 2] ^= 1;
+            Files.write(checkpoint, bytes);
+            restored = restore(directory);
+            if (restored != 1) {
+                fail("Expected only the genesis block with an altered checkpoint, restored " + restored);
+            }
+            System.out.println("Restores trusted the log only up to an intact checkpoint");
+        } finally {
+            try (Stream<Path> files = Files.walk(directory)) {
+                for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                    Files.delete(file);
+                }
+            }
+        }
+    }
+
+    /**
+     * Restores a new chain from a block log.
+     *
+     * @param directory The directory of the log.
+     * @return The number of blocks of the restored chain.
+     * @throws IOException If the log cannot be read.
+     */
+    private int restore(Path directory) throws IOException {
+        BlockChain blockchain = new BlockChain(new DifficultyRule(ZERO_BITS));
+        blockchain.openLog(directory, 1, CHECKPOINT_INTERVAL);
+        blockchain.closeLog();
+        return blockchain.getChain().size();
+    }
+}
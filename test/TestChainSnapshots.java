@@ -0,0 +1,138 @@
+package test;
+
+import blockchain.Block;
+import blockchain.BlockChain;
+import blockchain.DifficultyRule;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Tests that snapshots of the chain, and the difficulty and work read from them, stay consistent while the chain grows
+ * and reorganizes, without any locking by their readers.
+ * <p>
+ * Blocks are built locally without proof of work, so no node is started.
+ */
+public class TestChainSnapshots extends Test {
+    private static final int BLOCKS = 2_000;
+
+    /**
+     * Creates the test; it needs no nodes.
+     */
+    public TestChainSnapshots() {
+        NUM_NODES = 0;
+    }
+
+    /**
+     * Reads and serializes snapshots from another thread while the chain changes, and checks old snapshots are
+     * unaffected by later changes.
+     *
+     * @throws IOException          If a snapshot cannot be serialized.
+     * @throws InterruptedException If the reader cannot be joined.
+     */
+    @Override
+    public void perform() throws IOException, InterruptedException {
+        BlockChain blockchain = new BlockChain(new DifficultyRule(0));
+        AtomicBoolean done = new AtomicBoolean();
+        AtomicReference<Throwable> readerFailure = new AtomicReference<>();
+        Thread reader = new Thread(() -> {
+            try {
+                while (!done.get()) {
+                    List<Block> chain = blockchain.getChain();
+                    checkLinked(chain);
+                    checkLinked(roundTrip(blockchain.getChain()));
+                    // Difficulty and work are read from a snapshot too, even for blocks cut meanwhile
+                    blockchain.getDifficultyBitsAfter(chain.get(chain.size() - 1));
+                    BigInteger work = blockchain.getWorkSince(chain.get(chain.size() / 2));
+                    if (blockchain.getTotalWork().signum() < 0 || work != null && work.signum() < 0) {
+                        throw new IllegalStateException("Negative work read while the chain changed");
+                    }
+                }
+            } catch (Throwable e) {
+                readerFailure.set(e);
+            }
+        });
+        reader.start();
+
+        List<Block> snapshot = null;
+        List<String> snapshotHashes = new ArrayList<>();
+        for (int i = 0; i < BLOCKS; i++) {
+            if (i == BLOCKS / 2 - 1) {
+                // Taken just before a cut, so the replacement branch reuses the slots it sees
+                snapshot = blockchain.getChain();
+                for (Block block : snapshot) {
+                    snapshotHashes.add(block.getHash());
+                }
+            }
+            if (i % 100 == 99) {
+                // Cut the last ten blocks and grow a replacement branch
+                List<Block> kept = new ArrayList<>(blockchain.getChain().subList(0, blockchain.getChain().size() - 10));
+                blockchain.replaceChain(kept);
+            }
+            Block tip = blockchain.getLastBlock();
+            blockchain.addBlock(new Block(tip.getHash(), i, List.of("tx-" + i)));
+        }
+        done.set(true);
+        reader.join();
+
+        if (readerFailure.get() != null) {
+            fail("Snapshot read failed while the chain changed: " + readerFailure.get());
+        }
+        // The snapshot taken halfway still holds the blocks it was taken with, including those cut since
+        List<String> hashes = new ArrayList<>();
+        for (Block block : snapshot) {
+            hashes.add(block.getHash());
+        }
+        if (!hashes.equals(snapshotHashes)) {
+            fail("Snapshot changed after it was taken");
+        }
+        try {
+            if (!(roundTrip(snapshot) instanceof ArrayList)) {
+                fail("Snapshot was not serialized as a plain list");
+            }
+        } catch (ClassNotFoundException e) {
+            fail("Snapshot could not be deserialized: " + e);
+        }
+        System.out.println("Snapshots stayed consistent over " + BLOCKS + " changes");
+    }
+
+    /**
+     * Checks that every block of a list links to the previous one.
+     *
+     * @param blocks The blocks.
+     */
+    private void checkLinked(List<Block> blocks) {
+        for (int height = 1; height < blocks.size(); height++) {
+            if (!blocks.get(height).getPreviousHash().equals(blocks.get(height - 1).getHash())) {
+                throw new IllegalStateException("Block at height " + height + " does not link to its parent");
+            }
+        }
+    }
+
+    /**
+     * Serializes and deserializes a list of blocks, as peers do.
+     *
+     * @param blocks The blocks.
+     * @return The deserialized list.
+     * @throws IOException            If the list cannot be serialized.
+     * @throws ClassNotFoundException If the list cannot be deserialized.
+     */
+    @SuppressWarnings("unchecked")
+    private List<Block> roundTrip(List<Block> blocks) throws IOException, ClassNotFoundException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(blocks);
+        }
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            return (List<Block>) in.readObject();
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package test;
+
+import blockchain.Block;
+import blockchain.BlockChain;
+import blockchain.DifficultyRule;
+import blockchain.MiningAttempt;
+import blockchain.MiningBackend;
+import blockchain.MiningKernel;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests that a run of blocks received from a peer is rejected for a single invalid block, whether the run is short
+ * enough for the blocks to be checked on the calling thread or long enough for them to be checked in parallel, and
+ * wherever the invalid block lies in the run.
+ * <p>
+ * Blocks are mined locally at a low difficulty, so no node is started.
+ */
+public class TestChainValidation extends Test {
+    /** Number of leading zero bits required of every block. */
+    private static final int ZERO_BITS = 4;
+    /** Length of a run checked on the calling thread, below the parallel threshold of the validator. */
+    private static final int SEQUENTIAL_LENGTH = 3;
+    /** Length of a run checked in parallel. */
+    private static final int PARALLEL_LENGTH = 20;
+
+    /**
+     * The ways the invalid block of a run is broken.
+     */
+    private enum Defect {
+        /** The block is valid. */
+        NONE,
+        /** The hash of the block does not meet the difficulty. */
+        NO_PROOF_OF_WORK,
+        /** The block confirms the transaction of the first block of the run again. */
+        REPEATED_TRANSACTION,
+        /** The block does not link to the block below it. */
+        BROKEN_LINK
+    }
+
+    /**
+     * Creates the test; it needs no nodes.
+     */
+    public TestChainValidation() {
+        NUM_NODES = 0;
+    }
+
+    /**
+     * Validates short and long runs, valid and with one invalid block near their start or at their end.
+     */
+    @Override
+    public void perform() {
+        BlockChain blockchain = new BlockChain(new DifficultyRule(ZERO_BITS));
+        for (int length : List.of(SEQUENTIAL_LENGTH, PARALLEL_LENGTH)) {
+            if (!blockchain.isValidMissingChain(run(blockchain.getLastBlock(), length, -1, Defect.NONE))) {
+                fail("Rejected a valid run of " + length + " blocks");
+            }
+            for (Defect defect : List.of(Defect.NO_PROOF_OF_WORK, Defect.REPEATED_TRANSACTION, Defect.BROKEN_LINK)) {
+                for (int invalid : List.of(1, length - 1)) {
+                    List<Block> blocks = run(blockchain.getLastBlock(), length, invalid, defect);
+                    if (blockchain.isValidMissingChain(blocks)) {
+                        fail("Accepted a run of " + length + " blocks with " + defect + " at " + invalid);
+                    }
+                }
+            }
+        }
+        System.out.println("Runs were rejected for a single invalid block, sequentially and in parallel");
+    }
+
+    /**
+     * Mines a run of blocks on top of a block, one of them broken.
+     *
+     * @param parent  The block the run extends.
+     * @param length  The number of blocks of the run.
+     * @param invalid The index of the broken block in the run, -1 for none.
+     * @param defect  How the block is broken.
+     * @return The blocks, lowest first, each linking to the block below it unless broken.
+     */
+    private List<Block> run(Block parent, int length, int invalid, Defect defect) {
+        List<Block> blocks = new ArrayList<>();
+        Block previous = parent;
+        for (int i = 0; i < length; i++) {
+            Defect current = i == invalid ? defect : Defect.NONE;
+            String previousHash = current == Defect.BROKEN_LINK ? parent.getHash() : previous.getHash();
+            String transaction = current == Defect.REPEATED_TRANSACTION
+                    ? blocks.get(0).getTransactions().get(0) : "run-" + length + "-" + i;
+            Block block = current == Defect.NO_PROOF_OF_WORK
+                    ? unmined(previousHash, previous.getTimestamp() + 1, transaction)
+                    : mine(previousHash, previous.getTimestamp() + 1, transaction);
+            blocks.add(block);
+            previous = block;
+        }
+        return blocks;
+    }
+
+    /**
+     * Mines a block at the difficulty of the chain.
+     *
+     * @param previousHash The hash of the block it extends.
+     * @param timestamp    The timestamp of the block.
+     * @param transaction  The transaction of the block.
+     * @return The mined block.
+     */
+    private Block mine(String previousHash, long timestamp, String transaction) {
+        Block block = new Block(previousHash, timestamp, List.of(transaction));
+        block.mineBlockBits(ZERO_BITS, new MiningAttempt(), MiningBackend.MESSAGE_DIGEST);
+        return block;
+    }
+
+    /**
+     * Creates a block whose hash does not meet the difficulty of the chain.
+     *
+     * @param previousHash The hash of the block it extends.
+     * @param timestamp    The first timestamp tried for the block.
+     * @param transaction  The transaction of the block.
+     * @return The block.
+     */
+    private Block unmined(String previousHash, long timestamp, String transaction) {
+        for (long time = timestamp; ; time++) {
+            Block block = new Block(previousHash, time, List.of(transaction));
+            if (!MiningKernel.hasLeadingZeroBits(MiningKernel.fromHex(block.getHash()), ZERO_BITS)) {
+                return block;
+            }
+        }
+    }
+}
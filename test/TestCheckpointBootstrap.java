@@ -0,0 +1,137 @@
+package test;
+
+import blockchain.Block;
+import blockchain.BlockChain;
+import blockchain.DifficultyRule;
+import blockchain.MinerNode;
+import blockchain.MiningAttempt;
+import blockchain.MiningBackend;
+import blockchain.MiningKernel;
+import blockchain.NodeConfig;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Tests that a new node does not adopt a peer chain whose blocks below the peer's checkpoint lack their proof of work,
+ * unless its configuration trusts the block of that checkpoint.
+ * <p>
+ * The first node restores a forged chain from its own block log: blocks without proof of work up to a checkpoint,
+ * which it trusts as it wrote them, and one mined block above it. The two other nodes start without a chain and
+ * bootstrap from that checkpoint, only the last one trusting its block.
+ */
+public class TestCheckpointBootstrap extends Test {
+    private final Integer DIFFICULTY = 2;
+    /** Height of the checkpoint of the forged chain. */
+    private static final int CHECKPOINT_HEIGHT = 50;
+
+    /**
+     * Creates the test with three nodes.
+     */
+    public TestCheckpointBootstrap() {
+        NUM_NODES = 3;
+        nodes = new MinerNode[NUM_NODES];
+        threads = new Thread[NUM_NODES];
+        initializePorts();
+    }
+
+    /**
+     * Writes the forged chain, starts the node holding it, then the two bootstrapping nodes, and compares their
+     * chains.
+     *
+     * @throws IOException          If the block logs cannot be written or there is an I/O error during node
+     *                              communication.
+     * @throws InterruptedException If the thread is interrupted while waiting for the nodes.
+     */
+    @Override
+    public void perform() throws IOException, InterruptedException {
+        List<Path> directories = new ArrayList<>();
+        try {
+            for (int i = 0; i < NUM_NODES; i++) {
+                directories.add(Files.createTempDirectory("bootstrap"));
+            }
+            String checkpointHash = writeForgedChain(directories.get(0));
+
+            for (int i = 0; i < NUM_NODES; i++) {
+                NodeConfig config = new NodeConfig();
+                config.setDataDirectory(directories.get(i));
+                config.setCheckpointInterval(CHECKPOINT_HEIGHT);
+                if (i == 2) {
+                    config.setTrustedBlockHash(checkpointHash);
+                }
+                nodes[i] = new MinerNode(clientPorts[i], peerPorts[i], peerAddresses, i, DIFFICULTY, config);
+                int finalI = i;
+                threads[i] = new Thread(() -> nodes[finalI].startNode());
+                threads[i].start();
+                if (i == 0) {
+                    // The forged node must be listening before the others ask for its checkpoint
+                    Thread.sleep(1000);
+                }
+            }
+            Thread.sleep(2000);
+
+            int forged = fetchChainFromNode(peerAddresses.get(0)).size();
+            if (forged != CHECKPOINT_HEIGHT + 2) {
+                fail("Forged node restored " + forged + " blocks instead of " + (CHECKPOINT_HEIGHT + 2));
+            }
+            int untrusting = fetchChainFromNode(peerAddresses.get(1)).size();
+            if (untrusting != 1) {
+                fail("Node bootstrapped " + untrusting + " blocks without proof of work from a forged checkpoint");
+            }
+            int trusting = fetchChainFromNode(peerAddresses.get(2)).size();
+            if (trusting != forged) {
+                fail("Node trusting the checkpoint block bootstrapped " + trusting + " blocks instead of " + forged);
+            }
+            System.out.println("Forged checkpoint was only followed by the node trusting its block");
+        } catch (Exception e) {
+            e.printStackTrace(System.err);
+            throw e;
+        } finally {
+            clean();
+            for (Path directory : directories) {
+                try (Stream<Path> files = Files.walk(directory)) {
+                    for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                        Files.delete(file);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes to a block log a chain of blocks without proof of work up to a checkpoint, and one mined block above it.
+     *
+     * @param directory The directory of the log.
+     * @return The hash of the block of the checkpoint.
+     * @throws IOException If the log cannot be written.
+     */
+    private String writeForgedChain(Path directory) throws IOException {
+        int zeroBits = DIFFICULTY * 4;
+        BlockChain blockchain = new BlockChain(new DifficultyRule(zeroBits));
+        blockchain.openLog(directory, 1, CHECKPOINT_HEIGHT);
+        for (int height = 1; height <= CHECKPOINT_HEIGHT; height++) {
+            Block tip = blockchain.getLastBlock();
+            Block block;
+            int attempt = 0;
+            do {
+                block = new Block(tip.getHash(), tip.getTimestamp() + 1, List.of("forged-" + height + "-" + attempt++));
+            } while (MiningKernel.hasLeadingZeroBits(MiningKernel.fromHex(block.getHash()), zeroBits));
+            blockchain.addBlock(block);
+        }
+        String checkpointHash = blockchain.getLastBlock().getHash();
+        Block tip = blockchain.getLastBlock();
+        Block mined = new Block(tip.getHash(), tip.getTimestamp() + 1, List.of("mined"));
+        mined.mineBlockBits(zeroBits, new MiningAttempt(), MiningBackend.MESSAGE_DIGEST);
+        blockchain.addBlock(mined);
+        blockchain.closeLog();
+        if (!Files.exists(directory.resolve("checkpoint.dat"))) {
+            fail("No checkpoint written at height " + CHECKPOINT_HEIGHT);
+        }
+        return checkpointHash;
+    }
+}
@@ -0,0 +1,177 @@
+package test;
+
+import blockchain.Block;
+import blockchain.BlockChain;
+import blockchain.DifficultyRule;
+import blockchain.MiningAttempt;
+import blockchain.MiningBackend;
+import blockchain.MiningKernel;
+
+import java.math.BigInteger;
+import java.util.List;
+
+/**
+ * Tests that the proof of work required of blocks follows the observed block interval when retargeting is enabled,
+ * and that the timestamps it follows must increase and stay close to the local clock.
+ * <p>
+ * Blocks are mined locally with synthetic timestamps, so no node is started.
+ */
+public class TestDifficultyRetargeting extends Test {
+    private static final int INITIAL_ZERO_BITS = 8;
+    private static final int RETARGET_INTERVAL = 4;
+    private static final long TARGET_BLOCK_MILLIS = 1_000;
+
+    /**
+     * Creates the test; it needs no nodes.
+     */
+    public TestDifficultyRetargeting() {
+        NUM_NODES = 0;
+    }
+
+    /**
+     * Mines windows of fast and slow blocks and checks the difficulty after each of them.
+     */
+    @Override
+    public void perform() {
+        BlockChain blockchain = new BlockChain(new DifficultyRule(INITIAL_ZERO_BITS, RETARGET_INTERVAL, TARGET_BLOCK_MILLIS));
+        long time = 0;
+        int transaction = 1;
+
+        // The genesis block plus the first window, mined far faster than targeted
+        for (int i = 0; i < RETARGET_INTERVAL; i++) {
+            expectDifficulty(blockchain, INITIAL_ZERO_BITS);
+            mineNext(blockchain, String.valueOf(transaction++), time += 10);
+        }
+        expectDifficulty(blockchain, INITIAL_ZERO_BITS + DifficultyRule.MAX_RETARGET_STEP);
+
+        // A window mined twice as fast as targeted asks for one more bit
+        for (int i = 0; i < RETARGET_INTERVAL; i++) {
+            mineNext(blockchain, String.valueOf(transaction++), time += TARGET_BLOCK_MILLIS / 2);
+        }
+        expectDifficulty(blockchain, INITIAL_ZERO_BITS + DifficultyRule.MAX_RETARGET_STEP + 1);
+
+        // A block without enough proof of work is now rejected
+        Block weak = mineWeakBlock(blockchain, time + TARGET_BLOCK_MILLIS);
+        if (blockchain.isValidNewBlock(weak, blockchain.getLastBlock())) {
+            fail("Block below the retargeted difficulty was accepted: " + weak);
+        }
+
+        // Blocks dated no later than their parent or too far ahead of the local clock are rejected, on the tip as
+        // on a side branch, however much work they carry
+        Block tip = blockchain.getLastBlock();
+        if (blockchain.isValidNewBlock(mineOn(blockchain, tip, "same-time", tip.getTimestamp()), tip)
+                || blockchain.isValidNewBlock(mineOn(blockchain, tip, "earlier", tip.getTimestamp() - 1), tip)) {
+            fail("Block dated no later than its parent was accepted");
+        }
+        long future = System.currentTimeMillis() + DifficultyRule.MAX_FUTURE_MILLIS + 60_000;
+        if (blockchain.isValidNewBlock(mineOn(blockchain, tip, "future", future), tip)) {
+            fail("Block dated too far ahead of the local clock was accepted");
+        }
+        Block forkParent = blockchain.getBlock(2);
+        if (blockchain.acceptBlock(mineOn(blockchain, forkParent, "fork-earlier", forkParent.getTimestamp() - 1))) {
+            fail("Side block dated before its parent was accepted");
+        }
+        if (!blockchain.acceptBlock(mineOn(blockchain, forkParent, "fork-later", forkParent.getTimestamp() + 1))) {
+            fail("Side block dated after its parent was rejected");
+        }
+
+        // A window on target keeps the difficulty, a window four times too slow removes two bits
+        for (int i = 0; i < RETARGET_INTERVAL; i++) {
+            mineNext(blockchain, String.valueOf(transaction++), time += TARGET_BLOCK_MILLIS);
+        }
+        expectDifficulty(blockchain, INITIAL_ZERO_BITS + DifficultyRule.MAX_RETARGET_STEP + 1);
+        for (int i = 0; i < RETARGET_INTERVAL; i++) {
+            mineNext(blockchain, String.valueOf(transaction++), time += 4 * TARGET_BLOCK_MILLIS);
+        }
+        expectDifficulty(blockchain, INITIAL_ZERO_BITS + 1);
+
+        // Orphans are checked against the requirement one adjustment below that of the tip
+        if (blockchain.getDifficultyRule().lowestZeroBitsNear(blockchain.getDifficultyBits())
+                != blockchain.getDifficultyBits() - DifficultyRule.MAX_RETARGET_STEP
+                || new DifficultyRule(INITIAL_ZERO_BITS).lowestZeroBitsNear(INITIAL_ZERO_BITS) != INITIAL_ZERO_BITS) {
+            fail("Lowest requirement of orphan blocks is not one adjustment below the tip's");
+        }
+
+        // Every node derives the same requirements from the same blocks
+        int[] zeroBits = blockchain.getDifficultyRule().zeroBitsOf(blockchain.getChain());
+        if (zeroBits[zeroBits.length - 1] != blockchain.getDifficultyBits()) {
+            fail("Difficulty of the whole chain disagrees with the difficulty of its tip");
+        }
+
+        // The work of the chain follows the requirement of each block, not the nonces its miners ended on
+        BigInteger work = BigInteger.ZERO;
+        BigInteger workOfFirstWindow = null;
+        for (int height = 1; height < blockchain.getChain().size(); height++) {
+            work = work.add(BigInteger.ONE.shiftLeft(zeroBits[height]));
+            if (height == RETARGET_INTERVAL) {
+                workOfFirstWindow = work;
+            }
+        }
+        if (!work.equals(blockchain.getTotalWork())
+                || !work.subtract(workOfFirstWindow).equals(blockchain.getWorkSince(blockchain.getBlock(RETARGET_INTERVAL)))) {
+            fail("Chain work " + blockchain.getTotalWork() + " disagrees with the requirements of its blocks: " + work);
+        }
+        System.out.println("Difficulty followed the block interval: " + blockchain.getDifficultyBits() + " bits");
+    }
+
+    /**
+     * Mines a block on the tip at the current difficulty and appends it.
+     *
+     * @param blockchain  The chain to extend.
+     * @param transaction The transaction of the block.
+     * @param timestamp   The timestamp of the block.
+     */
+    private void mineNext(BlockChain blockchain, String transaction, long timestamp) {
+        Block block = mineOn(blockchain, blockchain.getLastBlock(), transaction, timestamp);
+        if (!blockchain.isValidNewBlock(block, blockchain.getLastBlock())) {
+            fail("Block mined at the required difficulty was rejected: " + block);
+        }
+        blockchain.addBlock(block);
+    }
+
+    /**
+     * Mines a block on a block of the chain at the difficulty required after it, without adding it.
+     *
+     * @param blockchain  The chain.
+     * @param parent      The block to extend.
+     * @param transaction The transaction of the block.
+     * @param timestamp   The timestamp of the block.
+     * @return The block.
+     */
+    private Block mineOn(BlockChain blockchain, Block parent, String transaction, long timestamp) {
+        Block block = new Block(parent.getHash(), timestamp, List.of(transaction));
+        block.mineBlockBits(blockchain.getDifficultyBitsAfter(parent), new MiningAttempt(), MiningBackend.MESSAGE_DIGEST);
+        return block;
+    }
+
+    /**
+     * Mines a block on the tip that meets the difficulty minus one bit but not the difficulty itself.
+     *
+     * @param blockchain The chain to extend.
+     * @param timestamp  The timestamp of the block.
+     * @return The block.
+     */
+    private Block mineWeakBlock(BlockChain blockchain, long timestamp) {
+        int zeroBits = blockchain.getDifficultyBits();
+        for (int i = 0; ; i++) {
+            Block block = new Block(blockchain.getLastBlock().getHash(), timestamp, List.of("weak-" + i));
+            block.mineBlockBits(zeroBits - 1, new MiningAttempt(), MiningBackend.MESSAGE_DIGEST);
+            if (!MiningKernel.hasLeadingZeroBits(MiningKernel.fromHex(block.getHash()), zeroBits)) {
+                return block;
+            }
+        }
+    }
+
+    /**
+     * Checks the number of zero bits required of the next block.
+     *
+     * @param blockchain The chain.
+     * @param expected   The expected number of zero bits.
+     */
+    private void expectDifficulty(BlockChain blockchain, int expected) {
+        if (blockchain.getDifficultyBits() != expected) {
+            fail("Expected difficulty of " + expected + " bits at height " + blockchain.getChain().size()
+                    + " but got " + blockchain.getDifficultyBits());
+        }
+    }
+}
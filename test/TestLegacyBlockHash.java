@@ -0,0 +1,112 @@
+package test;
+
+import blockchain.Block;
+import blockchain.MiningKernel;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Tests that legacy blocks still hash as the original implementation did, by concatenating the previous hash, the
+ * text of the transaction list and the decimal nonce into a string and hashing its UTF-8 bytes, whatever their
+ * transactions and nonce.
+ * <p>
+ * Blocks are built locally with a low difficulty, so no node is started.
+ */
+public class TestLegacyBlockHash extends Test {
+    /**
+     * Nonces around every change in the number of decimal digits, where the kernel rewrites the nonce text.
+     */
+    private static final int[] BOUNDARY_NONCES = {0, 1, 9, 10, 11, 99, 100, 999, 1_000, 9_999, 10_000, 99_999,
+            100_000, 999_999, 1_000_000, 9_999_999, 10_000_000, 99_999_999, 100_000_000, 999_999_999, 1_000_000_000,
+            Integer.MAX_VALUE};
+
+    /**
+     * Creates the test; it needs no nodes.
+     */
+    public TestLegacyBlockHash() {
+        NUM_NODES = 0;
+    }
+
+    /**
+     * Compares the hashes of blocks with various transactions, as created and once mined, and those of the kernel at
+     * every nonce length, with hashes computed the original way.
+     */
+    @Override
+    public void perform() {
+        String genesisHash = new Block("0", 0, List.of("0")).getHash();
+        List<List<String>> transactionLists = List.of(
+                List.of("0"),
+                List.of("tx-1"),
+                List.of("tx-1", "tx-2", "tx-3"),
+                List.of(),
+                List.of("", "[a, b]", "comma, space"),
+                List.of("\u00e9-\u2211-\ud83d\ude00"));
+        for (List<String> transactions : transactionLists) {
+            for (String previousHash : List.of("0", genesisHash)) {
+                Block block = new Block(previousHash, 1, transactions);
+                check(block, previousHash, transactions);
+                for (int prefixDifficulty = 1; prefixDifficulty <= 3; prefixDifficulty++) {
+                    block.mineBlock(prefixDifficulty);
+                    check(block, previousHash, transactions);
+                }
+            }
+
+            byte[] header = (genesisHash + transactions).getBytes(StandardCharsets.UTF_8);
+            MiningKernel kernel = new MiningKernel(header);
+            for (int nonce : BOUNDARY_NONCES) {
+                String expected = legacyHash(genesisHash, transactions, nonce);
+                if (!kernel.hashHex(nonce).equals(expected)
+                        || !Arrays.equals(kernel.hash(nonce), MiningKernel.fromHex(expected))) {
+                    fail("Kernel hash of nonce " + nonce + " differs from the original for " + transactions);
+                }
+            }
+        }
+        System.out.println("Legacy block hashes match the original implementation");
+    }
+
+    /**
+     * Checks the hash of a block against the hash computed the original way at its nonce.
+     *
+     * @param block        The block.
+     * @param previousHash The previous hash it was created with.
+     * @param transactions The transactions it was created with.
+     */
+    private void check(Block block, String previousHash, List<String> transactions) {
+        String expected = legacyHash(previousHash, transactions, block.getNonce());
+        if (!block.calculateHash().equals(expected) || !block.getHash().equals(expected)) {
+            fail("Hash of " + block + " differs from the original " + expected);
+        }
+    }
+
+    /**
+     * Computes the hash of a legacy block as the original implementation did.
+     *
+     * @param previousHash The hash of the previous block.
+     * @param transactions The transactions of the block.
+     * @param nonce        The nonce of the block.
+     * @return The SHA-256 hash of the concatenated text, in lower-case hexadecimal.
+     */
+    private static String legacyHash(String previousHash, List<String> transactions, int nonce) {
+        String dataToHash = previousHash + new ArrayList<>(transactions).toString() + nonce;
+        byte[] bytes;
+        try {
+            bytes = MessageDigest.getInstance("SHA-256").digest(dataToHash.getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        StringBuilder hexString = new StringBuilder();
+        for (byte b : bytes) {
+            String hex = Integer.toHexString(0xff & b);
+            if (hex.length() == 1) {
+                hexString.append('0');
+            }
+            hexString.append(hex);
+        }
+        return hexString.toString();
+    }
+}
@@ -0,0 +1,90 @@
+package test;
+
+import blockchain.Block;
+import blockchain.MiningAttempt;
+import blockchain.MiningBackend;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests that every vector mining backend finds the same nonces as {@link MiningBackend#MESSAGE_DIGEST}, including
+ * when its batches of nonces cross a change in the number of decimal digits of legacy nonces.
+ * <p>
+ * Each block is mined repeatedly with one more zero bit each time, every search resuming from the previous solution
+ * rather than from a multiple of the lane count, so the searches cover every nonce from zero up to the hundreds of
+ * thousands and cross each power of ten at varying positions within a batch. The vector backends need
+ * {@code --add-modules jdk.incubator.vector}; without it they fall back to the scalar backend and the test only
+ * checks the scalar one. Blocks are mined locally, so no node is started.
+ */
+public class TestMiningBackends extends Test {
+    /** The number of zero bits the legacy blocks are mined up to. */
+    private static final int LEGACY_ZERO_BITS = 17;
+    /** The number of zero bits the Merkle block, whose nonces have a fixed size, is mined up to. */
+    private static final int MERKLE_ZERO_BITS = 12;
+    /** Hash of the parent of the blocks. */
+    private static final String PARENT_HASH = "00000000000000000000000000000000000000000000000000000000000000ab";
+
+    /**
+     * Creates the test; it needs no nodes.
+     */
+    public TestMiningBackends() {
+        NUM_NODES = 0;
+    }
+
+    /**
+     * Mines the same blocks with every backend and compares the nonces found at each difficulty.
+     */
+    @Override
+    public void perform() {
+        List<Block> templates = List.of(
+                new Block(Block.LEGACY_VERSION, PARENT_HASH, 0, List.of("backend-1")),
+                new Block(Block.LEGACY_VERSION, PARENT_HASH, 0, List.of("backend-2", "backend-3")),
+                new Block(Block.MERKLE_VERSION, PARENT_HASH, 0, List.of("backend-4")));
+        int highestNonce = 0;
+        for (Block template : templates) {
+            int zeroBits = template.getVersion() == Block.LEGACY_VERSION ? LEGACY_ZERO_BITS : MERKLE_ZERO_BITS;
+            List<Integer> expected = solutions(template, zeroBits, MiningBackend.MESSAGE_DIGEST);
+            for (MiningBackend backend : MiningBackend.values()) {
+                if (!backend.isAvailable()) {
+                    System.out.println(backend + " unavailable, not compared");
+                } else if (!solutions(template, zeroBits, backend).equals(expected)) {
+                    fail(backend + " found other nonces than " + MiningBackend.MESSAGE_DIGEST + " for " + template
+                            + ": expected " + expected);
+                }
+            }
+            if (template.getVersion() == Block.LEGACY_VERSION) {
+                highestNonce = Math.max(highestNonce, expected.get(expected.size() - 1));
+            }
+        }
+        // The searches must have crossed the powers of ten the vector kernels handle apart
+        if (highestNonce < 10_000) {
+            fail("Searches stopped at nonce " + highestNonce + ", below the digit boundaries to check");
+        }
+        System.out.println("Mining backends agree on every nonce up to " + highestNonce);
+    }
+
+    /**
+     * Mines a copy of a block with one more zero bit at a time, each search resuming from the previous solution.
+     *
+     * @param template The block to copy.
+     * @param zeroBits The number of zero bits to mine up to.
+     * @param backend  The backend to mine with.
+     * @return The nonce found for each number of zero bits, from one up.
+     */
+    private List<Integer> solutions(Block template, int zeroBits, MiningBackend backend) {
+        Block block = new Block(template.getVersion(), template.getPreviousHash(), template.getTimestamp(),
+                template.getTransactions());
+        List<Integer> nonces = new ArrayList<>();
+        for (int bits = 1; bits <= zeroBits; bits++) {
+            if (!block.mineBlockBits(bits, new MiningAttempt(), backend)) {
+                fail(backend + " found no solution with " + bits + " zero bits");
+            }
+            if (!block.getHash().equals(block.calculateHash())) {
+                fail(backend + " produced a hash that differs from SHA-256 for " + block);
+            }
+            nonces.add(block.getNonce());
+        }
+        return nonces;
+    }
+}
@@ -0,0 +1,114 @@
+package test;
+
+import blockchain.Block;
+import blockchain.BlockChain;
+import blockchain.DifficultyRule;
+import blockchain.MiningAttempt;
+import blockchain.MiningBackend;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Tests that blocks carrying several transactions are validated transaction by transaction: a block is accepted only
+ * if it has at least one transaction and every one of them is non-empty, appears once in the block and is not
+ * confirmed by the chain yet. The Merkle root of a block repeating its odd last transaction, which it shares with the
+ * block that does not repeat it, is not accepted as committing to its transactions.
+ * <p>
+ * Blocks are mined locally at a low difficulty, so no node is started.
+ */
+public class TestMultiTransactionBlocks extends Test {
+    private static final int ZERO_BITS = 4;
+
+    /**
+     * Creates the test; it needs no nodes.
+     */
+    public TestMultiTransactionBlocks() {
+        NUM_NODES = 0;
+    }
+
+    /**
+     * Validates valid and invalid multi-transaction blocks of both header versions on top of a chain.
+     */
+    @Override
+    public void perform() {
+        for (int version : List.of(Block.LEGACY_VERSION, Block.MERKLE_VERSION)) {
+            BlockChain blockchain = new BlockChain(new DifficultyRule(ZERO_BITS));
+
+            Block valid = mine(blockchain, version, List.of("tx-1", "tx-2", "tx-3"));
+            expect(blockchain, valid, true, "a block of distinct new transactions");
+            if (!blockchain.acceptBlock(valid)) {
+                fail("Valid multi-transaction block was not added: " + valid);
+            }
+            for (String transaction : valid.getTransactions()) {
+                if (!blockchain.isConfirmed(transaction)) {
+                    fail("Transaction " + transaction + " of an added block is not confirmed");
+                }
+            }
+
+            expect(blockchain, mine(blockchain, version, List.of("tx-4", "tx-5", "tx-4")), false,
+                    "a block repeating one of its transactions");
+            expect(blockchain, mine(blockchain, version, List.of("tx-4", "tx-2")), false,
+                    "a block with a transaction confirmed by an earlier block");
+            expect(blockchain, mine(blockchain, version, List.of()), false, "a block without transactions");
+            expect(blockchain, mine(blockchain, version, List.of("tx-4", "")), false,
+                    "a block with an empty transaction");
+            if (version == Block.LEGACY_VERSION) {
+                expect(blockchain, mine(blockchain, version, new ArrayList<>(Arrays.asList("tx-4", null))), false,
+                        "a block with a null transaction");
+            } else {
+                // Merkle blocks cannot even be built around a null transaction
+                try {
+                    mine(blockchain, version, new ArrayList<>(Arrays.asList("tx-4", null)));
+                    fail("Built a Merkle block with a null transaction");
+                } catch (IllegalArgumentException e) {
+                    // Expected: rejected before any hashing
+                }
+                // Repeating the odd last transaction keeps the root, which then commits to neither list
+                Block tip = blockchain.getLastBlock();
+                Block odd = new Block(version, tip.getHash(), tip.getTimestamp() + 1, List.of("tx-4", "tx-5", "tx-6"));
+                Block repeated = new Block(version, tip.getHash(), tip.getTimestamp() + 1,
+                        List.of("tx-4", "tx-5", "tx-6", "tx-6"));
+                if (!odd.getMerkleRoot().equals(repeated.getMerkleRoot())) {
+                    fail("Expected the same Merkle root with the last transaction repeated");
+                }
+                if (!odd.hasValidMerkleRoot() || repeated.hasValidMerkleRoot()) {
+                    fail("Merkle root accepted for a block repeating its last transaction: " + repeated);
+                }
+            }
+            expect(blockchain, mine(blockchain, version, List.of("tx-4", "tx-5")), true,
+                    "a block of distinct new transactions after rejected ones");
+        }
+        System.out.println("Multi-transaction blocks were validated transaction by transaction");
+    }
+
+    /**
+     * Mines a block with the given transactions on top of the chain, without adding it.
+     *
+     * @param blockchain   The chain.
+     * @param version      The header version of the block.
+     * @param transactions The transactions of the block.
+     * @return The mined block.
+     */
+    private Block mine(BlockChain blockchain, int version, List<String> transactions) {
+        Block tip = blockchain.getLastBlock();
+        Block block = new Block(version, tip.getHash(), tip.getTimestamp() + 1, transactions);
+        block.mineBlockBits(ZERO_BITS, new MiningAttempt(), MiningBackend.MESSAGE_DIGEST);
+        return block;
+    }
+
+    /**
+     * Checks whether the chain considers a block a valid successor of its tip.
+     *
+     * @param blockchain  The chain.
+     * @param block       The block.
+     * @param valid       Whether the block is expected to be valid.
+     * @param description What the block is, for the failure message.
+     */
+    private void expect(BlockChain blockchain, Block block, boolean valid, String description) {
+        if (blockchain.isValidNewBlock(block, blockchain.getLastBlock()) != valid) {
+            fail((valid ? "Rejected " : "Accepted ") + description + ": " + block);
+        }
+    }
+}
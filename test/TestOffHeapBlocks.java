@@ -0,0 +1,129 @@
+package test;
+
+import blockchain.Block;
+import blockchain.BlockChain;
+import blockchain.DifficultyRule;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests that a chain keeping its blocks off the heap, from the start or moved there after it grew, reads back the same
+ * blocks, heights, work and transactions as a chain on the heap, and still reorganizes, prunes and serializes them.
+ * <p>
+ * Blocks are built locally without proof of work, so no node is started.
+ */
+public class TestOffHeapBlocks extends Test {
+    /** Number of blocks appended above the genesis block. */
+    private static final int BLOCKS = 30;
+
+    /**
+     * Creates the test; it needs no nodes.
+     */
+    public TestOffHeapBlocks() {
+        NUM_NODES = 0;
+    }
+
+    /**
+     * Grows the same chain on the heap, off the heap and moved off the heap halfway, and compares them.
+     *
+     * @throws IOException If the chain cannot be serialized.
+     */
+    @Override
+    public void perform() throws IOException {
+        BlockChain heap = new BlockChain(new DifficultyRule(0));
+        BlockChain arena = new BlockChain(new DifficultyRule(0));
+        arena.enableOffHeapBlocks();
+        arena.replaceChain(heap.getChain());
+        BlockChain moved = new BlockChain(new DifficultyRule(0));
+        for (int i = 0; i < BLOCKS; i++) {
+            if (i == BLOCKS / 2) {
+                moved.replaceChain(heap.getChain());
+                moved.enableOffHeapBlocks();
+            }
+            Block tip = heap.getLastBlock();
+            int version = i % 2 == 0 ? Block.LEGACY_VERSION : Block.MERKLE_VERSION;
+            Block block = new Block(version, tip.getHash(), tip.getTimestamp() + 1, List.of("tx-" + i, "\u00e9-" + i));
+            heap.addBlock(block);
+            arena.addBlock(block);
+            if (i >= BLOCKS / 2) {
+                moved.addBlock(block);
+            }
+        }
+        compare(heap, arena, "Off-heap chain");
+        compare(heap, moved, "Chain moved off the heap");
+        if (heap.getOffHeapBytes() != 0 || arena.getOffHeapBytes() == 0) {
+            fail("Off-heap sizes are " + heap.getOffHeapBytes() + " and " + arena.getOffHeapBytes());
+        }
+
+        // A heavier branch replaces the two top blocks, which are forgotten
+        Block top = arena.getLastBlock();
+        Block fork = arena.getBlock(BLOCKS - 2);
+        for (int i = 0; i < 3; i++) {
+            fork = new Block(fork.getHash(), fork.getTimestamp() + 2, List.of("fork-" + i));
+            if (!arena.acceptBlock(fork)) {
+                fail("Refused block " + i + " of the heavier branch");
+            }
+        }
+        if (!arena.getLastBlock().equals(fork) || arena.getHeight(top.getHash()) != -1
+                || arena.getHeight(fork.getHash()) != BLOCKS + 1 || arena.isConfirmed("tx-" + (BLOCKS - 1))
+                || !arena.isConfirmed("fork-0") || !arena.isConfirmed("tx-" + (BLOCKS - 3))) {
+            fail("Reorganization of the off-heap chain is inconsistent: " + arena);
+        }
+
+        // Pruned blocks are read back as their header only
+        arena.enablePruning(4);
+        if (!arena.getBlock(1).isPruned() || arena.getLastBlock().isPruned() || !arena.isConfirmed("tx-0")) {
+            fail("Pruning of the off-heap chain is inconsistent");
+        }
+
+        // Snapshots are serialized as lists of blocks
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(moved.getChain());
+        }
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            if (!in.readObject().equals(heap.getChain())) {
+                fail("Serialized off-heap chain differs");
+            }
+        } catch (ClassNotFoundException e) {
+            fail("Serialized off-heap chain cannot be read: " + e.getMessage());
+        }
+        System.out.println("Kept " + arena.getChain().size() + " blocks in " + arena.getOffHeapBytes()
+                + " bytes off the heap");
+    }
+
+    /**
+     * Checks that a chain has the same blocks, heights, work and transactions as the reference chain.
+     *
+     * @param expected The reference chain.
+     * @param actual   The chain to check.
+     * @param name     The name of the chain to check, for failure messages.
+     */
+    private void compare(BlockChain expected, BlockChain actual, String name) {
+        List<Block> blocks = new ArrayList<>(actual.getChain());
+        if (!blocks.equals(expected.getChain()) || !actual.getTotalWork().equals(expected.getTotalWork())
+                || !actual.getLastBlock().equals(expected.getLastBlock())) {
+            fail(name + " differs from the chain on the heap: " + blocks);
+        }
+        for (int height = 0; height < blocks.size(); height++) {
+            Block block = blocks.get(height);
+            if (actual.getHeight(block.getHash()) != height || !block.getHash().equals(block.calculateHash())) {
+                fail(name + " lost block " + height + ": " + block);
+            }
+        }
+        for (int i = 0; i < BLOCKS; i++) {
+            if (!actual.isConfirmed("tx-" + i) || !actual.isConfirmed("\u00e9-" + i)) {
+                fail(name + " lost transaction " + i);
+            }
+        }
+        if (actual.isConfirmed("tx-pending") || actual.getHeight("00ff") != -1) {
+            fail(name + " finds what it does not hold");
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package test;
+
+import blockchain.Block;
+import blockchain.MinerNode;
+import blockchain.MiningAttempt;
+import blockchain.MiningBackend;
+import blockchain.MiningKernel;
+import blockchain.OrphanMetrics;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Tests how a node handles blocks received before their parent: an orphan whose parent does not arrive in time has
+ * its missing ancestors fetched from a peer and connects once they are validated, an orphan invalid on top of its
+ * real parent is not connected, an orphan nobody can link expires, and a block without proof of work is not even
+ * buffered.
+ * <p>
+ * Blocks are mined by the test and sent to one node at a time, as nodes do not relay the blocks they receive.
+ */
+public class TestOrphanBlocks extends Test {
+    private final Integer DIFFICULTY = 2;
+    /** Time an orphan waits for its parent, as configured by default, with a margin to fetch its ancestors. */
+    private static final long ORPHAN_WAIT_MILLIS = 2000;
+
+    /**
+     * Creates the test with two nodes.
+     */
+    public TestOrphanBlocks() {
+        NUM_NODES = 2;
+        nodes = new MinerNode[NUM_NODES];
+        threads = new Thread[NUM_NODES];
+        initializePorts();
+    }
+
+    /**
+     * Sends orphans of each kind to the second node and checks its chain and orphan counters.
+     *
+     * @throws IOException          If there is an I/O error during node communication.
+     * @throws InterruptedException If the thread is interrupted while waiting for the nodes.
+     */
+    @Override
+    public void perform() throws IOException, InterruptedException {
+        try {
+            startMinerNodes(DIFFICULTY);
+            Thread.sleep(1000);
+            OrphanMetrics metrics = nodes[1].getOrphanMetrics();
+            Block genesis = fetchChainFromNode(peerAddresses.get(0)).get(0);
+
+            // The first node gets two blocks, the second only a child of them, and fetches them from the first
+            Block first = mine(genesis, "1");
+            Block second = mine(first, "2");
+            Block third = mine(second, "3");
+            sendBlockToNode(first, 0);
+            sendBlockToNode(second, 0);
+            sendBlockToNode(third, 1);
+            Thread.sleep(ORPHAN_WAIT_MILLIS);
+            List<String> chain = hashes(fetchChainFromNode(peerAddresses.get(1)));
+            if (!chain.equals(hashes(List.of(genesis, first, second, third))) || metrics.getConnected() != 1) {
+                fail("Orphan did not connect through its fetched ancestors: " + chain + ", " + metrics);
+            }
+
+            // An orphan confirming a transaction again is rejected once its real parent is fetched
+            Block fourth = mine(third, "4");
+            Block repeating = mine(fourth, "1");
+            sendBlockToNode(third, 0);
+            sendBlockToNode(fourth, 0);
+            sendBlockToNode(repeating, 1);
+            Thread.sleep(ORPHAN_WAIT_MILLIS);
+            chain = hashes(fetchChainFromNode(peerAddresses.get(1)));
+            if (!chain.get(chain.size() - 1).equals(fourth.getHash()) || metrics.getConnected() != 1) {
+                fail("Orphan invalid on top of its parent was connected: " + chain + ", " + metrics);
+            }
+
+            // An orphan whose parent no peer knows expires without changing the chain
+            Block unknown = mine(fourth, "5");
+            sendBlockToNode(mine(unknown, "6"), 1);
+            Thread.sleep(ORPHAN_WAIT_MILLIS);
+            if (!hashes(fetchChainFromNode(peerAddresses.get(1))).equals(chain) || metrics.getExpired() != 1) {
+                fail("Orphan without known ancestors did not expire: " + metrics);
+            }
+
+            // A block without proof of work is dropped before it is buffered
+            long buffered = metrics.getBuffered();
+            sendBlockToNode(unmined(unknown, "7"), 1);
+            Thread.sleep(500);
+            if (metrics.getBuffered() != buffered) {
+                fail("Orphan without proof of work was buffered: " + metrics);
+            }
+            System.out.println("Orphans were resolved, rejected and expired as expected: " + metrics);
+        } catch (Exception e) {
+            e.printStackTrace(System.err);
+            throw e;
+        } finally {
+            clean();
+        }
+    }
+
+    /**
+     * Lists the hashes of a chain, as every node dates its own genesis block.
+     *
+     * @param chain The chain.
+     * @return The hashes of its blocks.
+     */
+    private static List<String> hashes(List<Block> chain) {
+        return chain.stream().map(Block::getHash).toList();
+    }
+
+    /**
+     * Mines a block at the difficulty of the nodes.
+     *
+     * @param parent      The block to extend.
+     * @param transaction The transaction of the block.
+     * @return The mined block.
+     */
+    private Block mine(Block parent, String transaction) {
+        Block block = new Block(parent.getHash(), parent.getTimestamp() + 1, List.of(transaction));
+        block.mineBlockBits(DIFFICULTY * 4, new MiningAttempt(), MiningBackend.MESSAGE_DIGEST);
+        return block;
+    }
+
+    /**
+     * Creates a block whose hash does not meet the difficulty of the nodes.
+     *
+     * @param parent      The block to extend.
+     * @param transaction The prefix of the transaction of the block.
+     * @return The block.
+     */
+    private Block unmined(Block parent, String transaction) {
+        for (int i = 0; ; i++) {
+            Block block = new Block(parent.getHash(), parent.getTimestamp() + 1, List.of(transaction + "-" + i));
+            if (!MiningKernel.hasLeadingZeroBits(MiningKernel.fromHex(block.getHash()), DIFFICULTY * 4)) {
+                return block;
+            }
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package test;
+
+import blockchain.Block;
+import blockchain.MiningAttempt;
+import blockchain.MiningKernel;
+import blockchain.ParallelMiner;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Tests that mining on several workers finds a valid nonce, stops promptly once its attempt is cancelled, and fails
+ * rather than waiting forever when its workers cannot run.
+ * <p>
+ * Blocks are mined locally, so no node is started.
+ */
+public class TestParallelMiner extends Test {
+    /** Number of workers sharing each block. */
+    private static final int WORKERS = 4;
+    /** Number of leading zero bits of the blocks mined to completion. */
+    private static final int ZERO_BITS = 12;
+    /** Number of leading zero bits no search finds before it is cancelled. */
+    private static final int UNREACHABLE_ZERO_BITS = 64;
+    /** Longest time a search may take to stop, in milliseconds. */
+    private static final long STOP_MILLIS = 5_000;
+
+    /**
+     * Creates the test; it needs no nodes.
+     */
+    public TestParallelMiner() {
+        NUM_NODES = 0;
+    }
+
+    /**
+     * Mines blocks to completion, cancels a search that cannot complete, and mines once the workers are shut down.
+     */
+    @Override
+    public void perform() throws InterruptedException {
+        ParallelMiner miner = new ParallelMiner(WORKERS);
+        for (int i = 0; i < 3; i++) {
+            Block block = new Block("0", i, List.of("parallel-" + i));
+            MiningAttempt attempt = new MiningAttempt();
+            if (!miner.mine(block, ZERO_BITS, attempt)) {
+                fail("No solution found for " + block);
+            }
+            if (!block.getHash().equals(block.calculateHash())
+                    || !MiningKernel.hasLeadingZeroBits(MiningKernel.fromHex(block.getHash()), ZERO_BITS)) {
+                fail("Mined nonce " + block.getNonce() + " does not solve " + block);
+            }
+            if (attempt.getHashes() == 0) {
+                fail("No hashes recorded while mining " + block);
+            }
+        }
+        if (miner.getWorkerHashRates().length != WORKERS) {
+            fail("Expected a hash rate per worker: " + miner.getWorkerHashRates().length);
+        }
+
+        // A search that cannot complete stops once its attempt is cancelled
+        Block unsolvable = new Block("0", 0, List.of("unsolvable"));
+        MiningAttempt cancelled = new MiningAttempt();
+        AtomicReference<Object> outcome = new AtomicReference<>();
+        Thread mining = new Thread(() -> outcome.set(miner.mine(unsolvable, UNREACHABLE_ZERO_BITS, cancelled)));
+        mining.start();
+        Thread.sleep(200);
+        cancelled.cancel();
+        mining.join(STOP_MILLIS);
+        if (mining.isAlive() || !Boolean.FALSE.equals(outcome.get())) {
+            fail("Cancelled search did not stop: " + outcome.get());
+        }
+
+        // Once the workers are gone the search fails instead of waiting for them
+        miner.shutdown();
+        outcome.set(null);
+        mining = new Thread(() -> {
+            try {
+                outcome.set(miner.mine(new Block("0", 0, List.of("shut-down")), ZERO_BITS, new MiningAttempt()));
+            } catch (IllegalStateException e) {
+                outcome.set(e);
+            }
+        });
+        mining.start();
+        mining.join(STOP_MILLIS);
+        if (mining.isAlive() || !(outcome.get() instanceof IllegalStateException)) {
+            fail("Search on a shut down miner did not fail: " + outcome.get());
+        }
+        System.out.println("Parallel mining solved, cancelled and failed as expected on " + WORKERS + " workers");
+    }
+}
@@ -0,0 +1,95 @@
+package test;
+
+import blockchain.Block;
+import blockchain.MinerNode;
+import blockchain.PeerChannelMetrics;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Tests that nodes exchange their blocks over one long-lived channel per pair of nodes rather than a connection per
+ * message, and that the channels to a node are reopened once it is stopped and started again, so that it catches up.
+ */
+public class TestPeerChannels extends Test {
+    private final Integer DIFFICULTY = 4;
+
+    /**
+     * Creates the test with three nodes.
+     */
+    public TestPeerChannels() {
+        NUM_NODES = 3;
+        nodes = new MinerNode[NUM_NODES];
+        threads = new Thread[NUM_NODES];
+        initializePorts();
+    }
+
+    /**
+     * Mines blocks on all nodes, restarts one of them, mines more and compares the chains and channel counters.
+     *
+     * @throws IOException          If there is an I/O error during node communication.
+     * @throws InterruptedException If the thread is interrupted while waiting for blocks.
+     */
+    @Override
+    public void perform() throws IOException, InterruptedException {
+        try {
+            startMinerNodes(DIFFICULTY);
+            Thread.sleep(1000);
+            for (int i = 1; i <= 5; i++) {
+                broadcastTransaction(String.valueOf(i));
+                Thread.sleep(300);
+            }
+            Thread.sleep(2000);
+            compareChains(6);
+            long opened = 0;
+            long messages = 0;
+            for (MinerNode node : nodes) {
+                opened += node.getPeerChannelMetrics().getOpened();
+                messages += node.getPeerChannelMetrics().getMessages();
+            }
+            // Each node opens at most one channel to each peer, however many blocks it sends
+            if (opened > NUM_NODES * (NUM_NODES - 1) || messages < 2 * 5) {
+                fail("Opened " + opened + " channels for " + messages + " messages");
+            }
+
+            PeerChannelMetrics metrics = nodes[0].getPeerChannelMetrics();
+            long closedBefore = metrics.getClosed();
+            long channelsBefore = metrics.getOpened() + metrics.getAccepted();
+            nodes[2].stopNode();
+            broadcastTransaction("6");
+            Thread.sleep(1000);
+            nodes[2].startNode();
+            Thread.sleep(1000);
+            broadcastTransaction("7");
+            Thread.sleep(2000);
+            compareChains(8);
+            if (metrics.getClosed() == closedBefore || metrics.getOpened() + metrics.getAccepted() == channelsBefore) {
+                fail("Channel to the restarted node was not reopened: " + metrics);
+            }
+            System.out.println("Peer channels of node 0: " + metrics);
+        } catch (Exception e) {
+            e.printStackTrace(System.err);
+            throw e;
+        } finally {
+            clean();
+        }
+    }
+
+    /**
+     * Checks that all nodes hold the same chain, with the expected transactions.
+     *
+     * @param expectedChainSize The number of blocks expected, genesis block included.
+     */
+    private void compareChains(int expectedChainSize) {
+        List<Block> referenceChain = null;
+        for (int i = 0; i < NUM_NODES; i++) {
+            List<Block> chain = fetchChainFromNode(peerAddresses.get(i));
+            if (referenceChain == null) {
+                validateChainContents(chain, expectedChainSize);
+                referenceChain = chain;
+            } else if (!referenceChain.equals(chain)) {
+                fail("Node " + i + " has a different chain from the reference chain: " + chain);
+            }
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package test;
+
+import blockchain.Block;
+import blockchain.MinerNode;
+import blockchain.PeerSendMetrics;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Tests that a block mined while a peer is down stays queued to that peer, without delaying the other peers, and is
+ * delivered once the peer is back, so that it catches up without waiting for the next block.
+ */
+public class TestPeerOutboundQueues extends Test {
+    private final Integer DIFFICULTY = 4;
+
+    /**
+     * Creates the test with three nodes.
+     */
+    public TestPeerOutboundQueues() {
+        NUM_NODES = 3;
+        nodes = new MinerNode[NUM_NODES];
+        threads = new Thread[NUM_NODES];
+        initializePorts();
+    }
+
+    /**
+     * Mines a block on all nodes, stops one of them, mines a block on another, starts the stopped node again and
+     * compares the chains and the queue counters of the miner.
+     *
+     * @throws IOException          If there is an I/O error during node communication.
+     * @throws InterruptedException If the thread is interrupted while waiting for blocks.
+     */
+    @Override
+    public void perform() throws IOException, InterruptedException {
+        try {
+            startMinerNodes(DIFFICULTY);
+            Thread.sleep(1000);
+            broadcastTransaction("1");
+            Thread.sleep(2000);
+            compareChains(2);
+
+            nodes[2].stopNode();
+            sendTransactionToNode("2", 0);
+            Thread.sleep(1000);
+            List<Block> delivered = fetchChainFromNode(peerAddresses.get(1));
+            validateChainContents(delivered, 3);
+            PeerSendMetrics metrics = nodes[0].getPeerSendMetrics().get(peerAddresses.get(2));
+            if (metrics.getFailures() == 0 || metrics.getQueueDepth() == 0) {
+                fail("Block to the stopped node was not kept queued: " + metrics);
+            }
+
+            nodes[2].startNode();
+            Thread.sleep(2000);
+            compareChains(3);
+            if (metrics.getQueueDepth() != 0 || metrics.getSent() < 2) {
+                fail("Queued block was not delivered to the restarted node: " + metrics);
+            }
+            System.out.println("Outbound queue of node 0 to node 2: " + metrics);
+        } catch (Exception e) {
+            e.printStackTrace(System.err);
+            throw e;
+        } finally {
+            clean();
+        }
+    }
+
+    /**
+     * Checks that all nodes hold the same chain, with the expected transactions.
+     *
+     * @param expectedChainSize The number of blocks expected, genesis block included.
+     */
+    private void compareChains(int expectedChainSize) {
+        List<Block> referenceChain = null;
+        for (int i = 0; i < NUM_NODES; i++) {
+            List<Block> chain = fetchChainFromNode(peerAddresses.get(i));
+            if (referenceChain == null) {
+                validateChainContents(chain, expectedChainSize);
+                referenceChain = chain;
+            } else if (!referenceChain.equals(chain)) {
+                fail("Node " + i + " has a different chain from the reference chain: " + chain);
+            }
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package test;
+
+import blockchain.Block;
+import blockchain.MinerNode;
+import blockchain.NetworkMode;
+import blockchain.NodeConfig;
+
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests that nodes multiplexing their connections over selectors keep serving clients and peers while holding many
+ * idle client connections, without a thread per connection.
+ */
+public class TestSelectorNetworking extends Test {
+    private final Integer DIFFICULTY = 4;
+    /**
+     * Number of idle client connections held open at once.
+     */
+    private static final int IDLE_CONNECTIONS = 2_000;
+    /**
+     * Number of threads the nodes may add while holding the idle connections.
+     */
+    private static final int MAX_EXTRA_THREADS = 16;
+
+    /**
+     * Creates the test with two nodes.
+     */
+    public TestSelectorNetworking() {
+        NUM_NODES = 2;
+        nodes = new MinerNode[NUM_NODES];
+        threads = new Thread[NUM_NODES];
+        initializePorts();
+    }
+
+    /**
+     * Opens many idle connections to the first node, then mines blocks through both nodes and checks that they agree
+     * and that the thread count stayed flat.
+     *
+     * @throws IOException          If there is an I/O error during node communication.
+     * @throws InterruptedException If the thread is interrupted while waiting for blocks.
+     */
+    @Override
+    public void perform() throws IOException, InterruptedException {
+        List<Socket> idle = new ArrayList<>(IDLE_CONNECTIONS);
+        try {
+            startSelectorNodes();
+            Thread.sleep(1000);
+            int threadsBefore = ManagementFactory.getThreadMXBean().getThreadCount();
+            for (int i = 0; i < IDLE_CONNECTIONS; i++) {
+                Socket socket = new Socket("127.0.0.1", clientPorts[0]);
+                // Half of the connections start a message they never finish
+                if (i % 2 == 0) {
+                    new ObjectOutputStream(socket.getOutputStream()).flush();
+                }
+                idle.add(socket);
+            }
+            Thread.sleep(500);
+            int threadsAfter = ManagementFactory.getThreadMXBean().getThreadCount();
+            if (threadsAfter - threadsBefore > MAX_EXTRA_THREADS) {
+                fail("Thread count grew from " + threadsBefore + " to " + threadsAfter + " for "
+                        + IDLE_CONNECTIONS + " connections");
+            }
+
+            for (int i = 1; i <= 3; i++) {
+                broadcastTransaction(String.valueOf(i));
+                Thread.sleep(300);
+            }
+            Thread.sleep(2000);
+            List<Block> referenceChain = fetchChainFromNode(peerAddresses.get(0));
+            validateChainContents(referenceChain, 4);
+            if (!referenceChain.equals(fetchChainFromNode(peerAddresses.get(1)))) {
+                fail("Nodes hold different chains");
+            }
+            System.out.println("Threads before and after " + IDLE_CONNECTIONS + " connections: " + threadsBefore
+                    + ", " + threadsAfter);
+        } catch (Exception e) {
+            e.printStackTrace(System.err);
+            throw e;
+        } finally {
+            for (Socket socket : idle) {
+                socket.close();
+            }
+            clean();
+        }
+    }
+
+    /**
+     * Starts the nodes in {@link NetworkMode#SELECTOR} mode.
+     *
+     * @throws IOException If a node cannot be created.
+     */
+    private void startSelectorNodes() throws IOException {
+        for (int i = 0; i < NUM_NODES; i++) {
+            NodeConfig config = new NodeConfig();
+            config.setNetworkMode(NetworkMode.SELECTOR);
+            nodes[i] = new MinerNode(clientPorts[i], peerPorts[i], peerAddresses, i, DIFFICULTY, config);
+            int finalI = i;
+            threads[i] = new Thread(() -> nodes[finalI].startNode());
+            threads[i].start();
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package test;
+
+import blockchain.Block;
+import blockchain.MinerNode;
+import blockchain.MiningAttempt;
+import blockchain.MiningBackend;
+import blockchain.MiningMetrics;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Tests that a node abandons its mining attempt as soon as a block from a peer moves the tip of its chain, rather than
+ * finishing a block that could no longer join it.
+ * <p>
+ * The test mines a competing block for a transaction before sending that transaction to the node, then sends the
+ * competing block while the node is still mining. At the difficulty used, the node rarely finds its own block first;
+ * when it does, the round is played again on top of it.
+ */
+public class TestStaleMiningAbandoned extends Test {
+    private final Integer DIFFICULTY = 6;
+    /** Number of rounds played before giving up, each lost only if the node mines its block within the wait. */
+    private static final int ROUNDS = 5;
+    /** Time left to the node to start mining the transaction before the competing block is sent. */
+    private static final long MINING_START_MILLIS = 300;
+    /** Longest time the node may take to abandon its attempt once the competing block is sent. */
+    private static final long ABANDON_MILLIS = 3_000;
+
+    /**
+     * Creates the test with a single node.
+     */
+    public TestStaleMiningAbandoned() {
+        NUM_NODES = 1;
+        nodes = new MinerNode[NUM_NODES];
+        threads = new Thread[NUM_NODES];
+        initializePorts();
+    }
+
+    /**
+     * Sends a transaction to the node, then a competing block confirming it, and checks that the attempt of the node
+     * was abandoned and the competing block became its tip.
+     *
+     * @throws IOException          If there is an I/O error during node communication.
+     * @throws InterruptedException If the thread is interrupted while waiting for the node.
+     */
+    @Override
+    public void perform() throws IOException, InterruptedException {
+        try {
+            startMinerNodes(DIFFICULTY);
+            Thread.sleep(1000);
+            MiningMetrics metrics = nodes[0].getMiningMetrics();
+            for (int round = 0; round < ROUNDS; round++) {
+                List<Block> chain = fetchChainFromNode(peerAddresses.get(0));
+                String transaction = "contested-" + round;
+                Block competing = mine(chain.get(chain.size() - 1), transaction);
+                long abandoned = metrics.getAttemptsAbandoned();
+                sendTransactionToNode(transaction, 0);
+                Thread.sleep(MINING_START_MILLIS);
+                sendBlockToNode(competing, 0);
+                if (!awaitAbandoned(metrics, abandoned)) {
+                    System.out.println("Node mined its block before the competing one arrived, playing again");
+                    continue;
+                }
+                chain = fetchChainFromNode(peerAddresses.get(0));
+                if (!chain.get(chain.size() - 1).getHash().equals(competing.getHash())) {
+                    fail("Competing block is not the tip after the attempt was abandoned: " + chain);
+                }
+                if (metrics.getStaleHashes() == 0) {
+                    fail("No hashes recorded for the abandoned attempt: " + metrics);
+                }
+                System.out.println("Mining attempt abandoned as the tip moved: " + metrics);
+                return;
+            }
+            fail("No mining attempt abandoned in " + ROUNDS + " rounds: " + metrics);
+        } catch (Exception e) {
+            e.printStackTrace(System.err);
+            throw e;
+        } finally {
+            clean();
+        }
+    }
+
+    /**
+     * Waits for the node to record one more abandoned attempt.
+     *
+     * @param metrics   The mining counters of the node.
+     * @param abandoned The number of abandoned attempts before the competing block was sent.
+     * @return True if an attempt was abandoned in time.
+     * @throws InterruptedException If the thread is interrupted while waiting.
+     */
+    private boolean awaitAbandoned(MiningMetrics metrics, long abandoned) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + ABANDON_MILLIS;
+        while (metrics.getAttemptsAbandoned() == abandoned) {
+            if (System.currentTimeMillis() > deadline) {
+                return false;
+            }
+            Thread.sleep(20);
+        }
+        return true;
+    }
+
+    /**
+     * Mines a block at the difficulty of the node.
+     *
+     * @param parent      The block to extend.
+     * @param transaction The transaction of the block.
+     * @return The mined block.
+     */
+    private Block mine(Block parent, String transaction) {
+        Block block = new Block(parent.getHash(), parent.getTimestamp() + 1, List.of(transaction));
+        block.mineBlockBits(DIFFICULTY * 4, new MiningAttempt(), MiningBackend.MESSAGE_DIGEST);
+        return block;
+    }
+}
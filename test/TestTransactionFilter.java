@@ -0,0 +1,109 @@
+package test;
+
+import blockchain.Block;
+import blockchain.BlockChain;
+import blockchain.DifficultyRule;
+import blockchain.TransactionFilterMetrics;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests the Bloom filter in front of confirmed-transaction lookups: it must never hide a confirmed transaction, must
+ * answer most lookups of unconfirmed ones alone, and must forget transactions of blocks that leave the chain.
+ * <p>
+ * Blocks are built locally without proof of work, so no node is started.
+ */
+public class TestTransactionFilter extends Test {
+    private static final int BLOCKS = 200;
+    private static final int TRANSACTIONS_PER_BLOCK = 100;
+    private static final double FALSE_POSITIVE_RATE = 0.01;
+
+    /**
+     * Creates the test; it needs no nodes.
+     */
+    public TestTransactionFilter() {
+        NUM_NODES = 0;
+    }
+
+    /**
+     * Fills filtered chains and checks the answers and counters of their lookups.
+     */
+    @Override
+    public void perform() {
+        BlockChain blockchain = new BlockChain(new DifficultyRule(0));
+        blockchain.enableTransactionFilter(FALSE_POSITIVE_RATE, 1024 * 1024);
+        List<Block> blocks = appendBlocks(blockchain, "tx", BLOCKS);
+
+        for (int i = 0; i < BLOCKS * TRANSACTIONS_PER_BLOCK; i++) {
+            if (!blockchain.isConfirmed("tx-" + i)) {
+                fail("Confirmed transaction tx-" + i + " was reported unconfirmed");
+            }
+        }
+        for (int i = 0; i < BLOCKS * TRANSACTIONS_PER_BLOCK; i++) {
+            if (blockchain.isConfirmed("pending-" + i)) {
+                fail("Unconfirmed transaction pending-" + i + " was reported confirmed");
+            }
+        }
+        TransactionFilterMetrics metrics = blockchain.getTransactionFilterMetrics();
+        System.out.println("Filter metrics: " + metrics + ", observed false positive rate "
+                + metrics.getObservedFalsePositiveRate());
+        if (metrics.getObservedFalsePositiveRate() > 2 * FALSE_POSITIVE_RATE) {
+            fail("False positive rate " + metrics.getObservedFalsePositiveRate() + " is far above the target");
+        }
+
+        // Transactions of blocks cut from the chain are no longer confirmed
+        List<Block> fork = new ArrayList<>();
+        String previousHash = blocks.get(BLOCKS / 2 - 1).getHash();
+        for (int i = 0; i < 2; i++) {
+            Block block = new Block(previousHash, 0, List.of("fork-" + i));
+            fork.add(block);
+            previousHash = block.getHash();
+        }
+        blockchain.addMissingChain(fork.get(0), fork);
+        if (blockchain.isConfirmed("tx-" + (BLOCKS - 1) * TRANSACTIONS_PER_BLOCK) || !blockchain.isConfirmed("fork-1")
+                || !blockchain.isConfirmed("tx-0")) {
+            fail("Transaction lookups do not follow the fork");
+        }
+
+        // Cutting most of the chain rebuilds the filter
+        long rebuilds = metrics.getRebuilds();
+        blockchain.replaceChain(new ArrayList<>(blockchain.getChain().subList(0, 2)));
+        if (metrics.getRebuilds() == rebuilds || blockchain.isConfirmed("fork-1") || !blockchain.isConfirmed("tx-0")) {
+            fail("Filter was not rebuilt when most of the chain was cut");
+        }
+
+        // A filter far over its memory budget loses precision but never hides a confirmed transaction
+        BlockChain small = new BlockChain(new DifficultyRule(0));
+        small.enableTransactionFilter(FALSE_POSITIVE_RATE, 1024);
+        appendBlocks(small, "tx", BLOCKS);
+        for (int i = 0; i < BLOCKS * TRANSACTIONS_PER_BLOCK; i++) {
+            if (!small.isConfirmed("tx-" + i)) {
+                fail("Saturated filter reported confirmed transaction tx-" + i + " unconfirmed");
+            }
+        }
+        System.out.println("Transaction filter answered every lookup correctly");
+    }
+
+    /**
+     * Appends blocks of numbered transactions to a chain, without proof of work.
+     *
+     * @param blockchain The chain to extend.
+     * @param prefix     The prefix of the transactions.
+     * @param count      The number of blocks.
+     * @return The appended blocks.
+     */
+    private List<Block> appendBlocks(BlockChain blockchain, String prefix, int count) {
+        List<Block> blocks = new ArrayList<>();
+        for (int b = 0; b < count; b++) {
+            List<String> transactions = new ArrayList<>();
+            for (int t = 0; t < TRANSACTIONS_PER_BLOCK; t++) {
+                transactions.add(prefix + "-" + (b * TRANSACTIONS_PER_BLOCK + t));
+            }
+            Block block = new Block(blockchain.getLastBlock().getHash(), 0, transactions);
+            blockchain.addBlock(block);
+            blocks.add(block);
+        }
+        return blocks;
+    }
+}
@@ -0,0 +1,73 @@
+package test;
+
+import blockchain.Block;
+import blockchain.MinerNode;
+import blockchain.NetworkMode;
+import blockchain.NodeConfig;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Tests that nodes configured to serve their connections on virtual threads mine and agree on blocks, on virtual
+ * threads from Java 21 and on the cached thread pool they fall back to on older JVMs.
+ */
+public class TestVirtualThreadMode extends Test {
+    private final Integer DIFFICULTY = 4;
+
+    /**
+     * Creates the test with two nodes.
+     */
+    public TestVirtualThreadMode() {
+        NUM_NODES = 2;
+        nodes = new MinerNode[NUM_NODES];
+        threads = new Thread[NUM_NODES];
+        initializePorts();
+    }
+
+    /**
+     * Checks that the mode is available exactly from Java 21, then mines blocks through both nodes and compares their
+     * chains.
+     *
+     * @throws IOException          If there is an I/O error during node communication.
+     * @throws InterruptedException If the thread is interrupted while waiting for blocks.
+     */
+    @Override
+    public void perform() throws IOException, InterruptedException {
+        boolean expected = Runtime.version().feature() >= 21;
+        if (NetworkMode.VIRTUAL_THREADS.isAvailable() != expected) {
+            fail("Virtual threads available: " + NetworkMode.VIRTUAL_THREADS.isAvailable() + " on Java "
+                    + Runtime.version());
+        }
+        if (NetworkMode.VIRTUAL_THREADS.orFallback() != (expected ? NetworkMode.VIRTUAL_THREADS
+                : NetworkMode.THREAD_PER_CONNECTION)) {
+            fail("Unexpected fallback " + NetworkMode.VIRTUAL_THREADS.orFallback());
+        }
+        try {
+            for (int i = 0; i < NUM_NODES; i++) {
+                NodeConfig config = new NodeConfig();
+                config.setNetworkMode(NetworkMode.VIRTUAL_THREADS);
+                nodes[i] = new MinerNode(clientPorts[i], peerPorts[i], peerAddresses, i, DIFFICULTY, config);
+                int finalI = i;
+                threads[i] = new Thread(() -> nodes[finalI].startNode());
+                threads[i].start();
+            }
+            Thread.sleep(1000);
+            for (int i = 1; i <= 3; i++) {
+                broadcastTransaction(String.valueOf(i));
+                Thread.sleep(300);
+            }
+            Thread.sleep(2000);
+            List<Block> referenceChain = fetchChainFromNode(peerAddresses.get(0));
+            validateChainContents(referenceChain, 4);
+            if (!referenceChain.equals(fetchChainFromNode(peerAddresses.get(1)))) {
+                fail("Nodes hold different chains");
+            }
+        } catch (Exception e) {
+            e.printStackTrace(System.err);
+            throw e;
+        } finally {
+            clean();
+        }
+    }
+}